@@ -0,0 +1,32 @@
+package me.mouad;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Lets benchmarks start an in-process {@link ChatServer} whose state lives under a scratch directory.
+ */
+public final class ChatServers {
+
+    private ChatServers() {}
+
+    public static ChatServer start(Path dataDirectory, boolean fsync) throws IOException {
+        // Nothing may land in the shared defaults under the working directory, including the search index
+        System.setProperty("chat.history.dir", dataDirectory.resolve("history").toString());
+        System.setProperty("chat.history.fsync", Boolean.toString(fsync));
+        System.setProperty("chat.files.dir", dataDirectory.resolve("files").toString());
+        System.setProperty("chat.search.dir", dataDirectory.resolve("index").toString());
+        // Stub clients never heartbeat
+        System.setProperty("chat.lease.millis", Long.toString(TimeUnit.DAYS.toMillis(1)));
+        // Benchmarks drive single users far beyond any sensible rate limit
+        System.setProperty("chat.limits.enabled", "false");
+
+        // Keep per-message INFO logging from dominating the measurements
+        Logger.getLogger(ChatServer.class.getName()).setLevel(Level.WARNING);
+
+        return new ChatServer();
+    }
+}
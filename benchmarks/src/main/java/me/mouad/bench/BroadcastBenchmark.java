@@ -0,0 +1,121 @@
+package me.mouad.bench;
+
+import me.mouad.ChatServer;
+import me.mouad.ChatServers;
+import me.mouad.api.Client;
+import me.mouad.api.Server;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.ServerSocket;
+import java.nio.file.Path;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Time from {@code broadcastMessage} until every connected client has received the message.
+ * <p>
+ * {@code SampleTime} reports latency percentiles, {@code Throughput} the sustained fan-out rate.
+ * The {@code rmi} transport goes through a local registry and exported client stubs, {@code direct}
+ * calls the server object in-process to isolate the server's own cost.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class BroadcastBenchmark {
+
+    @Param({"1", "10", "100", "1000"})
+    public int clients;
+
+    @Param({"direct", "rmi"})
+    public String transport;
+
+    @Param({"false"})
+    public boolean fsync;
+
+    private Path dataDirectory;
+    private ChatServer server;
+    private Registry registry;
+    private Server endpoint;
+    private final List<Client> exported = new ArrayList<>();
+    private final AtomicLong delivered = new AtomicLong();
+    private long expected;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dataDirectory = Scratch.directory();
+        server = ChatServers.start(dataDirectory, fsync);
+
+        final boolean rmi = transport.equals("rmi");
+
+        if (rmi) {
+            final int port;
+
+            try (final ServerSocket socket = new ServerSocket(0)) {
+                port = socket.getLocalPort();
+            }
+
+            registry = LocateRegistry.createRegistry(port);
+            registry.rebind("ChatServer", server);
+            endpoint = (Server) LocateRegistry.getRegistry(port).lookup("ChatServer");
+        } else {
+            endpoint = server;
+        }
+
+        for (int i = 0; i < clients; i++) {
+            final CountingClient client = new CountingClient(delivered);
+
+            if (rmi) {
+                exported.add(client);
+                endpoint.register("user-" + i, (Client) UnicastRemoteObject.exportObject(client, 0));
+            } else {
+                endpoint.register("user-" + i, client);
+            }
+        }
+
+        // Each join is announced to everyone connected at that point
+        expected = (long) clients * (clients + 1) / 2;
+        CountingClient.awaitDelivered(delivered, expected);
+    }
+
+    @Benchmark
+    public void fanOut() throws Exception {
+        expected += clients;
+        endpoint.broadcastMessage("user-0", "The quick brown fox jumps over the lazy dog");
+        CountingClient.awaitDelivered(delivered, expected);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        server.shutdown();
+
+        for (Client client : exported) {
+            UnicastRemoteObject.unexportObject(client, true);
+        }
+
+        if (registry != null) {
+            UnicastRemoteObject.unexportObject(registry, true);
+        }
+
+        Scratch.delete(dataDirectory);
+    }
+}
@@ -0,0 +1,97 @@
+package me.mouad.bench;
+
+import me.mouad.transport.FrameCompression;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CPU cost of compressing frame bodies against the bytes it saves, which setup prints per case.
+ * <p>
+ * {@code messages} is a batch of short chat lines, {@code text} a chunk of a text attachment and
+ * {@code media} a chunk of already compressed content, which must be given up on quickly.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompressionBenchmark {
+
+    @Param({"messages", "text", "media"})
+    public String payload;
+
+    @Param({"1", "6"})
+    public int level;
+
+    private FrameCompression compression;
+    private ByteBuffer body;
+    private ByteBuffer compressed;
+    private ByteBuffer inflated;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final Random random = new Random(42);
+        final byte[] bytes = switch (payload) {
+            case "messages" -> lines(random, 64, "user-%d: see you at %d, the build is %s%n");
+            case "text" -> lines(random, 5000, "2026-10-17 INFO request %d served in %d ms by %s%n");
+            case "media" -> {
+                final byte[] noise = new byte[256 * 1024];
+                random.nextBytes(noise);
+                yield noise;
+            }
+            default -> throw new IllegalArgumentException("Unknown payload " + payload);
+        };
+
+        compression = new FrameCompression(level, FrameCompression.DEFAULT_MIN_BYTES, 0);
+        body = ByteBuffer.wrap(bytes);
+
+        final byte[] deflated = compression.compress(body);
+
+        compressed = deflated == null ? null : ByteBuffer.wrap(deflated);
+        inflated = ByteBuffer.allocate(bytes.length);
+
+        System.out.printf("%n%s at level %d: %d bytes -> %s%n", payload, level, bytes.length,
+                deflated == null ? "sent as is" : deflated.length + " bytes");
+    }
+
+    private static byte[] lines(Random random, int count, String format) {
+        final String[] states = {"green", "red", "flaky", "running"};
+        final StringBuilder text = new StringBuilder();
+
+        for (int i = 0; i < count; i++) {
+            text.append(String.format(format, random.nextInt(1000), random.nextInt(100), states[random.nextInt(states.length)]));
+        }
+
+        return text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] compress() {
+        return compression.compress(body);
+    }
+
+    @Benchmark
+    public ByteBuffer inflate() throws IOException {
+        if (compressed == null) return body;
+
+        compression.inflate(compressed.rewind(), inflated.clear());
+        return inflated;
+    }
+}
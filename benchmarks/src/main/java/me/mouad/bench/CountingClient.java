@@ -0,0 +1,40 @@
+package me.mouad.bench;
+
+import me.mouad.api.ChatMessage;
+import me.mouad.api.Client;
+import me.mouad.api.HistoryPage;
+import me.mouad.api.PresenceUpdate;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Headless {@link Client} that only counts what it is sent.
+ */
+public final class CountingClient implements Client {
+
+    private final AtomicLong delivered;
+
+    public CountingClient(AtomicLong delivered) {
+        this.delivered = delivered;
+    }
+
+    @Override
+    public void receiveMessages(List<ChatMessage> messages) {
+        delivered.addAndGet(messages.size());
+    }
+
+    @Override
+    public void updatePresence(PresenceUpdate update) {
+    }
+
+    @Override
+    public void receiveHistory(HistoryPage page) {
+    }
+
+    static void awaitDelivered(AtomicLong delivered, long target) {
+        while (delivered.get() < target) {
+            Thread.onSpinWait();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package me.mouad.bench;
+
+import me.mouad.ChatServer;
+import me.mouad.ChatServers;
+import me.mouad.api.FileReference;
+import me.mouad.api.Server;
+import me.mouad.files.FileTransfers;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cost of sharing a file: the chunked upload plus reference fan-out, and every client pulling
+ * the content back concurrently.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class FileBroadcastBenchmark {
+
+    @Param({"65536", "1048576", "16777216"})
+    public int fileBytes;
+
+    @Param({"10", "100"})
+    public int clients;
+
+    private Path dataDirectory;
+    private Path file;
+    private ChatServer server;
+    private FileReference shared;
+    private final AtomicLong delivered = new AtomicLong();
+    private long expected;
+    private long revision;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dataDirectory = Scratch.directory();
+        server = ChatServers.start(dataDirectory, false);
+
+        final byte[] content = new byte[fileBytes];
+        new Random(42).nextBytes(content);
+        file = Files.write(dataDirectory.resolve("upload.bin"), content);
+
+        for (int i = 0; i < clients; i++) {
+            server.register("user-" + i, new CountingClient(delivered));
+        }
+
+        expected = (long) clients * (clients + 1) / 2;
+        CountingClient.awaitDelivered(delivered, expected);
+
+        shared = upload();
+    }
+
+    @Benchmark
+    public FileReference uploadAndBroadcast() throws Exception {
+        // New content every time, otherwise the store deduplicates after the first upload
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(Long.BYTES).putLong(0, ++revision), 0);
+        }
+
+        return upload();
+    }
+
+    @Benchmark
+    public long downloadByEveryClient() throws Exception {
+        final List<Thread> downloads = new ArrayList<>(clients);
+        final AtomicLong bytes = new AtomicLong();
+
+        for (int i = 0; i < clients; i++) {
+            downloads.add(Thread.ofVirtual().start(() -> {
+                long offset = 0;
+
+                try {
+                    while (offset < shared.size()) {
+                        offset += server.downloadChunk(shared.fileId(), offset, FileTransfers.CHUNK_BYTES).length;
+                    }
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+
+                bytes.addAndGet(offset);
+            }));
+        }
+
+        for (Thread download : downloads) {
+            download.join();
+        }
+
+        return bytes.get();
+    }
+
+    private FileReference upload() throws Exception {
+        expected += clients;
+
+        final FileReference reference = FileTransfers.upload(server, "user-0", Server.DEFAULT_ROOM, file);
+
+        CountingClient.awaitDelivered(delivered, expected);
+        return reference;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        server.shutdown();
+        Scratch.delete(dataDirectory);
+    }
+}
@@ -0,0 +1,87 @@
+package me.mouad.bench;
+
+import me.mouad.history.LogRecord;
+import me.mouad.history.MessageLog;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Startup recovery and page reads against logs of increasing size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class HistoryBenchmark {
+
+    private static final int PAGE_SIZE = 50;
+
+    @Param({"10000", "100000", "1000000"})
+    public int messages;
+
+    @Param({"64", "512"})
+    public int payloadBytes;
+
+    private Path dataDirectory;
+    private MessageLog log;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dataDirectory = Scratch.directory();
+
+        final byte[] payload = new byte[payloadBytes];
+
+        try (final MessageLog writer = new MessageLog(dataDirectory, MessageLog.DEFAULT_SEGMENT_BYTES, false)) {
+            CompletableFuture<LogRecord> last = null;
+
+            for (int i = 0; i < messages; i++) {
+                last = writer.append(payload);
+            }
+
+            last.join();
+        }
+
+        log = new MessageLog(dataDirectory, MessageLog.DEFAULT_SEGMENT_BYTES, false);
+    }
+
+    @Benchmark
+    public long recover() throws Exception {
+        try (final MessageLog recovered = new MessageLog(dataDirectory, MessageLog.DEFAULT_SEGMENT_BYTES, false)) {
+            return recovered.lastSequence();
+        }
+    }
+
+    @Benchmark
+    public List<LogRecord> readLatestPage() {
+        return log.read(log.lastSequence() - PAGE_SIZE + 1, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public List<LogRecord> readOldestPage() {
+        return log.read(log.firstSequence(), PAGE_SIZE);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        log.close();
+        Scratch.delete(dataDirectory);
+    }
+}
@@ -0,0 +1,46 @@
+package me.mouad.load;
+
+/**
+ * Shape of a load run. Rates are totals across all simulated clients, in events per second.
+ *
+ * @param transport     {@code direct} calls the server in-process, {@code rmi} and {@code nio} go
+ *                      through the loopback interface like real clients
+ * @param rooms         rooms besides the default one; every client sends to a home room
+ * @param messageBytes  size of each chat message, timestamp included
+ * @param churnRate     joins or leaves of a random extra room
+ * @param warmupSeconds run before measuring, so the JIT and the caches settle
+ */
+record LoadConfig(String transport, int clients, int rooms, double messageRate, int messageBytes,
+                  double fileRate, int fileBytes, double churnRate, int warmupSeconds, int durationSeconds,
+                  int reportSeconds, boolean fsync) {
+
+    /**
+     * Reads the {@code chat.load.*} properties named after the components, e.g.
+     * {@code chat.load.clients} or {@code chat.load.messageRate}.
+     */
+    static LoadConfig fromSystemProperties() {
+        final LoadConfig config = new LoadConfig(
+                System.getProperty("chat.load.transport", "direct"),
+                Integer.getInteger("chat.load.clients", 1000),
+                Integer.getInteger("chat.load.rooms", 50),
+                Double.parseDouble(System.getProperty("chat.load.messageRate", "2000")),
+                Integer.getInteger("chat.load.messageBytes", 128),
+                Double.parseDouble(System.getProperty("chat.load.fileRate", "2")),
+                Integer.getInteger("chat.load.fileBytes", 256 * 1024),
+                Double.parseDouble(System.getProperty("chat.load.churnRate", "20")),
+                Integer.getInteger("chat.load.warmupSeconds", 10),
+                Integer.getInteger("chat.load.durationSeconds", 60),
+                Integer.getInteger("chat.load.reportSeconds", 5),
+                Boolean.getBoolean("chat.load.fsync"));
+
+        if (!config.transport.equals("direct") && !config.transport.equals("rmi") && !config.transport.equals("nio")) {
+            throw new IllegalArgumentException("Unknown transport " + config.transport + ", use direct, rmi or nio");
+        }
+
+        if (config.clients <= 0 || config.rooms <= 0 || config.messageBytes < 32) {
+            throw new IllegalArgumentException("Need at least one client and one room, and messages of 32 bytes or more");
+        }
+
+        return config;
+    }
+}
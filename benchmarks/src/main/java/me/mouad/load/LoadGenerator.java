@@ -0,0 +1,471 @@
+package me.mouad.load;
+
+import me.mouad.ChatServer;
+import me.mouad.ChatServers;
+import me.mouad.api.Client;
+import me.mouad.api.HistoryPage;
+import me.mouad.api.Server;
+import me.mouad.files.FileTransfers;
+import me.mouad.metrics.LatencyHistogram;
+import me.mouad.transport.BufferPool;
+import me.mouad.transport.FrameCompression;
+import me.mouad.transport.NioServer;
+import me.mouad.transport.NioServerStub;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+/**
+ * Drives an in-process {@link ChatServer} with thousands of {@link SimulatedClient}s, each on its
+ * own virtual thread, and reports delivery latency percentiles, throughput and message loss.
+ * <p>
+ * Messages and uploads are sent at exponentially distributed intervals on an open-loop schedule:
+ * latency counts from the time a message was due, so a server that falls behind is charged for
+ * the backlog instead of silently slowing the senders down. Every client sends to its home room
+ * and is a member of the default one, while churn makes random clients join and leave the other
+ * rooms. Configured through {@link LoadConfig#fromSystemProperties()}:
+ * <pre>
+ * java -Dchat.load.clients=5000 -Dchat.load.messageRate=10000 -Dchat.load.transport=nio \
+ *      -cp benchmarks.jar me.mouad.load.LoadGenerator
+ * </pre>
+ * Each registration is announced in the default room, so connecting {@code n} clients alone
+ * delivers about {@code n²/2} messages before the measurement starts.
+ */
+public final class LoadGenerator {
+
+    private static final String DEFAULT_ROOM = Server.DEFAULT_ROOM;
+    private static final long DRAIN_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private record Connection(SimulatedClient client, Server endpoint, String homeRoom, Set<String> extraRooms) {}
+
+    private final LoadConfig config;
+    private final ChatServer server;
+    private final Path directory;
+    private final List<Connection> connections = new ArrayList<>();
+    private final List<Closeable> resources = new ArrayList<>();
+
+    private volatile LoadStats stats = new LoadStats();
+
+    private LoadGenerator(LoadConfig config, ChatServer server, Path directory) {
+        this.config = config;
+        this.server = server;
+        this.directory = directory;
+    }
+
+    public static void main(String[] args) throws Exception {
+        final LoadConfig config = LoadConfig.fromSystemProperties();
+        final Path directory = Files.createTempDirectory("chat-load");
+        final LoadGenerator generator = new LoadGenerator(config, ChatServers.start(directory.resolve("server"), config.fsync()), directory);
+
+        try {
+            generator.connect();
+            generator.run();
+        } finally {
+            generator.close();
+            delete(directory);
+        }
+
+        // RMI keeps non-daemon threads around
+        System.exit(0);
+    }
+
+    private void connect() throws Exception {
+        final long start = System.nanoTime();
+        final Server shared = switch (config.transport()) {
+            case "rmi" -> {
+                final int port = freePort();
+                final Registry registry = LocateRegistry.createRegistry(port);
+
+                registry.rebind("ChatServer", server);
+                resources.add(() -> UnicastRemoteObject.unexportObject(registry, true));
+                yield (Server) LocateRegistry.getRegistry(port).lookup("ChatServer");
+            }
+            case "nio" -> null;
+            default -> server;
+        };
+        final InetSocketAddress nioAddress = shared == null ? new InetSocketAddress("localhost", freePort()) : null;
+
+        if (nioAddress != null) {
+            final NioServer nioServer = new NioServer(server, server::disconnectSession, nioAddress,
+                    BufferPool.fromSystemProperties(), FrameCompression.fromSystemProperties());
+
+            resources.add(nioServer::close);
+        }
+
+        for (int i = 0; i < config.clients(); i++) {
+            final SimulatedClient client = new SimulatedClient("load-" + i, () -> stats);
+            final Server endpoint;
+
+            if (nioAddress != null) {
+                final NioServerStub stub = NioServerStub.connect(nioAddress, BufferPool.fromSystemProperties(), FrameCompression.fromSystemProperties());
+
+                resources.add(stub);
+                endpoint = stub;
+            } else {
+                endpoint = shared;
+            }
+
+            connections.add(new Connection(client, endpoint, "room-" + (i % config.rooms()), new HashSet<>()));
+        }
+
+        try (final ExecutorService registrations = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (Connection connection : connections) {
+                registrations.submit(() -> {
+                    final SimulatedClient client = connection.client();
+
+                    client.joining(DEFAULT_ROOM);
+                    connection.endpoint().register(client.username(), export(client));
+                    client.joining(connection.homeRoom());
+                    connection.endpoint().joinRoom(client.username(), connection.homeRoom());
+                    return null;
+                });
+            }
+        }
+
+        System.out.printf("Connected %d clients over %s in %.1f s%n", connections.size(), config.transport(),
+                (System.nanoTime() - start) / 1e9);
+    }
+
+    private Client export(SimulatedClient client) throws RemoteException {
+        if (!config.transport().equals("rmi")) return client;
+
+        final Client stub = (Client) UnicastRemoteObject.exportObject(client, 0);
+
+        resources.add(() -> UnicastRemoteObject.unexportObject(client, true));
+        return stub;
+    }
+
+    private void run() throws Exception {
+        final long start = System.nanoTime();
+        final long measureAt = start + TimeUnit.SECONDS.toNanos(config.warmupSeconds());
+        final long stopAt = measureAt + TimeUnit.SECONDS.toNanos(config.durationSeconds());
+        final List<Thread> drivers = new ArrayList<>(connections.size() + 1);
+
+        for (Connection connection : connections) {
+            drivers.add(Thread.ofVirtual().name("driver-" + connection.client().username()).start(() -> drive(connection, start, stopAt)));
+        }
+
+        if (config.churnRate() > 0) {
+            drivers.add(Thread.ofVirtual().name("churn").start(() -> churn(start, stopAt)));
+        }
+
+        final Thread reporter = Thread.ofPlatform().name("load-reporter").daemon().start(() -> report(measureAt));
+
+        if (config.warmupSeconds() > 0) {
+            sleepUntil(measureAt);
+            stats = new LoadStats();
+            System.out.println("Warmup done, measuring");
+        }
+
+        for (Thread driver : drivers) {
+            driver.join();
+        }
+
+        stats.stop();
+        reporter.interrupt();
+        drain();
+        countTailLosses();
+        summarize();
+    }
+
+    /**
+     * Sends the messages and uploads of one client until {@code stopAt}.
+     */
+    private void drive(Connection connection, long start, long stopAt) {
+        final double messageInterval = config.messageRate() > 0 ? config.clients() * 1e9 / config.messageRate() : Double.POSITIVE_INFINITY;
+        final double fileInterval = config.fileRate() > 0 ? config.clients() * 1e9 / config.fileRate() : Double.POSITIVE_INFINITY;
+        final Path file = directory.resolve(connection.client().username() + ".bin");
+        double nextMessage = start + nextInterval(messageInterval);
+        double nextFile = start + nextInterval(fileInterval);
+        long uploads = 0;
+
+        try {
+            if (fileInterval != Double.POSITIVE_INFINITY) {
+                final byte[] content = new byte[config.fileBytes()];
+
+                ThreadLocalRandom.current().nextBytes(content);
+                Files.write(file, content);
+            }
+
+            while (Math.min(nextMessage, nextFile) < stopAt) {
+                if (nextMessage <= nextFile) {
+                    final long due = (long) nextMessage;
+
+                    sleepUntil(due);
+                    send(connection, due);
+                    nextMessage += nextInterval(messageInterval);
+                } else {
+                    final long due = (long) nextFile;
+
+                    sleepUntil(due);
+                    upload(connection, file, due, ++uploads);
+                    nextFile += nextInterval(fileInterval);
+                }
+            }
+        } catch (IOException e) {
+            stats.failures.increment();
+        }
+    }
+
+    private void send(Connection connection, long due) {
+        final StringBuilder message = new StringBuilder(config.messageBytes())
+                .append(SimulatedClient.PREFIX).append(due).append(' ');
+
+        while (message.length() < config.messageBytes()) {
+            message.append('x');
+        }
+
+        try {
+            connection.endpoint().sendMessage(connection.client().username(), connection.homeRoom(), message.toString());
+            stats.sent.increment();
+        } catch (RemoteException e) {
+            stats.failures.increment();
+        }
+    }
+
+    private void upload(Connection connection, Path file, long due, long count) throws IOException {
+        // Distinct content every time, or the store would deduplicate all but the first upload
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(Long.BYTES).putLong(count).flip(), 0);
+        }
+
+        try {
+            FileTransfers.upload(connection.endpoint(), connection.client().username(), connection.homeRoom(), file);
+
+            final LoadStats current = stats;
+
+            current.upload.record(System.nanoTime() - due);
+            current.uploads.increment();
+            current.uploadedBytes.add(config.fileBytes());
+        } catch (IOException e) {
+            stats.failures.increment();
+        }
+    }
+
+    /**
+     * Makes random clients join or leave a random room other than their home one.
+     */
+    private void churn(long start, long stopAt) {
+        final double interval = 1e9 / config.churnRate();
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        // Leaves are drawn from the clients that joined other rooms, so they keep up with the joins
+        final List<Connection> churned = new ArrayList<>();
+
+        for (double next = start + nextInterval(interval); next < stopAt; next += nextInterval(interval)) {
+            sleepUntil((long) next);
+
+            final boolean leave = !churned.isEmpty() && random.nextBoolean();
+            final Connection connection = leave
+                    ? churned.get(random.nextInt(churned.size()))
+                    : connections.get(random.nextInt(connections.size()));
+            final Set<String> extraRooms = connection.extraRooms();
+            final String room = leave
+                    ? extraRooms.stream().skip(random.nextInt(extraRooms.size())).findFirst().orElseThrow()
+                    : "room-" + random.nextInt(config.rooms());
+            final SimulatedClient client = connection.client();
+
+            if (!leave && (room.equals(connection.homeRoom()) || extraRooms.contains(room))) continue;
+
+            try {
+                if (leave) {
+                    extraRooms.remove(room);
+
+                    if (extraRooms.isEmpty()) {
+                        churned.remove(connection);
+                    }
+
+                    client.left(room);
+                    connection.endpoint().leaveRoom(client.username(), room);
+                    stats.leaves.increment();
+                } else {
+                    if (extraRooms.isEmpty()) {
+                        churned.add(connection);
+                    }
+
+                    extraRooms.add(room);
+                    client.joining(room);
+                    connection.endpoint().joinRoom(client.username(), room);
+                    stats.joins.increment();
+                }
+            } catch (RemoteException e) {
+                stats.failures.increment();
+            }
+        }
+    }
+
+    private static double nextInterval(double mean) {
+        return mean == Double.POSITIVE_INFINITY ? mean : -Math.log(1 - ThreadLocalRandom.current().nextDouble()) * mean;
+    }
+
+    private static void sleepUntil(long nanos) {
+        for (long remaining = nanos - System.nanoTime(); remaining > 0; remaining = nanos - System.nanoTime()) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    private void report(long measureAt) {
+        LoadStats previous = stats;
+        long lastSent = 0;
+        long lastDelivered = 0;
+
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Thread.sleep(TimeUnit.SECONDS.toMillis(config.reportSeconds()));
+            } catch (InterruptedException e) {
+                return ;
+            }
+
+            final LoadStats current = stats;
+
+            if (current != previous) {
+                // The warmup ended since the last report, its counters are gone
+                previous = current;
+                lastSent = 0;
+                lastDelivered = 0;
+            }
+
+            final long sent = current.sent.sum();
+            final long delivered = current.delivered.sum();
+            final LatencyHistogram.Snapshot latency = current.delivery.snapshot();
+
+            System.out.printf("%s%6.0f sent/s %9.0f delivered/s  p50 %s  p99 %s  lost %d%n", System.nanoTime() < measureAt ? "[warmup] " : "",
+                    (sent - lastSent) / (double) config.reportSeconds(), (delivered - lastDelivered) / (double) config.reportSeconds(),
+                    millis(latency.p50()), millis(latency.p99()), current.lost.sum());
+
+            lastSent = sent;
+            lastDelivered = delivered;
+        }
+    }
+
+    /**
+     * Waits for the deliveries still queued once the senders stopped.
+     */
+    private void drain() throws InterruptedException {
+        final long deadline = System.nanoTime() + DRAIN_TIMEOUT_NANOS;
+        long delivered = -1;
+
+        while (stats.delivered.sum() != delivered && System.nanoTime() < deadline) {
+            delivered = stats.delivered.sum();
+            Thread.sleep(500);
+        }
+    }
+
+    /**
+     * Counts as lost the messages a member never got at the end of its rooms, which no later
+     * message could reveal as a gap.
+     */
+    private void countTailLosses() throws RemoteException {
+        final Map<String, Long> roomSequences = new HashMap<>();
+
+        for (Connection connection : connections) {
+            connection.client().lastSequences().forEach((room, last) -> {
+                if (last == 0) return ;
+
+                final long roomLast = roomSequences.computeIfAbsent(room, this::lastSequence);
+
+                if (roomLast > last) {
+                    stats.lost.add(roomLast - last);
+                }
+            });
+        }
+    }
+
+    private long lastSequence(String room) {
+        try {
+            final HistoryPage page = server.fetchHistory(room, HistoryPage.LATEST, 1);
+
+            return page.messages().isEmpty() ? 0 : page.messages().getLast().sequence();
+        } catch (RemoteException e) {
+            return 0;
+        }
+    }
+
+    private void summarize() {
+        final LoadStats current = stats;
+        final double seconds = current.elapsedSeconds();
+        final long delivered = current.delivered.sum();
+        final long lost = current.lost.sum();
+        int evicted = 0;
+
+        for (Connection connection : connections) {
+            try {
+                server.heartbeat(connection.client().username());
+            } catch (RemoteException e) {
+                evicted++;
+            }
+        }
+
+        final LatencyHistogram.Snapshot latency = current.delivery.snapshot();
+        final LatencyHistogram.Snapshot upload = current.upload.snapshot();
+
+        System.out.printf("%n%d clients over %s, %d rooms, measured for %.1f s%n", connections.size(), config.transport(), config.rooms(), seconds);
+        System.out.printf("Sent       %d messages (%.0f/s), %d uploads (%.1f/s, %.1f MiB)%n", current.sent.sum(), current.sent.sum() / seconds,
+                current.uploads.sum(), current.uploads.sum() / seconds, current.uploadedBytes.sum() / (1024.0 * 1024));
+        System.out.printf("Delivered  %d messages (%.0f/s)%n", delivered, delivered / seconds);
+        System.out.printf("Latency    p50 %s  p90 %s  p99 %s  p99.9 %s  max %s%n", millis(latency.p50()), millis(latency.p90()),
+                millis(latency.p99()), millis(latency.p999()), millis(latency.maxMicros()));
+
+        if (upload.count() > 0) {
+            System.out.printf("Uploads    p50 %s  p99 %s  max %s%n", millis(upload.p50()), millis(upload.p99()), millis(upload.maxMicros()));
+        }
+
+        System.out.printf("Lost       %d (%.4f%%), %d duplicated, %d clients evicted, %d failed calls%n", lost,
+                delivered + lost == 0 ? 0.0 : 100.0 * lost / (delivered + lost), current.duplicated.sum(), evicted, current.failures.sum());
+        System.out.printf("Churn      %d joins, %d leaves%n", current.joins.sum(), current.leaves.sum());
+    }
+
+    private static String millis(double micros) {
+        return String.format("%.2f ms", micros / 1000);
+    }
+
+    private void close() throws IOException {
+        // Clients go first, or their departures would be posted to closed logs
+        for (Closeable resource : resources.reversed()) {
+            try {
+                resource.close();
+            } catch (IOException e) {
+                // Nothing left to measure
+            }
+        }
+
+        server.shutdown();
+    }
+
+    private static int freePort() throws IOException {
+        try (final ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (final Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package me.mouad.load;
+
+import me.mouad.metrics.LatencyHistogram;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of one measurement window; a fresh instance is swapped in when the warmup ends.
+ */
+final class LoadStats {
+
+    final long startNanos = System.nanoTime();
+
+    /** From the time a message was scheduled to be sent until a recipient got it. */
+    final LatencyHistogram delivery = new LatencyHistogram();
+    /** From the time an upload was scheduled until it was posted. */
+    final LatencyHistogram upload = new LatencyHistogram();
+
+    final LongAdder sent = new LongAdder();
+    final LongAdder delivered = new LongAdder();
+    final LongAdder lost = new LongAdder();
+    final LongAdder duplicated = new LongAdder();
+    final LongAdder uploads = new LongAdder();
+    final LongAdder uploadedBytes = new LongAdder();
+    final LongAdder joins = new LongAdder();
+    final LongAdder leaves = new LongAdder();
+    final LongAdder failures = new LongAdder();
+
+    private volatile long stopNanos;
+
+    /**
+     * Ends the window once the senders stop; deliveries still in flight keep being counted.
+     */
+    void stop() {
+        stopNanos = System.nanoTime();
+    }
+
+    double elapsedSeconds() {
+        final long stop = stopNanos;
+
+        return ((stop != 0 ? stop : System.nanoTime()) - startNanos) / 1e9;
+    }
+}
@@ -0,0 +1,101 @@
+package me.mouad.load;
+
+import me.mouad.api.ChatMessage;
+import me.mouad.api.Client;
+import me.mouad.api.HistoryPage;
+import me.mouad.api.PresenceUpdate;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Headless {@link Client} that checks what it is sent instead of rendering it.
+ * <p>
+ * A member of a room gets every message of that room, whose sequences are contiguous, so a gap
+ * between two sequences it received is a lost message and a repeated one a duplicate. Messages
+ * the generator sent carry the time they were scheduled at, from which the delivery latency is
+ * recorded.
+ */
+final class SimulatedClient implements Client {
+
+    static final String PREFIX = "load:";
+
+    private final String username;
+    private final Supplier<LoadStats> stats;
+
+    // Last sequence received per joined room, 0 until the first live message after joining
+    private final Map<String, Long> lastSequences = new HashMap<>();
+
+    SimulatedClient(String username, Supplier<LoadStats> stats) {
+        this.username = username;
+        this.stats = stats;
+    }
+
+    String username() {
+        return username;
+    }
+
+    @Override
+    public void receiveMessages(List<ChatMessage> messages) {
+        final LoadStats current = stats.get();
+        final long now = System.nanoTime();
+
+        synchronized (this) {
+            for (ChatMessage message : messages) {
+                final Long last = lastSequences.get(message.room());
+
+                // Late deliveries to a room that was just left
+                if (last == null) continue;
+
+                if (message.sequence() <= last) {
+                    current.duplicated.increment();
+                    continue;
+                }
+
+                if (last != 0 && message.sequence() > last + 1) {
+                    current.lost.add(message.sequence() - last - 1);
+                }
+
+                lastSequences.put(message.room(), message.sequence());
+            }
+        }
+
+        for (ChatMessage message : messages) {
+            current.delivered.increment();
+
+            if (message.content().startsWith(PREFIX)) {
+                final int end = message.content().indexOf(' ', PREFIX.length());
+
+                current.delivery.record(now - Long.parseLong(message.content(), PREFIX.length(), end, 10));
+            }
+        }
+    }
+
+    @Override
+    public void updatePresence(PresenceUpdate update) {
+    }
+
+    @Override
+    public void receiveHistory(HistoryPage page) {
+    }
+
+    /**
+     * Called before joining {@code room}, so its first live message starts the tracking.
+     */
+    synchronized void joining(String room) {
+        lastSequences.put(room, 0L);
+    }
+
+    synchronized void left(String room) {
+        lastSequences.remove(room);
+    }
+
+    /**
+     * @return the last sequence received in each joined room
+     */
+    synchronized Map<String, Long> lastSequences() {
+        return Map.copyOf(lastSequences);
+    }
+}
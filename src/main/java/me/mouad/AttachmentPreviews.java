@@ -0,0 +1,178 @@
+package me.mouad;
+
+import me.mouad.api.ChatMessage;
+import me.mouad.api.FileReference;
+import me.mouad.api.Server;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.swing.text.html.HTMLDocument;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * Inline previews of image attachments.
+ * <p>
+ * Only the thumbnail the server generated is fetched, and it is decoded on a virtual thread: the
+ * HTML views get the decoded image through their document's image cache, so the EDT never decodes
+ * anything. The full file is only downloaded when the preview or its link is opened.
+ */
+final class AttachmentPreviews {
+
+    private static final long LOAD_TIMEOUT_MILLIS = 2000;
+    private static final int MAX_DECODED = Integer.getInteger("chat.view.maxPreviews", 256);
+
+    private static final Set<String> IMAGE_SUFFIXES = Arrays.stream(ImageIO.getReaderFileSuffixes())
+            .map(suffix -> suffix.toLowerCase(Locale.ROOT))
+            .collect(Collectors.toUnmodifiableSet());
+
+    private record Preview(URL url, int width, int height) {}
+
+    private static final Preview NONE = new Preview(null, 0, 0);
+
+    /**
+     * The cache {@code ImageView} consults instead of loading an image itself. Previews evicted
+     * from memory are reloaded from their copy on disk, asynchronously like any HTML image.
+     */
+    private static final class DecodedImages extends Hashtable<URL, Image> {
+
+        private final Queue<URL> order = new ArrayDeque<>();
+
+        @Override
+        public synchronized Image get(Object url) {
+            final Image image = super.get(url);
+
+            return image != null ? image : Toolkit.getDefaultToolkit().createImage((URL) url);
+        }
+
+        synchronized void add(URL url, Image image) {
+            if (put(url, image) == null) {
+                order.add(url);
+            }
+
+            while (order.size() > MAX_DECODED) {
+                remove(order.remove());
+            }
+        }
+    }
+
+    private final Server server;
+    private final Path directory;
+    private final DecodedImages images = new DecodedImages();
+    private final Map<String, CompletableFuture<Preview>> previews = new ConcurrentHashMap<>();
+
+    private static final Logger logger = Logger.getLogger(AttachmentPreviews.class.getName());
+
+    AttachmentPreviews(Server server, Path directory) {
+        this.server = server;
+        this.directory = directory;
+    }
+
+    /**
+     * Lets the image views of {@code document} display the previews.
+     */
+    void register(HTMLDocument document) {
+        document.putProperty("imageCache", images);
+    }
+
+    /**
+     * Fetches and decodes the previews of {@code files} in the background.
+     *
+     * @return a future completed once they are all available to {@link #html(FileReference, String)}, or
+     * after a short timeout; it never completes exceptionally
+     */
+    CompletableFuture<Void> load(Collection<FileReference> files) {
+        final CompletableFuture<?>[] loads = files.stream()
+                .filter(AttachmentPreviews::isImage)
+                .map(file -> previews.computeIfAbsent(file.fileId(), this::fetch))
+                .filter(preview -> !preview.isDone())
+                .toArray(CompletableFuture[]::new);
+
+        if (loads.length == 0) return CompletableFuture.completedFuture(null);
+
+        return CompletableFuture.allOf(loads)
+                .exceptionally(_ -> null)
+                .completeOnTimeout(null, LOAD_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the inline preview of {@code file}, linking to {@code link}, or an empty string if it
+     * is not loaded or not an image
+     */
+    String html(FileReference file, String link) {
+        final CompletableFuture<Preview> loaded = previews.get(file.fileId());
+        final Preview preview = loaded == null ? NONE : loaded.getNow(NONE);
+
+        if (preview == NONE) return "";
+
+        return "<br><a href='" + link + "'><img src='" + preview.url() + "' width='" + preview.width()
+                + "' height='" + preview.height() + "' border='0'></a>";
+    }
+
+    static List<FileReference> attachments(List<ChatMessage> messages) {
+        return messages.stream().map(ChatMessage::attachment).filter(Objects::nonNull).toList();
+    }
+
+    private CompletableFuture<Preview> fetch(String fileId) {
+        final CompletableFuture<Preview> preview = new CompletableFuture<>();
+
+        Thread.ofVirtual().name("preview-" + fileId).start(() -> {
+            try {
+                preview.complete(decode(fileId, server.fetchThumbnail(fileId)));
+            } catch (IOException | RuntimeException e) {
+                logger.log(Level.WARNING, "Unable to load the preview of " + fileId, e);
+
+                // Forgotten so the next rendering of the file tries again
+                previews.remove(fileId, preview);
+                preview.completeExceptionally(e);
+            }
+        });
+
+        return preview;
+    }
+
+    private Preview decode(String fileId, byte[] thumbnail) throws IOException {
+        if (thumbnail.length == 0) return NONE;
+
+        final BufferedImage image = ImageIO.read(new MemoryCacheImageInputStream(new ByteArrayInputStream(thumbnail)));
+
+        if (image == null) return NONE;
+
+        final Path file = Files.createDirectories(directory).resolve(fileId);
+
+        Files.write(file, thumbnail);
+
+        final URL url = file.toUri().toURL();
+
+        images.add(url, image);
+        return new Preview(url, image.getWidth(), image.getHeight());
+    }
+
+    private static boolean isImage(FileReference file) {
+        final String name = file.fileName();
+        final int dot = name.lastIndexOf('.');
+
+        return dot >= 0 && IMAGE_SUFFIXES.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+}
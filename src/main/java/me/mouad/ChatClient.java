@@ -1,11 +1,18 @@
 package me.mouad;
 
+import me.mouad.api.ChatMessage;
 import me.mouad.api.Client;
+import me.mouad.api.HistoryPage;
+import me.mouad.api.PresenceUpdate;
 import me.mouad.api.Server;
+import me.mouad.logging.AsyncLogHandler;
+import me.mouad.transport.BufferPool;
+import me.mouad.transport.FrameCompression;
+import me.mouad.transport.NioServerStub;
 
 import javax.swing.*;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.server.UnicastRemoteObject;
@@ -15,9 +22,16 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.logging.SimpleFormatter;
 
-public class ChatClient extends UnicastRemoteObject implements Client {
+/**
+ * Receives server callbacks for a {@link ChatView}. Over RMI it is exported as a remote object;
+ * over the NIO transport it is called directly by the connection's reader thread.
+ */
+public class ChatClient implements Client {
 
     private final ChatView view;
+    private final ScrollbackCache cache;
+
+    private static final long HEARTBEAT_RETRY_MILLIS = 1000;
 
     private static final Logger logger = Logger.getLogger(ChatClient.class.getName());
 
@@ -27,42 +41,91 @@ public class ChatClient extends UnicastRemoteObject implements Client {
 
             fileHandler.setFormatter(new SimpleFormatter());
 
-            logger.addHandler(fileHandler);
-            logger.setLevel(Level.ALL);
+            logger.addHandler(new AsyncLogHandler(fileHandler));
+            logger.setLevel(Level.parse(System.getProperty("chat.log.level", "INFO")));
         } catch (IOException e) {
             logger.log(Level.SEVERE, "Failed to initialize logger", e);
         }
     }
 
-    protected ChatClient(ChatView view) throws RemoteException {
+    protected ChatClient(ChatView view, ScrollbackCache cache) {
         this.view = view;
+        this.cache = cache;
     }
 
     @Override
-    public void receiveMessage(String sender, String message) throws RemoteException {
-        view.appendMessage(sender, message);
+    public void receiveMessages(List<ChatMessage> messages) throws RemoteException {
+        cache.append(messages);
+        view.appendMessages(messages);
     }
 
     @Override
-    public void receiveFile(String sender, byte[] fileData, String fileName) throws RemoteException {
-        try {
-            final String filePath = System.getProperty("java.io.tmpdir") + fileName;
-            final FileOutputStream fos = new FileOutputStream(filePath);
+    public void updatePresence(PresenceUpdate update) throws RemoteException {
+        this.view.applyPresence(update);
+    }
 
-            fos.write(fileData);
-            fos.close();
+    @Override
+    public void receiveHistory(HistoryPage page) throws RemoteException {
+        // Only sent on join, when the cached history could not be brought up to date
+        cache.replace(page.room(), page.messages());
+        view.prependHistory(page);
+    }
 
-            view.appendFileLink(sender, fileName, filePath);
-        } catch (IOException e) {
-            logger.log(Level.SEVERE, "Failed to receive file: " + fileName, e);
+
+    /**
+     * Renews the session lease at a third of its duration, so two heartbeats can be lost before
+     * the server evicts this client.
+     */
+    private static void startHeartbeat(Server server, String username) {
+        Thread.ofVirtual().name("heartbeat").start(() -> {
+            long intervalMillis = HEARTBEAT_RETRY_MILLIS;
+
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    intervalMillis = Math.max(HEARTBEAT_RETRY_MILLIS, server.heartbeat(username) / 3);
+                } catch (RemoteException e) {
+                    logger.log(Level.WARNING, "Heartbeat failed", e);
+                    intervalMillis = HEARTBEAT_RETRY_MILLIS;
+                }
+
+                try {
+                    Thread.sleep(intervalMillis);
+                } catch (InterruptedException e) {
+                    return ;
+                }
+            }
+        });
+    }
+
+    /**
+     * Connects with the transport chosen by {@code chat.transport}, {@code rmi} (the default) or {@code nio}.
+     */
+    private static Server connect() throws Exception {
+        // Any node of a cluster can be used, each one serves every room
+        final String host = serverHost();
+
+        if (usesNio()) {
+            return NioServerStub.connect(new InetSocketAddress(host, serverPort()),
+                    BufferPool.fromSystemProperties(), FrameCompression.fromSystemProperties());
         }
+
+        return (Server) LocateRegistry.getRegistry(host, serverPort()).lookup("ChatServer");
     }
 
-    @Override
-    public void updateConnectedUsersList(List<String> users) throws RemoteException {
-        this.view.updateConnectedUsersList(users);
+    private static boolean usesNio() {
+        return System.getProperty("chat.transport", "rmi").equals("nio");
+    }
+
+    private static String serverHost() {
+        return System.getProperty("chat.server.host", "localhost");
     }
 
+    /**
+     * @return {@code chat.nio.port} or {@code chat.server.port}, whichever the chosen transport connects to
+     */
+    private static int serverPort() {
+        return usesNio() ? Integer.getInteger("chat.nio.port", 1100) : Integer.getInteger("chat.server.port", 1099);
+    }
 
     public static void main(String[] args) {
         SwingUtilities.invokeLater(() -> {
@@ -74,12 +137,17 @@ public class ChatClient extends UnicastRemoteObject implements Client {
             }
 
             try {
-                final Server server = (Server) LocateRegistry.getRegistry().lookup("ChatServer");
-                final ChatView chatView = new ChatView(server, username);
-                final Client client = new ChatClient(chatView);
+                final Server server = connect();
+                final ScrollbackCache cache = ScrollbackCache.fromSystemProperties(serverHost() + "_" + serverPort(), username);
+                final ChatView chatView = new ChatView(server, username, cache);
+                final ChatClient client = new ChatClient(chatView, cache);
 
-                server.register(username, client);
+                // The cached scrollback is up before the server is even asked for what was missed
                 chatView.setVisible(true);
+                server.register(username, server instanceof NioServerStub
+                        ? client
+                        : (Client) UnicastRemoteObject.exportObject(client, 0), cache.lastSequence(Server.DEFAULT_ROOM));
+                startHeartbeat(server, username);
 
             } catch (Exception e) {
                 logger.log(Level.SEVERE, "Failed to configure RMI", e);
@@ -1,15 +1,49 @@
 package me.mouad;
 
+import me.mouad.api.ChatMessage;
 import me.mouad.api.Client;
+import me.mouad.api.FileReference;
+import me.mouad.api.HistoryPage;
+import me.mouad.api.PresenceUpdate;
+import me.mouad.api.SearchQuery;
 import me.mouad.api.Server;
+import me.mouad.cluster.Cluster;
+import me.mouad.cluster.ClusterEntry;
+import me.mouad.cluster.ClusterHandler;
+import me.mouad.delivery.DeliveryEngine;
+import me.mouad.delivery.DisconnectReason;
+import me.mouad.delivery.MailboxStats;
+import me.mouad.files.AttachmentStore;
+import me.mouad.history.LogRecord;
+import me.mouad.history.MessageCodec;
+import me.mouad.history.MessageLog;
+import me.mouad.history.MessageRecord;
+import me.mouad.lease.EvictionMetrics;
+import me.mouad.lease.LeaseManager;
+import me.mouad.logging.AsyncLogHandler;
+import me.mouad.limits.RateLimit;
+import me.mouad.limits.RateLimiter;
+import me.mouad.metrics.LatencyHistogram;
+import me.mouad.metrics.MetricsEndpoint;
+import me.mouad.metrics.MetricsSource;
+import me.mouad.metrics.ServerMetrics;
+import me.mouad.presence.PresenceTracker;
+import me.mouad.registry.ClientRegistry;
+import me.mouad.retention.HistoryCompactor;
+import me.mouad.rooms.Room;
+import me.mouad.rooms.RoomDirectory;
+import me.mouad.search.HistorySource;
+import me.mouad.search.SearchIndex;
+import me.mouad.transport.BufferPool;
+import me.mouad.transport.FrameCompression;
+import me.mouad.transport.NioServer;
 
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
@@ -17,9 +51,11 @@ import java.rmi.server.UnicastRemoteObject;
 
 import java.util.ArrayList;
 import java.util.HashMap;
-
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Predicate;
 import java.util.logging.FileHandler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -27,9 +63,25 @@ import java.util.logging.SimpleFormatter;
 
 public class ChatServer extends UnicastRemoteObject implements Server {
 
-    private final Map<String, Client> clients = new HashMap<>();
-    private final List<String> chatHistory = new ArrayList<>();
-    private final String HISTORY_FILE = "chat_history.txt";
+    private final ClientRegistry clients = new ClientRegistry();
+    private final RoomDirectory rooms;
+    private final AttachmentStore attachmentStore;
+    private final String LEGACY_HISTORY_FILE = "chat_history.txt";
+    private final DeliveryEngine deliveryEngine = DeliveryEngine.fromSystemProperties(this::disconnect);
+    private final PresenceTracker presenceTracker = PresenceTracker.fromSystemProperties(deliveryEngine);
+    private final LeaseManager leaseManager = LeaseManager.fromSystemProperties(this::disconnect);
+    private final EvictionMetrics evictionMetrics = new EvictionMetrics();
+    private final Cluster cluster;
+    private final ServerMetrics metrics;
+    private final SearchIndex searchIndex;
+    private final RateLimiter rateLimiter;
+    private final HistoryCompactor compactor;
+    private Registry registry;
+    private MetricsEndpoint metricsEndpoint;
+
+    private static final int HISTORY_JOIN_PAGE = Integer.getInteger("chat.history.joinPageSize", 50);
+    private static final int HISTORY_MAX_PAGE = 500;
+    private static final int SEARCH_MAX_RESULTS = 200;
 
     private static final Logger logger = Logger.getLogger(ChatServer.class.getName());
 
@@ -39,147 +91,679 @@ public class ChatServer extends UnicastRemoteObject implements Server {
 
             fileHandler.setFormatter(new SimpleFormatter());
 
-            logger.addHandler(fileHandler);
-            logger.setLevel(Level.ALL);
+            logger.addHandler(new AsyncLogHandler(fileHandler));
+            logger.setLevel(Level.parse(System.getProperty("chat.log.level", "INFO")));
         } catch (IOException e) {
             logger.log(Level.SEVERE, "Failed to initialize logger", e);
         }
     }
 
-    protected ChatServer() throws RemoteException {
-        loadChatHistory();
+    protected ChatServer() throws IOException {
+        this.rooms = RoomDirectory.fromSystemProperties(this::deliverLocally);
+        this.attachmentStore = AttachmentStore.fromSystemProperties();
+        this.cluster = Cluster.fromSystemProperties(new ClusterState());
+        this.metrics = new ServerMetrics(cluster.nodeId(), new MetricsGauges());
+        this.rateLimiter = RateLimiter.fromSystemProperties(cluster.nodeId(), limit -> metrics.rateLimited(limit.label()));
+        this.searchIndex = SearchIndex.fromSystemProperties(new IndexedHistory());
+        importLegacyChatHistory();
+        this.compactor = HistoryCompactor.fromSystemProperties(rooms, attachmentStore, searchIndex);
     }
 
-    private void loadChatHistory() {
+    private void importLegacyChatHistory() {
+        final Path legacyFile = Path.of(LEGACY_HISTORY_FILE);
+
+        final Room general = rooms.defaultRoom();
+
+        if (!Files.exists(legacyFile) || general.log().lastSequence() > 0) return ;
+
         try {
-            final File file = new File(HISTORY_FILE);
+            final List<CompletableFuture<LogRecord>> appends = new ArrayList<>();
 
-            if (!file.exists()) {
-                logger.warning("No chat history found.");
-                return ;
+            for (String line : Files.readAllLines(legacyFile)) {
+                appends.add(general.append(MessageCodec.decodeLegacy(line)));
             }
 
-            chatHistory.addAll(Files.readAllLines(file.toPath()));
+            CompletableFuture.allOf(appends.toArray(CompletableFuture[]::new)).join();
+
+            Files.move(legacyFile, legacyFile.resolveSibling(LEGACY_HISTORY_FILE + ".migrated"));
+
+            logger.info("Imported " + appends.size() + " legacy chat history entries.");
+        } catch (IOException | CompletionException e) {
+            logger.log(Level.SEVERE, "Error importing legacy chat history", e);
+        }
+    }
 
-            logger.info("Chat history loaded.");
+    /**
+     * Appends {@code message} to the history of {@code room} on the node owning it; local
+     * subscribers get it once this node's copy is committed.
+     */
+    private void publish(Room room, MessageRecord message) throws RemoteException {
+        try {
+            cluster.append(room.name(), message);
+        } catch (RemoteException e) {
+            throw e;
         } catch (IOException e) {
-            logger.log(Level.SEVERE, "Error loading chat history", e);
+            throw new RemoteException("Unable to persist message", e);
         }
     }
 
-    private void saveChatHistory() {
-        try (final BufferedWriter writer = new BufferedWriter(new FileWriter(HISTORY_FILE))) {
-            for (String message : chatHistory) {
-                writer.write(message);
-                writer.newLine();
-            }
+    /**
+     * Runs on the writer thread of the room's log, so subscribers see records in sequence order.
+     */
+    private void deliverLocally(Room room, LogRecord record) {
+        final ChatMessage message = toChatMessage(room, record);
 
-            logger.info("Chat history saved.");
-        } catch (IOException e) {
-            logger.log(Level.SEVERE, "Error saving chat history", e);
+        metrics.messagePosted();
+        deliveryEngine.multicast(room.subscribers(), message);
+        searchIndex.add(message);
+    }
+
+    private Room requireRoom(String name) throws RemoteException {
+        return rooms.find(name).orElseThrow(() -> new RemoteException("Unknown room '" + name + "'."));
+    }
+
+    private Room requireMember(String username, String name) throws RemoteException {
+        final Room room = requireRoom(name);
+
+        if (!room.isSubscribed(username)) {
+            throw new RemoteException("'" + username + "' has not joined room '" + name + "'.");
         }
+
+        return room;
     }
 
+    @Override
+    public void register(String username, Client client) throws RemoteException {
+        register(username, client, 0);
+    }
 
     @Override
-    public synchronized void register(String username, Client client) throws RemoteException {
-        if (clients.containsKey(username)) {
+    public void register(String username, Client client, long lastSequence) throws RemoteException {
+        if (cluster.isConnectedElsewhere(username) || !clients.reserve(username, client)) {
             throw new RemoteException("Username '" + username + "' is already taken.");
         }
 
-        clients.put(username, client);
-        updateConnectedUsersList();
+        deliveryEngine.open(username, client);
+
+        if (!clients.isRegistered(username, client)) {
+            // Unregistered while the mailbox was being opened
+            deliveryEngine.close(username, client);
+            return ;
+        }
+
+        leaseManager.renew(username, client);
+        presenceTracker.joined(username);
+        presenceTracker.sendSnapshot(username);
+        cluster.announcePresence(username, true);
 
-        sendChatHistory(client);
+        final Room general = rooms.defaultRoom();
+        rooms.join(username, general, last -> sendChatHistory(username, general, lastSequence, last));
 
-        broadcastMessage("Server", username + " has joined the server!");
+        post(general, "Server", username + " has joined the server!");
         logger.info("Client registered: " + username);
     }
 
     @Override
     public void unregister(String username) throws RemoteException {
-        clients.remove(username);
-        updateConnectedUsersList();
+        final Client client = clients.get(username).orElse(null);
+
+        if (client == null) return ;
+
+        if (endSession(username, client, " has left the server!")) {
+            logger.info("Client unregistered: " + username);
+        }
+    }
+
+    /**
+     * Ends the session of {@code username} only if it still belongs to {@code client}, for
+     * transports that notice a client going away before its lease runs out.
+     */
+    public void disconnectSession(String username, Client client) {
+        try {
+            if (endSession(username, client, " has left the server!")) {
+                logger.info("Client unregistered: " + username);
+            }
+        } catch (RemoteException e) {
+            logger.log(Level.SEVERE, "Error announcing departure of " + username, e);
+        }
+    }
+
+    /**
+     * Tears the session of {@code client} down before freeing its name, as rooms, leases and
+     * presence are keyed by name and would otherwise end a new session taking it meanwhile.
+     *
+     * @return whether this call ended the session, {@code false} if it was already over
+     */
+    private boolean endSession(String username, Client client, String farewell) throws RemoteException {
+        if (!clients.beginRelease(username, client)) return false;
+
+        try {
+            deliveryEngine.close(username, client);
+            leaseManager.release(username, client);
+            presenceTracker.left(username);
+            cluster.announcePresence(username, false);
+            rooms.leaveAll(username);
+
+            post(rooms.defaultRoom(), "Server", username + farewell);
+        } finally {
+            clients.release(username, client);
+        }
 
-        broadcastMessage("Server", username + " has left the server!");
-        logger.info("Client unregistered: " + username);
+        return true;
+    }
+
+    @Override
+    public long heartbeat(String username) throws RemoteException {
+        if (!leaseManager.renewIfHeld(username)) {
+            throw new RemoteException("No active session for '" + username + "'.");
+        }
+
+        return leaseManager.leaseDuration().toMillis();
     }
 
     @Override
     public void broadcastMessage(String sender, String message) throws RemoteException {
-        logger.info("Broadcasting message: " + message);
+        sendMessage(sender, RoomDirectory.DEFAULT_ROOM, message);
+    }
+
+    @Override
+    public void sendMessage(String sender, String room, String message) throws RemoteException {
+        final Room target = requireMember(sender, room);
+
+        rateLimiter.acquireMessage(sender, target.name(), message.getBytes(StandardCharsets.UTF_8).length);
+        post(target, sender, message);
+    }
+
+    private void post(Room room, String sender, String message) throws RemoteException {
+        logger.fine(() -> "Posting message to " + room.name() + ": " + message);
+
+        publish(room, MessageRecord.text(sender, message));
+    }
+
+    @Override
+    public void joinRoom(String username, String name) throws RemoteException {
+        joinRoom(username, name, 0);
+    }
 
-        chatHistory.add(sender + ": " + message);
+    @Override
+    public void joinRoom(String username, String name, long lastSequence) throws RemoteException {
+        if (clients.get(username).isEmpty()) {
+            throw new RemoteException("No active session for '" + username + "'.");
+        }
 
-        for (Client client : clients.values()) {
-            client.receiveMessage(sender, message);
+        if (!RoomDirectory.isValidName(name)) {
+            throw new RemoteException("Invalid room name '" + name + "', use 1 to 32 of [a-z0-9_-].");
         }
+
+        // Joins and leaves are announced, and a join may create the room
+        rateLimiter.acquireMessage(username, name, 0);
+
+        final Room room = rooms.getOrCreate(name);
+
+        if (!rooms.join(username, room, last -> sendChatHistory(username, room, lastSequence, last))) return ;
+
+        post(room, "Server", username + " has joined #" + room.name() + "!");
+        logger.info(username + " joined room " + room.name());
+    }
+
+    @Override
+    public void leaveRoom(String username, String name) throws RemoteException {
+        final Room room = requireRoom(name);
+
+        if (room == rooms.defaultRoom()) {
+            throw new RemoteException("The default room cannot be left.");
+        }
+
+        rateLimiter.acquireMessage(username, room.name(), 0);
+
+        if (!rooms.leave(username, room)) return ;
+
+        post(room, "Server", username + " has left #" + room.name() + "!");
+        logger.info(username + " left room " + room.name());
     }
 
     @Override
-    public void broadcastFile(String sender, byte[] fileData, String fileName) throws RemoteException {
-        logger.info("Broadcasting file: " + fileName);
+    public List<String> listRooms() throws RemoteException {
+        return rooms.names();
+    }
 
-        chatHistory.add("#Attached " + fileName + " " + sender);
+    @Override
+    public String beginUpload(String sender, String fileName, long size) throws RemoteException {
+        if (clients.get(sender).isEmpty()) {
+            throw new RemoteException("No active session for '" + sender + "'.");
+        }
+
+        rateLimiter.acquireUpload(sender, size);
 
-        for (Client client : clients.values()) {
-            client.receiveFile(sender, fileData, fileName);
+        try {
+            return attachmentStore.beginUpload(sender, fileName, size);
+        } catch (IOException e) {
+            throw new RemoteException("Unable to start upload of " + fileName, e);
         }
     }
 
-    private void sendChatHistory(Client client) throws RemoteException {
-        for (String message : chatHistory) {
-            if (!message.startsWith("#Attached")) {
-                final String sender = message.split(": ")[0];
+    @Override
+    public long uploadChunk(String uploadId, long offset, byte[] chunk) throws RemoteException {
+        try {
+            final long received = attachmentStore.writeChunk(uploadId, offset, chunk);
 
-                client.receiveMessage(sender, message.substring(sender.length()));
+            metrics.uploaded(chunk.length);
+            return received;
+        } catch (IOException e) {
+            throw new RemoteException("Unable to store chunk of upload " + uploadId, e);
+        }
+    }
 
-                continue;
-            }
+    @Override
+    public long uploadedBytes(String uploadId) throws RemoteException {
+        try {
+            return attachmentStore.receivedBytes(uploadId);
+        } catch (IOException e) {
+            throw new RemoteException("Unknown upload " + uploadId, e);
+        }
+    }
 
-            final String[] parts = message.substring("#Attached ".length()).split(" ");
+    @Override
+    public FileReference completeUpload(String uploadId, String roomName) throws RemoteException {
+        final String sender;
 
-            final String fileName = parts[0];
-            final String sender = parts[1];
+        try {
+            sender = attachmentStore.senderOf(uploadId);
+        } catch (IOException e) {
+            throw new RemoteException("Unable to complete upload " + uploadId, e);
+        }
+
+        final Room room = requireMember(sender, roomName);
+
+        // Refused before completing, so the upload can still be completed later
+        rateLimiter.acquireMessage(sender, room.name(), 0);
+
+        final FileReference file;
+
+        try {
+            file = attachmentStore.completeUpload(uploadId);
+        } catch (IOException e) {
+            throw new RemoteException("Unable to complete upload " + uploadId, e);
+        }
+
+        logger.fine(() -> "Posting file to " + room.name() + ": " + file.fileName());
+
+        publish(room, MessageRecord.file(file));
 
+        return file;
+    }
+
+    @Override
+    public byte[] downloadChunk(String fileId, long offset, int length) throws RemoteException {
+        if (!attachmentStore.contains(fileId) && cluster.hasPeers()) {
+            final byte[] chunk = cluster.readBlob(fileId, offset, length);
+
+            metrics.downloaded(chunk.length);
+            return chunk;
+        }
+
+        try {
+            final byte[] chunk = attachmentStore.readChunk(fileId, offset, length);
+
+            metrics.downloaded(chunk.length);
+            return chunk;
+        } catch (IOException e) {
+            throw new RemoteException("Unable to read file " + fileId, e);
+        }
+    }
+
+    @Override
+    public byte[] fetchThumbnail(String fileId) throws RemoteException {
+        final byte[] thumbnail;
+
+        if (!attachmentStore.contains(fileId) && cluster.hasPeers()) {
+            thumbnail = cluster.readThumbnail(fileId);
+        } else {
             try {
-                final Path filePath = Paths.get(System.getProperty("java.io.tmpdir"), fileName);
-                final byte[] fileData = Files.readAllBytes(filePath);
-                client.receiveFile(sender, fileData, fileName);
+                thumbnail = attachmentStore.thumbnail(fileId);
             } catch (IOException e) {
-                logger.log(Level.SEVERE, "Error sending file to client", e);
+                throw new RemoteException("Unable to read thumbnail of " + fileId, e);
             }
         }
+
+        metrics.downloaded(thumbnail.length);
+        return thumbnail;
     }
 
-    private void updateConnectedUsersList() throws RemoteException {
-        for (Client client : clients.values()) {
-            client.updateConnectedUsersList(clients.keySet().stream().toList());
+    /**
+     * Sends a joining client what it is missing of {@code room} up to {@code last}, the last record
+     * fanned out before it subscribed: the messages after {@code lastSequence} if it holds the
+     * history up to there and missed at most a page limit, the latest page otherwise.
+     */
+    private void sendChatHistory(String username, Room room, long lastSequence, long last) {
+        final MessageLog messageLog = room.log();
+
+        if (lastSequence > 0 && lastSequence <= last && lastSequence >= messageLog.firstSequence() - 1
+                && last - lastSequence <= HISTORY_MAX_PAGE) {
+            final List<ChatMessage> missed = new ArrayList<>((int) (last - lastSequence));
+
+            messageLog.read(lastSequence + 1, record -> {
+                if (record.sequence() > last) return false;
+
+                missed.add(toChatMessage(room, record));
+                return true;
+            });
+
+            if (!missed.isEmpty()) {
+                deliveryEngine.send(username, client -> client.receiveMessages(missed));
+            }
+
+            logger.fine(() -> username + " resumed " + room.name() + " after sequence " + lastSequence + ", " + missed.size() + " missed");
+            return ;
+        }
+
+        final HistoryPage page = readHistoryPage(room, last + 1, HISTORY_JOIN_PAGE);
+
+        deliveryEngine.send(username, client -> client.receiveHistory(page));
+    }
+
+    @Override
+    public HistoryPage fetchHistory(String roomName, long beforeSequence, int limit) throws RemoteException {
+        if (limit <= 0) {
+            throw new RemoteException("Invalid history page size: " + limit);
         }
+
+        final Room room = requireRoom(roomName);
+        final long upTo = Math.min(beforeSequence, room.log().lastSequence() + 1);
+
+        return readHistoryPage(room, upTo, Math.min(limit, HISTORY_MAX_PAGE));
     }
 
-    public static void main(String[] args) {
+    @Override
+    public List<ChatMessage> search(SearchQuery query, int limit) throws RemoteException {
+        if (limit <= 0) {
+            throw new RemoteException("Invalid search limit: " + limit);
+        }
+
+        if (query.room() != null) {
+            requireRoom(query.room());
+        }
+
+        return searchIndex.search(query, Math.min(limit, SEARCH_MAX_RESULTS));
+    }
+
+    private HistoryPage readHistoryPage(Room room, long beforeSequence, int limit) {
+        final MessageLog messageLog = room.log();
+        final long first = messageLog.firstSequence();
+        final long from = Math.max(first, beforeSequence - limit);
+        final List<ChatMessage> messages = new ArrayList<>(limit);
+
+        messageLog.read(from, record -> {
+            if (record.sequence() >= beforeSequence) return false;
+
+            messages.add(toChatMessage(room, record));
+            return true;
+        });
+
+        return new HistoryPage(room.name(), messages, from, from > first);
+    }
+
+    private ChatMessage toChatMessage(Room room, LogRecord record) {
+        final MessageRecord message = room.decode(record);
+        // Blobs uploaded through another node are read through from it
+        final FileReference file = message.file() != null && (attachmentStore.contains(message.file().fileId()) || cluster.hasPeers())
+                ? message.file()
+                : null;
+
+        return new ChatMessage(room.name(), record.sequence(), record.timestamp(), message.sender(), message.kind(),
+                message.content(), file);
+    }
+
+    @Override
+    public PresenceUpdate fetchPresence() throws RemoteException {
+        return presenceTracker.snapshot();
+    }
+
+    /**
+     * Evicts a client found unusable by the delivery engine or the lease sweeper, unless its
+     * session already ended. Both hand it a thread of its own, never a fan-out or sweeper thread.
+     */
+    private void disconnect(String username, Client client, DisconnectReason reason, long detectedAtNanos) {
+        final String explanation = switch (reason) {
+            case OVERFLOW -> "falling behind";
+            case FAILING -> "being unreachable";
+            case EXPIRED -> "timing out";
+        };
+
         try {
-            final ChatServer server = new ChatServer();
-            LocateRegistry.createRegistry(1099);
+            if (!endSession(username, client, " was disconnected for " + explanation + "!")) return ;
+        } catch (RemoteException e) {
+            logger.log(Level.SEVERE, "Error announcing disconnect of " + username, e);
+        }
+
+        evictionMetrics.record(reason, detectedAtNanos);
+        logger.warning("Client evicted (" + reason + "): " + username);
+    }
+
+    public Map<String, MailboxStats> getDeliveryStats() {
+        return deliveryEngine.stats();
+    }
+
+    public EvictionMetrics.Snapshot getEvictionStats() {
+        return evictionMetrics.snapshot();
+    }
+
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    public void shutdown() throws IOException {
+        if (metricsEndpoint != null) {
+            metricsEndpoint.close();
+        }
+
+        metrics.close();
+        compactor.close();
+        rateLimiter.close();
+        cluster.close();
+        leaseManager.close();
+        presenceTracker.close();
+        deliveryEngine.shutdown();
+        searchIndex.close();
+        attachmentStore.close();
+        UnicastRemoteObject.unexportObject(this, true);
+
+        if (registry != null) {
+            UnicastRemoteObject.unexportObject(registry, true);
+        }
+
+        rooms.close();
+    }
+
+    /**
+     * Starts a server with its own registry on {@code port}, joining the cluster if one is configured.
+     */
+    public static ChatServer start(int port) throws IOException {
+        final ChatServer server = new ChatServer();
+        final Registry registry = LocateRegistry.createRegistry(port);
+
+        registry.rebind("ChatServer", server);
+        server.registry = registry;
+        server.cluster.bind(registry);
+        server.metrics.register();
+        server.rateLimiter.register();
+        server.metricsEndpoint = MetricsEndpoint.fromSystemProperties(server.metrics);
+
+        return server;
+    }
+
+    private final class IndexedHistory implements HistorySource {
+
+        @Override
+        public List<String> rooms() {
+            return rooms.names();
+        }
+
+        @Override
+        public void read(String roomName, long fromSequence, Predicate<ChatMessage> visitor) {
+            rooms.find(roomName).ifPresent(room ->
+                    room.log().read(fromSequence, record -> visitor.test(toChatMessage(room, record))));
+        }
+    }
+
+    private final class MetricsGauges implements MetricsSource {
+
+        @Override
+        public int connectedUsers() {
+            return clients.size();
+        }
+
+        @Override
+        public int rooms() {
+            return rooms.size();
+        }
+
+        @Override
+        public long historyRecords() {
+            return rooms.historyRecords();
+        }
+
+        @Override
+        public long historyBytes() {
+            return rooms.historyBytes();
+        }
+
+        @Override
+        public Map<String, MailboxStats> deliveryStats() {
+            return deliveryEngine.stats();
+        }
+
+        @Override
+        public LatencyHistogram.Snapshot fanOutLatency() {
+            return deliveryEngine.fanOutLatency();
+        }
 
-            Runtime.getRuntime().addShutdownHook(new Thread(server::saveChatHistory));
+        @Override
+        public long evictions() {
+            return evictionMetrics.snapshot().evictions().values().stream().mapToLong(Long::longValue).sum();
+        }
+
+        @Override
+        public Map<String, RateLimit> rateLimits() {
+            final Map<String, RateLimit> limits = new HashMap<>();
+
+            rateLimiter.limits().forEach((limit, rate) -> limits.put(limit.label(), rate));
+            return limits;
+        }
+    }
+
+    /**
+     * The local node's state as exposed to the other nodes of the cluster.
+     */
+    private final class ClusterState implements ClusterHandler {
+
+        @Override
+        public ClusterEntry appendLocally(String roomName, MessageRecord message) throws IOException {
+            final Room room = rooms.getOrCreate(roomName);
+            final LogRecord record;
+
+            try {
+                record = room.append(message).join();
+            } catch (CompletionException e) {
+                throw new IOException("Unable to persist message", e.getCause());
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+
+            final ClusterEntry entry = new ClusterEntry(room.name(), record.sequence(), record.timestamp(), message);
+            cluster.replicate(entry);
+            return entry;
+        }
+
+        @Override
+        public long nextSequence(String roomName) {
+            return rooms.find(roomName).map(room -> room.log().nextSequence()).orElse(1L);
+        }
+
+        @Override
+        public void applyReplicated(ClusterEntry entry) {
+            final Room room = rooms.getOrCreate(entry.room());
+
+            try {
+                room.appendReplica(entry.sequence(), entry.timestamp(), entry.message())
+                        .exceptionally(failure -> {
+                            logger.log(Level.SEVERE, "Unable to persist replicated entry of " + room.name(), failure);
+                            return null;
+                        });
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "Unable to persist replicated entry of " + room.name(), e);
+            }
+        }
+
+        @Override
+        public void skipTo(String roomName, long sequence) {
+            rooms.getOrCreate(roomName).log().skipTo(sequence);
+        }
+
+        @Override
+        public List<ClusterEntry> readEntries(String roomName, long afterSequence, int limit) {
+            return rooms.find(roomName)
+                    .map(room -> room.log().read(afterSequence + 1, Math.min(limit, HISTORY_MAX_PAGE)).stream()
+                            .map(record -> new ClusterEntry(room.name(), record.sequence(), record.timestamp(), room.decode(record)))
+                            .toList())
+                    .orElse(List.of());
+        }
+
+        @Override
+        public List<String> rooms() {
+            return rooms.names();
+        }
+
+        @Override
+        public List<String> localUsers() {
+            return clients.usernames();
+        }
+
+        @Override
+        public void remotePresence(String username, boolean joined) {
+            if (joined) {
+                presenceTracker.joined(username);
+            } else if (!clients.get(username).isPresent()) {
+                presenceTracker.left(username);
+            }
+        }
+
+        @Override
+        public byte[] readBlob(String fileId, long offset, int length) throws IOException {
+            return attachmentStore.readChunk(fileId, offset, length);
+        }
+
+        @Override
+        public byte[] readThumbnail(String fileId) throws IOException {
+            return attachmentStore.thumbnail(fileId);
+        }
+    }
+
+    public static void main(String[] args) {
+        try {
+            final ChatServer server = start(Integer.getInteger("chat.server.port", 1099));
+            final NioServer nioServer = System.getProperty("chat.transport", "rmi").equals("nio")
+                    ? new NioServer(server, server::disconnectSession,
+                            new InetSocketAddress(Integer.getInteger("chat.nio.port", 1100)),
+                            BufferPool.fromSystemProperties(), FrameCompression.fromSystemProperties())
+                    : null;
 
             Runtime.getRuntime().addShutdownHook(new Thread(() -> {
                 logger.info("Server is shutting down...");
 
                 try {
-                    UnicastRemoteObject.unexportObject(server, true);
+                    if (nioServer != null) {
+                        nioServer.close();
+                    }
+
+                    server.shutdown();
                     logger.info("Server is stopped.");
                 } catch (Exception e) {
                     logger.log(Level.SEVERE, "Error stopping server", e);
                 }
             }));
 
-            final Registry registry = LocateRegistry.getRegistry();
-            registry.rebind("ChatServer", server);
-
-            logger.info("ChatServer ready. Listening on port 1099.");
+            logger.info("ChatServer ready. Listening on port " + Integer.getInteger("chat.server.port", 1099) + ".");
 
         } catch (Exception e) {
             logger.log(Level.SEVERE, "Error starting server", e);
@@ -1,25 +1,45 @@
 package me.mouad;
 
+import me.mouad.api.ChatMessage;
+import me.mouad.api.FileReference;
+import me.mouad.api.HistoryPage;
+import me.mouad.api.PresenceUpdate;
+import me.mouad.api.RateLimitException;
+import me.mouad.api.SearchQuery;
 import me.mouad.api.Server;
+import me.mouad.files.FileTransfers;
+import me.mouad.logging.AsyncLogHandler;
 
 import javax.swing.*;
 import javax.swing.event.HyperlinkEvent;
+import javax.swing.event.HyperlinkListener;
 import javax.swing.text.*;
 import javax.swing.text.html.HTMLDocument;
-import javax.swing.text.html.HTMLEditorKit;
 import java.awt.*;
 import java.awt.event.ActionListener;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
 import java.rmi.RemoteException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.logging.FileHandler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -34,10 +54,13 @@ public class ChatView extends JFrame {
 
     private final JPanel mainPanel;
     private JList<String> connectedUsersList;
-    private JTextPane messagesTextPane;
+    private JTabbedPane roomTabs;
     private JTextField messageTextField;
     private JButton sendButton;
     private JButton attachButton;
+    private JButton joinRoomButton;
+    private JButton leaveRoomButton;
+    private JButton searchButton;
 
     private final GridBagConstraints gridBagConstraints;
 
@@ -45,6 +68,35 @@ public class ChatView extends JFrame {
 
     private final Server server;
 
+    private static final String ATTACHMENT_SCHEME = "attachment:";
+    private static final Path DOWNLOADS_DIRECTORY = Path.of(System.getProperty("java.io.tmpdir"), "chat-downloads");
+
+    private final Map<String, FileReference> attachments = new ConcurrentHashMap<>();
+    private final AttachmentPreviews previews;
+    private final ScrollbackCache cache;
+
+    // Guarded by connectedUsers
+    private final Set<String> connectedUsers = new TreeSet<>();
+    private long presenceVersion = -1;
+
+    private static final int FRAME_MILLIS = 16;
+    private static final int SEARCH_RESULTS = 100;
+    private static final DateTimeFormatter SEARCH_TIME_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm").withZone(ZoneId.systemDefault());
+
+    /**
+     * A line is rendered once its {@code html} is complete, which only waits for the previews of
+     * its attachments.
+     */
+    private record PendingLine(String room, long sequence, CompletableFuture<String> html) {}
+
+    private final Queue<PendingLine> pendingMessages = new ConcurrentLinkedQueue<>();
+    private final Timer renderTimer = new Timer(FRAME_MILLIS, _ -> flushPendingMessages());
+
+    // Only touched on the EDT
+    private final Map<String, RoomPanel> roomPanels = new LinkedHashMap<>();
+    private HyperlinkListener linkListener;
+
     private static final Logger logger = Logger.getLogger(ChatView.class.getName());
 
     static {
@@ -53,16 +105,18 @@ public class ChatView extends JFrame {
 
             fileHandler.setFormatter(new SimpleFormatter());
 
-            logger.addHandler(fileHandler);
-            logger.setLevel(Level.ALL);
+            logger.addHandler(new AsyncLogHandler(fileHandler));
+            logger.setLevel(Level.parse(System.getProperty("chat.log.level", "INFO")));
         } catch (IOException e) {
             logger.log(Level.SEVERE, "Failed to initialize logger", e);
         }
     }
 
-    public ChatView(Server server, String username) {
+    public ChatView(Server server, String username, ScrollbackCache cache) {
         this.server = server;
         this.username = username;
+        this.cache = cache;
+        this.previews = new AttachmentPreviews(server, DOWNLOADS_DIRECTORY.resolve("previews"));
         this.mainPanel = new JPanel(new GridBagLayout());
         this.gridBagConstraints = new GridBagConstraints();
 
@@ -75,6 +129,7 @@ public class ChatView extends JFrame {
         configureLookAndFeel();
 
         add(mainPanel);
+        renderTimer.start();
     }
 
     private void configureFrame() {
@@ -94,20 +149,23 @@ public class ChatView extends JFrame {
 
     private void configureMessagesPanel() {
         final JPanel messagesPanel = new JPanel(new BorderLayout());
-        final JLabel messagesLabel = new JLabel("Messages:");
+        final JPanel roomsHeader = new JPanel(new BorderLayout());
+        final JPanel roomButtons = new JPanel(new FlowLayout(FlowLayout.RIGHT, 5, 0));
+        final JLabel messagesLabel = new JLabel("Rooms:");
 
-        messagesLabel.setHorizontalAlignment(SwingConstants.CENTER);
-        messagesPanel.add(messagesLabel, BorderLayout.NORTH);
+        joinRoomButton = new JButton("Join Room");
+        leaveRoomButton = new JButton("Leave Room");
+        searchButton = new JButton("Search");
 
-        messagesTextPane = new JTextPane();
-        messagesTextPane.setEditable(false);
-        messagesTextPane.setContentType("text/html");
-        messagesTextPane.setEditorKit(new HTMLEditorKit());
+        roomButtons.add(joinRoomButton);
+        roomButtons.add(leaveRoomButton);
+        roomButtons.add(searchButton);
+        roomsHeader.add(messagesLabel, BorderLayout.WEST);
+        roomsHeader.add(roomButtons, BorderLayout.EAST);
+        messagesPanel.add(roomsHeader, BorderLayout.NORTH);
 
-        messagesTextPane.setCaret(new InvisibleCaret());
-
-        final JScrollPane messagesScrollPane = new JScrollPane(messagesTextPane);
-        messagesPanel.add(messagesScrollPane, BorderLayout.CENTER);
+        roomTabs = new JTabbedPane();
+        messagesPanel.add(roomTabs, BorderLayout.CENTER);
 
         addToMainPanel(messagesPanel, 1, 0, 1);
     }
@@ -162,10 +220,13 @@ public class ChatView extends JFrame {
             String message = messageTextField.getText();
             if (!message.isEmpty()) {
                 try {
-                    server.broadcastMessage(username, message);
+                    server.sendMessage(username, selectedRoom(), message);
                     messageTextField.setText("");
+                } catch (RateLimitException ex) {
+                    JOptionPane.showMessageDialog(this, "You are sending too fast, try again in "
+                            + (ex.retryAfterMillis() + 999) / 1000 + " s.", "Slow down", JOptionPane.WARNING_MESSAGE);
                 } catch (RemoteException ex) {
-                    logger.log(Level.SEVERE, "Unable to broadcast message: ", ex);
+                    logger.log(Level.SEVERE, "Unable to send message: ", ex);
                 }
             }
         };
@@ -179,19 +240,30 @@ public class ChatView extends JFrame {
 
             if (decision == JFileChooser.APPROVE_OPTION) {
                 final File file = fileChooser.getSelectedFile();
-                handleFileUpload(file);
+                handleFileUpload(file, selectedRoom());
             }
         });
 
-        messagesTextPane.addHyperlinkListener(e -> {
+        joinRoomButton.addActionListener(_ -> promptJoinRoom());
+        leaveRoomButton.addActionListener(_ -> leaveRoom(selectedRoom()));
+        searchButton.addActionListener(_ -> promptSearch());
+
+        linkListener = e -> {
             if (e.getEventType() == HyperlinkEvent.EventType.ACTIVATED) {
+                if (e.getDescription().startsWith(ATTACHMENT_SCHEME)) {
+                    downloadAttachment(e.getDescription().substring(ATTACHMENT_SCHEME.length()));
+                    return ;
+                }
+
                 try {
                     Desktop.getDesktop().browse(e.getURL().toURI());
                 } catch (Exception ex) {
                     logger.log(Level.SEVERE, "Unable to open file: " + e.getURL(), ex);
                 }
             }
-        });
+        };
+
+        roomPanel(Server.DEFAULT_ROOM);
 
         addWindowListener(new WindowAdapter() {
             @Override
@@ -205,58 +277,308 @@ public class ChatView extends JFrame {
         });
     }
 
-    private void handleFileUpload(File file) {
+    private String selectedRoom() {
+        final Component selected = roomTabs.getSelectedComponent();
+
+        return selected instanceof RoomPanel panel ? panel.room() : Server.DEFAULT_ROOM;
+    }
+
+    /**
+     * Returns the tab of {@code room}, opening one if needed. Must run on the EDT.
+     */
+    private RoomPanel roomPanel(String room) {
+        return roomPanels.computeIfAbsent(room, name -> {
+            final RoomPanel panel = new RoomPanel(name, server, this::formatChatMessage, previews, cache, linkListener);
+            final HistoryPage cached = cache.page(name, HistoryPage.LATEST, RoomPanel.HISTORY_PAGE_SIZE);
+
+            roomTabs.addTab("#" + name, panel);
+            previews.load(AttachmentPreviews.attachments(cached.messages()))
+                    .thenRun(() -> SwingUtilities.invokeLater(() -> panel.showCachedHistory(cached)));
+            return panel;
+        });
+    }
+
+    private void promptJoinRoom() {
+        List<String> known = List.of();
+
         try {
-            server.broadcastFile(username, Files.readAllBytes(file.toPath()), file.getName());
-        } catch (IOException e) {
-            logger.log(Level.SEVERE, "Unable to handle an uploaded file", e);
+            known = server.listRooms();
+        } catch (RemoteException e) {
+            logger.log(Level.WARNING, "Unable to list rooms", e);
         }
+
+        final String room = JOptionPane.showInputDialog(this,
+                "Room name (existing: " + String.join(", ", known) + "):", "Join Room", JOptionPane.QUESTION_MESSAGE);
+
+        if (room == null || room.isBlank()) return ;
+
+        final String name = room.trim().toLowerCase();
+        final boolean alreadyOpen = roomPanels.containsKey(name);
+
+        roomTabs.setSelectedComponent(roomPanel(name));
+
+        if (alreadyOpen) return ;
+
+        Thread.ofVirtual().name("join-" + name).start(() -> {
+            try {
+                server.joinRoom(username, name, cache.lastSequence(name));
+            } catch (RemoteException e) {
+                logger.log(Level.SEVERE, "Unable to join room " + name, e);
+                SwingUtilities.invokeLater(() -> {
+                    closeRoomPanel(name);
+                    JOptionPane.showMessageDialog(this, "Unable to join #" + name, "Error", JOptionPane.ERROR_MESSAGE);
+                });
+            }
+        });
     }
 
-    public void appendMessage(String sender, String message) {
-        try {
-            final HTMLDocument document = (HTMLDocument) messagesTextPane.getDocument();
-            final HTMLEditorKit editorKit = (HTMLEditorKit) messagesTextPane.getEditorKit();
-            final String color = getColor(sender);
-
-            final String styledMessage = "<span style='font-weight:bold; color:" + color + ";'>" + sender + ":</span> " + message;
-
-            editorKit.insertHTML(document,
-                    document.getLength(),
-                    styledMessage,
-                    0,
-                    0,
-                    null);
-
-            messagesTextPane.setCaretPosition(document.getLength()); // Auto scroll
-        } catch (BadLocationException | IOException e) {
-            logger.log(Level.SEVERE, "Unable to display a new message", e);
+    private void leaveRoom(String room) {
+        if (room.equals(Server.DEFAULT_ROOM)) return ;
+
+        closeRoomPanel(room);
+
+        Thread.ofVirtual().name("leave-" + room).start(() -> {
+            try {
+                server.leaveRoom(username, room);
+            } catch (RemoteException e) {
+                logger.log(Level.SEVERE, "Unable to leave room " + room, e);
+            }
+        });
+    }
+
+    private void closeRoomPanel(String room) {
+        final RoomPanel panel = roomPanels.remove(room);
+
+        if (panel != null) {
+            roomTabs.remove(panel);
         }
     }
 
-    public void appendFileLink(String sender, String fileName, String filePath) {
+    private void promptSearch() {
+        final String input = JOptionPane.showInputDialog(this,
+                "Words to find, narrowed with from:<user> in:<room> after:<yyyy-mm-dd> before:<yyyy-mm-dd>:",
+                "Search", JOptionPane.QUESTION_MESSAGE);
+
+        if (input == null || input.isBlank()) return ;
+
+        final SearchQuery query;
+
         try {
-            final File tempFile = new File(System.getProperty("java.io.tmpdir"), fileName);
-            Files.copy(Path.of(filePath), tempFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            query = SearchQuery.parse(input);
+        } catch (IllegalArgumentException e) {
+            JOptionPane.showMessageDialog(this, "Invalid search: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            return ;
+        }
 
-            final String fileLink = "<a href='file:///" + tempFile.getAbsolutePath().replace("\\", "/") + "' download='" + fileName + "'>" + fileName + "</a>";
+        Thread.ofVirtual().name("search").start(() -> {
+            try {
+                final List<ChatMessage> results = server.search(query, SEARCH_RESULTS);
 
-            final String mimeType = Files.probeContentType(tempFile.toPath());
+                previews.load(AttachmentPreviews.attachments(results)).join();
+                SwingUtilities.invokeLater(() -> showSearchResults(input, results));
+            } catch (RemoteException e) {
+                logger.log(Level.SEVERE, "Unable to search for " + input, e);
+                SwingUtilities.invokeLater(() ->
+                        JOptionPane.showMessageDialog(this, "Unable to search", "Error", JOptionPane.ERROR_MESSAGE));
+            }
+        });
+    }
+
+    private void showSearchResults(String input, List<ChatMessage> results) {
+        final StringBuilder html = new StringBuilder(results.isEmpty() ? "No messages found." : "");
+
+        for (ChatMessage message : results) {
+            html.append("<div>#").append(message.room()).append(' ')
+                    .append(SEARCH_TIME_FORMAT.format(Instant.ofEpochMilli(message.timestamp()))).append(' ')
+                    .append(formatChatMessage(message)).append("</div>");
+        }
+
+        final JEditorPane resultsPane = new JEditorPane();
+        final JScrollPane scrollPane = new JScrollPane(resultsPane);
+
+        resultsPane.setContentType("text/html");
+        previews.register((HTMLDocument) resultsPane.getDocument());
+        resultsPane.setText(html.toString());
+        resultsPane.setEditable(false);
+        resultsPane.addHyperlinkListener(linkListener);
+        scrollPane.setPreferredSize(new Dimension(600, 400));
+
+        JOptionPane.showMessageDialog(this, scrollPane, "Search: " + input, JOptionPane.PLAIN_MESSAGE);
+    }
+
+    private void handleFileUpload(File file, String room) {
+        Thread.ofVirtual().name("upload-" + file.getName()).start(() -> {
+            try {
+                FileTransfers.upload(server, username, room, file.toPath());
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "Unable to handle an uploaded file", e);
+            }
+        });
+    }
+
+    private void downloadAttachment(String fileId) {
+        final FileReference file = attachments.get(fileId);
+
+        if (file == null) return ;
+
+        Thread.ofVirtual().name("download-" + fileId).start(() -> {
+            try {
+                final Path downloaded = FileTransfers.download(server, file, DOWNLOADS_DIRECTORY);
+
+                Desktop.getDesktop().open(downloaded.toFile());
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "Unable to download file: " + file.fileName(), e);
+            }
+        });
+    }
+
+    /**
+     * Queues a batch of sequenced messages for the next frame; safe to call from any thread.
+     */
+    public void appendMessages(List<ChatMessage> messages) {
+        for (ChatMessage message : messages) {
+            final CompletableFuture<String> html = message.attachment() == null
+                    ? CompletableFuture.completedFuture(formatChatMessage(message))
+                    : previews.load(List.of(message.attachment())).thenApply(_ -> formatChatMessage(message));
+
+            pendingMessages.add(new PendingLine(message.room(), message.sequence(), html));
+        }
+    }
+
+    /**
+     * Renders everything queued since the last frame as a single document update per room on the
+     * EDT. Lines stay in order: a line whose previews are still loading holds back the ones after it.
+     * Messages already displayed, which a resumed room may get twice, are skipped.
+     */
+    private void flushPendingMessages() {
+        if (pendingMessages.isEmpty()) return ;
+
+        final Map<String, StringBuilder> html = new LinkedHashMap<>();
+        final Map<String, List<Long>> sequences = new LinkedHashMap<>();
+        final Map<String, Long> lastSequences = new HashMap<>();
+        PendingLine line;
+
+        while ((line = pendingMessages.peek()) != null && line.html().isDone()) {
+            pendingMessages.poll();
+
+            final RoomPanel panel = roomPanels.get(line.room());
+
+            // Late messages of a room that was just left are dropped rather than reopening its tab
+            if (panel == null) continue;
+
+            final long last = lastSequences.computeIfAbsent(line.room(), _ -> panel.lastSequence());
+
+            if (line.sequence() != RoomPanel.UNKNOWN_SEQUENCE) {
+                if (line.sequence() <= last) continue;
+
+                lastSequences.put(line.room(), line.sequence());
+            }
+
+            html.computeIfAbsent(line.room(), _ -> new StringBuilder())
+                    .append("<div>").append(line.html().join()).append("</div>");
+            sequences.computeIfAbsent(line.room(), _ -> new ArrayList<>()).add(line.sequence());
+        }
+
+        html.forEach((room, lines) -> roomPanels.get(room).appendLines(lines.toString(), sequences.get(room)));
+    }
+
+    /**
+     * Inserts a page of older messages above everything displayed in its room, once the previews
+     * of its attachments are loaded; safe to call from any thread.
+     */
+    public void prependHistory(HistoryPage page) {
+        previews.load(AttachmentPreviews.attachments(page.messages())).thenRun(() -> SwingUtilities.invokeLater(() -> {
+            final RoomPanel panel = roomPanels.get(page.room());
+
+            if (panel != null) {
+                panel.replaceCachedHistory(page);
+            }
+        }));
+    }
+
+    private String formatChatMessage(ChatMessage message) {
+        if (message.kind() == ChatMessage.Kind.TEXT) {
+            return formatMessage(message.sender(), escape(message.content()));
+        }
+
+        final String attachment = message.attachment() == null ? escape(message.content()) : attachmentLink(message.attachment())
+                + previews.html(message.attachment(), ATTACHMENT_SCHEME + message.attachment().fileId());
+
+        return formatMessage(message.sender(), "attached: " + attachment);
+    }
+
+    /**
+     * @param message HTML, with any text from other users already {@link #escape escaped}
+     */
+    private String formatMessage(String sender, String message) {
+        return "<span style='font-weight:bold; color:" + getColor(sender) + ";'>" + escape(sender) + ":</span> " + message;
+    }
+
+    /**
+     * Keeps text from other users from adding markup, which would also throw off
+     * {@link RoomPanel}'s count of rendered lines.
+     */
+    private static String escape(String text) {
+        return text.replace("&", "&amp;")
+                .replace("<", "&lt;")
+                .replace(">", "&gt;")
+                .replace("\"", "&quot;")
+                .replace("'", "&#39;");
+    }
+
+    private String attachmentLink(FileReference file) {
+        attachments.put(file.fileId(), file);
+
+        return "<a href='" + ATTACHMENT_SCHEME + file.fileId() + "'>" + escape(file.fileName()) + "</a> (" + formatSize(file.size()) + ")";
+    }
+
+    private static String formatSize(long bytes) {
+        if (bytes < 1024) return bytes + " B";
+
+        final int unit = (63 - Long.numberOfLeadingZeros(bytes)) / 10;
+
+        return String.format("%.1f %sB", bytes / (double) (1L << (unit * 10)), "KMGTPE".charAt(unit - 1));
+    }
+
+    /**
+     * Applies a presence delta or snapshot, resynchronizing from the server when a delta does not
+     * follow the version currently displayed.
+     */
+    public void applyPresence(PresenceUpdate update) {
+        synchronized (connectedUsers) {
+            if (update.snapshot()) {
+                if (update.version() < presenceVersion) return ;
+
+                connectedUsers.clear();
+                connectedUsers.addAll(update.joined());
+            } else if (update.fromVersion() == presenceVersion) {
+                connectedUsers.removeAll(update.left());
+                connectedUsers.addAll(update.joined());
+            } else {
+                if (update.version() > presenceVersion) {
+                    Thread.ofVirtual().name("presence-resync").start(this::resyncPresence);
+                }
 
-            if (mimeType != null && mimeType.startsWith("image")) {
-                final String imageTag = "<img src='file:///" + tempFile.getAbsolutePath().replace("\\", "/") + "' width='200'/>";
-                appendMessage(sender ,"attached an image: " + imageTag + "<br>Download: " + fileLink);
                 return ;
             }
 
-            appendMessage(sender ,"attached: " + fileLink);
-        } catch (IOException e) {
-            logger.log(Level.SEVERE, "Unable to display an uploaded file", e);
+            presenceVersion = update.version();
+            updateConnectedUsersList(connectedUsers);
+        }
+    }
+
+    private void resyncPresence() {
+        try {
+            applyPresence(server.fetchPresence());
+        } catch (RemoteException e) {
+            logger.log(Level.SEVERE, "Unable to resynchronize connected users", e);
         }
     }
 
     public void updateConnectedUsersList(Collection<String> users) {
-        connectedUsersList.setListData(users.toArray(new String[0]));
+        final String[] data = users.toArray(new String[0]);
+
+        SwingUtilities.invokeLater(() -> connectedUsersList.setListData(data));
     }
 
     private String getColor(String sender) {
@@ -0,0 +1,73 @@
+package me.mouad;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringJoiner;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs a whole cluster inside one JVM, one registry port per node starting at the base port, each
+ * node keeping its state under {@code <dir>/node-<i>}. Separate JVMs are started the same way as a
+ * single server, with {@code chat.cluster.node} and {@code chat.cluster.members} set on each.
+ * <p>
+ * Usage: {@code LocalCluster [nodes=3] [basePort=1099] [dir=cluster]}
+ */
+public final class LocalCluster {
+
+    private static final Logger logger = Logger.getLogger(LocalCluster.class.getName());
+
+    private LocalCluster() {}
+
+    public static List<ChatServer> start(int nodes, int basePort, Path directory) throws IOException {
+        final StringJoiner members = new StringJoiner(",");
+
+        for (int i = 0; i < nodes; i++) {
+            members.add("node-" + i + "=localhost:" + (basePort + i));
+        }
+
+        System.setProperty("chat.cluster.members", members.toString());
+
+        final List<ChatServer> servers = new ArrayList<>(nodes);
+
+        // Every component reads its settings when constructed, so each node gets its own directories
+        for (int i = 0; i < nodes; i++) {
+            final Path nodeDirectory = directory.resolve("node-" + i);
+
+            System.setProperty("chat.cluster.node", "node-" + i);
+            System.setProperty("chat.history.dir", nodeDirectory.resolve("chat_history").toString());
+            System.setProperty("chat.files.dir", nodeDirectory.resolve("chat_files").toString());
+            System.setProperty("chat.search.dir", nodeDirectory.resolve("chat_index").toString());
+
+            servers.add(ChatServer.start(basePort + i));
+        }
+
+        return servers;
+    }
+
+    public static void main(String[] args) {
+        final int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        final int basePort = args.length > 1 ? Integer.parseInt(args[1]) : 1099;
+        final Path directory = Path.of(args.length > 2 ? args[2] : "cluster");
+
+        try {
+            final List<ChatServer> servers = start(nodes, basePort, directory);
+
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                for (ChatServer server : servers) {
+                    try {
+                        server.shutdown();
+                    } catch (Exception e) {
+                        logger.log(Level.SEVERE, "Error stopping cluster node", e);
+                    }
+                }
+            }));
+
+            logger.info("Cluster of " + nodes + " nodes ready on ports " + basePort + " to " + (basePort + nodes - 1) + ".");
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Error starting cluster", e);
+        }
+    }
+}
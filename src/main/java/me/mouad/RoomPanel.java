@@ -0,0 +1,289 @@
+package me.mouad;
+
+import me.mouad.api.ChatMessage;
+import me.mouad.api.HistoryPage;
+import me.mouad.api.Server;
+
+import javax.swing.*;
+import javax.swing.event.HyperlinkListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import javax.swing.text.StyleConstants;
+import javax.swing.text.html.HTML;
+import javax.swing.text.html.HTMLDocument;
+import javax.swing.text.html.HTMLEditorKit;
+import java.awt.*;
+import java.awt.event.AdjustmentEvent;
+import java.io.IOException;
+import java.rmi.RemoteException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Message pane of a single room, with its own rendered window and history cursor. Only touched
+ * on the EDT.
+ */
+class RoomPanel extends JPanel {
+
+    static final long UNKNOWN_SEQUENCE = 0;
+    static final int HISTORY_PAGE_SIZE = 50;
+
+    private static final int MAX_RENDERED_MESSAGES = Integer.getInteger("chat.view.maxLines", 2000);
+
+    private final String room;
+    private final Server server;
+    private final Function<ChatMessage, String> formatter;
+    private final AttachmentPreviews previews;
+    private final ScrollbackCache cache;
+    private final JTextPane messagesTextPane;
+    private final JScrollPane messagesScrollPane;
+
+    private final Deque<Long> renderedSequences = new ArrayDeque<>();
+    private long historyCursor = HistoryPage.LATEST;
+    private boolean hasMoreHistory;
+    private boolean loadingHistory;
+    private int cachedLines;
+
+    private static final Logger logger = Logger.getLogger(RoomPanel.class.getName());
+
+    RoomPanel(String room, Server server, Function<ChatMessage, String> formatter, AttachmentPreviews previews,
+              ScrollbackCache cache, HyperlinkListener linkListener) {
+        super(new BorderLayout());
+        this.room = room;
+        this.server = server;
+        this.formatter = formatter;
+        this.previews = previews;
+        this.cache = cache;
+
+        messagesTextPane = new JTextPane();
+        messagesTextPane.setEditable(false);
+        messagesTextPane.setContentType("text/html");
+        messagesTextPane.setEditorKit(new HTMLEditorKit());
+        messagesTextPane.setCaret(new ChatView.InvisibleCaret());
+        messagesTextPane.addHyperlinkListener(linkListener);
+        previews.register((HTMLDocument) messagesTextPane.getDocument());
+
+        messagesScrollPane = new JScrollPane(messagesTextPane);
+        messagesScrollPane.getVerticalScrollBar().addAdjustmentListener(this::onMessagesScrolled);
+        add(messagesScrollPane, BorderLayout.CENTER);
+    }
+
+    String room() {
+        return room;
+    }
+
+    /**
+     * @return the sequence of the newest message displayed, {@code UNKNOWN_SEQUENCE} if none
+     */
+    long lastSequence() {
+        final var iterator = renderedSequences.descendingIterator();
+
+        while (iterator.hasNext()) {
+            final long sequence = iterator.next();
+
+            if (sequence != UNKNOWN_SEQUENCE) return sequence;
+        }
+
+        return UNKNOWN_SEQUENCE;
+    }
+
+    /**
+     * Appends already formatted lines as a single document update.
+     */
+    void appendLines(String html, List<Long> sequences) {
+        renderedSequences.addAll(sequences);
+
+        try {
+            final HTMLDocument document = (HTMLDocument) messagesTextPane.getDocument();
+            final boolean followTail = isScrolledToBottom();
+
+            document.insertBeforeEnd(bodyElement(document), html);
+
+            if (followTail) {
+                trimRenderedMessages(document);
+                messagesTextPane.setCaretPosition(document.getLength()); // Auto scroll
+            }
+        } catch (BadLocationException | IOException e) {
+            logger.log(Level.SEVERE, "Unable to display " + sequences.size() + " new message(s) in " + room, e);
+        }
+    }
+
+    /**
+     * Drops the oldest lines beyond {@code MAX_RENDERED_MESSAGES}; they can be fetched again by
+     * scrolling up.
+     */
+    private void trimRenderedMessages(HTMLDocument document) throws BadLocationException {
+        final int excess = renderedSequences.size() - MAX_RENDERED_MESSAGES;
+
+        if (excess <= 0) return ;
+
+        removeFirstLines(document, excess);
+
+        renderedSequences.stream()
+                .filter(sequence -> sequence != UNKNOWN_SEQUENCE)
+                .findFirst()
+                .ifPresent(sequence -> {
+                    historyCursor = sequence;
+                    hasMoreHistory = true;
+                });
+    }
+
+    private void removeFirstLines(HTMLDocument document, int count) throws BadLocationException {
+        final Element body = bodyElement(document);
+        final int start = body.getElement(0).getStartOffset();
+        int end = start;
+        int removed = 0;
+
+        for (int i = 0; i < body.getElementCount() && removed < count; i++) {
+            final Element line = body.getElement(i);
+
+            end = line.getEndOffset();
+
+            if (line.getName().equals(HTML.Tag.DIV.toString())) {
+                removed++;
+            }
+        }
+
+        document.remove(start, end - start);
+
+        for (int i = 0; i < removed; i++) {
+            renderedSequences.removeFirst();
+        }
+
+        cachedLines = Math.max(0, cachedLines - removed);
+    }
+
+    private boolean isScrolledToBottom() {
+        final JScrollBar scrollBar = messagesScrollPane.getVerticalScrollBar();
+
+        return scrollBar.getValue() + scrollBar.getVisibleAmount() >= scrollBar.getMaximum() - 16;
+    }
+
+    private static Element bodyElement(HTMLDocument document) {
+        return document.getElement(document.getDefaultRootElement(), StyleConstants.NameAttribute, HTML.Tag.BODY);
+    }
+
+    /**
+     * Shows the latest page of the local cache until the server answers the join. Ignored once the
+     * server already sent a page.
+     */
+    void showCachedHistory(HistoryPage page) {
+        if (historyCursor != HistoryPage.LATEST || page.messages().isEmpty()) return ;
+
+        prependHistory(page);
+        cachedLines = page.messages().size();
+    }
+
+    /**
+     * Inserts the page the server sent on join in place of the cached lines, which it could not
+     * bring up to date.
+     */
+    void replaceCachedHistory(HistoryPage page) {
+        if (cachedLines > 0) {
+            try {
+                removeFirstLines((HTMLDocument) messagesTextPane.getDocument(), cachedLines);
+            } catch (BadLocationException e) {
+                logger.log(Level.SEVERE, "Unable to drop the cached history of " + room, e);
+            }
+
+            historyCursor = HistoryPage.LATEST;
+        }
+
+        prependHistory(page);
+    }
+
+    /**
+     * Inserts a page of older messages above everything currently displayed. The previews of its
+     * attachments must already be loaded to be shown.
+     */
+    void prependHistory(HistoryPage page) {
+        final boolean initialPage = historyCursor == HistoryPage.LATEST;
+
+        historyCursor = page.nextCursor();
+        hasMoreHistory = page.hasMore();
+
+        if (page.messages().isEmpty()) return ;
+
+        final StringBuilder html = new StringBuilder();
+
+        for (ChatMessage message : page.messages()) {
+            html.append("<div>").append(formatter.apply(message)).append("</div>");
+        }
+
+        for (ChatMessage message : page.messages().reversed()) {
+            renderedSequences.addFirst(message.sequence());
+        }
+
+        try {
+            final HTMLDocument document = (HTMLDocument) messagesTextPane.getDocument();
+            final Element body = bodyElement(document);
+            final JScrollBar scrollBar = messagesScrollPane.getVerticalScrollBar();
+            final int distanceFromBottom = scrollBar.getMaximum() - scrollBar.getValue();
+
+            document.insertAfterStart(body, html.toString());
+
+            if (initialPage) {
+                messagesTextPane.setCaretPosition(document.getLength());
+                return ;
+            }
+
+            // Keep the message the user was looking at in place once the layout is updated
+            SwingUtilities.invokeLater(() -> scrollBar.setValue(scrollBar.getMaximum() - distanceFromBottom));
+        } catch (BadLocationException | IOException e) {
+            logger.log(Level.SEVERE, "Unable to display the history of " + room, e);
+        }
+    }
+
+    private void onMessagesScrolled(AdjustmentEvent event) {
+        if (event.getValue() != 0 || !hasMoreHistory || loadingHistory) return ;
+
+        loadingHistory = true;
+
+        new SwingWorker<HistoryPage, Void>() {
+            @Override
+            protected HistoryPage doInBackground() throws RemoteException {
+                final HistoryPage page = fetchOlderMessages(historyCursor);
+
+                previews.load(AttachmentPreviews.attachments(page.messages())).join();
+                return page;
+            }
+
+            @Override
+            protected void done() {
+                loadingHistory = false;
+
+                try {
+                    prependHistory(get());
+                } catch (InterruptedException | ExecutionException e) {
+                    logger.log(Level.SEVERE, "Unable to load older messages of " + room, e);
+                }
+            }
+        }.execute();
+    }
+
+    /**
+     * Reads the page before {@code beforeSequence} from the local cache when it holds all of it, and
+     * from the server otherwise. Whatever the cache holds is still shown while the server is down.
+     */
+    private HistoryPage fetchOlderMessages(long beforeSequence) throws RemoteException {
+        final HistoryPage cached = cache.page(room, beforeSequence, HISTORY_PAGE_SIZE);
+        final List<ChatMessage> messages = cached.messages();
+        final boolean contiguous = !messages.isEmpty() && messages.getLast().sequence() == beforeSequence - 1;
+
+        if (contiguous && (messages.size() == HISTORY_PAGE_SIZE || !cached.hasMore())) return cached;
+
+        try {
+            return server.fetchHistory(room, beforeSequence, HISTORY_PAGE_SIZE);
+        } catch (RemoteException e) {
+            if (!contiguous) throw e;
+
+            logger.log(Level.WARNING, "Server unreachable, showing the cached history of " + room, e);
+            return cached;
+        }
+    }
+}
@@ -0,0 +1,366 @@
+package me.mouad;
+
+import me.mouad.api.ChatMessage;
+import me.mouad.api.FileReference;
+import me.mouad.api.HistoryPage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The latest messages of each room, kept across restarts so a client shows its scrollback
+ * immediately and only asks the server for what it missed.
+ * <p>
+ * Each room is a memory-mapped file of {@code roomBytes}: a header holding the end of the data,
+ * then records in sequence order. Only a contiguous run of sequences is kept, so the last one is
+ * a safe point to resume from; when the file is full its older half is dropped. Writes are plain
+ * memory copies on the thread delivering the messages, and the data survives the client being
+ * killed. A torn or corrupt tail is dropped on load.
+ */
+final class ScrollbackCache {
+
+    private static final int MAGIC = 0x43534331; // CSC1
+    private static final int HEADER_BYTES = 16;
+    private static final int END_OFFSET = 4;
+    private static final ChatMessage.Kind[] KINDS = ChatMessage.Kind.values();
+
+    static final ScrollbackCache DISABLED = new ScrollbackCache(null, 0, null);
+
+    private final Path directory;
+    private final int roomBytes;
+    private final FileLock lock; // Held as long as the client runs
+    private final Map<String, RoomFile> rooms = new HashMap<>();
+
+    private static final Logger logger = Logger.getLogger(ScrollbackCache.class.getName());
+
+    private ScrollbackCache(Path directory, int roomBytes, FileLock lock) {
+        this.directory = directory;
+        this.roomBytes = roomBytes;
+        this.lock = lock;
+    }
+
+    /**
+     * Opens the cache kept under {@code directory}, or returns {@link #DISABLED} if another client
+     * already uses it.
+     */
+    static ScrollbackCache open(Path directory, int roomBytes) throws IOException {
+        Files.createDirectories(directory);
+
+        final FileChannel lockChannel = FileChannel.open(directory.resolve("lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock;
+
+        try {
+            lock = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null;
+        }
+
+        if (lock == null) {
+            lockChannel.close();
+            logger.warning("Scrollback cache " + directory + " is used by another client, running without it");
+            return DISABLED;
+        }
+
+        return new ScrollbackCache(directory, roomBytes, lock);
+    }
+
+    /**
+     * Reads {@code chat.cache.enabled}, {@code chat.cache.dir} and {@code chat.cache.roomBytes}; the
+     * cache is kept per server and user.
+     */
+    static ScrollbackCache fromSystemProperties(String server, String username) {
+        if (!Boolean.parseBoolean(System.getProperty("chat.cache.enabled", "true"))) return DISABLED;
+
+        final Path root = Path.of(System.getProperty("chat.cache.dir", Path.of(System.getProperty("user.home"), ".chat-cache").toString()));
+
+        try {
+            return open(root.resolve(sanitize(server)).resolve(sanitize(username)),
+                    Integer.getInteger("chat.cache.roomBytes", 1024 * 1024));
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Unable to open the scrollback cache, running without it", e);
+            return DISABLED;
+        }
+    }
+
+    private static String sanitize(String name) {
+        return name.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+
+    /**
+     * @return the sequence the cached history of {@code room} ends at, {@code 0} if none is cached
+     */
+    long lastSequence(String room) {
+        final RoomFile file = room(room);
+
+        if (file == null) return 0;
+
+        synchronized (file) {
+            return file.lastSequence();
+        }
+    }
+
+    /**
+     * @return up to {@code limit} cached messages right before {@code beforeSequence}, as if read
+     * from the server
+     */
+    HistoryPage page(String room, long beforeSequence, int limit) {
+        final RoomFile file = room(room);
+
+        if (file == null) return new HistoryPage(room, List.of(), beforeSequence, false);
+
+        synchronized (file) {
+            return file.page(beforeSequence, limit);
+        }
+    }
+
+    /**
+     * Appends newly delivered messages. A message that does not follow the cached ones starts the
+     * cache of its room over.
+     */
+    void append(List<ChatMessage> messages) {
+        for (ChatMessage message : messages) {
+            final RoomFile file = room(message.room());
+
+            if (file == null) continue;
+
+            synchronized (file) {
+                file.append(message);
+            }
+        }
+    }
+
+    /**
+     * Replaces the cached history of {@code room} by the latest page the server sent.
+     */
+    void replace(String room, List<ChatMessage> messages) {
+        final RoomFile file = room(room);
+
+        if (file == null) return ;
+
+        synchronized (file) {
+            file.clear();
+
+            for (ChatMessage message : messages) {
+                file.append(message);
+            }
+        }
+    }
+
+    private synchronized RoomFile room(String room) {
+        if (directory == null) return null;
+
+        RoomFile file = rooms.get(room);
+
+        if (file == null && !rooms.containsKey(room)) {
+            try {
+                file = RoomFile.open(room, directory.resolve(sanitize(room) + ".cache"), roomBytes);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Unable to open the scrollback cache of " + room, e);
+            }
+
+            // A room that failed to open stays uncached rather than being retried on every message
+            rooms.put(room, file);
+        }
+
+        return file;
+    }
+
+    private static final class RoomFile {
+
+        private final String room;
+        private final MappedByteBuffer buffer;
+        private final List<Integer> offsets = new ArrayList<>();
+        private final List<Long> sequences = new ArrayList<>();
+
+        private int end = HEADER_BYTES;
+
+        private RoomFile(String room, MappedByteBuffer buffer) {
+            this.room = room;
+            this.buffer = buffer;
+        }
+
+        static RoomFile open(String room, Path path, int size) throws IOException {
+            try (final FileChannel channel = FileChannel.open(path,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                // The mapping outlives the channel
+                final RoomFile file = new RoomFile(room, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+
+                file.load();
+                return file;
+            }
+        }
+
+        private void load() {
+            if (buffer.getInt(0) != MAGIC) {
+                clear();
+                return ;
+            }
+
+            final int written = buffer.getInt(END_OFFSET);
+            int offset = HEADER_BYTES;
+
+            while (offset + Integer.BYTES <= Math.min(written, buffer.capacity())) {
+                final int length = buffer.getInt(offset);
+                final int next = offset + Integer.BYTES + length;
+
+                if (length < 2 * Long.BYTES + 1 || length > buffer.capacity() || next > written) break;
+
+                final long sequence = buffer.getLong(offset + Integer.BYTES);
+                final int kind = buffer.get(offset + Integer.BYTES + 2 * Long.BYTES);
+
+                if (sequence <= 0 || (!sequences.isEmpty() && sequence != lastSequence() + 1)) break;
+                if (kind < 0 || kind >= KINDS.length) break;
+
+                offsets.add(offset);
+                sequences.add(sequence);
+                offset = next;
+            }
+
+            if (offset != written) {
+                logger.warning("Dropping the corrupt tail of the scrollback cache of " + room + " at byte " + offset);
+            }
+
+            setEnd(offset);
+        }
+
+        long lastSequence() {
+            return sequences.isEmpty() ? 0 : sequences.getLast();
+        }
+
+        void clear() {
+            offsets.clear();
+            sequences.clear();
+            buffer.putInt(0, MAGIC);
+            setEnd(HEADER_BYTES);
+        }
+
+        private void setEnd(int end) {
+            this.end = end;
+            buffer.putInt(END_OFFSET, end);
+        }
+
+        void append(ChatMessage message) {
+            final long last = lastSequence();
+
+            if (message.sequence() <= 0 || (last != 0 && message.sequence() <= last)) return ;
+
+            if (last != 0 && message.sequence() != last + 1) {
+                clear();
+            }
+
+            final byte[] record = encode(message);
+
+            if (record.length > (buffer.capacity() - HEADER_BYTES) / 2) {
+                // Too large to cache, and the run of sequences cannot skip it
+                clear();
+                return ;
+            }
+
+            if (end + Integer.BYTES + record.length > buffer.capacity()) {
+                dropOlderHalf();
+            }
+
+            // The record is in place before the end moves past it
+            buffer.putInt(end, record.length).put(end + Integer.BYTES, record);
+            offsets.add(end);
+            sequences.add(message.sequence());
+            setEnd(end + Integer.BYTES + record.length);
+        }
+
+        private void dropOlderHalf() {
+            final int keepBytes = (buffer.capacity() - HEADER_BYTES) / 2;
+            int first = 0;
+
+            while (first < offsets.size() && end - offsets.get(first) > keepBytes) {
+                first++;
+            }
+
+            final int from = first < offsets.size() ? offsets.get(first) : end;
+            final byte[] kept = new byte[end - from];
+            final int shift = from - HEADER_BYTES;
+
+            buffer.get(from, kept);
+            // Shrunk to nothing first, so a crash while moving leaves an empty cache rather than a corrupt one
+            setEnd(HEADER_BYTES);
+            buffer.put(HEADER_BYTES, kept);
+            setEnd(HEADER_BYTES + kept.length);
+
+            offsets.subList(0, first).clear();
+            sequences.subList(0, first).clear();
+            offsets.replaceAll(offset -> offset - shift);
+        }
+
+        HistoryPage page(long beforeSequence, int limit) {
+            if (sequences.isEmpty()) return new HistoryPage(room, List.of(), beforeSequence, false);
+
+            final long firstCached = sequences.getFirst();
+            final long upTo = Math.min(beforeSequence, lastSequence() + 1);
+            final long from = Math.max(firstCached, upTo - limit);
+            final List<ChatMessage> messages = new ArrayList<>((int) Math.max(0, upTo - from));
+
+            for (long sequence = from; sequence < upTo; sequence++) {
+                messages.add(decode(offsets.get((int) (sequence - firstCached))));
+            }
+
+            return new HistoryPage(room, messages, from, from > 1);
+        }
+
+        /**
+         * {@code [long sequence][long timestamp][byte kind][sender][content]}, then for
+         * attachments {@code [file id][file name][long size]}; strings are
+         * {@code [int length][utf-8]}.
+         */
+        private static byte[] encode(ChatMessage message) {
+            final FileReference file = message.attachment();
+            final byte[] sender = message.sender().getBytes(StandardCharsets.UTF_8);
+            final byte[] content = message.content().getBytes(StandardCharsets.UTF_8);
+            final byte[] fileId = file == null ? new byte[0] : file.fileId().getBytes(StandardCharsets.UTF_8);
+            final byte[] fileName = file == null ? new byte[0] : file.fileName().getBytes(StandardCharsets.UTF_8);
+            final ByteBuffer out = ByteBuffer.allocate(2 * Long.BYTES + 2 + 2 * Integer.BYTES + sender.length + content.length
+                    + (file == null ? 0 : 2 * Integer.BYTES + fileId.length + fileName.length + Long.BYTES));
+
+            out.putLong(message.sequence()).putLong(message.timestamp()).put((byte) message.kind().ordinal());
+            out.putInt(sender.length).put(sender).putInt(content.length).put(content);
+            out.put((byte) (file == null ? 0 : 1));
+
+            if (file != null) {
+                out.putInt(fileId.length).put(fileId).putInt(fileName.length).put(fileName).putLong(file.size());
+            }
+
+            return out.array();
+        }
+
+        private ChatMessage decode(int offset) {
+            final ByteBuffer in = buffer.slice(offset + Integer.BYTES, buffer.getInt(offset));
+            final long sequence = in.getLong();
+            final long timestamp = in.getLong();
+            final ChatMessage.Kind kind = KINDS[in.get()];
+            final String sender = getString(in);
+            final String content = getString(in);
+            final FileReference file = in.get() == 1 ? new FileReference(getString(in), getString(in), in.getLong(), sender) : null;
+
+            return new ChatMessage(room, sequence, timestamp, sender, kind, content, file);
+        }
+
+        private static String getString(ByteBuffer in) {
+            final byte[] bytes = new byte[in.getInt()];
+
+            in.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package me.mouad.api;
+
+import java.io.Serializable;
+
+/**
+ * @param room       the room the message was posted to
+ * @param attachment the referenced file for {@link Kind#FILE} messages, {@code null} otherwise
+ */
+public record ChatMessage(String room, long sequence, long timestamp, String sender, Kind kind, String content,
+                          FileReference attachment) implements Serializable {
+
+    public enum Kind {
+        TEXT,
+        FILE
+    }
+}
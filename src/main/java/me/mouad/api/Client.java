@@ -5,7 +5,7 @@ import java.rmi.RemoteException;
 import java.util.List;
 
 public interface Client extends Remote {
-    void receiveMessage(String sender, String message) throws RemoteException;
-    void receiveFile(String sender, byte[] fileData, String fileName) throws RemoteException;
-    void updateConnectedUsersList(List<String> users) throws RemoteException;
+    void receiveMessages(List<ChatMessage> messages) throws RemoteException;
+    void updatePresence(PresenceUpdate update) throws RemoteException;
+    void receiveHistory(HistoryPage page) throws RemoteException;
 }
@@ -0,0 +1,12 @@
+package me.mouad.api;
+
+import java.io.Serializable;
+
+/**
+ * Points at a file stored once on the server; the bytes are pulled on demand with
+ * {@link Server#downloadChunk(String, long, int)}.
+ *
+ * @param fileId the hex SHA-256 of the file content
+ */
+public record FileReference(String fileId, String fileName, long size, String sender) implements Serializable {
+}
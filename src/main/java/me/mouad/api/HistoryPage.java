@@ -0,0 +1,17 @@
+package me.mouad.api;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * A contiguous slice of the history of one room, oldest message first.
+ *
+ * @param room       the room this page belongs to
+ * @param messages   the messages of this page
+ * @param nextCursor the value to pass as {@code beforeSequence} to fetch the page right before this one
+ * @param hasMore    whether older messages exist before this page
+ */
+public record HistoryPage(String room, List<ChatMessage> messages, long nextCursor, boolean hasMore) implements Serializable {
+
+    public static final long LATEST = Long.MAX_VALUE;
+}
@@ -0,0 +1,19 @@
+package me.mouad.api;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * A change to the set of connected users.
+ * <p>
+ * A delta applies on top of {@code fromVersion} and brings the receiver to {@code version}; a
+ * receiver at any other version is out of sync and should ask for {@link Server#fetchPresence()}.
+ * A snapshot lists every connected user in {@code joined} and applies regardless of version.
+ */
+public record PresenceUpdate(long fromVersion, long version, List<String> joined, List<String> left,
+                             boolean snapshot) implements Serializable {
+
+    public static PresenceUpdate snapshot(long version, List<String> users) {
+        return new PresenceUpdate(version, version, users, List.of(), true);
+    }
+}
@@ -0,0 +1,25 @@
+package me.mouad.api;
+
+import java.rmi.RemoteException;
+
+/**
+ * Thrown when a request exceeds a rate limit of its user or of its room; nothing of it was applied.
+ */
+public class RateLimitException extends RemoteException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long retryAfterMillis;
+
+    public RateLimitException(String message, long retryAfterMillis) {
+        super(message);
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    /**
+     * @return how long to wait before the same request would be accepted
+     */
+    public long retryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
@@ -0,0 +1,62 @@
+package me.mouad.api;
+
+import java.io.Serializable;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * What {@link Server#search(SearchQuery, int)} looks for; every criterion that is set must match.
+ *
+ * @param text          words that must all appear in the message or file name, in any order and case
+ * @param sender        the user who posted the message, {@code null} for anyone
+ * @param room          the room to search, {@code null} for every room
+ * @param fromTimestamp the earliest matching post time in epoch milliseconds, inclusive
+ * @param toTimestamp   the latest matching post time in epoch milliseconds, exclusive
+ */
+public record SearchQuery(String text, String sender, String room, long fromTimestamp, long toTimestamp)
+        implements Serializable {
+
+    public static final long ANY_TIME_FROM = 0;
+    public static final long ANY_TIME_TO = Long.MAX_VALUE;
+
+    public static SearchQuery of(String text) {
+        return new SearchQuery(text, null, null, ANY_TIME_FROM, ANY_TIME_TO);
+    }
+
+    /**
+     * Parses the search box syntax: {@code from:<user>}, {@code in:<room>}, {@code after:<yyyy-mm-dd>}
+     * and {@code before:<yyyy-mm-dd>} narrow the search, every other word must appear in the message.
+     * Dates are days in the local time zone, {@code after} including its day and {@code before} not.
+     *
+     * @throws IllegalArgumentException if a date cannot be parsed
+     */
+    public static SearchQuery parse(String input) {
+        final List<String> words = new ArrayList<>();
+        String sender = null;
+        String room = null;
+        long from = ANY_TIME_FROM;
+        long to = ANY_TIME_TO;
+
+        for (String word : input.trim().split("\\s+")) {
+            if (word.startsWith("from:") && word.length() > 5) {
+                sender = word.substring(5);
+            } else if (word.startsWith("in:") && word.length() > 3) {
+                room = word.substring(3).replaceFirst("^#", "").toLowerCase();
+            } else if (word.startsWith("after:") && word.length() > 6) {
+                from = startOfDay(word.substring(6));
+            } else if (word.startsWith("before:") && word.length() > 7) {
+                to = startOfDay(word.substring(7));
+            } else if (!word.isEmpty()) {
+                words.add(word);
+            }
+        }
+
+        return new SearchQuery(String.join(" ", words), sender, room, from, to);
+    }
+
+    private static long startOfDay(String date) {
+        return LocalDate.parse(date).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+}
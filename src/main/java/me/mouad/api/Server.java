@@ -2,11 +2,98 @@ package me.mouad.api;
 
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.List;
 
 public interface Server extends Remote {
 
+    /**
+     * The room every client joins on registration and cannot leave.
+     */
+    String DEFAULT_ROOM = "general";
+
     void register(String username, Client client) throws RemoteException;
+
+    /**
+     * Registers a client that already holds the default room's history up to
+     * {@code lastSequence}, {@code 0} for none. Only the messages after it are sent, through
+     * {@link Client#receiveMessages(List)}; if too many were missed the latest page is sent instead,
+     * as on a first registration.
+     */
+    void register(String username, Client client, long lastSequence) throws RemoteException;
     void unregister(String username) throws RemoteException;
+
+    /**
+     * Renews the lease of {@code username}; clients that stop calling this are evicted.
+     *
+     * @return the lease duration in milliseconds, renew well before it elapses
+     */
+    long heartbeat(String username) throws RemoteException;
+
+    /**
+     * Posts {@code message} to the default room.
+     */
     void broadcastMessage(String sender, String message) throws RemoteException;
-    void broadcastFile(String sender, byte[] fileData, String fileName) throws RemoteException;
+
+    /**
+     * Posts {@code message} to {@code room}, which {@code sender} must have joined. Only the
+     * room's subscribers receive it.
+     */
+    void sendMessage(String sender, String room, String message) throws RemoteException;
+
+    /**
+     * Subscribes {@code username} to {@code room}, creating the room if needed, and queues its
+     * latest history page through {@link Client#receiveHistory(HistoryPage)}.
+     */
+    void joinRoom(String username, String room) throws RemoteException;
+
+    /**
+     * Like {@link #register(String, Client, long)}, only the messages of {@code room} after
+     * {@code lastSequence} are sent when possible.
+     */
+    void joinRoom(String username, String room, long lastSequence) throws RemoteException;
+    void leaveRoom(String username, String room) throws RemoteException;
+    List<String> listRooms() throws RemoteException;
+
+    /**
+     * Starts a resumable upload that is posted as a {@link FileReference} once completed.
+     *
+     * @return the upload id to pass to the other upload methods
+     */
+    String beginUpload(String sender, String fileName, long size) throws RemoteException;
+
+    /**
+     * Writes {@code chunk} at {@code offset}, which must equal the number of bytes received so far.
+     *
+     * @return the number of bytes received after this chunk
+     */
+    long uploadChunk(String uploadId, long offset, byte[] chunk) throws RemoteException;
+    long uploadedBytes(String uploadId) throws RemoteException;
+
+    /**
+     * Stores the upload and posts it to {@code room}.
+     */
+    FileReference completeUpload(String uploadId, String room) throws RemoteException;
+
+    /**
+     * @return up to {@code length} bytes starting at {@code offset}, empty once past the end of the file
+     */
+    byte[] downloadChunk(String fileId, long offset, int length) throws RemoteException;
+
+    /**
+     * Returns a small preview of an image attachment, generated once by the server, so clients can
+     * show images inline without downloading them.
+     *
+     * @return a JPEG or PNG image, empty if the file is not an image
+     */
+    byte[] fetchThumbnail(String fileId) throws RemoteException;
+
+    HistoryPage fetchHistory(String room, long beforeSequence, int limit) throws RemoteException;
+    PresenceUpdate fetchPresence() throws RemoteException;
+
+    /**
+     * Finds messages matching {@code query} in the rooms' history.
+     *
+     * @return up to {@code limit} matching messages, newest first
+     */
+    List<ChatMessage> search(SearchQuery query, int limit) throws RemoteException;
 }
@@ -0,0 +1,514 @@
+package me.mouad.cluster;
+
+import me.mouad.history.MessageRecord;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.rmi.RemoteException;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Spreads one chat service over several nodes, each holding its own share of the clients.
+ * <p>
+ * Every room is owned by one live node, chosen by rendezvous hashing over the nodes currently
+ * reachable. The owner is the only one assigning sequence numbers in that room, so every replica
+ * sees the same order; other nodes forward their posts to it and receive the committed entries
+ * back through replication, which they apply strictly in sequence order. A node that misses
+ * entries, because it restarted or a batch was lost, pulls them from a peer.
+ * <p>
+ * Ownership moves as soon as a node is seen down or back up, but a node only assigns sequences in a
+ * room it just took over once it pulled what the live peers hold of it, so a restarted owner
+ * resumes after the entries appended while it was away. There is no consensus protocol: entries
+ * the old owner committed but never replicated are not part of the new owner's history, and two
+ * nodes that briefly both believe they own a room may still assign the same sequence. Such a
+ * conflict is reported, never applied over the local entry.
+ */
+public class Cluster implements AutoCloseable {
+
+    public static final long DEFAULT_HEARTBEAT_MILLIS = 1000;
+    public static final int DEFAULT_QUEUE_CAPACITY = 65536;
+    public static final int DEFAULT_MAX_BATCH = 256;
+
+    private static final int CATCH_UP_PAGE = 500;
+    private static final long GAP_GRACE_MILLIS = 200;
+
+    private final String selfId;
+    private final Map<String, PeerLink> peers = new ConcurrentHashMap<>();
+    private final Map<String, RoomReplica> replicas = new ConcurrentHashMap<>();
+    private final ClusterHandler handler;
+    private final ScheduledExecutorService scheduler;
+    // Bumped whenever a peer is seen going up or down, which may move rooms to this node
+    private final AtomicLong membership = new AtomicLong();
+
+    private ClusterEndpoint endpoint;
+
+    private static final Logger logger = Logger.getLogger(Cluster.class.getName());
+
+    /**
+     * Out-of-order entries of one room waiting for the gap before them to be filled.
+     */
+    private static final class RoomReplica {
+        // Guarded by this
+        final NavigableMap<Long, ClusterEntry> pending = new TreeMap<>();
+        boolean catchUpScheduled;
+
+        // Held while taking the room over, so appends wait for the catch-up
+        final ReentrantLock takeOver = new ReentrantLock();
+        // The membership this node last caught up with the room in, -1 if never
+        volatile long caughtUpIn = -1;
+    }
+
+    public Cluster(ClusterConfig config, ClusterHandler handler, Duration heartbeat, int queueCapacity, int maxBatch) {
+        this.selfId = config.nodeId();
+        this.handler = handler;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform()
+                .name("cluster-heartbeat")
+                .daemon()
+                .factory());
+
+        for (Map.Entry<String, InetSocketAddress> member : config.members().entrySet()) {
+            if (member.getKey().equals(selfId)) continue;
+
+            peers.put(member.getKey(), new PeerLink(selfId, member.getKey(), member.getValue(),
+                    queueCapacity, maxBatch, this::onPeerFailure));
+        }
+
+        if (!peers.isEmpty()) {
+            final long interval = heartbeat.toMillis();
+            scheduler.scheduleWithFixedDelay(this::heartbeat, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Reads {@code chat.cluster.node}, {@code chat.cluster.members}, {@code chat.cluster.heartbeatMillis},
+     * {@code chat.cluster.queueCapacity} and {@code chat.cluster.maxBatch}.
+     */
+    public static Cluster fromSystemProperties(ClusterHandler handler) {
+        return new Cluster(ClusterConfig.fromSystemProperties(), handler,
+                Duration.ofMillis(Long.getLong("chat.cluster.heartbeatMillis", DEFAULT_HEARTBEAT_MILLIS)),
+                Integer.getInteger("chat.cluster.queueCapacity", DEFAULT_QUEUE_CAPACITY),
+                Integer.getInteger("chat.cluster.maxBatch", DEFAULT_MAX_BATCH));
+    }
+
+    /**
+     * Exports the node-to-node endpoint in {@code registry}; standalone nodes export nothing.
+     */
+    public void bind(Registry registry) throws RemoteException {
+        if (peers.isEmpty()) return ;
+
+        endpoint = new ClusterEndpoint(this, handler);
+        registry.rebind(ClusterNode.BINDING, endpoint);
+
+        // Find the peers already running before taking any post, so rooms start on their owners
+        heartbeat();
+
+        logger.info("Cluster node " + selfId + " bound with peers " + peers.keySet());
+    }
+
+    public String nodeId() {
+        return selfId;
+    }
+
+    public boolean hasPeers() {
+        return !peers.isEmpty();
+    }
+
+    public boolean owns(String room) {
+        return ownerOf(room).equals(selfId);
+    }
+
+    /**
+     * Rendezvous hashing over the live nodes: a room only moves when its own owner goes down.
+     */
+    public String ownerOf(String room) {
+        String owner = selfId;
+        long best = weight(room, selfId);
+
+        for (PeerLink peer : peers.values()) {
+            if (!peer.isUp()) continue;
+
+            final long candidate = weight(room, peer.nodeId());
+
+            if (candidate > best || (candidate == best && peer.nodeId().compareTo(owner) < 0)) {
+                best = candidate;
+                owner = peer.nodeId();
+            }
+        }
+
+        return owner;
+    }
+
+    private static long weight(String room, String nodeId) {
+        long hash = (room.hashCode() * 0x9E3779B97F4A7C15L) ^ nodeId.hashCode();
+
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * Appends {@code message} to {@code room} through its owner, failing over to the next owner
+     * if the current one turns out to be unreachable.
+     */
+    public ClusterEntry append(String room, MessageRecord message) throws IOException {
+        RemoteException lastFailure = null;
+
+        for (int attempt = 0; attempt <= peers.size(); attempt++) {
+            final String owner = ownerOf(room);
+
+            if (owner.equals(selfId)) {
+                if (!takeOver(room)) continue;
+
+                return handler.appendLocally(room, message);
+            }
+
+            final PeerLink peer = peers.get(owner);
+
+            try {
+                return peer.stub().append(room, message);
+            } catch (RemoteException e) {
+                lastFailure = e;
+                onPeerFailure(peer);
+            }
+        }
+
+        throw new IOException("No node could take the append to " + room, lastFailure);
+    }
+
+    /**
+     * Appends {@code message} forwarded by a peer that sees this node as the owner of {@code room}.
+     */
+    ClusterEntry appendForwarded(String room, MessageRecord message) throws IOException {
+        if (!takeOver(room)) {
+            throw new IOException("Room " + room + " moved to " + ownerOf(room) + " while catching up");
+        }
+
+        return handler.appendLocally(room, message);
+    }
+
+    /**
+     * Pulls what the live peers hold of {@code room} before this node assigns sequences in it for
+     * the first time since the membership changed, as the room may have been appended to through
+     * another owner meanwhile. Appends wait for the catch-up rather than reusing sequences.
+     *
+     * @return whether this node still owns {@code room} once caught up
+     */
+    private boolean takeOver(String room) {
+        if (peers.isEmpty()) return true;
+
+        final RoomReplica replica = replicas.computeIfAbsent(room, _ -> new RoomReplica());
+
+        if (replica.caughtUpIn == membership.get()) return true;
+
+        replica.takeOver.lock();
+        try {
+            while (true) {
+                final long current = membership.get();
+
+                if (replica.caughtUpIn == current) return true;
+                if (!owns(room)) return false;
+
+                for (PeerLink peer : peers.values()) {
+                    if (peer.isUp()) {
+                        catchUp(room, peer);
+                    }
+                }
+
+                // A peer seen going up or down meanwhile may hold more, or took the room
+                if (membership.get() == current) {
+                    logger.fine(() -> "Took over room " + room + " at sequence " + handler.nextSequence(room));
+                    replica.caughtUpIn = current;
+                    return true;
+                }
+            }
+        } finally {
+            replica.takeOver.unlock();
+        }
+    }
+
+    /**
+     * Queues an entry committed by this node for every reachable peer.
+     */
+    public void replicate(ClusterEntry entry) {
+        for (PeerLink peer : peers.values()) {
+            peer.offer(entry);
+        }
+    }
+
+    /**
+     * Best-effort cluster-wide name check against the users peers last reported.
+     */
+    public boolean isConnectedElsewhere(String username) {
+        for (PeerLink peer : peers.values()) {
+            if (peer.isUp() && peer.users.contains(username)) return true;
+        }
+
+        return false;
+    }
+
+    public void announcePresence(String username, boolean joined) {
+        if (peers.isEmpty()) return ;
+
+        Thread.ofVirtual().name("presence-" + username).start(() -> {
+            for (PeerLink peer : peers.values()) {
+                if (!peer.isUp()) continue;
+
+                try {
+                    peer.stub().presence(selfId, username, joined);
+                } catch (RemoteException e) {
+                    onPeerFailure(peer);
+                }
+            }
+        });
+    }
+
+    /**
+     * Reads a blob that was uploaded through another node.
+     */
+    public byte[] readBlob(String fileId, long offset, int length) throws RemoteException {
+        return fromAnyPeer(fileId, node -> node.readBlob(fileId, offset, length));
+    }
+
+    /**
+     * Reads the preview of a blob that was uploaded through another node.
+     */
+    public byte[] readThumbnail(String fileId) throws RemoteException {
+        return fromAnyPeer(fileId, node -> node.readThumbnail(fileId));
+    }
+
+    private interface BlobRead {
+        byte[] read(ClusterNode node) throws RemoteException;
+    }
+
+    private byte[] fromAnyPeer(String fileId, BlobRead read) throws RemoteException {
+        RemoteException lastFailure = new RemoteException("No node holds blob " + fileId);
+
+        for (PeerLink peer : peers.values()) {
+            if (!peer.isUp()) continue;
+
+            try {
+                return read.read(peer.stub());
+            } catch (RemoteException e) {
+                lastFailure = e;
+            }
+        }
+
+        throw lastFailure;
+    }
+
+    void onReplicated(String fromNode, List<ClusterEntry> entries) {
+        for (ClusterEntry entry : entries) {
+            try {
+                apply(entry, fromNode);
+            } catch (RuntimeException e) {
+                logger.log(Level.SEVERE, "Unable to apply entry " + entry.sequence() + " of " + entry.room(), e);
+            }
+        }
+    }
+
+    void onPresence(String fromNode, String username, boolean joined) {
+        final PeerLink peer = peers.get(fromNode);
+
+        if (peer == null) return ;
+
+        if (joined ? peer.users.add(username) : peer.users.remove(username)) {
+            handler.remotePresence(username, joined);
+        }
+    }
+
+    private void apply(ClusterEntry entry, String fromNode) {
+        final RoomReplica replica = replicas.computeIfAbsent(entry.room(), _ -> new RoomReplica());
+
+        synchronized (replica) {
+            long next = handler.nextSequence(entry.room());
+
+            if (entry.sequence() < next) {
+                checkDuplicate(entry, fromNode);
+                return ;
+            }
+
+            if (entry.sequence() > next) {
+                replica.pending.put(entry.sequence(), entry);
+                scheduleCatchUp(entry.room(), fromNode, replica);
+                return ;
+            }
+
+            handler.applyReplicated(entry);
+            next++;
+
+            while (!replica.pending.isEmpty() && replica.pending.firstKey() <= next) {
+                final ClusterEntry buffered = replica.pending.pollFirstEntry().getValue();
+
+                if (buffered.sequence() == next) {
+                    handler.applyReplicated(buffered);
+                    next++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Entries this node already has arrive again when replication and catch-up overlap; they must
+     * be the same, or two nodes assigned that sequence in the same room.
+     *
+     * @throws IllegalStateException if {@code entry} differs from the local entry of its sequence
+     */
+    private void checkDuplicate(ClusterEntry entry, String fromNode) {
+        final List<ClusterEntry> local = handler.readEntries(entry.room(), entry.sequence() - 1, 1);
+
+        // Deleted by retention or skipped, nothing left to compare with
+        if (local.isEmpty() || local.getFirst().sequence() != entry.sequence()) return ;
+
+        if (!local.getFirst().equals(entry)) {
+            throw new IllegalStateException("Sequence conflict in room " + entry.room() + ": entry " + entry.sequence()
+                    + " from " + fromNode + " is " + entry.message() + " but this node has " + local.getFirst().message());
+        }
+    }
+
+    /**
+     * Gives reordered batches a moment to arrive before pulling the missing entries.
+     */
+    private void scheduleCatchUp(String room, String fromNode, RoomReplica replica) {
+        if (replica.catchUpScheduled) return ;
+
+        replica.catchUpScheduled = true;
+        scheduler.schedule(() -> Thread.ofVirtual().name("catch-up-" + room).start(() -> {
+            synchronized (replica) {
+                replica.catchUpScheduled = false;
+                if (replica.pending.isEmpty()) return ;
+            }
+
+            final PeerLink peer = peers.get(fromNode);
+
+            if (peer != null) {
+                catchUp(room, peer);
+            }
+        }), GAP_GRACE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private void catchUp(String room, PeerLink peer) {
+        try {
+            while (true) {
+                final List<ClusterEntry> entries = peer.stub().fetchEntries(room, handler.nextSequence(room) - 1, CATCH_UP_PAGE);
+
+                if (entries.isEmpty()) return ;
+
+                skipDeleted(room, entries.getFirst().sequence());
+
+                onReplicated(peer.nodeId(), entries);
+
+                if (entries.size() < CATCH_UP_PAGE) return ;
+            }
+        } catch (RemoteException e) {
+            logger.log(Level.WARNING, "Catching up " + room + " from " + peer.nodeId() + " failed", e);
+            onPeerFailure(peer);
+        }
+    }
+
+    /**
+     * Moves past the entries a peer returned none of because its retention deleted them, or they
+     * would be pulled again forever.
+     */
+    private void skipDeleted(String room, long firstAvailable) {
+        final RoomReplica replica = replicas.computeIfAbsent(room, _ -> new RoomReplica());
+
+        synchronized (replica) {
+            if (firstAvailable > handler.nextSequence(room)) {
+                handler.skipTo(room, firstAvailable);
+            }
+        }
+    }
+
+    private void heartbeat() {
+        for (PeerLink peer : peers.values()) {
+            try {
+                peer.stub().ping(selfId);
+                onPeerUp(peer);
+            } catch (RemoteException e) {
+                onPeerFailure(peer);
+            }
+        }
+    }
+
+    /**
+     * A peer pinging this node is up, even if the heartbeat did not see it yet. A restarted node
+     * pings every peer before it takes any post, so they stop owning its rooms first.
+     */
+    void onPing(String fromNode) {
+        final PeerLink peer = peers.get(fromNode);
+
+        if (peer != null) {
+            onPeerUp(peer);
+        }
+    }
+
+    private void onPeerUp(PeerLink peer) {
+        if (!peer.markUp()) return ;
+
+        membership.incrementAndGet();
+        logger.info("Cluster peer " + peer.nodeId() + " is up");
+        Thread.ofVirtual().name("sync-" + peer.nodeId()).start(() -> synchronize(peer));
+    }
+
+    /**
+     * Pulls everything a peer that just came up has and this node does not.
+     */
+    private void synchronize(PeerLink peer) {
+        try {
+            for (String username : peer.stub().ping(selfId)) {
+                onPresence(peer.nodeId(), username, true);
+            }
+
+            for (String room : peer.stub().rooms()) {
+                catchUp(room, peer);
+            }
+        } catch (RemoteException e) {
+            onPeerFailure(peer);
+        }
+    }
+
+    private void onPeerFailure(PeerLink peer) {
+        if (!peer.markDown()) return ;
+
+        membership.incrementAndGet();
+
+        logger.warning("Cluster peer " + peer.nodeId() + " is down, moving its rooms");
+
+        final List<String> users = new ArrayList<>(peer.users);
+        peer.users.clear();
+
+        for (String username : users) {
+            handler.remotePresence(username, false);
+        }
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        peers.values().forEach(PeerLink::close);
+
+        if (endpoint != null) {
+            try {
+                UnicastRemoteObject.unexportObject(endpoint, true);
+            } catch (RemoteException e) {
+                logger.log(Level.WARNING, "Unable to unexport the cluster endpoint", e);
+            }
+        }
+    }
+}
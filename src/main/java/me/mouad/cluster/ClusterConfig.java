@@ -0,0 +1,52 @@
+package me.mouad.cluster;
+
+import java.net.InetSocketAddress;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Static cluster membership: every node knows the registry address of every other node.
+ *
+ * @param nodeId  the id of this node, one of the keys of {@code members}
+ * @param members registry address of each node by id, including this one
+ */
+public record ClusterConfig(String nodeId, Map<String, InetSocketAddress> members) {
+
+    public ClusterConfig {
+        members = Map.copyOf(members);
+
+        if (!members.isEmpty() && !members.containsKey(nodeId)) {
+            throw new IllegalArgumentException("Node " + nodeId + " is not one of the members " + members.keySet());
+        }
+    }
+
+    public static ClusterConfig standalone() {
+        return new ClusterConfig("local", Map.of());
+    }
+
+    /**
+     * Reads {@code chat.cluster.node} and {@code chat.cluster.members}, the latter formatted as
+     * {@code a=host:port,b=host:port}. Without members the node runs standalone.
+     */
+    public static ClusterConfig fromSystemProperties() {
+        final String spec = System.getProperty("chat.cluster.members", "").trim();
+
+        if (spec.isEmpty()) return standalone();
+
+        final Map<String, InetSocketAddress> members = new LinkedHashMap<>();
+
+        for (String member : spec.split(",")) {
+            final String[] idAndAddress = member.trim().split("=", 2);
+            final int colon = idAndAddress[1].lastIndexOf(':');
+
+            members.put(idAndAddress[0], InetSocketAddress.createUnresolved(
+                    idAndAddress[1].substring(0, colon), Integer.parseInt(idAndAddress[1].substring(colon + 1))));
+        }
+
+        return new ClusterConfig(System.getProperty("chat.cluster.node", members.keySet().iterator().next()), members);
+    }
+
+    public boolean isStandalone() {
+        return members.size() <= 1;
+    }
+}
@@ -0,0 +1,75 @@
+package me.mouad.cluster;
+
+import me.mouad.history.MessageRecord;
+
+import java.io.IOException;
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.List;
+
+/**
+ * Remote face of the local node, delegating to its {@link Cluster}.
+ */
+final class ClusterEndpoint extends UnicastRemoteObject implements ClusterNode {
+
+    private final transient Cluster cluster;
+    private final transient ClusterHandler handler;
+
+    ClusterEndpoint(Cluster cluster, ClusterHandler handler) throws RemoteException {
+        this.cluster = cluster;
+        this.handler = handler;
+    }
+
+    @Override
+    public List<String> ping(String fromNode) throws RemoteException {
+        cluster.onPing(fromNode);
+        return handler.localUsers();
+    }
+
+    @Override
+    public ClusterEntry append(String room, MessageRecord message) throws RemoteException {
+        try {
+            return cluster.appendForwarded(room, message);
+        } catch (IOException e) {
+            throw new RemoteException("Unable to append to room " + room, e);
+        }
+    }
+
+    @Override
+    public void replicate(String fromNode, List<ClusterEntry> entries) throws RemoteException {
+        cluster.onReplicated(fromNode, entries);
+    }
+
+    @Override
+    public List<ClusterEntry> fetchEntries(String room, long afterSequence, int limit) throws RemoteException {
+        return handler.readEntries(room, afterSequence, limit);
+    }
+
+    @Override
+    public List<String> rooms() throws RemoteException {
+        return handler.rooms();
+    }
+
+    @Override
+    public void presence(String fromNode, String username, boolean joined) throws RemoteException {
+        cluster.onPresence(fromNode, username, joined);
+    }
+
+    @Override
+    public byte[] readBlob(String fileId, long offset, int length) throws RemoteException {
+        try {
+            return handler.readBlob(fileId, offset, length);
+        } catch (IOException e) {
+            throw new RemoteException("Unable to read blob " + fileId, e);
+        }
+    }
+
+    @Override
+    public byte[] readThumbnail(String fileId) throws RemoteException {
+        try {
+            return handler.readThumbnail(fileId);
+        } catch (IOException e) {
+            throw new RemoteException("Unable to read thumbnail of " + fileId, e);
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package me.mouad.cluster;
+
+import me.mouad.history.MessageRecord;
+
+import java.io.Serializable;
+
+/**
+ * A history record of one room as shipped between nodes; the sequence is assigned by the node
+ * owning the room and is the same on every replica. The message travels decoded, since sender ids
+ * are local to each node's logs.
+ */
+public record ClusterEntry(String room, long sequence, long timestamp, MessageRecord message) implements Serializable {
+}
@@ -0,0 +1,40 @@
+package me.mouad.cluster;
+
+import me.mouad.history.MessageRecord;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * The local node's state, as seen by the {@link Cluster}.
+ */
+public interface ClusterHandler {
+
+    /**
+     * Appends to a room owned by this node, delivers it to local subscribers and hands it back to
+     * be replicated.
+     */
+    ClusterEntry appendLocally(String room, MessageRecord message) throws IOException;
+
+    long nextSequence(String room);
+
+    /**
+     * Appends an entry received from the owner of its room. Only called in sequence order.
+     */
+    void applyReplicated(ClusterEntry entry);
+
+    /**
+     * Gives up on the entries of {@code room} before {@code sequence}, which no peer holds anymore;
+     * the next one applied is {@code sequence}.
+     */
+    void skipTo(String room, long sequence);
+
+    List<ClusterEntry> readEntries(String room, long afterSequence, int limit);
+    List<String> rooms();
+    List<String> localUsers();
+
+    void remotePresence(String username, boolean joined);
+
+    byte[] readBlob(String fileId, long offset, int length) throws IOException;
+    byte[] readThumbnail(String fileId) throws IOException;
+}
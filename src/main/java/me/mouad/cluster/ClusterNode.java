@@ -0,0 +1,46 @@
+package me.mouad.cluster;
+
+import me.mouad.history.MessageRecord;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.util.List;
+
+/**
+ * Node-to-node endpoint, bound next to the {@code ChatServer} in each node's registry.
+ */
+public interface ClusterNode extends Remote {
+
+    String BINDING = "ClusterNode";
+
+    /**
+     * @return the users connected to this node, so a peer that just saw it come up can show them
+     */
+    List<String> ping(String fromNode) throws RemoteException;
+
+    /**
+     * Appends {@code message} to {@code room} on the node owning it, which assigns the sequence
+     * and replicates the entry to every other node.
+     */
+    ClusterEntry append(String room, MessageRecord message) throws RemoteException;
+
+    /**
+     * Ships entries in sequence order per room; gaps are filled by the receiver through
+     * {@link #fetchEntries(String, long, int)}.
+     */
+    void replicate(String fromNode, List<ClusterEntry> entries) throws RemoteException;
+    List<ClusterEntry> fetchEntries(String room, long afterSequence, int limit) throws RemoteException;
+    List<String> rooms() throws RemoteException;
+
+    void presence(String fromNode, String username, boolean joined) throws RemoteException;
+
+    /**
+     * @return up to {@code length} bytes of a blob stored on this node
+     */
+    byte[] readBlob(String fileId, long offset, int length) throws RemoteException;
+
+    /**
+     * @return the preview of a blob stored on this node, empty if it is not an image
+     */
+    byte[] readThumbnail(String fileId) throws RemoteException;
+}
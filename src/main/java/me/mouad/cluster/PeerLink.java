@@ -0,0 +1,138 @@
+package me.mouad.cluster;
+
+import java.net.InetSocketAddress;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Connection to one peer node: a lazily looked up stub plus a bounded replication queue drained
+ * in batches by a virtual thread, so each replicated entry costs a fraction of a remote call.
+ * <p>
+ * Entries that do not fit in the queue, or whose batch fails, are dropped; the peer notices the
+ * gap in the sequence and pulls them back through {@link ClusterNode#fetchEntries}.
+ */
+final class PeerLink {
+
+    private final String selfId;
+    private final String nodeId;
+    private final InetSocketAddress address;
+    private final BlockingQueue<ClusterEntry> outbound;
+    private final int maxBatch;
+    private final Consumer<PeerLink> onFailure;
+    private final Thread drainer;
+
+    /**
+     * Users connected to the peer, as last reported by it.
+     */
+    final Set<String> users = ConcurrentHashMap.newKeySet();
+
+    private volatile ClusterNode stub;
+    private volatile boolean up;
+    private volatile boolean closed;
+
+    private static final Logger logger = Logger.getLogger(PeerLink.class.getName());
+
+    PeerLink(String selfId, String nodeId, InetSocketAddress address, int queueCapacity, int maxBatch,
+             Consumer<PeerLink> onFailure) {
+        this.selfId = selfId;
+        this.nodeId = nodeId;
+        this.address = address;
+        this.outbound = new ArrayBlockingQueue<>(queueCapacity);
+        this.maxBatch = maxBatch;
+        this.onFailure = onFailure;
+        this.drainer = Thread.ofVirtual()
+                .name("replicate-" + nodeId)
+                .start(this::drain);
+    }
+
+    String nodeId() {
+        return nodeId;
+    }
+
+    boolean isUp() {
+        return up;
+    }
+
+    /**
+     * @return {@code true} if the peer was down before
+     */
+    synchronized boolean markUp() {
+        final boolean wasDown = !up;
+
+        up = true;
+        return wasDown;
+    }
+
+    /**
+     * @return {@code true} if the peer was up before
+     */
+    synchronized boolean markDown() {
+        final boolean wasUp = up;
+
+        up = false;
+        stub = null;
+        outbound.clear();
+        return wasUp;
+    }
+
+    ClusterNode stub() throws RemoteException {
+        ClusterNode current = stub;
+
+        if (current == null) {
+            try {
+                current = (ClusterNode) LocateRegistry.getRegistry(address.getHostString(), address.getPort())
+                        .lookup(ClusterNode.BINDING);
+            } catch (NotBoundException e) {
+                throw new RemoteException("Node " + nodeId + " is not serving the cluster endpoint", e);
+            }
+
+            stub = current;
+        }
+
+        return current;
+    }
+
+    void offer(ClusterEntry entry) {
+        if (up && !outbound.offer(entry)) {
+            logger.warning("Replication queue of " + nodeId + " is full, the peer will catch up");
+        }
+    }
+
+    void close() {
+        closed = true;
+        drainer.interrupt();
+    }
+
+    private void drain() {
+        final List<ClusterEntry> batch = new ArrayList<>(maxBatch);
+
+        while (!closed) {
+            try {
+                batch.add(outbound.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+
+            outbound.drainTo(batch, maxBatch - 1);
+
+            try {
+                stub().replicate(selfId, List.copyOf(batch));
+            } catch (RemoteException | RuntimeException e) {
+                logger.log(Level.WARNING, "Replicating " + batch.size() + " entries to " + nodeId + " failed", e);
+                onFailure.accept(this);
+            }
+
+            batch.clear();
+        }
+    }
+}
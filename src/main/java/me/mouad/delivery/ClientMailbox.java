@@ -0,0 +1,190 @@
+package me.mouad.delivery;
+
+import me.mouad.api.Client;
+import me.mouad.metrics.LatencyHistogram;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded outbound queue for a single client, drained by its own virtual thread.
+ * <p>
+ * Consecutive chat messages are held for up to the linger window (or until {@code maxBatch} are
+ * queued) and delivered in one call; any other delivery is sent on its own, in queue order.
+ */
+final class ClientMailbox {
+
+    private final String username;
+    private final Client client;
+    private final BlockingQueue<Delivery> queue;
+    private final MailboxSettings settings;
+    private final BiConsumer<ClientMailbox, DisconnectReason> disconnectHandler;
+    private final LatencyHistogram fanOutLatency;
+    private final long lingerNanos;
+    private final Thread drainer;
+
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    private volatile boolean closed;
+    private int consecutiveFailures;
+
+    private static final Logger logger = Logger.getLogger(ClientMailbox.class.getName());
+
+    ClientMailbox(String username, Client client, MailboxSettings settings,
+                  BiConsumer<ClientMailbox, DisconnectReason> disconnectHandler, LatencyHistogram fanOutLatency) {
+        this.username = username;
+        this.client = client;
+        this.queue = new ArrayBlockingQueue<>(settings.capacity());
+        this.settings = settings;
+        this.disconnectHandler = disconnectHandler;
+        this.fanOutLatency = fanOutLatency;
+        this.lingerNanos = settings.linger().toNanos();
+        this.drainer = Thread.ofVirtual()
+                .name("delivery-" + username)
+                .start(this::drain);
+    }
+
+    boolean offer(Delivery delivery) {
+        while (!closed) {
+            if (queue.offer(delivery)) {
+                return true;
+            }
+
+            if (settings.overflowPolicy() == OverflowPolicy.DISCONNECT) {
+                logger.warning("Outbound queue of " + username + " is full, disconnecting");
+                close();
+                disconnectHandler.accept(this, DisconnectReason.OVERFLOW);
+                return false;
+            }
+
+            if (queue.poll() != null) {
+                dropped.increment();
+            }
+        }
+
+        return false;
+    }
+
+    void close() {
+        if (closed) return ;
+
+        closed = true;
+        drainer.interrupt();
+        dropped.add(queue.size());
+        queue.clear();
+    }
+
+    String username() {
+        return username;
+    }
+
+    Client client() {
+        return client;
+    }
+
+    MailboxStats stats() {
+        return new MailboxStats(queue.size(), settings.capacity(), delivered.sum(), dropped.sum(), failed.sum());
+    }
+
+    private void drain() {
+        final List<MessageDelivery> batch = new ArrayList<>(settings.maxBatch());
+        Delivery carried = null;
+
+        while (!closed) {
+            final Delivery delivery;
+
+            try {
+                delivery = carried != null ? carried : queue.take();
+                carried = null;
+
+                if (!(delivery instanceof MessageDelivery first)) {
+                    deliver(delivery);
+                    continue;
+                }
+
+                batch.add(first);
+                carried = lingerForBatch(batch);
+            } catch (InterruptedException e) {
+                break;
+            }
+
+            deliverBatch(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Keeps adding queued messages to {@code batch} until it is full or the linger window ends.
+     *
+     * @return a non-message delivery that ended the batch early, to be delivered right after it
+     */
+    private Delivery lingerForBatch(List<MessageDelivery> batch) throws InterruptedException {
+        final long deadline = System.nanoTime() + lingerNanos;
+
+        while (batch.size() < settings.maxBatch()) {
+            final long remaining = deadline - System.nanoTime();
+            final Delivery next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+
+            if (next == null) return null;
+            if (!(next instanceof MessageDelivery message)) return next;
+
+            batch.add(message);
+        }
+
+        return null;
+    }
+
+    private void deliverBatch(List<MessageDelivery> batch) {
+        try {
+            client.receiveMessages(batch.stream().map(MessageDelivery::message).toList());
+            delivered.add(batch.size());
+            consecutiveFailures = 0;
+            recordLatency(batch);
+        } catch (RemoteException | RuntimeException e) {
+            failed.add(batch.size());
+            logger.log(Level.WARNING, "Batched delivery to " + username + " failed", e);
+            onFailure();
+        }
+    }
+
+    private void recordLatency(List<MessageDelivery> batch) {
+        final long now = System.nanoTime();
+
+        for (MessageDelivery message : batch) {
+            fanOutLatency.record(now - message.queuedAtNanos());
+        }
+    }
+
+    private void deliver(Delivery delivery) {
+        try {
+            delivery.deliverTo(client);
+            delivered.increment();
+            consecutiveFailures = 0;
+        } catch (RemoteException | RuntimeException e) {
+            failed.increment();
+            logger.log(Level.WARNING, "Delivery to " + username + " failed", e);
+            onFailure();
+        }
+    }
+
+    /**
+     * Gives up on a client after too many failures in a row instead of retrying it forever.
+     */
+    private void onFailure() {
+        if (++consecutiveFailures < settings.maxConsecutiveFailures() || closed) return ;
+
+        logger.warning(username + " failed " + consecutiveFailures + " deliveries in a row, disconnecting");
+        close();
+        disconnectHandler.accept(this, DisconnectReason.FAILING);
+    }
+}
@@ -0,0 +1,10 @@
+package me.mouad.delivery;
+
+import me.mouad.api.Client;
+
+import java.rmi.RemoteException;
+
+@FunctionalInterface
+public interface Delivery {
+    void deliverTo(Client client) throws RemoteException;
+}
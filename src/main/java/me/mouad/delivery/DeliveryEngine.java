@@ -0,0 +1,129 @@
+package me.mouad.delivery;
+
+import me.mouad.api.ChatMessage;
+import me.mouad.api.Client;
+import me.mouad.metrics.LatencyHistogram;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Fans deliveries out to every connected client without blocking the caller.
+ * <p>
+ * Each client owns a bounded {@link ClientMailbox}; a slow or dead client only fills its own
+ * queue, and the configured {@link OverflowPolicy} decides what happens once it is full. A client
+ * whose deliveries keep failing is handed to the {@link DisconnectHandler} for eviction.
+ */
+public class DeliveryEngine {
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+    public static final int DEFAULT_LINGER_MILLIS = 5;
+    public static final int DEFAULT_MAX_BATCH = 64;
+    public static final int DEFAULT_MAX_CONSECUTIVE_FAILURES = 3;
+
+    private final Map<String, ClientMailbox> mailboxes = new ConcurrentHashMap<>();
+    private final MailboxSettings settings;
+    private final DisconnectHandler disconnectHandler;
+    private final LatencyHistogram fanOutLatency = new LatencyHistogram();
+
+    public DeliveryEngine(int queueCapacity, OverflowPolicy overflowPolicy, Duration linger, int maxBatch,
+                          int maxConsecutiveFailures, DisconnectHandler disconnectHandler) {
+        if (queueCapacity <= 0) {
+            throw new IllegalArgumentException("Queue capacity must be positive: " + queueCapacity);
+        }
+
+        if (maxBatch <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive: " + maxBatch);
+        }
+
+        this.settings = new MailboxSettings(queueCapacity, overflowPolicy, linger, maxBatch, Math.max(1, maxConsecutiveFailures));
+        this.disconnectHandler = DisconnectHandler.onOwnThread(disconnectHandler);
+    }
+
+    /**
+     * Reads {@code chat.delivery.queueCapacity}, {@code chat.delivery.overflowPolicy},
+     * {@code chat.delivery.lingerMillis}, {@code chat.delivery.maxBatch} and
+     * {@code chat.delivery.maxConsecutiveFailures}.
+     */
+    public static DeliveryEngine fromSystemProperties(DisconnectHandler disconnectHandler) {
+        final int capacity = Integer.getInteger("chat.delivery.queueCapacity", DEFAULT_QUEUE_CAPACITY);
+        final OverflowPolicy policy = OverflowPolicy.valueOf(
+                System.getProperty("chat.delivery.overflowPolicy", OverflowPolicy.DROP_OLDEST.name()));
+        final Duration linger = Duration.ofMillis(Integer.getInteger("chat.delivery.lingerMillis", DEFAULT_LINGER_MILLIS));
+        final int maxBatch = Integer.getInteger("chat.delivery.maxBatch", DEFAULT_MAX_BATCH);
+        final int maxFailures = Integer.getInteger("chat.delivery.maxConsecutiveFailures", DEFAULT_MAX_CONSECUTIVE_FAILURES);
+
+        return new DeliveryEngine(capacity, policy, linger, maxBatch, maxFailures, disconnectHandler);
+    }
+
+    public void open(String username, Client client) {
+        final ClientMailbox previous = mailboxes.put(username,
+                new ClientMailbox(username, client, settings, this::onUnusable, fanOutLatency));
+
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    /**
+     * Closes the mailbox of {@code username} only if it still delivers to {@code client}.
+     */
+    public void close(String username, Client client) {
+        final ClientMailbox mailbox = mailboxes.get(username);
+
+        if (mailbox != null && mailbox.client() == client && mailboxes.remove(username, mailbox)) {
+            mailbox.close();
+        }
+    }
+
+    public boolean send(String username, Delivery delivery) {
+        final ClientMailbox mailbox = mailboxes.get(username);
+
+        return mailbox != null && mailbox.offer(delivery);
+    }
+
+    public void broadcast(Delivery delivery) {
+        for (ClientMailbox mailbox : mailboxes.values()) {
+            mailbox.offer(delivery);
+        }
+    }
+
+    /**
+     * Queues {@code message} for {@code usernames} only, so the cost follows the audience size
+     * rather than the number of connected clients.
+     */
+    public void multicast(Iterable<String> usernames, ChatMessage message) {
+        final MessageDelivery delivery = new MessageDelivery(message);
+
+        for (String username : usernames) {
+            send(username, delivery);
+        }
+    }
+
+    /**
+     * Time from a message being handed to the engine until a client acknowledged it, per recipient.
+     */
+    public LatencyHistogram.Snapshot fanOutLatency() {
+        return fanOutLatency.snapshot();
+    }
+
+    public Map<String, MailboxStats> stats() {
+        return mailboxes.entrySet().stream()
+                .collect(Collectors.toUnmodifiableMap(Map.Entry::getKey, entry -> entry.getValue().stats()));
+    }
+
+    public void shutdown() {
+        mailboxes.values().forEach(ClientMailbox::close);
+        mailboxes.clear();
+    }
+
+    private void onUnusable(ClientMailbox mailbox, DisconnectReason reason) {
+        final long detectedAtNanos = System.nanoTime();
+
+        if (mailboxes.remove(mailbox.username(), mailbox)) {
+            disconnectHandler.disconnect(mailbox.username(), mailbox.client(), reason, detectedAtNanos);
+        }
+    }
+}
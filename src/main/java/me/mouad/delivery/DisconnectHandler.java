@@ -0,0 +1,23 @@
+package me.mouad.delivery;
+
+import me.mouad.api.Client;
+
+@FunctionalInterface
+public interface DisconnectHandler {
+
+    /**
+     * @param client          the session found unusable, which {@code username} may no longer belong to
+     * @param detectedAtNanos {@link System#nanoTime()} at which the client was found to be unusable
+     */
+    void disconnect(String username, Client client, DisconnectReason reason, long detectedAtNanos);
+
+    /**
+     * @return a handler running {@code handler} on a virtual thread of its own per disconnect, so
+     * whoever detects an unusable client never waits for its eviction
+     */
+    static DisconnectHandler onOwnThread(DisconnectHandler handler) {
+        return (username, client, reason, detectedAtNanos) -> Thread.ofVirtual()
+                .name("disconnect-" + username)
+                .start(() -> handler.disconnect(username, client, reason, detectedAtNanos));
+    }
+}
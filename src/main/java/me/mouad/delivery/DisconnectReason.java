@@ -0,0 +1,18 @@
+package me.mouad.delivery;
+
+public enum DisconnectReason {
+    /**
+     * The outbound queue filled up under {@link OverflowPolicy#DISCONNECT}.
+     */
+    OVERFLOW,
+
+    /**
+     * Too many deliveries in a row failed.
+     */
+    FAILING,
+
+    /**
+     * The client stopped renewing its lease.
+     */
+    EXPIRED
+}
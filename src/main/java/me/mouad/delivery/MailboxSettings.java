@@ -0,0 +1,7 @@
+package me.mouad.delivery;
+
+import java.time.Duration;
+
+record MailboxSettings(int capacity, OverflowPolicy overflowPolicy, Duration linger, int maxBatch,
+                       int maxConsecutiveFailures) {
+}
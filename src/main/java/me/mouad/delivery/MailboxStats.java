@@ -0,0 +1,4 @@
+package me.mouad.delivery;
+
+public record MailboxStats(int queueDepth, int capacity, long delivered, long dropped, long failed) {
+}
@@ -0,0 +1,28 @@
+package me.mouad.delivery;
+
+import me.mouad.api.ChatMessage;
+import me.mouad.api.Client;
+
+import java.rmi.RemoteException;
+import java.util.List;
+
+/**
+ * A chat message bound for a client; consecutive ones are coalesced into a single
+ * {@link Client#receiveMessages(java.util.List)} call by the mailbox.
+ *
+ * @param queuedAtNanos when the message was handed to the engine, to measure fan-out latency
+ */
+record MessageDelivery(ChatMessage message, long queuedAtNanos) implements Delivery {
+
+    MessageDelivery(ChatMessage message) {
+        this(message, System.nanoTime());
+    }
+
+    /**
+     * Delivers the message as a batch of its own; the mailbox normally batches it with its neighbours.
+     */
+    @Override
+    public void deliverTo(Client client) throws RemoteException {
+        client.receiveMessages(List.of(message));
+    }
+}
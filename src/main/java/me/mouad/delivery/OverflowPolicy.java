@@ -0,0 +1,13 @@
+package me.mouad.delivery;
+
+public enum OverflowPolicy {
+    /**
+     * Evicts the oldest pending delivery to make room for the new one.
+     */
+    DROP_OLDEST,
+
+    /**
+     * Closes the mailbox and disconnects the client that cannot keep up.
+     */
+    DISCONNECT
+}
@@ -0,0 +1,414 @@
+package me.mouad.files;
+
+import me.mouad.api.FileReference;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Content-addressed storage for shared files.
+ * <p>
+ * Uploads are streamed chunk by chunk into {@code incoming/<uploadId>.part} while their SHA-256 is
+ * computed, then moved to {@code blobs/<first two hex digits>/<hash>}. Identical content therefore
+ * lands on the same path and is stored once, and files that merely share a name never collide.
+ * Small blobs are served from a size-bounded {@link BlobCache}, and every stored blob gets its
+ * {@link Thumbnails} preview generated in the background.
+ * <p>
+ * A blob's modification time is refreshed by every upload of its content, which is what lets
+ * {@link #deleteUnreferenced(Set, long)} tell blobs about to be posted from forgotten ones.
+ * <p>
+ * Uploads that receive no chunk for the idle timeout are dropped along with their part file, and
+ * part files left over from a previous run are deleted on startup, as no upload survives a restart.
+ */
+public class AttachmentStore implements AutoCloseable {
+
+    public static final int MAX_CHUNK_BYTES = 1024 * 1024;
+
+    private static final class Upload {
+        private final String sender;
+        private final String fileName;
+        private final long size;
+        private final Path partFile;
+        private final MessageDigest digest;
+        private long activeAtNanos = System.nanoTime();
+
+        private Upload(String sender, String fileName, long size, Path partFile) {
+            this.sender = sender;
+            this.fileName = fileName;
+            this.size = size;
+            this.partFile = partFile;
+            this.digest = sha256();
+        }
+    }
+
+    private final Path blobs;
+    private final Path incoming;
+    private final long maxFileBytes;
+    private final BlobCache cache;
+    private final Thumbnails thumbnails;
+    private final Map<String, Upload> uploads = new ConcurrentHashMap<>();
+    private final ReadWriteLock deletionLock = new ReentrantReadWriteLock();
+    private final long uploadIdleNanos;
+    private final ScheduledExecutorService expiry;
+
+    private static final Logger logger = Logger.getLogger(AttachmentStore.class.getName());
+
+    public AttachmentStore(Path directory, long maxFileBytes, long cacheBytes, int cacheEntryBytes,
+                           int thumbnailPixels, int thumbnailThreads, Duration uploadIdleTimeout) throws IOException {
+        this.blobs = directory.resolve("blobs");
+        this.incoming = directory.resolve("incoming");
+        this.maxFileBytes = maxFileBytes;
+        this.cache = new BlobCache(cacheBytes, cacheEntryBytes);
+        this.thumbnails = new Thumbnails(directory.resolve("thumbnails"), thumbnailPixels, cacheBytes / 8, thumbnailThreads);
+        this.uploadIdleNanos = uploadIdleTimeout.toNanos();
+
+        Files.createDirectories(blobs);
+        Files.createDirectories(incoming);
+        deleteLeftoverParts();
+
+        this.expiry = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform()
+                .name("upload-expiry")
+                .daemon()
+                .factory());
+
+        final long period = Math.max(1, uploadIdleTimeout.toMillis() / 4);
+        expiry.scheduleWithFixedDelay(() -> expireIdleUploads(System.nanoTime()), period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Reads {@code chat.files.dir}, {@code chat.files.maxBytes}, {@code chat.files.cacheBytes},
+     * {@code chat.files.cacheEntryBytes}, {@code chat.files.thumbnailPixels},
+     * {@code chat.files.thumbnailThreads} and {@code chat.files.uploadIdleMillis}.
+     */
+    public static AttachmentStore fromSystemProperties() throws IOException {
+        return new AttachmentStore(
+                Path.of(System.getProperty("chat.files.dir", "chat_files")),
+                Long.getLong("chat.files.maxBytes", 2L * 1024 * 1024 * 1024),
+                Long.getLong("chat.files.cacheBytes", 64L * 1024 * 1024),
+                Integer.getInteger("chat.files.cacheEntryBytes", 4 * 1024 * 1024),
+                Integer.getInteger("chat.files.thumbnailPixels", 200),
+                Integer.getInteger("chat.files.thumbnailThreads", Math.max(1, Runtime.getRuntime().availableProcessors() / 2)),
+                Duration.ofMillis(Long.getLong("chat.files.uploadIdleMillis", TimeUnit.MINUTES.toMillis(10))));
+    }
+
+    public String beginUpload(String sender, String fileName, long size) throws IOException {
+        if (size < 0 || size > maxFileBytes) {
+            throw new IOException("File size " + size + " is outside of the allowed range [0, " + maxFileBytes + "]");
+        }
+
+        final String name = FileNames.sanitize(fileName);
+        final String uploadId = UUID.randomUUID().toString();
+        final Path partFile = incoming.resolve(uploadId + ".part");
+
+        Files.createFile(partFile);
+        uploads.put(uploadId, new Upload(sender, name, size, partFile));
+
+        return uploadId;
+    }
+
+    public long writeChunk(String uploadId, long offset, byte[] chunk) throws IOException {
+        final Upload upload = upload(uploadId);
+
+        if (chunk.length > MAX_CHUNK_BYTES) {
+            throw new IOException("Chunk of " + chunk.length + " bytes exceeds the " + MAX_CHUNK_BYTES + " bytes limit");
+        }
+
+        // Serializes writers of the same upload; different uploads never contend
+        synchronized (upload) {
+            requireActive(uploadId, upload);
+
+            try (final FileChannel channel = FileChannel.open(upload.partFile, StandardOpenOption.WRITE)) {
+                final long received = channel.size();
+
+                if (offset != received) {
+                    throw new IOException("Chunk offset " + offset + " does not match the " + received + " bytes received so far");
+                }
+
+                if (received + chunk.length > upload.size) {
+                    throw new IOException("Chunk overflows the declared file size of " + upload.size + " bytes");
+                }
+
+                final ByteBuffer buffer = ByteBuffer.wrap(chunk);
+
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer, offset + buffer.position());
+                }
+
+                upload.digest.update(chunk);
+                upload.activeAtNanos = System.nanoTime();
+
+                return received + chunk.length;
+            }
+        }
+    }
+
+    public String senderOf(String uploadId) throws IOException {
+        return upload(uploadId).sender;
+    }
+
+    public long receivedBytes(String uploadId) throws IOException {
+        return Files.size(upload(uploadId).partFile);
+    }
+
+    /**
+     * Moves a fully received upload into the blob store, or drops it if the same content is
+     * already stored.
+     */
+    public FileReference completeUpload(String uploadId) throws IOException {
+        final Upload upload = upload(uploadId);
+
+        synchronized (upload) {
+            requireActive(uploadId, upload);
+
+            final long received = Files.size(upload.partFile);
+
+            if (received != upload.size) {
+                throw new IOException("Upload is incomplete: " + received + " of " + upload.size + " bytes received");
+            }
+
+            final String hash = HexFormat.of().formatHex(upload.digest.digest());
+            final Path blob = blobFile(hash);
+
+            // So a blob is never deleted between being found here and its upload time being refreshed
+            deletionLock.readLock().lock();
+            try {
+                Files.createDirectories(blob.getParent());
+
+                if (Files.exists(blob)) {
+                    Files.delete(upload.partFile);
+                    logger.info("Deduplicated upload of " + upload.fileName + " against blob " + hash);
+                } else {
+                    // Replacing a blob stored concurrently by an identical upload is harmless
+                    Files.move(upload.partFile, blob, StandardCopyOption.ATOMIC_MOVE);
+                    logger.info("Stored blob " + hash + " (" + upload.size + " bytes)");
+                }
+
+                Files.setLastModifiedTime(blob, FileTime.fromMillis(System.currentTimeMillis()));
+            } finally {
+                deletionLock.readLock().unlock();
+            }
+
+            uploads.remove(uploadId);
+
+            // Generated while the message is delivered, so it is usually ready when clients ask for it
+            thumbnails.generate(hash, blob);
+
+            // Freshly shared files are the ones everybody is about to open
+            if (cache.accepts(upload.size)) {
+                cache.put(hash, Files.readAllBytes(blob));
+            }
+
+            return new FileReference(hash, upload.fileName, upload.size, upload.sender);
+        }
+    }
+
+    public boolean contains(String hash) {
+        return FileNames.isValidHash(hash) && Files.exists(blobFile(hash));
+    }
+
+    /**
+     * @return a preview of at most the configured size in both dimensions, as a JPEG or PNG, or an
+     * empty array if the blob is not an image
+     */
+    public byte[] thumbnail(String hash) throws IOException {
+        if (!contains(hash)) {
+            throw new NoSuchFileException(hash);
+        }
+
+        return thumbnails.get(hash, blobFile(hash));
+    }
+
+    public byte[] readChunk(String hash, long offset, int length) throws IOException {
+        if (!FileNames.isValidHash(hash)) {
+            throw new NoSuchFileException(hash);
+        }
+
+        final int maxLength = Math.min(length, MAX_CHUNK_BYTES);
+        final byte[] cached = cache.get(hash);
+
+        if (cached != null) {
+            return slice(cached, offset, maxLength);
+        }
+
+        final Path blob = blobFile(hash);
+
+        try (final FileChannel channel = FileChannel.open(blob, StandardOpenOption.READ)) {
+            final long size = channel.size();
+
+            if (cache.accepts(size)) {
+                final byte[] data = Files.readAllBytes(blob);
+
+                cache.put(hash, data);
+                return slice(data, offset, maxLength);
+            }
+
+            final ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(Math.max(0, size - offset), maxLength));
+
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + buffer.position()) < 0) break;
+            }
+
+            return buffer.position() == buffer.capacity() ? buffer.array() : Arrays.copyOf(buffer.array(), buffer.position());
+        }
+    }
+
+    /**
+     * Deletes the blobs, and their previews, that are not in {@code referenced} and were last
+     * uploaded before {@code uploadedBeforeMillis}. Uploads in progress are not touched.
+     *
+     * @return the number of blobs deleted
+     */
+    public int deleteUnreferenced(Set<String> referenced, long uploadedBeforeMillis) throws IOException {
+        final List<Path> files;
+        int deleted = 0;
+        long bytes = 0;
+
+        try (final Stream<Path> walk = Files.walk(blobs, 2)) {
+            files = walk.filter(Files::isRegularFile).toList();
+        }
+
+        for (Path blob : files) {
+            final String hash = blob.getFileName().toString();
+
+            if (!FileNames.isValidHash(hash) || referenced.contains(hash)) continue;
+
+            deletionLock.writeLock().lock();
+            try {
+                if (Files.getLastModifiedTime(blob).toMillis() >= uploadedBeforeMillis) continue;
+
+                final long size = Files.size(blob);
+
+                Files.delete(blob);
+                cache.remove(hash);
+                thumbnails.delete(hash);
+                deleted++;
+                bytes += size;
+            } catch (NoSuchFileException e) {
+                // Deleted meanwhile
+            } finally {
+                deletionLock.writeLock().unlock();
+            }
+        }
+
+        if (deleted > 0) {
+            logger.info("Deleted " + deleted + " unreferenced blob(s) (" + bytes + " bytes)");
+        }
+
+        return deleted;
+    }
+
+    /**
+     * Drops the uploads that received nothing for the idle timeout, and deletes their part files.
+     *
+     * @return the number of uploads dropped
+     */
+    int expireIdleUploads(long nowNanos) {
+        int expired = 0;
+
+        for (Map.Entry<String, Upload> entry : uploads.entrySet()) {
+            final Upload upload = entry.getValue();
+
+            synchronized (upload) {
+                if (nowNanos - upload.activeAtNanos < uploadIdleNanos || !uploads.remove(entry.getKey(), upload)) continue;
+
+                try {
+                    Files.deleteIfExists(upload.partFile);
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "Unable to delete " + upload.partFile, e);
+                }
+
+                expired++;
+            }
+        }
+
+        if (expired > 0) {
+            logger.info("Dropped " + expired + " idle upload(s)");
+        }
+
+        return expired;
+    }
+
+    private void deleteLeftoverParts() throws IOException {
+        final List<Path> parts;
+
+        try (final Stream<Path> list = Files.list(incoming)) {
+            parts = list.toList();
+        }
+
+        for (Path part : parts) {
+            Files.deleteIfExists(part);
+        }
+
+        if (!parts.isEmpty()) {
+            logger.info("Deleted " + parts.size() + " part file(s) of uploads interrupted by a restart");
+        }
+    }
+
+    private static byte[] slice(byte[] data, long offset, int length) {
+        final int from = (int) Math.min(Math.max(offset, 0), data.length);
+
+        return Arrays.copyOfRange(data, from, (int) Math.min((long) from + length, data.length));
+    }
+
+    private Upload upload(String uploadId) throws IOException {
+        final Upload upload = uploads.get(uploadId);
+
+        if (upload == null) {
+            throw new IOException("Unknown upload: " + uploadId);
+        }
+
+        return upload;
+    }
+
+    /**
+     * Fails if {@code upload} was completed or expired since it was looked up. Called holding its lock.
+     */
+    private void requireActive(String uploadId, Upload upload) throws IOException {
+        if (uploads.get(uploadId) != upload) {
+            throw new IOException("Unknown upload: " + uploadId);
+        }
+    }
+
+    private Path blobFile(String hash) {
+        return blobs.resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    @Override
+    public void close() {
+        expiry.shutdownNow();
+        thumbnails.close();
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
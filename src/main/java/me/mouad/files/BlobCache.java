@@ -0,0 +1,80 @@
+package me.mouad.files;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size-bounded LRU cache of whole blobs, used to serve hot attachments without touching the disk.
+ */
+final class BlobCache {
+
+    private final long capacityBytes;
+    private final int maxEntryBytes;
+    private final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>(64, 0.75f, true);
+
+    private long sizeBytes;
+    private long hits;
+    private long misses;
+
+    BlobCache(long capacityBytes, int maxEntryBytes) {
+        this.capacityBytes = capacityBytes;
+        this.maxEntryBytes = (int) Math.min(maxEntryBytes, capacityBytes);
+    }
+
+    boolean accepts(long size) {
+        return size <= maxEntryBytes;
+    }
+
+    synchronized byte[] get(String hash) {
+        final byte[] data = entries.get(hash);
+
+        if (data == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+
+        return data;
+    }
+
+    synchronized void put(String hash, byte[] data) {
+        if (!accepts(data.length)) return ;
+
+        final byte[] previous = entries.put(hash, data);
+
+        if (previous != null) {
+            sizeBytes -= previous.length;
+        }
+
+        sizeBytes += data.length;
+
+        final var iterator = entries.entrySet().iterator();
+
+        while (sizeBytes > capacityBytes && iterator.hasNext()) {
+            final Map.Entry<String, byte[]> eldest = iterator.next();
+
+            sizeBytes -= eldest.getValue().length;
+            iterator.remove();
+        }
+    }
+
+    synchronized void remove(String hash) {
+        final byte[] removed = entries.remove(hash);
+
+        if (removed != null) {
+            sizeBytes -= removed.length;
+        }
+    }
+
+    synchronized long sizeBytes() {
+        return sizeBytes;
+    }
+
+    synchronized long hits() {
+        return hits;
+    }
+
+    synchronized long misses() {
+        return misses;
+    }
+}
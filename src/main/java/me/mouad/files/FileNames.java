@@ -0,0 +1,43 @@
+package me.mouad.files;
+
+import java.io.IOException;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+
+/**
+ * Checks the names that arrive from other users before they are used as paths.
+ */
+final class FileNames {
+
+    private FileNames() {}
+
+    /**
+     * @return the last element of {@code name}, which is all a shared file keeps of the path it was
+     * uploaded from
+     * @throws IOException if nothing usable as a file name is left
+     */
+    static String sanitize(String name) throws IOException {
+        final Path last;
+
+        try {
+            last = name == null ? null : Path.of(name).getFileName();
+        } catch (InvalidPathException e) {
+            throw new IOException("Invalid file name: " + name, e);
+        }
+
+        final String fileName = last == null ? "" : last.toString();
+
+        if (fileName.isEmpty() || fileName.equals(".") || fileName.equals("..")) {
+            throw new IOException("Invalid file name: " + name);
+        }
+
+        return fileName;
+    }
+
+    /**
+     * @return whether {@code hash} is a lowercase hex SHA-256, the only form of file id
+     */
+    static boolean isValidHash(String hash) {
+        return hash != null && hash.length() == 64 && hash.chars().allMatch(c -> (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'));
+    }
+}
@@ -0,0 +1,122 @@
+package me.mouad.files;
+
+import me.mouad.api.FileReference;
+import me.mouad.api.Server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.rmi.RemoteException;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Client side of the chunked transfer protocol.
+ * <p>
+ * Only one chunk is ever in flight, so a transfer can never outrun the disk or the link on either
+ * side, and both directions resume from the last acknowledged offset after a failure.
+ */
+public final class FileTransfers {
+
+    public static final int CHUNK_BYTES = 256 * 1024;
+
+    private static final int MAX_ATTEMPTS = 3;
+
+    private static final Logger logger = Logger.getLogger(FileTransfers.class.getName());
+
+    private FileTransfers() {}
+
+    public static FileReference upload(Server server, String sender, String room, Path file) throws IOException {
+        final long size = Files.size(file);
+        final String uploadId = server.beginUpload(sender, file.getFileName().toString(), size);
+        final ByteBuffer buffer = ByteBuffer.allocate(CHUNK_BYTES);
+
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long offset = 0;
+            int failures = 0;
+
+            while (offset < size) {
+                buffer.clear();
+
+                while (buffer.hasRemaining() && channel.read(buffer, offset + buffer.position()) > 0) {
+                    // Fill a whole chunk unless the file ends first
+                }
+
+                try {
+                    offset = server.uploadChunk(uploadId, offset, Arrays.copyOf(buffer.array(), buffer.position()));
+                    failures = 0;
+                } catch (RemoteException e) {
+                    if (++failures >= MAX_ATTEMPTS) throw e;
+
+                    logger.log(Level.WARNING, "Chunk upload failed, resuming", e);
+                    offset = server.uploadedBytes(uploadId);
+                }
+            }
+        }
+
+        return server.completeUpload(uploadId, room);
+    }
+
+    /**
+     * Downloads {@code file} into {@code directory}, resuming a previous partial download if any.
+     * Its id and name come from whoever shared it, so they are checked to land inside {@code directory}.
+     *
+     * @return the downloaded file
+     */
+    public static Path download(Server server, FileReference file, Path directory) throws IOException {
+        if (!FileNames.isValidHash(file.fileId())) {
+            throw new IOException("Invalid file id: " + file.fileId());
+        }
+
+        final String fileName = FileNames.sanitize(file.fileName());
+        final Path root = directory.toAbsolutePath().normalize();
+        final Path target = root.resolve(file.fileId()).resolve(fileName).normalize();
+        final Path partFile = target.resolveSibling(fileName + ".part");
+
+        if (!target.startsWith(root) || !partFile.startsWith(root)) {
+            throw new IOException("File " + file.fileName() + " would be downloaded outside of " + root);
+        }
+
+        if (Files.exists(target)) return target;
+
+        Files.createDirectories(target.getParent());
+
+        try (final FileChannel channel = FileChannel.open(partFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            long offset = channel.size();
+            int failures = 0;
+
+            while (offset < file.size()) {
+                final byte[] chunk;
+
+                try {
+                    chunk = server.downloadChunk(file.fileId(), offset, CHUNK_BYTES);
+                    failures = 0;
+                } catch (RemoteException e) {
+                    if (++failures >= MAX_ATTEMPTS) throw e;
+
+                    logger.log(Level.WARNING, "Chunk download failed, retrying", e);
+                    continue;
+                }
+
+                if (chunk.length == 0) {
+                    throw new IOException("File " + file.fileId() + " ended at " + offset + " of " + file.size() + " bytes");
+                }
+
+                final ByteBuffer buffer = ByteBuffer.wrap(chunk);
+
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer, offset + buffer.position());
+                }
+
+                offset += chunk.length;
+            }
+        }
+
+        return Files.move(partFile, target, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
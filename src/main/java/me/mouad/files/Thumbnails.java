@@ -0,0 +1,201 @@
+package me.mouad.files;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Small previews of image blobs, generated once per blob and stored next to them under
+ * {@code thumbnails/<first two hex digits>/<hash>}.
+ * <p>
+ * Images are decoded subsampled to about twice the preview size, so a large photo never has to be
+ * held at full resolution. Blobs that are not images get an empty file, which records that there
+ * is nothing to generate. Concurrent requests for the same blob share one generation.
+ */
+final class Thumbnails implements AutoCloseable {
+
+    private final Path directory;
+    private final int maxPixels;
+    private final BlobCache cache;
+    private final ExecutorService generators;
+    private final Map<String, CompletableFuture<byte[]>> pending = new ConcurrentHashMap<>();
+
+    private static final Logger logger = Logger.getLogger(Thumbnails.class.getName());
+
+    Thumbnails(Path directory, int maxPixels, long cacheBytes, int threads) throws IOException {
+        this.directory = directory;
+        this.maxPixels = maxPixels;
+        this.cache = new BlobCache(cacheBytes, 256 * 1024);
+        this.generators = Executors.newFixedThreadPool(threads, Thread.ofPlatform()
+                .name("thumbnailer-", 0)
+                .daemon(true)
+                .factory());
+
+        Files.createDirectories(directory);
+    }
+
+    /**
+     * Starts generating the preview of {@code blob} in the background, unless it already exists.
+     */
+    CompletableFuture<byte[]> generate(String hash, Path blob) {
+        final byte[] cached = cache.get(hash);
+
+        if (cached != null) return CompletableFuture.completedFuture(cached);
+
+        final CompletableFuture<byte[]> generation = pending.computeIfAbsent(hash,
+                key -> CompletableFuture.supplyAsync(() -> load(key, blob), generators));
+
+        generation.whenComplete((thumbnail, failure) -> pending.remove(hash, generation));
+        return generation;
+    }
+
+    /**
+     * @return the preview of {@code blob}, generating it if needed, or an empty array if the blob
+     * is not an image
+     */
+    byte[] get(String hash, Path blob) throws IOException {
+        try {
+            return generate(hash, blob).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof IOException cause ? cause : new IOException("Unable to generate thumbnail of " + hash, e.getCause());
+        }
+    }
+
+    /**
+     * Forgets the preview of a blob that is being deleted.
+     */
+    void delete(String hash) throws IOException {
+        cache.remove(hash);
+        Files.deleteIfExists(fileOf(hash));
+    }
+
+    private Path fileOf(String hash) {
+        return directory.resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    private byte[] load(String hash, Path blob) {
+        final Path file = fileOf(hash);
+
+        try {
+            final byte[] thumbnail;
+
+            if (Files.exists(file)) {
+                thumbnail = Files.readAllBytes(file);
+            } else {
+                thumbnail = render(blob);
+
+                final Path part = Files.createDirectories(file.getParent()).resolve(hash + ".part");
+
+                Files.write(part, thumbnail);
+                Files.move(part, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                logger.fine(() -> "Generated thumbnail of " + hash + " (" + thumbnail.length + " bytes)");
+            }
+
+            cache.put(hash, thumbnail);
+            return thumbnail;
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private byte[] render(Path blob) throws IOException {
+        try (final ImageInputStream input = ImageIO.createImageInputStream(blob.toFile())) {
+            final Iterator<ImageReader> readers = input == null ? null : ImageIO.getImageReaders(input);
+
+            if (readers == null || !readers.hasNext()) return new byte[0];
+
+            final ImageReader reader = readers.next();
+
+            try {
+                reader.setInput(input, true, true);
+
+                final int width = reader.getWidth(0);
+                final int height = reader.getHeight(0);
+                final int subsampling = Math.max(1, Math.max(width, height) / (2 * maxPixels));
+                final ImageReadParam param = reader.getDefaultReadParam();
+
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+
+                return encode(scale(reader.read(0, param)));
+            } catch (IOException | RuntimeException e) {
+                // A file that merely looks like an image gets no preview, it can still be downloaded
+                logger.log(Level.FINE, "Unable to decode " + blob + " as an image", e);
+                return new byte[0];
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private BufferedImage scale(BufferedImage image) {
+        final double ratio = Math.min(1.0, (double) maxPixels / Math.max(image.getWidth(), image.getHeight()));
+        final int width = Math.max(1, (int) Math.round(image.getWidth() * ratio));
+        final int height = Math.max(1, (int) Math.round(image.getHeight() * ratio));
+        final boolean alpha = image.getColorModel().hasAlpha();
+        final BufferedImage scaled = new BufferedImage(width, height, alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        final Graphics2D graphics = scaled.createGraphics();
+
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+
+        return scaled;
+    }
+
+    /**
+     * Opaque previews are JPEG, which is several times smaller; PNG keeps transparency.
+     */
+    private static byte[] encode(BufferedImage image) throws IOException {
+        final boolean alpha = image.getColorModel().hasAlpha();
+        final ImageWriter writer = ImageIO.getImageWritersByFormatName(alpha ? "png" : "jpeg").next();
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 * 1024);
+
+        try (final ImageOutputStream output = new MemoryCacheImageOutputStream(bytes)) {
+            final ImageWriteParam param = writer.getDefaultWriteParam();
+
+            if (!alpha) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(0.8f);
+            }
+
+            writer.setOutput(output);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public void close() {
+        generators.shutdownNow();
+    }
+}
@@ -0,0 +1,7 @@
+package me.mouad.history;
+
+/**
+ * @param payload the opaque bytes appended, see {@link MessageCodec} for what rooms store
+ */
+public record LogRecord(long sequence, long timestamp, byte[] payload) {
+}
@@ -0,0 +1,168 @@
+package me.mouad.history;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+
+/**
+ * One rolling file of the message log, named after the sequence number of its first record.
+ * <p>
+ * Records are framed as {@code [int bodyLength][int crc32][long sequence][long timestamp][payload]},
+ * where the CRC covers everything after itself. A frame that is short or fails its checksum marks
+ * the end of the valid data, which is how a torn write from a crash is detected.
+ * <p>
+ * Every record that starts a new {@link #INDEX_INTERVAL_BYTES} block is remembered once written
+ * or scanned, so reads can seek close to a sequence instead of scanning from the start.
+ */
+final class LogSegment {
+
+    static final String SUFFIX = ".log";
+    static final int HEADER_BYTES = Integer.BYTES * 2;
+    static final int FIXED_BODY_BYTES = Long.BYTES * 2;
+    static final long INDEX_INTERVAL_BYTES = 16 * 1024;
+
+    private final long baseSequence;
+    private final Path path;
+    private final NavigableMap<Long, Long> offsets = new ConcurrentSkipListMap<>();
+
+    LogSegment(long baseSequence, Path path) {
+        this.baseSequence = baseSequence;
+        this.path = path;
+    }
+
+    static LogSegment in(Path directory, long baseSequence) {
+        return new LogSegment(baseSequence, directory.resolve(String.format("%020d%s", baseSequence, SUFFIX)));
+    }
+
+    static boolean isSegment(Path path) {
+        final String name = path.getFileName().toString();
+
+        return name.endsWith(SUFFIX) && name.length() == 20 + SUFFIX.length();
+    }
+
+    static long baseSequenceOf(Path path) {
+        final String name = path.getFileName().toString();
+
+        return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+    }
+
+    long baseSequence() {
+        return baseSequence;
+    }
+
+    Path path() {
+        return path;
+    }
+
+    /**
+     * Notes the record of {@code sequence} taking {@code length} bytes at {@code offset}; the
+     * record after it is indexed when it starts a new block.
+     */
+    void indexed(long sequence, long offset, long length) {
+        final long end = offset + length;
+
+        if (end / INDEX_INTERVAL_BYTES != offset / INDEX_INTERVAL_BYTES) {
+            offsets.putIfAbsent(sequence + 1, end);
+        }
+    }
+
+    /**
+     * @return the offset of an indexed record at or before {@code sequence}, {@code 0} if none is known
+     */
+    long offsetOf(long sequence) {
+        final Map.Entry<Long, Long> floor = offsets.floorEntry(sequence);
+
+        return floor == null ? 0 : floor.getValue();
+    }
+
+    static ByteBuffer encode(LogRecord record) {
+        final byte[] payload = record.payload();
+        final ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + FIXED_BODY_BYTES + payload.length);
+
+        buffer.putInt(FIXED_BODY_BYTES + payload.length);
+        buffer.putInt(0);
+        buffer.putLong(record.sequence());
+        buffer.putLong(record.timestamp());
+        buffer.put(payload);
+
+        final CRC32 crc = new CRC32();
+        crc.update(buffer.array(), HEADER_BYTES, buffer.position() - HEADER_BYTES);
+        buffer.putInt(Integer.BYTES, (int) crc.getValue());
+
+        return buffer.flip();
+    }
+
+    /**
+     * Streams valid records from the start of the segment until {@code visitor} returns
+     * {@code false}, the data ends, or a record beyond {@code maxSequence} is reached.
+     *
+     * @return the byte offset just past the last valid record that was read
+     */
+    long scan(long maxSequence, Predicate<LogRecord> visitor) throws IOException {
+        return scan(0, maxSequence, visitor);
+    }
+
+    /**
+     * Like {@link #scan(long, Predicate)}, but starts at {@code fromOffset}, which must be the
+     * start of a record.
+     */
+    long scan(long fromOffset, long maxSequence, Predicate<LogRecord> visitor) throws IOException {
+        long validBytes = fromOffset;
+
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ).position(fromOffset);
+             final DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 64 * 1024))) {
+            final CRC32 crc = new CRC32();
+
+            while (true) {
+                final int bodyLength;
+                final int checksum;
+                final byte[] body;
+
+                try {
+                    bodyLength = in.readInt();
+                    checksum = in.readInt();
+
+                    if (bodyLength < FIXED_BODY_BYTES) break;
+
+                    body = in.readNBytes(bodyLength);
+                } catch (EOFException e) {
+                    break;
+                }
+
+                if (body.length != bodyLength) break;
+
+                crc.reset();
+                crc.update(body);
+
+                if ((int) crc.getValue() != checksum) break;
+
+                final ByteBuffer buffer = ByteBuffer.wrap(body);
+                final long sequence = buffer.getLong();
+                final long timestamp = buffer.getLong();
+
+                if (sequence > maxSequence) break;
+
+                indexed(sequence, validBytes, HEADER_BYTES + bodyLength);
+                validBytes += HEADER_BYTES + bodyLength;
+
+                final byte[] payload = Arrays.copyOfRange(body, FIXED_BODY_BYTES, bodyLength);
+
+                if (!visitor.test(new LogRecord(sequence, timestamp, payload))) break;
+            }
+        }
+
+        return validBytes;
+    }
+}
@@ -0,0 +1,190 @@
+package me.mouad.history;
+
+import me.mouad.api.ChatMessage;
+import me.mouad.api.FileReference;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Binary form of the {@link MessageRecord}s of one room's log:
+ * {@code [byte format][byte kind][varint sender id]}, then for files
+ * {@code [byte stored][varint size][varint id length][utf-8 file id]} when stored, then the
+ * UTF-8 content up to the end of the record.
+ * <p>
+ * Records written before this format are {@code "sender: text"}, {@code "#Blob ..."} or
+ * {@code "#Attached ..."} strings; they never start with the format byte and are still decoded.
+ */
+public final class MessageCodec implements Closeable {
+
+    private static final byte FORMAT = 1;
+    private static final ChatMessage.Kind[] KINDS = ChatMessage.Kind.values();
+    private static final String LEGACY_BLOB_PREFIX = "#Blob ";
+    private static final String LEGACY_ATTACHED_PREFIX = "#Attached ";
+    private static final byte[] LEGACY_BLOB_BYTES = LEGACY_BLOB_PREFIX.getBytes(StandardCharsets.UTF_8);
+
+    private final SenderTable senders;
+
+    private MessageCodec(SenderTable senders) {
+        this.senders = senders;
+    }
+
+    public static MessageCodec open(Path directory, boolean fsync) throws IOException {
+        return new MessageCodec(SenderTable.open(directory, fsync));
+    }
+
+    /**
+     * @throws IOException if a new sender could not be added to the sender table
+     */
+    public byte[] encode(MessageRecord message) throws IOException {
+        final byte[] content = message.content().getBytes(StandardCharsets.UTF_8);
+        final FileReference file = message.file();
+        final byte[] fileId = file == null ? null : file.fileId().getBytes(StandardCharsets.UTF_8);
+        final ByteBuffer out = ByteBuffer.allocate(2 + 5 + 1 + 10 + 5 + (fileId == null ? 0 : fileId.length) + content.length);
+
+        out.put(FORMAT).put((byte) message.kind().ordinal());
+        putVarLong(out, senders.idOf(message.sender()));
+
+        if (message.kind() == ChatMessage.Kind.FILE) {
+            out.put((byte) (file == null ? 0 : 1));
+
+            if (file != null) {
+                putVarLong(out, file.size());
+                putVarLong(out, fileId.length);
+                out.put(fileId);
+            }
+        }
+
+        out.put(content);
+        return Arrays.copyOf(out.array(), out.position());
+    }
+
+    public MessageRecord decode(byte[] payload) {
+        if (payload.length < 2 || payload[0] != FORMAT) {
+            return decodeLegacy(new String(payload, StandardCharsets.UTF_8));
+        }
+
+        final ByteBuffer in = ByteBuffer.wrap(payload, 1, payload.length - 1);
+        final int kind = in.get();
+
+        if (kind < 0 || kind >= KINDS.length) {
+            throw new IllegalArgumentException("Unknown message kind " + kind);
+        }
+
+        final String sender = senders.nameOf((int) getVarLong(in));
+        FileReference file = null;
+        long size = 0;
+        String fileId = null;
+
+        if (KINDS[kind] == ChatMessage.Kind.FILE && in.get() == 1) {
+            size = getVarLong(in);
+
+            final int length = (int) getVarLong(in);
+
+            fileId = new String(payload, in.position(), length, StandardCharsets.UTF_8);
+            in.position(in.position() + length);
+        }
+
+        final String content = new String(payload, in.position(), in.remaining(), StandardCharsets.UTF_8);
+
+        if (fileId != null) {
+            file = new FileReference(fileId, content, size, sender);
+        }
+
+        return new MessageRecord(sender, KINDS[kind], content, file);
+    }
+
+    /**
+     * @return the id of the stored file {@code payload} references, {@code null} if none; unlike
+     * {@link #decode(byte[])} this needs no sender table, so it works on logs nobody has open
+     */
+    public static String referencedFile(byte[] payload) {
+        if (payload.length < 2 || payload[0] != FORMAT) {
+            if (!startsWith(payload, LEGACY_BLOB_BYTES)) return null;
+
+            final String entry = new String(payload, StandardCharsets.UTF_8);
+            final int end = entry.indexOf(' ', LEGACY_BLOB_PREFIX.length());
+
+            return end < 0 ? null : entry.substring(LEGACY_BLOB_PREFIX.length(), end);
+        }
+
+        final ByteBuffer in = ByteBuffer.wrap(payload, 1, payload.length - 1);
+        final int kind = in.get();
+
+        if (kind < 0 || kind >= KINDS.length || KINDS[kind] != ChatMessage.Kind.FILE) return null;
+
+        getVarLong(in); // Sender id
+
+        if (in.get() != 1) return null;
+
+        getVarLong(in); // Size
+
+        final int length = (int) getVarLong(in);
+
+        return new String(payload, in.position(), length, StandardCharsets.UTF_8);
+    }
+
+    private static boolean startsWith(byte[] payload, byte[] prefix) {
+        return payload.length >= prefix.length && Arrays.equals(payload, 0, prefix.length, prefix, 0, prefix.length);
+    }
+
+    /**
+     * Parses an entry of the string format used before this codec, by older logs and by the
+     * original {@code chat_history.txt}.
+     */
+    public static MessageRecord decodeLegacy(String entry) {
+        if (entry.startsWith(LEGACY_BLOB_PREFIX)) {
+            final String[] parts = entry.substring(LEGACY_BLOB_PREFIX.length()).split(" ");
+            final String sender = URLDecoder.decode(parts[2], StandardCharsets.UTF_8);
+            final String fileName = URLDecoder.decode(parts[3], StandardCharsets.UTF_8);
+
+            return MessageRecord.file(new FileReference(parts[0], fileName, Long.parseLong(parts[1]), sender));
+        }
+
+        if (entry.startsWith(LEGACY_ATTACHED_PREFIX)) {
+            // These entries only kept the file name, the content was never stored server-side
+            final String[] parts = entry.substring(LEGACY_ATTACHED_PREFIX.length()).split(" ");
+
+            return new MessageRecord(parts[1], ChatMessage.Kind.FILE, parts[0], null);
+        }
+
+        final int separator = entry.indexOf(": ");
+
+        return separator < 0
+                ? MessageRecord.text("", entry)
+                : MessageRecord.text(entry.substring(0, separator), entry.substring(separator + 2));
+    }
+
+    private static void putVarLong(ByteBuffer out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+
+        out.put((byte) value);
+    }
+
+    private static long getVarLong(ByteBuffer in) {
+        long value = 0;
+        int shift = 0;
+        byte next;
+
+        do {
+            next = in.get();
+            value |= (long) (next & 0x7F) << shift;
+            shift += 7;
+        } while (next < 0);
+
+        return value;
+    }
+
+    @Override
+    public void close() throws IOException {
+        senders.close();
+    }
+}
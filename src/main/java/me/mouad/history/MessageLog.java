@@ -0,0 +1,531 @@
+package me.mouad.history;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Write-ahead, append-only chat log split into rolling {@link LogSegment}s.
+ * <p>
+ * Appends are assigned a sequence number immediately and handed to a single writer thread that
+ * batches everything queued since its last write into one {@link FileChannel} write followed by
+ * one fsync (group commit). Startup only scans the newest segment to find the next sequence
+ * number and cut off a torn tail; older segments are never touched until someone reads them, and
+ * the oldest are deleted by {@link #compact(RetentionPolicy, long, Function)} once a
+ * {@link RetentionPolicy} no longer keeps them.
+ */
+public class MessageLog implements Closeable {
+
+    public static final long DEFAULT_SEGMENT_BYTES = 16L * 1024 * 1024;
+
+    private static final int MAX_BATCH = 1024;
+
+    private record PendingAppend(LogRecord record, CompletableFuture<LogRecord> durable) {}
+
+    /**
+     * The outcome of {@link #compact(RetentionPolicy, long, Function)}.
+     *
+     * @param firstSequence the first sequence the log still holds
+     * @param references    the keys referenced by the records it still holds
+     */
+    public record Compaction(long firstSequence, int deletedSegments, long deletedRecords, long deletedBytes,
+                             Set<String> references) {}
+
+    /**
+     * Queued by {@link #close()} behind the last append; the writer is never interrupted because
+     * that would close its {@link FileChannel} mid-write.
+     */
+    private static final PendingAppend CLOSE_MARKER = new PendingAppend(null, null);
+
+    private final Path directory;
+    private final long segmentBytes;
+    private final boolean fsync;
+
+    private final NavigableMap<Long, LogSegment> segments = new ConcurrentSkipListMap<>();
+    private final LinkedBlockingQueue<PendingAppend> pending = new LinkedBlockingQueue<>();
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final Thread writer;
+
+    private long nextSequence;
+    private volatile long durableSequence;
+    private volatile boolean closed;
+    private volatile Consumer<LogRecord> commitListener = record -> {};
+
+    private LogSegment activeSegment;
+    private FileChannel activeChannel;
+    private long activeBytes;
+    // The last record written, so a gap left by skipTo starts a new segment
+    private long writtenSequence;
+
+    // Guarded by this, only used by compaction
+    private final Map<Long, SegmentSummary> summaries = new HashMap<>();
+
+    private static final Logger logger = Logger.getLogger(MessageLog.class.getName());
+
+    public MessageLog(Path directory, long segmentBytes, boolean fsync) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.fsync = fsync;
+
+        Files.createDirectories(directory);
+        recover();
+
+        this.writer = Thread.ofPlatform()
+                .name("message-log-writer-" + directory.getFileName())
+                .daemon()
+                .start(this::writeLoop);
+    }
+
+    private void recover() throws IOException {
+        try (final Stream<Path> files = Files.list(directory)) {
+            files.filter(LogSegment::isSegment)
+                    .map(path -> new LogSegment(LogSegment.baseSequenceOf(path), path))
+                    .forEach(segment -> segments.put(segment.baseSequence(), segment));
+        }
+
+        if (segments.isEmpty()) {
+            nextSequence = 1;
+            openSegment(1);
+            durableSequence = 0;
+            return ;
+        }
+
+        final LogSegment tail = segments.lastEntry().getValue();
+
+        // It may cover records lost with the torn tail, and new ones may take their place
+        Files.deleteIfExists(SegmentSummary.pathOf(tail));
+
+        final long[] lastSequence = {tail.baseSequence() - 1};
+        final long validBytes = tail.scan(Long.MAX_VALUE, record -> {
+            lastSequence[0] = record.sequence();
+            return true;
+        });
+
+        activeSegment = tail;
+        activeChannel = FileChannel.open(tail.path(), StandardOpenOption.WRITE);
+
+        if (activeChannel.size() > validBytes) {
+            logger.warning("Truncating torn tail of " + tail.path() + " at byte " + validBytes);
+            activeChannel.truncate(validBytes);
+            activeChannel.force(true);
+        }
+
+        activeChannel.position(validBytes);
+        activeBytes = validBytes;
+        nextSequence = lastSequence[0] + 1;
+        durableSequence = lastSequence[0];
+        writtenSequence = lastSequence[0];
+
+        logger.info("Recovered message log at sequence " + durableSequence + " from " + segments.size() + " segment(s)");
+    }
+
+    private void openSegment(long baseSequence) throws IOException {
+        final LogSegment segment = LogSegment.in(directory, baseSequence);
+
+        activeChannel = FileChannel.open(segment.path(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        activeSegment = segment;
+        activeBytes = 0;
+        segments.put(baseSequence, segment);
+    }
+
+    /**
+     * Queues {@code payload} for the next group commit.
+     *
+     * @return a future completed with the record, and thus its sequence number, once it is on disk
+     */
+    public CompletableFuture<LogRecord> append(byte[] payload) {
+        final CompletableFuture<LogRecord> durable = new CompletableFuture<>();
+
+        appendLock.lock();
+        try {
+            if (closed) {
+                durable.completeExceptionally(new IOException("Message log is closed"));
+                return durable;
+            }
+
+            final LogRecord record = new LogRecord(nextSequence++, System.currentTimeMillis(), payload);
+            pending.add(new PendingAppend(record, durable));
+        } finally {
+            appendLock.unlock();
+        }
+
+        return durable;
+    }
+
+    /**
+     * Queues a record whose sequence was assigned elsewhere, such as by the node owning this log in
+     * a cluster. It must be exactly the next sequence of this log, so replicas never have holes.
+     *
+     * @throws IllegalArgumentException if {@code record} does not directly follow the last append
+     */
+    public CompletableFuture<LogRecord> appendReplica(LogRecord record) {
+        final CompletableFuture<LogRecord> durable = new CompletableFuture<>();
+
+        appendLock.lock();
+        try {
+            if (closed) {
+                durable.completeExceptionally(new IOException("Message log is closed"));
+                return durable;
+            }
+
+            if (record.sequence() != nextSequence) {
+                throw new IllegalArgumentException("Expected sequence " + nextSequence + " but got " + record.sequence());
+            }
+
+            nextSequence++;
+            pending.add(new PendingAppend(record, durable));
+        } finally {
+            appendLock.unlock();
+        }
+
+        return durable;
+    }
+
+    /**
+     * Moves a replica past the records before {@code sequence}, which it can no longer get because
+     * the retention of the room's owner deleted them; the next {@link #appendReplica(LogRecord)}
+     * must then be {@code sequence}. The records after the gap start a new segment.
+     */
+    public void skipTo(long sequence) {
+        appendLock.lock();
+        try {
+            if (sequence > nextSequence) {
+                logger.warning("Skipping sequences " + nextSequence + " to " + (sequence - 1) + " of " + directory);
+                nextSequence = sequence;
+            }
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * The sequence the next append will get, counting appends that are not durable yet.
+     */
+    public long nextSequence() {
+        appendLock.lock();
+        try {
+            return nextSequence;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    private void writeLoop() {
+        final List<PendingAppend> batch = new ArrayList<>(MAX_BATCH);
+        boolean running = true;
+
+        while (running) {
+            try {
+                batch.add(pending.take());
+            } catch (InterruptedException e) {
+                continue;
+            }
+
+            pending.drainTo(batch, MAX_BATCH - 1);
+
+            if (batch.getLast() == CLOSE_MARKER) {
+                batch.removeLast();
+                running = false;
+            }
+
+            if (!batch.isEmpty()) {
+                commit(batch);
+            }
+
+            batch.clear();
+        }
+    }
+
+    private void commit(List<PendingAppend> batch) {
+        try {
+            int from = 0;
+
+            while (from < batch.size()) {
+                final long first = batch.get(from).record().sequence();
+
+                if (activeBytes >= segmentBytes || first != writtenSequence + 1) {
+                    roll(first);
+                }
+
+                final List<ByteBuffer> buffers = new ArrayList<>();
+                long bytes = 0;
+                int to = from;
+
+                while (to < batch.size() && (to == from || (activeBytes + bytes < segmentBytes
+                        && batch.get(to).record().sequence() == batch.get(to - 1).record().sequence() + 1))) {
+                    final ByteBuffer buffer = LogSegment.encode(batch.get(to).record());
+                    bytes += buffer.remaining();
+                    buffers.add(buffer);
+                    to++;
+                }
+
+                final ByteBuffer[] array = buffers.toArray(new ByteBuffer[0]);
+                long written = 0;
+
+                while (written < bytes) {
+                    written += activeChannel.write(array);
+                }
+
+                // Only index what reached the segment, a failed write must not leave offsets past its end
+                for (int i = from; i < to; i++) {
+                    final long length = buffers.get(i - from).limit();
+
+                    activeSegment.indexed(batch.get(i).record().sequence(), activeBytes, length);
+                    activeBytes += length;
+                }
+
+                writtenSequence = batch.get(to - 1).record().sequence();
+                from = to;
+            }
+
+            if (fsync) {
+                activeChannel.force(false);
+            }
+
+            durableSequence = batch.getLast().record().sequence();
+            batch.forEach(append -> notifyCommitted(append.record()));
+            batch.forEach(append -> append.durable().complete(append.record()));
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Failed to write " + batch.size() + " record(s) to the message log", e);
+            batch.forEach(append -> append.durable().completeExceptionally(e));
+        }
+    }
+
+    private void notifyCommitted(LogRecord record) {
+        try {
+            commitListener.accept(record);
+        } catch (RuntimeException e) {
+            logger.log(Level.SEVERE, "Commit listener failed on record " + record.sequence(), e);
+        }
+    }
+
+    /**
+     * Sets a listener called by the writer thread for every record once it is durable, strictly in
+     * sequence order and before the append futures complete. It must not block.
+     */
+    public void onCommit(Consumer<LogRecord> listener) {
+        this.commitListener = listener;
+    }
+
+    private void roll(long baseSequence) throws IOException {
+        activeChannel.force(true);
+        activeChannel.close();
+
+        if (activeBytes == 0) {
+            // Skipped before anything was written to it, it would only misstate the first sequence
+            segments.remove(activeSegment.baseSequence());
+            Files.deleteIfExists(activeSegment.path());
+        }
+
+        openSegment(baseSequence);
+
+        logger.info("Rolled message log to segment " + activeSegment.path());
+    }
+
+    /**
+     * Visits durable records in order starting at {@code fromSequence}, until {@code visitor}
+     * returns {@code false} or the log ends. Only the segments that cover the range are opened, and
+     * the first one is entered at the closest indexed offset.
+     */
+    public void read(long fromSequence, Predicate<LogRecord> visitor) {
+        final long upTo = durableSequence;
+        final Long start = segments.floorKey(fromSequence);
+        final Map<Long, LogSegment> covering = start == null ? segments : segments.tailMap(start, true);
+
+        for (LogSegment segment : covering.values()) {
+            if (segment.baseSequence() > upTo) return ;
+
+            final boolean[] stopped = {false};
+
+            try {
+                segment.scan(segment.offsetOf(fromSequence), upTo, record -> {
+                    if (record.sequence() < fromSequence) return true;
+                    if (visitor.test(record)) return true;
+
+                    stopped[0] = true;
+                    return false;
+                });
+            } catch (NoSuchFileException e) {
+                // Deleted by compaction meanwhile, the records it held are no longer part of the log
+                if (segments.get(segment.baseSequence()) == segment) throw new UncheckedIOException(e);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            if (stopped[0]) return ;
+        }
+    }
+
+    public List<LogRecord> read(long fromSequence, int limit) {
+        final List<LogRecord> records = new ArrayList<>(Math.min(limit, 1024));
+
+        read(fromSequence, record -> {
+            records.add(record);
+            return records.size() < limit;
+        });
+
+        return records;
+    }
+
+    /**
+     * @return the bytes taken on disk by every segment of this log
+     */
+    public long sizeBytes() {
+        long bytes = 0;
+
+        for (LogSegment segment : segments.values()) {
+            try {
+                bytes += Files.size(segment.path());
+            } catch (IOException e) {
+                // Rolled away or deleted meanwhile
+            }
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Deletes the oldest segments {@code policy} no longer keeps, and reports what the remaining
+     * ones reference. Only sealed segments are deleted, which the writer never touches again, so
+     * appends go on meanwhile; reads already past a deleted segment are not affected and the
+     * others skip it. Must not be called by several threads at once.
+     *
+     * @param referenceOf the key a record payload references, {@code null} if none
+     */
+    public synchronized Compaction compact(RetentionPolicy policy, long nowMillis, Function<byte[], String> referenceOf)
+            throws IOException {
+        return compact(segments, summaries, policy, nowMillis, referenceOf);
+    }
+
+    /**
+     * Like {@link #compact(RetentionPolicy, long, Function)}, for a log stored in {@code directory}
+     * that nobody has open and that nobody opens until this returns.
+     */
+    public static Compaction compact(Path directory, RetentionPolicy policy, long nowMillis,
+                                     Function<byte[], String> referenceOf) throws IOException {
+        final NavigableMap<Long, LogSegment> segments = new ConcurrentSkipListMap<>();
+
+        if (Files.isDirectory(directory)) {
+            try (final Stream<Path> files = Files.list(directory)) {
+                files.filter(LogSegment::isSegment)
+                        .map(path -> new LogSegment(LogSegment.baseSequenceOf(path), path))
+                        .forEach(segment -> segments.put(segment.baseSequence(), segment));
+            }
+        }
+
+        return compact(segments, new HashMap<>(), policy, nowMillis, referenceOf);
+    }
+
+    private static Compaction compact(NavigableMap<Long, LogSegment> segments, Map<Long, SegmentSummary> summaries,
+                                      RetentionPolicy policy, long nowMillis, Function<byte[], String> referenceOf)
+            throws IOException {
+        // Taken once, so a roll meanwhile only makes the previous active segment look active this time
+        final List<LogSegment> current = List.copyOf(segments.values());
+
+        if (current.isEmpty()) return new Compaction(1, 0, 0, 0, Set.of());
+
+        final Map<LogSegment, SegmentSummary> summarized = new LinkedHashMap<>();
+        long totalBytes = 0;
+
+        for (LogSegment segment : current) {
+            final SegmentSummary known = summaries.get(segment.baseSequence());
+            final SegmentSummary summary = (known != null ? known : SegmentSummary.read(segment)).extend(segment, referenceOf);
+
+            summaries.put(segment.baseSequence(), summary);
+            summarized.put(segment, summary);
+            totalBytes += summary.bytes();
+        }
+
+        long totalRecords = summarized.get(current.getLast()).lastSequence() - current.getFirst().baseSequence() + 1;
+        int deletedSegments = 0;
+        long deletedRecords = 0;
+        long deletedBytes = 0;
+
+        for (LogSegment segment : current.subList(0, current.size() - 1)) {
+            final SegmentSummary summary = summarized.get(segment);
+            final long records = summary.lastSequence() - segment.baseSequence() + 1;
+
+            if (!policy.expires(summary.lastTimestamp(), records, summary.bytes(), totalRecords, totalBytes, nowMillis)) break;
+
+            // Unlisted first, so new reads never start in it
+            segments.remove(segment.baseSequence());
+            summaries.remove(segment.baseSequence());
+            summarized.remove(segment);
+            Files.deleteIfExists(segment.path());
+            Files.deleteIfExists(SegmentSummary.pathOf(segment));
+
+            totalRecords -= records;
+            totalBytes -= summary.bytes();
+            deletedSegments++;
+            deletedRecords += records;
+            deletedBytes += summary.bytes();
+        }
+
+        final Set<String> references = new HashSet<>();
+
+        summarized.values().forEach(summary -> references.addAll(summary.references()));
+
+        if (deletedSegments > 0) {
+            logger.info("Deleted " + deletedSegments + " segment(s) of " + current.getFirst().path().getParent()
+                    + " holding " + deletedRecords + " record(s) and " + deletedBytes + " byte(s)");
+        }
+
+        return new Compaction(segments.isEmpty() ? 1 : segments.firstKey(), deletedSegments, deletedRecords, deletedBytes, references);
+    }
+
+    public long firstSequence() {
+        return segments.isEmpty() ? 1 : segments.firstKey();
+    }
+
+    public long lastSequence() {
+        return durableSequence;
+    }
+
+    @Override
+    public void close() throws IOException {
+        appendLock.lock();
+        try {
+            if (closed) return ;
+            closed = true;
+            pending.add(CLOSE_MARKER);
+        } finally {
+            appendLock.unlock();
+        }
+
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        activeChannel.force(true);
+        activeChannel.close();
+
+        logger.info("Message log closed at sequence " + durableSequence);
+    }
+}
@@ -0,0 +1,26 @@
+package me.mouad.history;
+
+import me.mouad.api.ChatMessage;
+import me.mouad.api.FileReference;
+
+import java.io.Serializable;
+
+/**
+ * A message as a room stores it; the log assigns its sequence and timestamp.
+ *
+ * @param content the text of {@link ChatMessage.Kind#TEXT} messages, the file name of
+ *                {@link ChatMessage.Kind#FILE} ones
+ * @param file    the stored file of a {@link ChatMessage.Kind#FILE} message, {@code null} for text
+ *                and for legacy attachments whose content was never stored
+ */
+public record MessageRecord(String sender, ChatMessage.Kind kind, String content, FileReference file)
+        implements Serializable {
+
+    public static MessageRecord text(String sender, String text) {
+        return new MessageRecord(sender, ChatMessage.Kind.TEXT, text, null);
+    }
+
+    public static MessageRecord file(FileReference file) {
+        return new MessageRecord(file.sender(), ChatMessage.Kind.FILE, file.fileName(), file);
+    }
+}
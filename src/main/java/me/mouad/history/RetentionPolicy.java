@@ -0,0 +1,47 @@
+package me.mouad.history;
+
+/**
+ * How much history each room keeps; a limit of {@code 0} is no limit.
+ * <p>
+ * Limits are enforced by deleting whole sealed segments, oldest first, so a log keeps up to one
+ * segment more than they allow, and its newest segment is never deleted.
+ *
+ * @param maxAgeMillis segments whose newest record is older than this are deleted
+ * @param maxRecords   segments are deleted for as long as the newer ones hold this many records
+ * @param maxBytes     segments are deleted for as long as the newer ones take this many bytes
+ */
+public record RetentionPolicy(long maxAgeMillis, long maxRecords, long maxBytes) {
+
+    public static final RetentionPolicy UNLIMITED = new RetentionPolicy(0, 0, 0);
+
+    public RetentionPolicy {
+        if (maxAgeMillis < 0 || maxRecords < 0 || maxBytes < 0) {
+            throw new IllegalArgumentException("Retention limits cannot be negative");
+        }
+    }
+
+    /**
+     * Reads {@code chat.retention.maxAgeMillis}, {@code chat.retention.maxRecords} and
+     * {@code chat.retention.maxBytes}; none is set by default.
+     */
+    public static RetentionPolicy fromSystemProperties() {
+        return new RetentionPolicy(
+                Long.getLong("chat.retention.maxAgeMillis", 0),
+                Long.getLong("chat.retention.maxRecords", 0),
+                Long.getLong("chat.retention.maxBytes", 0));
+    }
+
+    public boolean isUnlimited() {
+        return maxAgeMillis == 0 && maxRecords == 0 && maxBytes == 0;
+    }
+
+    /**
+     * @return whether the oldest segment of a log, ending with a record written at
+     * {@code lastTimestamp}, may be deleted
+     */
+    boolean expires(long lastTimestamp, long records, long bytes, long totalRecords, long totalBytes, long nowMillis) {
+        return (maxAgeMillis > 0 && nowMillis - lastTimestamp > maxAgeMillis)
+                || (maxRecords > 0 && totalRecords - records >= maxRecords)
+                || (maxBytes > 0 && totalBytes - bytes >= maxBytes);
+    }
+}
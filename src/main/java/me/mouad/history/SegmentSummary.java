@@ -0,0 +1,124 @@
+package me.mouad.history;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * What compaction needs to know about a segment without reading it again, kept next to it as
+ * {@code <base sequence>.summary}: how many of its bytes it covers, the last record among them, and
+ * the keys those records reference.
+ * <p>
+ * A summary of the segment being written covers a prefix of it and is extended from there, so
+ * every record is only read once however often compaction runs. Recovery may cut that segment
+ * below what its summary covers, so its summary is dropped whenever the log is opened.
+ */
+record SegmentSummary(long bytes, long lastSequence, long lastTimestamp, Set<String> references) {
+
+    static final String SUFFIX = ".summary";
+
+    private static final int MAGIC = 0x43535331; // CSS1
+
+    private static final Logger logger = Logger.getLogger(SegmentSummary.class.getName());
+
+    static SegmentSummary empty(LogSegment segment) {
+        return new SegmentSummary(0, segment.baseSequence() - 1, 0, Set.of());
+    }
+
+    static Path pathOf(LogSegment segment) {
+        return segment.path().resolveSibling(String.format("%020d%s", segment.baseSequence(), SUFFIX));
+    }
+
+    /**
+     * @return the stored summary of {@code segment}, or an empty one if it has none or it is unreadable
+     */
+    static SegmentSummary read(LogSegment segment) {
+        final Path path = pathOf(segment);
+
+        try (final DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a segment summary");
+            }
+
+            final long bytes = in.readLong();
+            final long lastSequence = in.readLong();
+            final long lastTimestamp = in.readLong();
+            final int count = in.readInt();
+            final Set<String> references = new HashSet<>(Math.max(16, count * 2));
+
+            for (int i = 0; i < count; i++) {
+                references.add(in.readUTF());
+            }
+
+            return new SegmentSummary(bytes, lastSequence, lastTimestamp, references);
+        } catch (NoSuchFileException e) {
+            return empty(segment);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Summarizing " + segment.path() + " again, its summary is unreadable", e);
+            return empty(segment);
+        }
+    }
+
+    /**
+     * Reads the records {@code segment} gained since this summary was taken.
+     *
+     * @param referenceOf the key a record payload references, {@code null} if none
+     * @return this summary if the segment did not grow, a new stored one otherwise
+     */
+    SegmentSummary extend(LogSegment segment, Function<byte[], String> referenceOf) throws IOException {
+        final long size = Files.size(segment.path());
+        final SegmentSummary from = bytes > size ? empty(segment) : this;
+
+        if (from.bytes == size) return from;
+
+        final Set<String> extended = new HashSet<>(from.references);
+        final long[] last = {from.lastSequence, from.lastTimestamp};
+        final long scanned = segment.scan(from.bytes, Long.MAX_VALUE, record -> {
+            final String reference = referenceOf.apply(record.payload());
+
+            if (reference != null) {
+                extended.add(reference);
+            }
+
+            last[0] = record.sequence();
+            last[1] = record.timestamp();
+            return true;
+        });
+
+        if (scanned == from.bytes) return from;
+
+        final SegmentSummary summary = new SegmentSummary(scanned, last[0], last[1], extended);
+
+        summary.write(pathOf(segment));
+        return summary;
+    }
+
+    private void write(Path path) throws IOException {
+        final Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+
+        try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            out.writeInt(MAGIC);
+            out.writeLong(bytes);
+            out.writeLong(lastSequence);
+            out.writeLong(lastTimestamp);
+            out.writeInt(references.size());
+
+            for (String reference : references) {
+                out.writeUTF(reference);
+            }
+        }
+
+        Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+}
@@ -0,0 +1,133 @@
+package me.mouad.history;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * Interned sender names of one log, numbered in order of first appearance and kept in an
+ * append-only {@code senders} file of {@code [short length][utf-8 name]} entries.
+ * <p>
+ * A name is durable before its id is returned, so no log record can reference an id that a crash
+ * would lose; an id that never made it into the log is merely unused.
+ */
+final class SenderTable {
+
+    static final String FILE_NAME = "senders";
+
+    private final FileChannel channel;
+    private final boolean fsync;
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+
+    private volatile String[] names;
+    private volatile int count;
+
+    private static final Logger logger = Logger.getLogger(SenderTable.class.getName());
+
+    private SenderTable(FileChannel channel, boolean fsync) {
+        this.channel = channel;
+        this.fsync = fsync;
+    }
+
+    static SenderTable open(Path directory, boolean fsync) throws IOException {
+        final Path path = directory.resolve(FILE_NAME);
+        final FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        final SenderTable table = new SenderTable(channel, fsync);
+        final ByteBuffer content = ByteBuffer.allocate((int) channel.size());
+
+        while (content.hasRemaining() && channel.read(content, content.position()) > 0) {
+            // Read the whole table, it only grows with the number of distinct senders
+        }
+
+        content.flip();
+
+        final List<String> loaded = new ArrayList<>();
+
+        while (content.remaining() >= Short.BYTES) {
+            final int length = Short.toUnsignedInt(content.getShort(content.position()));
+
+            if (content.remaining() < Short.BYTES + length) break;
+
+            final byte[] name = new byte[length];
+
+            content.position(content.position() + Short.BYTES).get(name);
+            loaded.add(new String(name, StandardCharsets.UTF_8));
+        }
+
+        table.names = loaded.toArray(new String[Math.max(16, loaded.size() * 2)]);
+        table.count = loaded.size();
+
+        for (int id = 0; id < loaded.size(); id++) {
+            table.ids.put(loaded.get(id), id);
+        }
+
+        if (content.hasRemaining()) {
+            logger.warning("Truncating torn tail of " + path + " at byte " + content.position());
+            channel.truncate(content.position());
+        }
+
+        channel.position(content.position());
+        return table;
+    }
+
+
+    int idOf(String sender) throws IOException {
+        final Integer known = ids.get(sender);
+
+        return known != null ? known : assign(sender);
+    }
+
+    private synchronized int assign(String sender) throws IOException {
+        final Integer known = ids.get(sender);
+
+        if (known != null) return known;
+
+        final byte[] name = sender.getBytes(StandardCharsets.UTF_8);
+
+        if (name.length > 0xFFFF) {
+            throw new IOException("Sender name of " + name.length + " bytes is too long");
+        }
+
+        final ByteBuffer entry = ByteBuffer.allocate(Short.BYTES + name.length).putShort((short) name.length).put(name).flip();
+
+        while (entry.hasRemaining()) {
+            channel.write(entry);
+        }
+
+        if (fsync) {
+            channel.force(false);
+        }
+
+        // Lookups by id never lock: they read the count first, which is only raised once the name is in place
+        if (count == names.length) {
+            names = Arrays.copyOf(names, count * 2);
+        }
+
+        names[count] = sender;
+        ids.put(sender, count);
+        return count++;
+    }
+
+    /**
+     * @return the interned name of {@code id}, shared by every message of that sender
+     */
+    String nameOf(int id) {
+        final int known = count;
+
+        return id >= 0 && id < known ? names[id] : "#" + id;
+    }
+
+    synchronized void close() throws IOException {
+        channel.close();
+    }
+}
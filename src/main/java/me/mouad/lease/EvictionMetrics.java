@@ -0,0 +1,53 @@
+package me.mouad.lease;
+
+import me.mouad.delivery.DisconnectReason;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts evictions per {@link DisconnectReason} and how long after detection they completed.
+ */
+public class EvictionMetrics {
+
+    public record Snapshot(Map<DisconnectReason, Long> evictions, long totalLatencyNanos, long maxLatencyNanos) {
+
+        public long count() {
+            return evictions.values().stream().mapToLong(Long::longValue).sum();
+        }
+
+        public double averageLatencyMillis() {
+            final long count = count();
+
+            return count == 0 ? 0 : totalLatencyNanos / 1e6 / count;
+        }
+    }
+
+    private final Map<DisconnectReason, LongAdder> evictions = new EnumMap<>(DisconnectReason.class);
+    private final LongAdder totalLatencyNanos = new LongAdder();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    public EvictionMetrics() {
+        for (DisconnectReason reason : DisconnectReason.values()) {
+            evictions.put(reason, new LongAdder());
+        }
+    }
+
+    public void record(DisconnectReason reason, long detectedAtNanos) {
+        final long latency = Math.max(0, System.nanoTime() - detectedAtNanos);
+
+        evictions.get(reason).increment();
+        totalLatencyNanos.add(latency);
+        maxLatencyNanos.accumulateAndGet(latency, Math::max);
+    }
+
+    public Snapshot snapshot() {
+        final Map<DisconnectReason, Long> counts = new EnumMap<>(DisconnectReason.class);
+
+        evictions.forEach((reason, count) -> counts.put(reason, count.sum()));
+
+        return new Snapshot(Map.copyOf(counts), totalLatencyNanos.sum(), maxLatencyNanos.get());
+    }
+}
@@ -0,0 +1,93 @@
+package me.mouad.lease;
+
+import me.mouad.api.Client;
+import me.mouad.delivery.DisconnectHandler;
+import me.mouad.delivery.DisconnectReason;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks client leases and evicts clients that stop renewing them.
+ * <p>
+ * Renewals only overwrite an entry in a concurrent map; a background sweeper hands every expired
+ * client to the {@link DisconnectHandler}, on a thread of its own, so eviction never runs on a
+ * fan-out path and a slow eviction never delays the next sweep.
+ * <p>
+ * A lease belongs to a session rather than to a name, so ending a session never releases the
+ * lease of the one that took its name since.
+ */
+public class LeaseManager implements AutoCloseable {
+
+    private record Lease(Client client, long renewedAtNanos) {}
+
+    private final Map<String, Lease> leases = new ConcurrentHashMap<>();
+    private final long leaseNanos;
+    private final DisconnectHandler disconnectHandler;
+    private final ScheduledExecutorService sweeper;
+
+    public LeaseManager(Duration lease, DisconnectHandler disconnectHandler) {
+        this.leaseNanos = lease.toNanos();
+        this.disconnectHandler = DisconnectHandler.onOwnThread(disconnectHandler);
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform()
+                .name("lease-sweeper")
+                .daemon()
+                .factory());
+
+        final long period = Math.max(1, lease.toMillis() / 4);
+        sweeper.scheduleWithFixedDelay(this::sweep, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Reads {@code chat.lease.millis}.
+     */
+    public static LeaseManager fromSystemProperties(DisconnectHandler disconnectHandler) {
+        return new LeaseManager(Duration.ofMillis(Long.getLong("chat.lease.millis", 15_000)), disconnectHandler);
+    }
+
+    public Duration leaseDuration() {
+        return Duration.ofNanos(leaseNanos);
+    }
+
+    /**
+     * Grants {@code client} the lease of {@code username}, replacing any other session's.
+     */
+    public void renew(String username, Client client) {
+        leases.put(username, new Lease(client, System.nanoTime()));
+    }
+
+    /**
+     * @return whether {@code username} held a lease
+     */
+    public boolean renewIfHeld(String username) {
+        return leases.computeIfPresent(username, (_, lease) -> new Lease(lease.client(), System.nanoTime())) != null;
+    }
+
+    /**
+     * Releases the lease of {@code username} only if {@code client} still holds it.
+     */
+    public void release(String username, Client client) {
+        leases.computeIfPresent(username, (_, lease) -> lease.client() == client ? null : lease);
+    }
+
+    void sweep() {
+        final long now = System.nanoTime();
+
+        leases.forEach((username, lease) -> {
+            final long expiredAt = lease.renewedAtNanos() + leaseNanos;
+
+            if (now - expiredAt > 0 && leases.remove(username, lease)) {
+                disconnectHandler.disconnect(username, lease.client(), DisconnectReason.EXPIRED, expiredAt);
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        sweeper.shutdownNow();
+    }
+}
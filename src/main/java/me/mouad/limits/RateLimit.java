@@ -0,0 +1,28 @@
+package me.mouad.limits;
+
+/**
+ * A token bucket refilled at {@code perSecond} tokens per second and holding up to {@code burst}
+ * tokens; a rate of zero or less lifts the limit.
+ */
+public record RateLimit(double perSecond, double burst) {
+
+    public static final RateLimit UNLIMITED = new RateLimit(0, 0);
+
+    public RateLimit {
+        if (perSecond > 0 && burst < 1) {
+            throw new IllegalArgumentException("Burst must hold at least one token: " + burst);
+        }
+    }
+
+    public boolean isUnlimited() {
+        return perSecond <= 0;
+    }
+
+    long costNanos(long tokens) {
+        return (long) Math.ceil(tokens * 1e9 / perSecond);
+    }
+
+    long capacityNanos() {
+        return (long) (burst * 1e9 / perSecond);
+    }
+}
@@ -0,0 +1,337 @@
+package me.mouad.limits;
+
+import me.mouad.api.RateLimitException;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Token-bucket limits on what each user posts and uploads, and on what each room receives, in
+ * messages and in bytes.
+ * <p>
+ * Every request is checked against all of its limits at once and refused as a whole, with a
+ * {@link RateLimitException} telling when to retry, so a flooding client is turned away before its
+ * messages reach a log or a mailbox. Limits are enforced by the node a client talks to and can be
+ * changed at runtime through JMX.
+ */
+public class RateLimiter implements RateLimiterMXBean, AutoCloseable {
+
+    public enum Limit {
+        USER_MESSAGES("userMessages", "Too many messages from '%s'"),
+        USER_BYTES("userBytes", "Too many message bytes from '%s'"),
+        USER_UPLOAD_BYTES("userUploadBytes", "Too many uploaded bytes from '%s'"),
+        ROOM_MESSAGES("roomMessages", "Too many messages in room '%s'"),
+        ROOM_BYTES("roomBytes", "Too many message bytes in room '%s'");
+
+        private final String property;
+        private final String description;
+
+        Limit(String property, String description) {
+            this.property = property;
+            this.description = description;
+        }
+
+        /**
+         * @return the name of the limit in metrics
+         */
+        public String label() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    public static final Map<Limit, RateLimit> DEFAULT_LIMITS = Map.of(
+            Limit.USER_MESSAGES, new RateLimit(5, 20),
+            Limit.USER_BYTES, new RateLimit(64 * 1024, 256 * 1024),
+            Limit.USER_UPLOAD_BYTES, new RateLimit(16 * 1024 * 1024, 256 * 1024 * 1024),
+            Limit.ROOM_MESSAGES, new RateLimit(100, 500),
+            Limit.ROOM_BYTES, new RateLimit(1024 * 1024, 4 * 1024 * 1024));
+
+    /**
+     * What an upload costs at least, in bytes, as even an empty one holds a file until it completes.
+     */
+    public static final long MIN_UPLOAD_CHARGE_BYTES = 64 * 1024;
+
+    private static final long SWEEP_SECONDS = 60;
+
+    private final Map<Limit, TokenBuckets> buckets = new EnumMap<>(Limit.class);
+    private final Consumer<Limit> onRejected;
+    private final ScheduledExecutorService sweeper;
+    private final ObjectName objectName;
+
+    private static final Logger logger = Logger.getLogger(RateLimiter.class.getName());
+
+    /**
+     * @param onRejected told about every refused request, with the limit it exceeded
+     */
+    public RateLimiter(String nodeId, Map<Limit, RateLimit> limits, Consumer<Limit> onRejected) {
+        for (Limit limit : Limit.values()) {
+            buckets.put(limit, new TokenBuckets(limits.getOrDefault(limit, RateLimit.UNLIMITED)));
+        }
+
+        this.onRejected = onRejected;
+        this.objectName = objectName(nodeId);
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform()
+                .name("rate-limit-sweeper")
+                .daemon()
+                .factory());
+
+        sweeper.scheduleWithFixedDelay(this::sweep, SWEEP_SECONDS, SWEEP_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Reads {@code chat.limits.enabled}, then {@code chat.limits.<limit>PerSecond} and
+     * {@code chat.limits.<limit>Burst} for each of {@code userMessages}, {@code userBytes},
+     * {@code userUploadBytes}, {@code roomMessages} and {@code roomBytes}.
+     */
+    public static RateLimiter fromSystemProperties(String nodeId, Consumer<Limit> onRejected) {
+        final Map<Limit, RateLimit> limits = new EnumMap<>(Limit.class);
+
+        if (!Boolean.parseBoolean(System.getProperty("chat.limits.enabled", "true"))) {
+            return new RateLimiter(nodeId, limits, onRejected);
+        }
+
+        for (Limit limit : Limit.values()) {
+            final RateLimit defaults = DEFAULT_LIMITS.get(limit);
+
+            limits.put(limit, new RateLimit(
+                    doubleProperty("chat.limits." + limit.property + "PerSecond", defaults.perSecond()),
+                    doubleProperty("chat.limits." + limit.property + "Burst", defaults.burst())));
+        }
+
+        return new RateLimiter(nodeId, limits, onRejected);
+    }
+
+    private static double doubleProperty(String name, double defaultValue) {
+        final String value = System.getProperty(name);
+
+        return value == null ? defaultValue : Double.parseDouble(value);
+    }
+
+    private static ObjectName objectName(String nodeId) {
+        try {
+            return new ObjectName("me.mouad:type=RateLimiter,node=" + ObjectName.quote(nodeId));
+        } catch (JMException e) {
+            throw new IllegalArgumentException("Invalid node id " + nodeId, e);
+        }
+    }
+
+    /**
+     * Registers the MXBean with the platform MBean server, replacing a previous registration of the same node.
+     */
+    public void register() {
+        final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+
+        try {
+            if (mBeanServer.isRegistered(objectName)) {
+                mBeanServer.unregisterMBean(objectName);
+            }
+
+            mBeanServer.registerMBean(this, objectName);
+        } catch (JMException e) {
+            logger.log(Level.WARNING, "Unable to register rate limits as " + objectName, e);
+        }
+    }
+
+    /**
+     * Charges a message of {@code bytes} posted by {@code user} to {@code room}.
+     */
+    public void acquireMessage(String user, String room, long bytes) throws RateLimitException {
+        take(new Charge(Limit.USER_MESSAGES, user, 1),
+                new Charge(Limit.USER_BYTES, user, bytes),
+                new Charge(Limit.ROOM_MESSAGES, room, 1),
+                new Charge(Limit.ROOM_BYTES, room, bytes));
+    }
+
+    /**
+     * Charges an upload of {@code bytes}, or {@link #MIN_UPLOAD_CHARGE_BYTES} if smaller, by
+     * {@code user}; a full bucket lets a large file through, delaying the next uploads instead.
+     */
+    public void acquireUpload(String user, long bytes) throws RateLimitException {
+        take(new Charge(Limit.USER_UPLOAD_BYTES, user, Math.max(bytes, MIN_UPLOAD_CHARGE_BYTES)));
+    }
+
+    private record Charge(Limit limit, String key, long tokens) {}
+
+    private void take(Charge... charges) throws RateLimitException {
+        final long now = System.nanoTime();
+
+        for (int i = 0; i < charges.length; i++) {
+            final Charge charge = charges[i];
+            final long waitNanos = buckets.get(charge.limit).take(charge.key, charge.tokens, now);
+
+            if (waitNanos == 0) continue;
+
+            for (int taken = 0; taken < i; taken++) {
+                buckets.get(charges[taken].limit).refund(charges[taken].key, charges[taken].tokens);
+            }
+
+            onRejected.accept(charge.limit);
+
+            final long retryAfterMillis = TimeUnit.NANOSECONDS.toMillis(waitNanos) + 1;
+
+            throw new RateLimitException(String.format(charge.limit.description, charge.key)
+                    + ", retry in " + retryAfterMillis + " ms", retryAfterMillis);
+        }
+    }
+
+    public RateLimit limit(Limit limit) {
+        return buckets.get(limit).limit();
+    }
+
+    public void limit(Limit limit, RateLimit rateLimit) {
+        buckets.get(limit).limit(rateLimit);
+        logger.info("Rate limit " + limit.label() + " set to " + rateLimit);
+    }
+
+    public Map<Limit, RateLimit> limits() {
+        final Map<Limit, RateLimit> limits = new EnumMap<>(Limit.class);
+
+        buckets.forEach((limit, limited) -> limits.put(limit, limited.limit()));
+        return limits;
+    }
+
+    private void rate(Limit limit, double perSecond) {
+        limit(limit, new RateLimit(perSecond, Math.max(limit(limit).burst(), 1)));
+    }
+
+    private void burst(Limit limit, double burst) {
+        limit(limit, new RateLimit(limit(limit).perSecond(), burst));
+    }
+
+    void sweep() {
+        final long now = System.nanoTime();
+
+        buckets.values().forEach(limited -> limited.sweep(now));
+    }
+
+    @Override
+    public double getUserMessagesPerSecond() {
+        return limit(Limit.USER_MESSAGES).perSecond();
+    }
+
+    @Override
+    public void setUserMessagesPerSecond(double perSecond) {
+        rate(Limit.USER_MESSAGES, perSecond);
+    }
+
+    @Override
+    public double getUserMessagesBurst() {
+        return limit(Limit.USER_MESSAGES).burst();
+    }
+
+    @Override
+    public void setUserMessagesBurst(double burst) {
+        burst(Limit.USER_MESSAGES, burst);
+    }
+
+    @Override
+    public double getUserBytesPerSecond() {
+        return limit(Limit.USER_BYTES).perSecond();
+    }
+
+    @Override
+    public void setUserBytesPerSecond(double perSecond) {
+        rate(Limit.USER_BYTES, perSecond);
+    }
+
+    @Override
+    public double getUserBytesBurst() {
+        return limit(Limit.USER_BYTES).burst();
+    }
+
+    @Override
+    public void setUserBytesBurst(double burst) {
+        burst(Limit.USER_BYTES, burst);
+    }
+
+    @Override
+    public double getUserUploadBytesPerSecond() {
+        return limit(Limit.USER_UPLOAD_BYTES).perSecond();
+    }
+
+    @Override
+    public void setUserUploadBytesPerSecond(double perSecond) {
+        rate(Limit.USER_UPLOAD_BYTES, perSecond);
+    }
+
+    @Override
+    public double getUserUploadBytesBurst() {
+        return limit(Limit.USER_UPLOAD_BYTES).burst();
+    }
+
+    @Override
+    public void setUserUploadBytesBurst(double burst) {
+        burst(Limit.USER_UPLOAD_BYTES, burst);
+    }
+
+    @Override
+    public double getRoomMessagesPerSecond() {
+        return limit(Limit.ROOM_MESSAGES).perSecond();
+    }
+
+    @Override
+    public void setRoomMessagesPerSecond(double perSecond) {
+        rate(Limit.ROOM_MESSAGES, perSecond);
+    }
+
+    @Override
+    public double getRoomMessagesBurst() {
+        return limit(Limit.ROOM_MESSAGES).burst();
+    }
+
+    @Override
+    public void setRoomMessagesBurst(double burst) {
+        burst(Limit.ROOM_MESSAGES, burst);
+    }
+
+    @Override
+    public double getRoomBytesPerSecond() {
+        return limit(Limit.ROOM_BYTES).perSecond();
+    }
+
+    @Override
+    public void setRoomBytesPerSecond(double perSecond) {
+        rate(Limit.ROOM_BYTES, perSecond);
+    }
+
+    @Override
+    public double getRoomBytesBurst() {
+        return limit(Limit.ROOM_BYTES).burst();
+    }
+
+    @Override
+    public void setRoomBytesBurst(double burst) {
+        burst(Limit.ROOM_BYTES, burst);
+    }
+
+    @Override
+    public int getTrackedBuckets() {
+        return buckets.values().stream().mapToInt(TokenBuckets::size).sum();
+    }
+
+    @Override
+    public void close() {
+        sweeper.shutdownNow();
+
+        try {
+            final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+
+            if (mBeanServer.isRegistered(objectName)) {
+                mBeanServer.unregisterMBean(objectName);
+            }
+        } catch (JMException e) {
+            logger.log(Level.WARNING, "Unable to unregister " + objectName, e);
+        }
+    }
+}
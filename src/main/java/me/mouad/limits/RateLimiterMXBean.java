@@ -0,0 +1,34 @@
+package me.mouad.limits;
+
+/**
+ * JMX view of the {@link RateLimiter}; the limits can be changed while the server runs, a rate
+ * of zero lifting a limit.
+ */
+public interface RateLimiterMXBean {
+    double getUserMessagesPerSecond();
+    void setUserMessagesPerSecond(double perSecond);
+    double getUserMessagesBurst();
+    void setUserMessagesBurst(double burst);
+
+    double getUserBytesPerSecond();
+    void setUserBytesPerSecond(double perSecond);
+    double getUserBytesBurst();
+    void setUserBytesBurst(double burst);
+
+    double getUserUploadBytesPerSecond();
+    void setUserUploadBytesPerSecond(double perSecond);
+    double getUserUploadBytesBurst();
+    void setUserUploadBytesBurst(double burst);
+
+    double getRoomMessagesPerSecond();
+    void setRoomMessagesPerSecond(double perSecond);
+    double getRoomMessagesBurst();
+    void setRoomMessagesBurst(double burst);
+
+    double getRoomBytesPerSecond();
+    void setRoomBytesPerSecond(double perSecond);
+    double getRoomBytesBurst();
+    void setRoomBytesBurst(double burst);
+
+    int getTrackedBuckets();
+}
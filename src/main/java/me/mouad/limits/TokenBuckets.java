@@ -0,0 +1,84 @@
+package me.mouad.limits;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One token bucket per key, all sharing a {@link RateLimit} that may be changed at any time.
+ * <p>
+ * A bucket is stored as the time at which it will be full again (the GCRA formulation of a token
+ * bucket): taking tokens pushes that time forward by their cost, which must stay within the
+ * bucket's capacity from now. Taking is a single compare-and-set, and a bucket that is full again
+ * holds no information, so it can be dropped.
+ */
+final class TokenBuckets {
+
+    private final Map<String, AtomicLong> fullAt = new ConcurrentHashMap<>();
+
+    private volatile RateLimit limit;
+
+    TokenBuckets(RateLimit limit) {
+        this.limit = limit;
+    }
+
+    RateLimit limit() {
+        return limit;
+    }
+
+    void limit(RateLimit limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * Takes {@code tokens} from the bucket of {@code key}. A full bucket grants any amount, so
+     * requests larger than the burst are delayed rather than refused forever.
+     *
+     * @return {@code 0} if they were taken, otherwise the nanoseconds until they would be
+     */
+    long take(String key, long tokens, long now) {
+        final RateLimit current = limit;
+
+        if (current.isUnlimited() || tokens <= 0) return 0;
+
+        final AtomicLong bucket = fullAt.computeIfAbsent(key, _ -> new AtomicLong(now));
+        final long cost = current.costNanos(tokens);
+        final long capacity = current.capacityNanos();
+
+        while (true) {
+            final long previous = bucket.get();
+            final long start = Math.max(previous, now);
+            final long next = start + cost;
+
+            if (next - now > capacity && previous - now > 0) {
+                return next - now - capacity;
+            }
+
+            if (bucket.compareAndSet(previous, next)) return 0;
+        }
+    }
+
+    /**
+     * Gives back tokens taken by a request that was refused by another limit.
+     */
+    void refund(String key, long tokens) {
+        final RateLimit current = limit;
+        final AtomicLong bucket = fullAt.get(key);
+
+        if (bucket != null && !current.isUnlimited() && tokens > 0) {
+            bucket.addAndGet(-current.costNanos(tokens));
+        }
+    }
+
+    /**
+     * Drops the buckets that are full again. A take racing with the removal may go uncounted,
+     * which only errs on the lenient side.
+     */
+    void sweep(long now) {
+        fullAt.entrySet().removeIf(entry -> entry.getValue().get() - now <= 0);
+    }
+
+    int size() {
+        return fullAt.size();
+    }
+}
@@ -0,0 +1,120 @@
+package me.mouad.logging;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * Hands log records to a background thread that writes them to the wrapped handler, so logging
+ * callers never wait on file I/O. When the queue is full, records below {@link Level#WARNING}
+ * are dropped and counted rather than blocking the caller.
+ */
+public class AsyncLogHandler extends Handler {
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 8192;
+
+    private static final int MAX_BATCH = 256;
+
+    private final Handler target;
+    private final BlockingQueue<LogRecord> queue;
+    private final LongAdder dropped = new LongAdder();
+    private final Thread writer;
+
+    private volatile boolean closed;
+
+    public AsyncLogHandler(Handler target) {
+        this(target, Integer.getInteger("chat.log.queueCapacity", DEFAULT_QUEUE_CAPACITY));
+    }
+
+    public AsyncLogHandler(Handler target, int queueCapacity) {
+        this.target = target;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.writer = Thread.ofPlatform()
+                .name("async-log-writer")
+                .daemon()
+                .start(this::writeLoop);
+
+        setLevel(target.getLevel());
+        setFormatter(target.getFormatter());
+    }
+
+    @Override
+    public void publish(LogRecord record) {
+        if (closed || !isLoggable(record)) return ;
+
+        // Infer the caller now, the writer thread's stack does not contain it
+        record.getSourceClassName();
+
+        if (queue.offer(record)) return ;
+
+        if (record.getLevel().intValue() < Level.WARNING.intValue()) {
+            dropped.increment();
+            return ;
+        }
+
+        try {
+            queue.put(record);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    private void writeLoop() {
+        final List<LogRecord> batch = new ArrayList<>(MAX_BATCH);
+
+        while (!closed || !queue.isEmpty()) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                continue;
+            }
+
+            queue.drainTo(batch, MAX_BATCH - 1);
+
+            for (LogRecord record : batch) {
+                try {
+                    target.publish(record);
+                } catch (RuntimeException e) {
+                    reportError("Unable to write log record", e, ErrorManager.WRITE_FAILURE);
+                }
+            }
+
+            target.flush();
+            batch.clear();
+        }
+    }
+
+    @Override
+    public void flush() {
+        // The writer flushes after every batch
+    }
+
+    /**
+     * Writes out everything queued so far, then closes the wrapped handler.
+     */
+    @Override
+    public void close() {
+        if (closed) return ;
+
+        closed = true;
+        writer.interrupt();
+
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        target.close();
+    }
+}
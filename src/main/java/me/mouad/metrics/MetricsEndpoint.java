@@ -0,0 +1,63 @@
+package me.mouad.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
+
+/**
+ * Serves {@link ServerMetrics#getText()} on {@code http://127.0.0.1:<port>/metrics}, for scrapers
+ * and for a quick look with curl. Only bound to the loopback interface.
+ */
+public class MetricsEndpoint implements Closeable {
+
+    private final HttpServer server;
+
+    private static final Logger logger = Logger.getLogger(MetricsEndpoint.class.getName());
+
+    public MetricsEndpoint(ServerMetrics metrics, int port) throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+
+        server.createContext("/metrics", exchange -> respond(exchange, metrics.getText()));
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.start();
+
+        logger.info("Metrics available on http://127.0.0.1:" + server.getAddress().getPort() + "/metrics");
+    }
+
+    /**
+     * Starts the endpoint on {@code chat.metrics.port}, or returns {@code null} when it is not set.
+     */
+    public static MetricsEndpoint fromSystemProperties(ServerMetrics metrics) throws IOException {
+        final Integer port = Integer.getInteger("chat.metrics.port");
+
+        return port == null ? null : new MetricsEndpoint(metrics, port);
+    }
+
+    private static void respond(HttpExchange exchange, String text) throws IOException {
+        final byte[] body = text.getBytes(StandardCharsets.UTF_8);
+
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        exchange.sendResponseHeaders(200, body.length);
+
+        try (final OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
@@ -0,0 +1,20 @@
+package me.mouad.metrics;
+
+import me.mouad.delivery.MailboxStats;
+import me.mouad.limits.RateLimit;
+
+import java.util.Map;
+
+/**
+ * Gauges read from the server's components each time the metrics are collected.
+ */
+public interface MetricsSource {
+    int connectedUsers();
+    int rooms();
+    long historyRecords();
+    long historyBytes();
+    Map<String, MailboxStats> deliveryStats();
+    LatencyHistogram.Snapshot fanOutLatency();
+    long evictions();
+    Map<String, RateLimit> rateLimits();
+}
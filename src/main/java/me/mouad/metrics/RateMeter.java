@@ -0,0 +1,50 @@
+package me.mouad.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts events and keeps an exponentially weighted one-minute rate, refreshed by {@link #tick()}
+ * every {@link #TICK_SECONDS} seconds. Marking is a single {@link LongAdder} increment.
+ */
+public class RateMeter {
+
+    public static final int TICK_SECONDS = 5;
+
+    private static final double ALPHA = 1 - Math.exp(-TICK_SECONDS / 60.0);
+
+    private final LongAdder total = new LongAdder();
+    private final LongAdder uncounted = new LongAdder();
+
+    // Only written by the ticking thread
+    private volatile double ratePerSecond;
+    private boolean initialized;
+
+    public void mark() {
+        total.increment();
+        uncounted.increment();
+    }
+
+    public void mark(long events) {
+        total.add(events);
+        uncounted.add(events);
+    }
+
+    void tick() {
+        final double instantRate = uncounted.sumThenReset() / (double) TICK_SECONDS;
+
+        if (initialized) {
+            ratePerSecond += ALPHA * (instantRate - ratePerSecond);
+        } else {
+            ratePerSecond = instantRate;
+            initialized = true;
+        }
+    }
+
+    public long count() {
+        return total.sum();
+    }
+
+    public double oneMinuteRate() {
+        return ratePerSecond;
+    }
+}
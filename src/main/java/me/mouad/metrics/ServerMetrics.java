@@ -0,0 +1,301 @@
+package me.mouad.metrics;
+
+import me.mouad.delivery.MailboxStats;
+import me.mouad.limits.RateLimit;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Server counters and gauges, exported as an MXBean and rendered as text for the metrics endpoint.
+ * <p>
+ * Recording on the hot path is limited to {@link LongAdder} increments; everything derived, such
+ * as rates, percentiles and per-client maps, is computed when the metrics are read.
+ */
+public class ServerMetrics implements ServerMetricsMXBean, AutoCloseable {
+
+    private final MetricsSource source;
+    private final RateMeter messages = new RateMeter();
+    private final LongAdder bytesUploaded = new LongAdder();
+    private final LongAdder bytesDownloaded = new LongAdder();
+    private final Map<String, LongAdder> rateLimited = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService ticker;
+    private final ObjectName objectName;
+
+    private static final Logger logger = Logger.getLogger(ServerMetrics.class.getName());
+
+    public ServerMetrics(String nodeId, MetricsSource source) {
+        this.source = source;
+        this.ticker = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform()
+                .name("metrics-tick")
+                .daemon()
+                .factory());
+        this.objectName = objectName(nodeId);
+
+        ticker.scheduleAtFixedRate(messages::tick, RateMeter.TICK_SECONDS, RateMeter.TICK_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private static ObjectName objectName(String nodeId) {
+        try {
+            return new ObjectName("me.mouad:type=ChatServer,node=" + ObjectName.quote(nodeId));
+        } catch (JMException e) {
+            throw new IllegalArgumentException("Invalid node id " + nodeId, e);
+        }
+    }
+
+    /**
+     * Registers the MXBean with the platform MBean server, replacing a previous registration of the same node.
+     */
+    public void register() {
+        final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+
+        try {
+            if (mBeanServer.isRegistered(objectName)) {
+                mBeanServer.unregisterMBean(objectName);
+            }
+
+            mBeanServer.registerMBean(this, objectName);
+        } catch (JMException e) {
+            logger.log(Level.WARNING, "Unable to register metrics as " + objectName, e);
+        }
+    }
+
+    public void messagePosted() {
+        messages.mark();
+    }
+
+    public void uploaded(long bytes) {
+        bytesUploaded.add(bytes);
+    }
+
+    public void downloaded(long bytes) {
+        bytesDownloaded.add(bytes);
+    }
+
+    /**
+     * Counts a request refused by the rate limit named {@code limit}.
+     */
+    public void rateLimited(String limit) {
+        rateLimited.computeIfAbsent(limit, _ -> new LongAdder()).increment();
+    }
+
+    @Override
+    public long getMessagesPosted() {
+        return messages.count();
+    }
+
+    @Override
+    public double getMessagesPerSecond() {
+        return messages.oneMinuteRate();
+    }
+
+    @Override
+    public long getFanOutCount() {
+        return source.fanOutLatency().count();
+    }
+
+    @Override
+    public double getFanOutLatencyMeanMicros() {
+        return source.fanOutLatency().meanMicros();
+    }
+
+    @Override
+    public double getFanOutLatencyP50Micros() {
+        return source.fanOutLatency().p50();
+    }
+
+    @Override
+    public double getFanOutLatencyP99Micros() {
+        return source.fanOutLatency().p99();
+    }
+
+    @Override
+    public double getFanOutLatencyP999Micros() {
+        return source.fanOutLatency().p999();
+    }
+
+    @Override
+    public double getFanOutLatencyMaxMicros() {
+        return source.fanOutLatency().maxMicros();
+    }
+
+    @Override
+    public int getConnectedUsers() {
+        return source.connectedUsers();
+    }
+
+    @Override
+    public int getRooms() {
+        return source.rooms();
+    }
+
+    @Override
+    public long getHistoryRecords() {
+        return source.historyRecords();
+    }
+
+    @Override
+    public long getHistoryBytes() {
+        return source.historyBytes();
+    }
+
+    @Override
+    public long getBytesUploaded() {
+        return bytesUploaded.sum();
+    }
+
+    @Override
+    public long getBytesDownloaded() {
+        return bytesDownloaded.sum();
+    }
+
+    @Override
+    public long getDeliveryFailures() {
+        return source.deliveryStats().values().stream().mapToLong(MailboxStats::failed).sum();
+    }
+
+    @Override
+    public long getDroppedDeliveries() {
+        return source.deliveryStats().values().stream().mapToLong(MailboxStats::dropped).sum();
+    }
+
+    @Override
+    public long getEvictions() {
+        return source.evictions();
+    }
+
+    @Override
+    public long getRateLimitedRequests() {
+        return rateLimited.values().stream().mapToLong(LongAdder::sum).sum();
+    }
+
+    @Override
+    public Map<String, Long> getRateLimitedByLimit() {
+        final Map<String, Long> rejections = new TreeMap<>();
+
+        rateLimited.forEach((limit, count) -> rejections.put(limit, count.sum()));
+        return rejections;
+    }
+
+    @Override
+    public Map<String, Long> getDeliveryFailuresByClient() {
+        final Map<String, Long> failures = new TreeMap<>();
+
+        source.deliveryStats().forEach((username, stats) -> failures.put(username, stats.failed()));
+        return failures;
+    }
+
+    @Override
+    public Map<String, Integer> getQueueDepthByClient() {
+        final Map<String, Integer> depths = new TreeMap<>();
+
+        source.deliveryStats().forEach((username, stats) -> depths.put(username, stats.queueDepth()));
+        return depths;
+    }
+
+    /**
+     * Renders every metric in the Prometheus text exposition format.
+     */
+    @Override
+    public String getText() {
+        final StringBuilder text = new StringBuilder(1024);
+        final LatencyHistogram.Snapshot fanOut = source.fanOutLatency();
+        final Map<String, MailboxStats> mailboxes = new TreeMap<>(source.deliveryStats());
+
+        counter(text, "chat_messages_posted_total", "Messages committed on this node", messages.count());
+        gauge(text, "chat_messages_per_second", "One-minute rate of committed messages", messages.oneMinuteRate());
+
+        text.append("# HELP chat_fanout_latency_micros Time from commit to delivery to one client\n")
+                .append("# TYPE chat_fanout_latency_micros summary\n");
+        quantile(text, "0.5", fanOut.p50());
+        quantile(text, "0.9", fanOut.p90());
+        quantile(text, "0.99", fanOut.p99());
+        quantile(text, "0.999", fanOut.p999());
+        text.append("chat_fanout_latency_micros_count ").append(fanOut.count()).append('\n');
+        gauge(text, "chat_fanout_latency_max_micros", "Slowest delivery so far", fanOut.maxMicros());
+
+        gauge(text, "chat_connected_users", "Users connected to this node", source.connectedUsers());
+        gauge(text, "chat_rooms", "Known rooms", source.rooms());
+        gauge(text, "chat_history_records", "Records in the open room logs", source.historyRecords());
+        gauge(text, "chat_history_bytes", "Bytes of the open room logs on disk", source.historyBytes());
+        counter(text, "chat_bytes_uploaded_total", "File bytes received", bytesUploaded.sum());
+        counter(text, "chat_bytes_downloaded_total", "File bytes served", bytesDownloaded.sum());
+        counter(text, "chat_evictions_total", "Clients evicted", source.evictions());
+
+        text.append("# HELP chat_rate_limited_total Requests refused per rate limit\n")
+                .append("# TYPE chat_rate_limited_total counter\n");
+        getRateLimitedByLimit().forEach((limit, count) -> labelled(text, "chat_rate_limited_total", "limit", limit, count));
+
+        final Map<String, RateLimit> limits = new TreeMap<>(source.rateLimits());
+
+        text.append("# HELP chat_rate_limit_per_second Configured refill rate per rate limit, 0 when unlimited\n")
+                .append("# TYPE chat_rate_limit_per_second gauge\n");
+        limits.forEach((limit, rate) -> labelled(text, "chat_rate_limit_per_second", "limit", limit, rate.perSecond()));
+
+        text.append("# HELP chat_rate_limit_burst Configured bucket size per rate limit\n")
+                .append("# TYPE chat_rate_limit_burst gauge\n");
+        limits.forEach((limit, rate) -> labelled(text, "chat_rate_limit_burst", "limit", limit, rate.burst()));
+
+        text.append("# HELP chat_delivery_failures_total Failed deliveries per client\n")
+                .append("# TYPE chat_delivery_failures_total counter\n");
+        mailboxes.forEach((username, stats) -> labelled(text, "chat_delivery_failures_total", "user", username, stats.failed()));
+
+        text.append("# HELP chat_delivery_dropped_total Deliveries dropped on overflow per client\n")
+                .append("# TYPE chat_delivery_dropped_total counter\n");
+        mailboxes.forEach((username, stats) -> labelled(text, "chat_delivery_dropped_total", "user", username, stats.dropped()));
+
+        text.append("# HELP chat_delivery_queue_depth Queued deliveries per client\n")
+                .append("# TYPE chat_delivery_queue_depth gauge\n");
+        mailboxes.forEach((username, stats) -> labelled(text, "chat_delivery_queue_depth", "user", username, stats.queueDepth()));
+
+        return text.toString();
+    }
+
+    private static void counter(StringBuilder text, String name, String help, long value) {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n')
+                .append("# TYPE ").append(name).append(" counter\n")
+                .append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void gauge(StringBuilder text, String name, String help, double value) {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n')
+                .append("# TYPE ").append(name).append(" gauge\n")
+                .append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void quantile(StringBuilder text, String quantile, double value) {
+        text.append("chat_fanout_latency_micros{quantile=\"").append(quantile).append("\"} ").append(value).append('\n');
+    }
+
+    private static void labelled(StringBuilder text, String name, String label, String labelValue, Number value) {
+        text.append(name).append('{').append(label).append("=\"")
+                .append(labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"))
+                .append("\"} ").append(value).append('\n');
+    }
+
+    @Override
+    public void close() {
+        ticker.shutdownNow();
+
+        try {
+            final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+
+            if (mBeanServer.isRegistered(objectName)) {
+                mBeanServer.unregisterMBean(objectName);
+            }
+        } catch (JMException e) {
+            logger.log(Level.WARNING, "Unable to unregister " + objectName, e);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package me.mouad.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link ServerMetrics}; latencies are in microseconds.
+ */
+public interface ServerMetricsMXBean {
+    long getMessagesPosted();
+    double getMessagesPerSecond();
+
+    long getFanOutCount();
+    double getFanOutLatencyMeanMicros();
+    double getFanOutLatencyP50Micros();
+    double getFanOutLatencyP99Micros();
+    double getFanOutLatencyP999Micros();
+    double getFanOutLatencyMaxMicros();
+
+    int getConnectedUsers();
+    int getRooms();
+    long getHistoryRecords();
+    long getHistoryBytes();
+
+    long getBytesUploaded();
+    long getBytesDownloaded();
+
+    long getDeliveryFailures();
+    long getDroppedDeliveries();
+    long getEvictions();
+    long getRateLimitedRequests();
+    Map<String, Long> getRateLimitedByLimit();
+    Map<String, Long> getDeliveryFailuresByClient();
+    Map<String, Integer> getQueueDepthByClient();
+
+    String getText();
+}
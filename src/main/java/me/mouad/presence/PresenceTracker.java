@@ -0,0 +1,111 @@
+package me.mouad.presence;
+
+import me.mouad.api.PresenceUpdate;
+import me.mouad.delivery.DeliveryEngine;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes connected-user changes as versioned deltas.
+ * <p>
+ * Joins and leaves are only recorded as they happen; a timer publishes whatever accumulated since
+ * the last tick as one delta, so a user who joins and leaves within a tick costs nothing, and a
+ * wave of reconnects becomes a single broadcast instead of one full list per event per client.
+ * The same immutable delta instance is handed to every mailbox.
+ */
+public class PresenceTracker implements AutoCloseable {
+
+    private final DeliveryEngine deliveryEngine;
+    private final ScheduledExecutorService scheduler;
+
+    // Guarded by this
+    private final Set<String> published = new HashSet<>();
+    private final Map<String, Boolean> pending = new HashMap<>();
+    private long version;
+
+    public PresenceTracker(DeliveryEngine deliveryEngine, Duration flushInterval) {
+        this.deliveryEngine = deliveryEngine;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform()
+                .name("presence-flush")
+                .daemon()
+                .factory());
+
+        final long interval = flushInterval.toMillis();
+        scheduler.scheduleWithFixedDelay(this::flush, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Reads {@code chat.presence.flushMillis}.
+     */
+    public static PresenceTracker fromSystemProperties(DeliveryEngine deliveryEngine) {
+        return new PresenceTracker(deliveryEngine, Duration.ofMillis(Long.getLong("chat.presence.flushMillis", 200)));
+    }
+
+    public synchronized void joined(String username) {
+        if (published.contains(username)) {
+            pending.remove(username);
+        } else {
+            pending.put(username, Boolean.TRUE);
+        }
+    }
+
+    public synchronized void left(String username) {
+        if (published.contains(username)) {
+            pending.put(username, Boolean.FALSE);
+        } else {
+            pending.remove(username);
+        }
+    }
+
+    public synchronized PresenceUpdate snapshot() {
+        return PresenceUpdate.snapshot(version, List.copyOf(published));
+    }
+
+    /**
+     * Queues the current snapshot for {@code username}. Done under the same lock as publishing, so
+     * the snapshot is always ordered before any delta built on top of it.
+     */
+    public synchronized void sendSnapshot(String username) {
+        final PresenceUpdate snapshot = snapshot();
+
+        deliveryEngine.send(username, client -> client.updatePresence(snapshot));
+    }
+
+    synchronized void flush() {
+        if (pending.isEmpty()) return ;
+
+        final List<String> joined = new ArrayList<>();
+        final List<String> left = new ArrayList<>();
+
+        pending.forEach((username, join) -> {
+            if (join) {
+                published.add(username);
+                joined.add(username);
+            } else {
+                published.remove(username);
+                left.add(username);
+            }
+        });
+
+        pending.clear();
+
+        final PresenceUpdate delta = new PresenceUpdate(version, version + 1, List.copyOf(joined), List.copyOf(left), false);
+        version++;
+
+        deliveryEngine.broadcast(client -> client.updatePresence(delta));
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+}
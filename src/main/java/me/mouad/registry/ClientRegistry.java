@@ -0,0 +1,72 @@
+package me.mouad.registry;
+
+import me.mouad.api.Client;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Concurrent username to client index.
+ * <p>
+ * Backed by a {@link ConcurrentHashMap}, so reservations are atomic per key, writers only contend
+ * on the bin they touch and iteration never locks nor throws {@code ConcurrentModificationException}.
+ */
+public class ClientRegistry {
+
+    private final Map<String, Client> clients;
+    private final Set<Client> releasing = ConcurrentHashMap.newKeySet();
+
+    public ClientRegistry() {
+        this(256);
+    }
+
+    public ClientRegistry(int expectedUsers) {
+        this.clients = new ConcurrentHashMap<>(expectedUsers);
+    }
+
+    /**
+     * Atomically claims {@code username} for {@code client}.
+     *
+     * @return {@code true} if the name was free, {@code false} if someone already holds it
+     */
+    public boolean reserve(String username, Client client) {
+        return clients.putIfAbsent(username, client) == null;
+    }
+
+    /**
+     * Starts ending the session of {@code client}. Its name stays taken until {@link #release},
+     * so a new session cannot reserve it while the old one is still being torn down.
+     *
+     * @return {@code true} for the one caller that should tear the session down
+     */
+    public boolean beginRelease(String username, Client client) {
+        return isRegistered(username, client) && releasing.add(client);
+    }
+
+    /**
+     * Frees the name of a session torn down after {@link #beginRelease}.
+     */
+    public void release(String username, Client client) {
+        clients.remove(username, client);
+        releasing.remove(client);
+    }
+
+    public Optional<Client> get(String username) {
+        return Optional.ofNullable(clients.get(username));
+    }
+
+    public boolean isRegistered(String username, Client client) {
+        return clients.get(username) == client;
+    }
+
+    public List<String> usernames() {
+        return List.copyOf(clients.keySet());
+    }
+
+    public int size() {
+        return clients.size();
+    }
+}
@@ -0,0 +1,128 @@
+package me.mouad.retention;
+
+import me.mouad.files.AttachmentStore;
+import me.mouad.history.MessageLog;
+import me.mouad.history.RetentionPolicy;
+import me.mouad.rooms.Room;
+import me.mouad.rooms.RoomDirectory;
+import me.mouad.search.SearchIndex;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Enforces the {@link RetentionPolicy} on the history of every room in the background, then
+ * deletes the attachments that no message kept references anymore.
+ * <p>
+ * Only sealed log segments are deleted, which the writers never touch again, so posting and
+ * fan-out go on while it runs. Attachments are only deleted once every room was compacted, and
+ * only if they were not uploaded again during the last {@code grace}, which covers messages still
+ * on their way to a log, such as replicas that lag behind.
+ */
+public class HistoryCompactor implements AutoCloseable {
+
+    private final RetentionPolicy policy;
+    private final Duration grace;
+    private final RoomDirectory rooms;
+    private final AttachmentStore attachments;
+    private final SearchIndex searchIndex;
+    private final ScheduledExecutorService scheduler;
+
+    private volatile boolean closed;
+
+    private static final Logger logger = Logger.getLogger(HistoryCompactor.class.getName());
+
+    /**
+     * Does nothing unless {@code policy} sets a limit.
+     */
+    public HistoryCompactor(RetentionPolicy policy, Duration interval, Duration grace, RoomDirectory rooms,
+                            AttachmentStore attachments, SearchIndex searchIndex) {
+        this.policy = policy;
+        this.grace = grace;
+        this.rooms = rooms;
+        this.attachments = attachments;
+        this.searchIndex = searchIndex;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform()
+                .name("history-compactor")
+                .daemon()
+                .factory());
+
+        if (!policy.isUnlimited()) {
+            scheduler.scheduleWithFixedDelay(this::compact, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Reads the {@link RetentionPolicy#fromSystemProperties() retention limits},
+     * {@code chat.retention.intervalMillis} and {@code chat.retention.graceMillis}.
+     */
+    public static HistoryCompactor fromSystemProperties(RoomDirectory rooms, AttachmentStore attachments, SearchIndex searchIndex) {
+        return new HistoryCompactor(
+                RetentionPolicy.fromSystemProperties(),
+                Duration.ofMillis(Long.getLong("chat.retention.intervalMillis", TimeUnit.MINUTES.toMillis(5))),
+                Duration.ofMillis(Long.getLong("chat.retention.graceMillis", TimeUnit.MINUTES.toMillis(10))),
+                rooms, attachments, searchIndex);
+    }
+
+    void compact() {
+        final long startedAt = System.currentTimeMillis();
+        final Set<String> referenced = new HashSet<>();
+        boolean complete = true;
+
+        for (String name : rooms.names()) {
+            final Optional<Room> room = rooms.find(name);
+
+            if (closed) return ;
+            if (room.isEmpty()) continue;
+
+            try {
+                final MessageLog.Compaction compaction = room.get().compact(policy, startedAt);
+
+                referenced.addAll(compaction.references());
+                // Also after a restart, which loses the truncations the index had not applied yet
+                searchIndex.truncate(name, compaction.firstSequence());
+            } catch (IOException | RuntimeException e) {
+                // Caught whatever it is, or the scheduler would silently stop compacting
+                complete = false;
+                logger.log(Level.WARNING, "Unable to compact the history of room " + name, e);
+            }
+        }
+
+        if (!complete) {
+            logger.warning("Keeping every attachment until the history of all rooms is compacted");
+            return ;
+        }
+
+        try {
+            // Rooms created meanwhile only reference blobs uploaded after startedAt
+            attachments.deleteUnreferenced(referenced, startedAt - grace.toMillis());
+        } catch (IOException | RuntimeException e) {
+            logger.log(Level.WARNING, "Unable to delete unreferenced attachments", e);
+        }
+
+        logger.fine(() -> "Compacted " + rooms.size() + " room(s) in " + (System.currentTimeMillis() - startedAt) + " ms");
+    }
+
+    /**
+     * Stops compacting, letting a run in progress stop after its current room.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        scheduler.shutdown();
+
+        try {
+            scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package me.mouad.rooms;
+
+import me.mouad.history.LogRecord;
+import me.mouad.history.MessageCodec;
+import me.mouad.history.MessageLog;
+import me.mouad.history.MessageRecord;
+import me.mouad.history.RetentionPolicy;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.LongConsumer;
+
+/**
+ * A named channel with its own subscriber set and message log.
+ * <p>
+ * The log is only opened on first use, so rooms that exist on disk but see no traffic cost
+ * neither a writer thread nor a recovery scan.
+ * <p>
+ * Subscribing and handing a committed record to the subscribers exclude each other, so a new
+ * subscriber learns exactly which records it was not handed.
+ */
+public class Room {
+
+    private final String name;
+    private final Path directory;
+    private final long segmentBytes;
+    private final boolean fsync;
+    private final BiConsumer<Room, LogRecord> onCommit;
+    private final Set<String> subscribers = ConcurrentHashMap.newKeySet();
+    private final Object fanOutLock = new Object();
+
+    private volatile MessageLog log;
+    // Set before the log is published
+    private MessageCodec codec;
+    // The last record handed to the subscribers, guarded by fanOutLock
+    private long fannedOutSequence;
+
+    Room(String name, Path directory, long segmentBytes, boolean fsync, BiConsumer<Room, LogRecord> onCommit) {
+        this.name = name;
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.fsync = fsync;
+        this.onCommit = onCommit;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public MessageLog log() {
+        final MessageLog opened = log;
+
+        return opened != null ? opened : openLog();
+    }
+
+    private synchronized MessageLog openLog() {
+        if (log == null) {
+            try {
+                final MessageLog opened = new MessageLog(directory, segmentBytes, fsync);
+
+                codec = MessageCodec.open(directory, fsync);
+                fannedOutSequence = opened.lastSequence();
+                opened.onCommit(this::fanOut);
+                log = opened;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to open the history of room " + name, e);
+            }
+        }
+
+        return log;
+    }
+
+    private void fanOut(LogRecord record) {
+        synchronized (fanOutLock) {
+            onCommit.accept(this, record);
+            fannedOutSequence = record.sequence();
+        }
+    }
+
+    private MessageCodec codec() {
+        log();
+        return codec;
+    }
+
+    /**
+     * Encodes {@code message} and queues it for the next group commit of the log.
+     *
+     * @throws IOException if its sender could not be interned
+     */
+    public CompletableFuture<LogRecord> append(MessageRecord message) throws IOException {
+        return log().append(codec().encode(message));
+    }
+
+    /**
+     * Queues a message whose sequence and timestamp were assigned by the room's owner, see
+     * {@link MessageLog#appendReplica(LogRecord)}.
+     */
+    public CompletableFuture<LogRecord> appendReplica(long sequence, long timestamp, MessageRecord message)
+            throws IOException {
+        return log().appendReplica(new LogRecord(sequence, timestamp, codec().encode(message)));
+    }
+
+    public MessageRecord decode(LogRecord record) {
+        return codec().decode(record.payload());
+    }
+
+    /**
+     * Applies {@code policy} to the history of this room, see
+     * {@link MessageLog#compact(RetentionPolicy, long, java.util.function.Function)}. A room whose log
+     * is not open is compacted on disk, without starting a writer for it.
+     */
+    public MessageLog.Compaction compact(RetentionPolicy policy, long nowMillis) throws IOException {
+        final MessageLog opened = log;
+
+        if (opened != null) return opened.compact(policy, nowMillis, MessageCodec::referencedFile);
+
+        synchronized (this) {
+            // Held throughout, so the log is not opened while its files are being deleted
+            return log != null
+                    ? log.compact(policy, nowMillis, MessageCodec::referencedFile)
+                    : MessageLog.compact(directory, policy, nowMillis, MessageCodec::referencedFile);
+        }
+    }
+
+    public boolean isOpen() {
+        return log != null;
+    }
+
+    /**
+     * @param catchUp given the last record handed to the subscribers, once {@code username} is
+     *                one of them and before any later record is handed out
+     */
+    boolean subscribe(String username, LongConsumer catchUp) {
+        // Opened first, so the log never starts its writer with the lock held
+        log();
+
+        synchronized (fanOutLock) {
+            if (!subscribers.add(username)) return false;
+
+            catchUp.accept(fannedOutSequence);
+            return true;
+        }
+    }
+
+    boolean unsubscribe(String username) {
+        return subscribers.remove(username);
+    }
+
+    public boolean isSubscribed(String username) {
+        return subscribers.contains(username);
+    }
+
+    /**
+     * A view over the live subscriber set; iteration is weakly consistent.
+     */
+    public Set<String> subscribers() {
+        return subscribers;
+    }
+
+    public List<String> subscriberList() {
+        return List.copyOf(subscribers);
+    }
+
+    synchronized void close() throws IOException {
+        if (log != null) {
+            log.close();
+            codec.close();
+        }
+    }
+}
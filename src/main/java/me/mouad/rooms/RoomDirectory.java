@@ -0,0 +1,184 @@
+package me.mouad.rooms;
+
+import me.mouad.api.Server;
+import me.mouad.history.LogRecord;
+import me.mouad.history.MessageLog;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.LongConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Index of rooms and of the rooms each user subscribed to.
+ * <p>
+ * The default room keeps its history in the root history directory, so logs written before rooms
+ * existed stay readable; every other room lives under {@code rooms/<name>}.
+ */
+public class RoomDirectory implements Closeable {
+
+    public static final String DEFAULT_ROOM = Server.DEFAULT_ROOM;
+
+    private static final Pattern ROOM_NAME = Pattern.compile("[a-z0-9_-]{1,32}");
+
+    private final Path baseDirectory;
+    private final long segmentBytes;
+    private final boolean fsync;
+    private final BiConsumer<Room, LogRecord> onCommit;
+
+    private final Map<String, Room> rooms = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> memberships = new ConcurrentHashMap<>();
+
+    private static final Logger logger = Logger.getLogger(RoomDirectory.class.getName());
+
+    /**
+     * @param onCommit called in sequence order for every record of a room once it is durable
+     */
+    public RoomDirectory(Path baseDirectory, long segmentBytes, boolean fsync, BiConsumer<Room, LogRecord> onCommit)
+            throws IOException {
+        this.baseDirectory = baseDirectory;
+        this.segmentBytes = segmentBytes;
+        this.fsync = fsync;
+        this.onCommit = onCommit;
+
+        final Path roomsDirectory = baseDirectory.resolve("rooms");
+        Files.createDirectories(roomsDirectory);
+
+        rooms.put(DEFAULT_ROOM, new Room(DEFAULT_ROOM, baseDirectory, segmentBytes, fsync, onCommit));
+
+        try (final Stream<Path> existing = Files.list(roomsDirectory)) {
+            existing.filter(Files::isDirectory)
+                    .map(path -> path.getFileName().toString())
+                    .filter(RoomDirectory::isValidName)
+                    .forEach(name -> rooms.put(name, new Room(name, roomsDirectory.resolve(name), segmentBytes, fsync, onCommit)));
+        }
+    }
+
+    /**
+     * Reads {@code chat.history.dir}, {@code chat.history.segmentBytes} and {@code chat.history.fsync}.
+     */
+    public static RoomDirectory fromSystemProperties(BiConsumer<Room, LogRecord> onCommit) throws IOException {
+        return new RoomDirectory(
+                Path.of(System.getProperty("chat.history.dir", "chat_history")),
+                Long.getLong("chat.history.segmentBytes", MessageLog.DEFAULT_SEGMENT_BYTES),
+                Boolean.parseBoolean(System.getProperty("chat.history.fsync", "true")),
+                onCommit);
+    }
+
+    public static boolean isValidName(String name) {
+        return name != null && ROOM_NAME.matcher(name).matches();
+    }
+
+    public Room defaultRoom() {
+        return rooms.get(DEFAULT_ROOM);
+    }
+
+    public Optional<Room> find(String name) {
+        return Optional.ofNullable(name == null ? null : rooms.get(name));
+    }
+
+    public Room getOrCreate(String name) {
+        if (!isValidName(name)) {
+            throw new IllegalArgumentException("Invalid room name: " + name);
+        }
+
+        return rooms.computeIfAbsent(name,
+                key -> new Room(key, baseDirectory.resolve("rooms").resolve(key), segmentBytes, fsync, onCommit));
+    }
+
+    /**
+     * Subscribes {@code username} to {@code room}. {@code catchUp} is given the last record handed
+     * to the subscribers so far and runs before the next one, so whatever it queues for the user
+     * arrives ahead of the live messages.
+     *
+     * @return {@code false} if the user was already subscribed, in which case {@code catchUp} is not called
+     */
+    public boolean join(String username, Room room, LongConsumer catchUp) {
+        memberships.computeIfAbsent(username, key -> ConcurrentHashMap.newKeySet()).add(room.name());
+
+        return room.subscribe(username, catchUp);
+    }
+
+    public boolean leave(String username, Room room) {
+        memberships.computeIfPresent(username, (key, joined) -> {
+            joined.remove(room.name());
+            return joined.isEmpty() ? null : joined;
+        });
+
+        return room.unsubscribe(username);
+    }
+
+    /**
+     * Removes {@code username} from every room it joined, in one pass over its own memberships.
+     *
+     * @return the names of the rooms that were left
+     */
+    public Set<String> leaveAll(String username) {
+        final Set<String> joined = memberships.remove(username);
+
+        if (joined == null) return Set.of();
+
+        for (String name : joined) {
+            final Room room = rooms.get(name);
+
+            if (room != null) {
+                room.unsubscribe(username);
+            }
+        }
+
+        return Set.copyOf(joined);
+    }
+
+    public Set<String> roomsOf(String username) {
+        final Set<String> joined = memberships.get(username);
+
+        return joined == null ? Set.of() : Set.copyOf(joined);
+    }
+
+    public int size() {
+        return rooms.size();
+    }
+
+    /**
+     * Records held by the rooms whose log is open; unopened rooms are not read just to be counted.
+     */
+    public long historyRecords() {
+        return rooms.values().stream()
+                .filter(Room::isOpen)
+                .mapToLong(room -> Math.max(0, room.log().lastSequence() - room.log().firstSequence() + 1))
+                .sum();
+    }
+
+    public long historyBytes() {
+        return rooms.values().stream()
+                .filter(Room::isOpen)
+                .mapToLong(room -> room.log().sizeBytes())
+                .sum();
+    }
+
+    public List<String> names() {
+        return rooms.keySet().stream().sorted().toList();
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Room room : rooms.values()) {
+            try {
+                room.close();
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "Failed to close the history of room " + room.name(), e);
+            }
+        }
+    }
+}
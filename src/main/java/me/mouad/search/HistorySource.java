@@ -0,0 +1,20 @@
+package me.mouad.search;
+
+import me.mouad.api.ChatMessage;
+
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * The rooms' history as the index sees it: what it is rebuilt from, and what hits resolve to.
+ */
+public interface HistorySource {
+
+    List<String> rooms();
+
+    /**
+     * Visits the messages of {@code room} in sequence order, starting at {@code fromSequence}, until
+     * {@code visitor} returns {@code false} or the history ends.
+     */
+    void read(String room, long fromSequence, Predicate<ChatMessage> visitor);
+}
@@ -0,0 +1,428 @@
+package me.mouad.search;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.LongConsumer;
+
+/**
+ * Immutable, memory-mapped index of a run of consecutive sequence numbers of one room, named
+ * {@code <first>-<last>.idx}.
+ * <p>
+ * The file holds a header, the timestamp of every document, one entry per term, and a table of
+ * term offsets at the end. Terms are sorted, so a lookup is a binary search over that table, and
+ * each entry is {@code [short length][utf-8 term][int count][varint sequence deltas]}. Nothing is
+ * read onto the heap except the terms probed and the postings a query asks for.
+ */
+final class IndexSegment implements IndexedDocuments {
+
+    static final String SUFFIX = ".idx";
+
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int MAGIC = 0x43494458;
+    private static final int VERSION = 1;
+    private static final int TERM_COUNT_OFFSET = 40;
+    private static final int HEADER_BYTES = 48;
+
+    private final Path path;
+    private final ByteBuffer buffer;
+    private final long firstSequence;
+    private final long lastSequence;
+    private final long minTimestamp;
+    private final long maxTimestamp;
+    private final int termCount;
+    private final int tableOffset;
+
+    private IndexSegment(Path path, ByteBuffer buffer) {
+        this.path = path;
+        this.buffer = buffer;
+        this.firstSequence = buffer.getLong(8);
+        this.lastSequence = buffer.getLong(16);
+        this.minTimestamp = buffer.getLong(24);
+        this.maxTimestamp = buffer.getLong(32);
+        this.termCount = buffer.getInt(TERM_COUNT_OFFSET);
+        this.tableOffset = buffer.getInt(TERM_COUNT_OFFSET + Integer.BYTES);
+    }
+
+    static boolean isSegment(Path path) {
+        return path.getFileName().toString().endsWith(SUFFIX);
+    }
+
+    static boolean isTemporary(Path path) {
+        return path.getFileName().toString().endsWith(SUFFIX + TEMP_SUFFIX);
+    }
+
+    static IndexSegment open(Path path) throws IOException {
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final long size = channel.size();
+
+            if (size < HEADER_BYTES || size > Integer.MAX_VALUE) {
+                throw new IOException("Invalid index segment " + path + " of " + size + " bytes");
+            }
+
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("Invalid index segment header in " + path);
+            }
+
+            return new IndexSegment(path, buffer);
+        }
+    }
+
+    /**
+     * Writes the documents of {@code memory} out as a new segment of {@code directory}.
+     */
+    static IndexSegment write(Path directory, MemoryIndex memory) throws IOException {
+        try (final Writer writer = new Writer(directory, memory.firstSequence(), memory.lastSequence(),
+                memory.minTimestamp(), memory.maxTimestamp())) {
+            for (long timestamp : memory.timestamps()) {
+                writer.putLong(timestamp);
+            }
+
+            for (String term : memory.sortedTerms()) {
+                final long[] sequences = memory.postings(term);
+
+                writer.term(term, sequences.length);
+
+                for (long sequence : sequences) {
+                    writer.posting(sequence);
+                }
+            }
+
+            return writer.finish();
+        }
+    }
+
+    /**
+     * Merges adjacent segments, oldest first, into one new segment of {@code directory}. Postings
+     * are streamed from the sources term by term; the sources are left in place.
+     */
+    static IndexSegment merge(Path directory, List<IndexSegment> segments) throws IOException {
+        final long minTimestamp = segments.stream().mapToLong(IndexSegment::minTimestamp).min().orElseThrow();
+        final long maxTimestamp = segments.stream().mapToLong(IndexSegment::maxTimestamp).max().orElseThrow();
+
+        try (final Writer writer = new Writer(directory, segments.getFirst().firstSequence(),
+                segments.getLast().lastSequence(), minTimestamp, maxTimestamp)) {
+            for (IndexSegment segment : segments) {
+                writer.put(segment.buffer.slice(HEADER_BYTES, segment.documentCount() * Long.BYTES));
+            }
+
+            final int[] cursors = new int[segments.size()];
+            final String[] current = new String[segments.size()];
+
+            for (int i = 0; i < segments.size(); i++) {
+                current[i] = segments.get(i).termCount > 0 ? segments.get(i).termAt(0) : null;
+            }
+
+            while (true) {
+                String smallest = null;
+
+                for (String term : current) {
+                    if (term != null && (smallest == null || term.compareTo(smallest) < 0)) {
+                        smallest = term;
+                    }
+                }
+
+                if (smallest == null) break;
+
+                int count = 0;
+
+                for (int i = 0; i < segments.size(); i++) {
+                    if (smallest.equals(current[i])) {
+                        count += segments.get(i).postingCount(cursors[i]);
+                    }
+                }
+
+                writer.term(smallest, count);
+
+                for (int i = 0; i < segments.size(); i++) {
+                    if (!smallest.equals(current[i])) continue;
+
+                    final IndexSegment segment = segments.get(i);
+
+                    try {
+                        segment.forEachPosting(cursors[i], writer::posting);
+                    } catch (UncheckedIOException e) {
+                        throw e.getCause();
+                    }
+
+                    cursors[i]++;
+                    current[i] = cursors[i] < segment.termCount ? segment.termAt(cursors[i]) : null;
+                }
+            }
+
+            return writer.finish();
+        }
+    }
+
+    Path path() {
+        return path;
+    }
+
+    @Override
+    public long firstSequence() {
+        return firstSequence;
+    }
+
+    @Override
+    public long lastSequence() {
+        return lastSequence;
+    }
+
+    int documentCount() {
+        return (int) (lastSequence - firstSequence + 1);
+    }
+
+    @Override
+    public long minTimestamp() {
+        return minTimestamp;
+    }
+
+    @Override
+    public long maxTimestamp() {
+        return maxTimestamp;
+    }
+
+    @Override
+    public long timestamp(long sequence) {
+        return buffer.getLong(HEADER_BYTES + (int) (sequence - firstSequence) * Long.BYTES);
+    }
+
+    @Override
+    public int postingCount(String term) {
+        final int index = find(term);
+
+        return index < 0 ? 0 : postingCount(index);
+    }
+
+    @Override
+    public void forEachPosting(String term, LongConsumer consumer) {
+        final int index = find(term);
+
+        if (index >= 0) {
+            forEachPosting(index, consumer);
+        }
+    }
+
+    private int find(String term) {
+        int low = 0;
+        int high = termCount - 1;
+
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            final int comparison = termAt(middle).compareTo(term);
+
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+
+        return -1;
+    }
+
+    private int termOffset(int index) {
+        return buffer.getInt(tableOffset + index * Integer.BYTES);
+    }
+
+    private String termAt(int index) {
+        final int offset = termOffset(index);
+        final byte[] bytes = new byte[buffer.getShort(offset)];
+
+        buffer.get(offset + Short.BYTES, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int postingCount(int index) {
+        final int offset = termOffset(index);
+
+        return buffer.getInt(offset + Short.BYTES + buffer.getShort(offset));
+    }
+
+    private void forEachPosting(int index, LongConsumer consumer) {
+        final int offset = termOffset(index);
+        final int countOffset = offset + Short.BYTES + buffer.getShort(offset);
+        final int count = buffer.getInt(countOffset);
+        final ByteBuffer in = buffer.duplicate().position(countOffset + Integer.BYTES);
+        long sequence = firstSequence - 1;
+
+        for (int i = 0; i < count; i++) {
+            long delta = 0;
+            int shift = 0;
+            byte next;
+
+            do {
+                next = in.get();
+                delta |= (long) (next & 0x7F) << shift;
+                shift += 7;
+            } while (next < 0);
+
+            sequence += delta;
+            consumer.accept(sequence);
+        }
+    }
+
+    void delete() throws IOException {
+        Files.deleteIfExists(path);
+    }
+
+    /**
+     * Streams a segment into a temporary file, renamed into place only once complete and synced.
+     */
+    private static final class Writer implements Closeable {
+
+        private final Path target;
+        private final Path temporary;
+        private final FileChannel channel;
+        private final ByteBuffer out = ByteBuffer.allocate(64 * 1024);
+        private final long firstSequence;
+
+        private int[] termOffsets = new int[1024];
+        private int termCount;
+        private long position;
+        private long previous;
+        private boolean finished;
+
+        Writer(Path directory, long firstSequence, long lastSequence, long minTimestamp, long maxTimestamp)
+                throws IOException {
+            this.target = directory.resolve(String.format("%020d-%020d%s", firstSequence, lastSequence, SUFFIX));
+            this.temporary = target.resolveSibling(target.getFileName() + TEMP_SUFFIX);
+            this.channel = FileChannel.open(temporary,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            this.firstSequence = firstSequence;
+
+            putInt(MAGIC);
+            putInt(VERSION);
+            putLong(firstSequence);
+            putLong(lastSequence);
+            putLong(minTimestamp);
+            putLong(maxTimestamp);
+            putInt(0);
+            putInt(0);
+        }
+
+        void term(String term, int count) throws IOException {
+            if (position > Integer.MAX_VALUE) {
+                throw new IOException("Index segment " + target + " exceeds 2 GB");
+            }
+
+            if (termCount == termOffsets.length) {
+                termOffsets = Arrays.copyOf(termOffsets, termCount * 2);
+            }
+
+            final byte[] bytes = term.getBytes(StandardCharsets.UTF_8);
+
+            termOffsets[termCount++] = (int) position;
+            ensure(Short.BYTES + bytes.length + Integer.BYTES);
+            out.putShort((short) bytes.length).put(bytes).putInt(count);
+            position += Short.BYTES + bytes.length + Integer.BYTES;
+            previous = firstSequence - 1;
+        }
+
+        /**
+         * Appends a posting of the current term; throws {@link UncheckedIOException} so it can be
+         * passed around as a {@link LongConsumer}.
+         */
+        void posting(long sequence) {
+            long delta = sequence - previous;
+
+            previous = sequence;
+
+            try {
+                ensure(10);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            while ((delta & ~0x7FL) != 0) {
+                out.put((byte) ((delta & 0x7F) | 0x80));
+                delta >>>= 7;
+                position++;
+            }
+
+            out.put((byte) delta);
+            position++;
+        }
+
+        void putInt(int value) throws IOException {
+            ensure(Integer.BYTES);
+            out.putInt(value);
+            position += Integer.BYTES;
+        }
+
+        void putLong(long value) throws IOException {
+            ensure(Long.BYTES);
+            out.putLong(value);
+            position += Long.BYTES;
+        }
+
+        void put(ByteBuffer bytes) throws IOException {
+            drain();
+            position += bytes.remaining();
+
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (out.remaining() < bytes) {
+                drain();
+            }
+        }
+
+        private void drain() throws IOException {
+            out.flip();
+
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+
+            out.clear();
+        }
+
+        IndexSegment finish() throws IOException {
+            final int tableOffset = (int) position;
+
+            for (int i = 0; i < termCount; i++) {
+                putInt(termOffsets[i]);
+            }
+
+            if (position > Integer.MAX_VALUE) {
+                throw new IOException("Index segment " + target + " exceeds 2 GB");
+            }
+
+            drain();
+            channel.write(ByteBuffer.allocate(Integer.BYTES * 2).putInt(termCount).putInt(tableOffset).flip(),
+                    TERM_COUNT_OFFSET);
+            channel.force(true);
+            channel.close();
+            finished = true;
+
+            Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+            return open(target);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (finished) return ;
+
+            channel.close();
+            Files.deleteIfExists(temporary);
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package me.mouad.search;
+
+import java.util.function.LongConsumer;
+
+/**
+ * A run of consecutive sequence numbers that can be searched, on the heap or on disk.
+ */
+interface IndexedDocuments {
+
+    long firstSequence();
+    long lastSequence();
+    long minTimestamp();
+    long maxTimestamp();
+    long timestamp(long sequence);
+
+    /**
+     * @return how many documents contain {@code term}
+     */
+    int postingCount(String term);
+
+    /**
+     * Passes the sequences containing {@code term} to {@code consumer}, in ascending order.
+     */
+    void forEachPosting(String term, LongConsumer consumer);
+}
@@ -0,0 +1,126 @@
+package me.mouad.search;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongConsumer;
+
+/**
+ * The newest documents of a room, kept on the heap until there are enough to be written out as an
+ * {@link IndexSegment}. Documents are consecutive sequence numbers; only the indexer adds to it,
+ * searches read it concurrently.
+ */
+final class MemoryIndex implements IndexedDocuments {
+
+    private final Map<String, Postings> postings = new HashMap<>();
+
+    private long firstSequence;
+    private long[] timestamps = new long[1024];
+    private int size;
+    private long minTimestamp = Long.MAX_VALUE;
+    private long maxTimestamp = Long.MIN_VALUE;
+
+    synchronized void add(long sequence, long timestamp, Collection<String> terms) {
+        if (size == 0) {
+            firstSequence = sequence;
+        } else if (sequence != firstSequence + size) {
+            throw new IllegalArgumentException("Expected sequence " + (firstSequence + size) + " but got " + sequence);
+        }
+
+        if (size == timestamps.length) {
+            timestamps = Arrays.copyOf(timestamps, size * 2);
+        }
+
+        timestamps[size++] = timestamp;
+        minTimestamp = Math.min(minTimestamp, timestamp);
+        maxTimestamp = Math.max(maxTimestamp, timestamp);
+
+        for (String term : terms) {
+            postings.computeIfAbsent(term, key -> new Postings()).add(sequence);
+        }
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public synchronized long firstSequence() {
+        return firstSequence;
+    }
+
+    @Override
+    public synchronized long lastSequence() {
+        return firstSequence + size - 1;
+    }
+
+    @Override
+    public synchronized long minTimestamp() {
+        return minTimestamp;
+    }
+
+    @Override
+    public synchronized long maxTimestamp() {
+        return maxTimestamp;
+    }
+
+    @Override
+    public synchronized long timestamp(long sequence) {
+        return timestamps[(int) (sequence - firstSequence)];
+    }
+
+    @Override
+    public synchronized int postingCount(String term) {
+        final Postings found = postings.get(term);
+
+        return found == null ? 0 : found.size;
+    }
+
+    @Override
+    public synchronized void forEachPosting(String term, LongConsumer consumer) {
+        final Postings found = postings.get(term);
+
+        if (found == null) return ;
+
+        for (int i = 0; i < found.size; i++) {
+            consumer.accept(found.sequences[i]);
+        }
+    }
+
+    /**
+     * Returns a copy, so the caller never sees postings added meanwhile.
+     */
+    synchronized long[] postings(String term) {
+        final Postings found = postings.get(term);
+
+        return found == null ? null : Arrays.copyOf(found.sequences, found.size);
+    }
+
+    synchronized List<String> sortedTerms() {
+        return postings.keySet().stream().sorted().toList();
+    }
+
+    synchronized long[] timestamps() {
+        return Arrays.copyOf(timestamps, size);
+    }
+
+    private static final class Postings {
+
+        private long[] sequences = new long[4];
+        private int size;
+
+        void add(long sequence) {
+            if (size == sequences.length) {
+                sequences = Arrays.copyOf(sequences, size * 2);
+            }
+
+            sequences[size++] = sequence;
+        }
+    }
+}
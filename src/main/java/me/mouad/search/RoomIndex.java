@@ -0,0 +1,304 @@
+package me.mouad.search;
+
+import me.mouad.api.ChatMessage;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * The index of one room: flushed {@link IndexSegment}s, oldest first, followed by the
+ * {@link MemoryIndex} of the newest documents.
+ * <p>
+ * Only the indexer thread changes it. Flushing publishes the new segment before swapping the
+ * memory index, and searches read the memory index before the segments, skipping segment hits it
+ * already covers, so a search never misses nor repeats a document.
+ */
+final class RoomIndex {
+
+    private final String room;
+    private final Path directory;
+
+    private volatile List<IndexSegment> segments;
+    private volatile MemoryIndex memory = new MemoryIndex();
+    // Documents before it were deleted from the log and are never returned
+    private volatile long firstSequence = 1;
+
+    private static final Logger logger = Logger.getLogger(RoomIndex.class.getName());
+
+    private RoomIndex(String room, Path directory, List<IndexSegment> segments) {
+        this.room = room;
+        this.directory = directory;
+        this.segments = segments;
+    }
+
+    /**
+     * Loads the segments of {@code directory}. Sources left behind by an interrupted merge are
+     * deleted, and so is everything after a gap; those documents are indexed again from the log.
+     */
+    static RoomIndex open(String room, Path directory) throws IOException {
+        Files.createDirectories(directory);
+
+        final List<IndexSegment> found = new ArrayList<>();
+
+        try (final Stream<Path> files = Files.list(directory)) {
+            for (Path path : files.toList()) {
+                if (IndexSegment.isTemporary(path)) {
+                    Files.deleteIfExists(path);
+                } else if (IndexSegment.isSegment(path)) {
+                    try {
+                        found.add(IndexSegment.open(path));
+                    } catch (IOException e) {
+                        logger.log(Level.WARNING, "Dropping unreadable index segment " + path, e);
+                        Files.deleteIfExists(path);
+                    }
+                }
+            }
+        }
+
+        found.sort(Comparator.comparingLong(IndexSegment::firstSequence)
+                .thenComparing(Comparator.comparingLong(IndexSegment::lastSequence).reversed()));
+
+        final List<IndexSegment> kept = new ArrayList<>();
+
+        for (IndexSegment segment : found) {
+            if (kept.isEmpty() || segment.firstSequence() == kept.getLast().lastSequence() + 1) {
+                kept.add(segment);
+            } else {
+                segment.delete();
+            }
+        }
+
+        return new RoomIndex(room, directory, List.copyOf(kept));
+    }
+
+    String room() {
+        return room;
+    }
+
+    /**
+     * @return the sequence the next document must have, {@code 0} while nothing is indexed
+     */
+    long nextSequence() {
+        final MemoryIndex current = memory;
+
+        if (!current.isEmpty()) return current.lastSequence() + 1;
+
+        final List<IndexSegment> flushed = segments;
+
+        return flushed.isEmpty() ? 0 : flushed.getLast().lastSequence() + 1;
+    }
+
+    int bufferedDocuments() {
+        return memory.size();
+    }
+
+    void add(ChatMessage message) throws IOException {
+        if (!memory.isEmpty() && message.sequence() != memory.lastSequence() + 1) {
+            // Documents of one segment are consecutive, a jump starts a new one
+            flush();
+        }
+
+        final Set<String> terms = Tokenizer.terms(message.content());
+
+        if (message.sender() != null && !message.sender().isEmpty()) {
+            terms.add(Tokenizer.senderTerm(message.sender()));
+        }
+
+        memory.add(message.sequence(), message.timestamp(), terms);
+    }
+
+    void flush() throws IOException {
+        final MemoryIndex current = memory;
+
+        if (current.isEmpty()) return ;
+
+        final List<IndexSegment> flushed = new ArrayList<>(segments);
+
+        flushed.add(IndexSegment.write(directory, current));
+        segments = List.copyOf(flushed);
+        memory = new MemoryIndex();
+    }
+
+    /**
+     * Drops the documents before {@code firstSequence}: segments entirely before it are deleted, and
+     * the documents left in the others are skipped by searches.
+     */
+    void truncate(long firstSequence) {
+        if (firstSequence <= this.firstSequence) return ;
+
+        this.firstSequence = firstSequence;
+
+        final List<IndexSegment> current = segments;
+        final List<IndexSegment> expired = current.stream().filter(segment -> segment.lastSequence() < firstSequence).toList();
+
+        if (expired.isEmpty()) return ;
+
+        segments = List.copyOf(current.subList(expired.size(), current.size()));
+
+        for (IndexSegment segment : expired) {
+            try {
+                segment.delete();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Unable to delete expired index segment " + segment.path(), e);
+            }
+        }
+    }
+
+    /**
+     * Merges the newest {@code factor} segments for as long as they all sit in the same size tier
+     * below {@code maxTier}; a tier holds up to {@code factor} times the documents of the one below.
+     */
+    void merge(int flushDocuments, int factor, int maxTier) throws IOException {
+        while (segments.size() >= factor) {
+            final List<IndexSegment> current = segments;
+            final List<IndexSegment> newest = current.subList(current.size() - factor, current.size());
+            final int tier = tier(newest.getFirst(), flushDocuments, factor);
+
+            if (tier >= maxTier || newest.stream().anyMatch(segment -> tier(segment, flushDocuments, factor) != tier)) return ;
+
+            final List<IndexSegment> merged = new ArrayList<>(current.subList(0, current.size() - factor));
+
+            merged.add(IndexSegment.merge(directory, newest));
+            segments = List.copyOf(merged);
+
+            for (IndexSegment segment : newest) {
+                try {
+                    segment.delete();
+                } catch (IOException e) {
+                    // Still mapped on some platforms; dropped as covered on the next start
+                    logger.log(Level.WARNING, "Unable to delete merged index segment " + segment.path(), e);
+                }
+            }
+        }
+    }
+
+    private static int tier(IndexSegment segment, int flushDocuments, int factor) {
+        long limit = flushDocuments;
+        int tier = 0;
+
+        while (segment.documentCount() > limit) {
+            limit *= factor;
+            tier++;
+        }
+
+        return tier;
+    }
+
+    /**
+     * Adds the newest documents matching every one of {@code terms} to {@code hits}, at most
+     * {@code limit} of them; no terms match every document in the time range.
+     */
+    void search(List<String> terms, long fromTimestamp, long toTimestamp, int limit, List<SearchHit> hits) {
+        final MemoryIndex current = memory;
+        final List<IndexSegment> flushed = segments;
+        final long from = firstSequence;
+        final int[] found = {0};
+        long below = Long.MAX_VALUE;
+
+        if (!current.isEmpty()) {
+            collect(current, terms, fromTimestamp, toTimestamp, from, below, limit, found, hits);
+            below = current.firstSequence();
+        }
+
+        for (int i = flushed.size() - 1; i >= 0 && found[0] < limit; i--) {
+            collect(flushed.get(i), terms, fromTimestamp, toTimestamp, from, below, limit, found, hits);
+        }
+    }
+
+    private void collect(IndexedDocuments documents, List<String> terms, long fromTimestamp, long toTimestamp,
+                         long from, long below, int limit, int[] found, List<SearchHit> hits) {
+        if (documents.maxTimestamp() < fromTimestamp || documents.minTimestamp() >= toTimestamp) return ;
+        if (documents.lastSequence() < from) return ;
+
+        long[] candidates = null;
+
+        // Starting from the rarest term keeps the candidates, the only postings copied, smallest
+        for (String term : byRarity(documents, terms)) {
+            candidates = candidates == null ? postings(documents, term) : retain(documents, term, candidates);
+
+            if (candidates.length == 0) return ;
+        }
+
+        if (candidates == null) {
+            for (long sequence = Math.min(documents.lastSequence(), below - 1);
+                 sequence >= Math.max(documents.firstSequence(), from) && found[0] < limit; sequence--) {
+                collect(documents, sequence, fromTimestamp, toTimestamp, found, hits);
+            }
+
+            return ;
+        }
+
+        for (int i = candidates.length - 1; i >= 0 && candidates[i] >= from && found[0] < limit; i--) {
+            if (candidates[i] < below) {
+                collect(documents, candidates[i], fromTimestamp, toTimestamp, found, hits);
+            }
+        }
+    }
+
+    private void collect(IndexedDocuments documents, long sequence, long fromTimestamp, long toTimestamp,
+                         int[] found, List<SearchHit> hits) {
+        final long timestamp = documents.timestamp(sequence);
+
+        if (timestamp >= fromTimestamp && timestamp < toTimestamp) {
+            hits.add(new SearchHit(room, sequence, timestamp));
+            found[0]++;
+        }
+    }
+
+    private static List<String> byRarity(IndexedDocuments documents, List<String> terms) {
+        return terms.stream()
+                .map(term -> Map.entry(term, documents.postingCount(term)))
+                .sorted(Map.Entry.comparingByValue())
+                .map(Map.Entry::getKey)
+                .toList();
+    }
+
+    /**
+     * Postings added after they were counted are left out, as they are newer than the search.
+     */
+    private static long[] postings(IndexedDocuments documents, String term) {
+        final long[] sequences = new long[documents.postingCount(term)];
+        final int[] size = {0};
+
+        documents.forEachPosting(term, sequence -> {
+            if (size[0] < sequences.length) {
+                sequences[size[0]++] = sequence;
+            }
+        });
+
+        return size[0] == sequences.length ? sequences : Arrays.copyOf(sequences, size[0]);
+    }
+
+    /**
+     * @return the {@code candidates} that also contain {@code term}, merged against its postings
+     * as they are decoded
+     */
+    private static long[] retain(IndexedDocuments documents, String term, long[] candidates) {
+        final long[] kept = new long[candidates.length];
+        // The next candidate to match, then how many were kept
+        final int[] cursor = {0, 0};
+
+        documents.forEachPosting(term, sequence -> {
+            while (cursor[0] < candidates.length && candidates[cursor[0]] < sequence) {
+                cursor[0]++;
+            }
+
+            if (cursor[0] < candidates.length && candidates[cursor[0]] == sequence) {
+                kept[cursor[1]++] = sequence;
+                cursor[0]++;
+            }
+        });
+
+        return cursor[1] == kept.length ? kept : Arrays.copyOf(kept, cursor[1]);
+    }
+}
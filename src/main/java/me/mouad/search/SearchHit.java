@@ -0,0 +1,4 @@
+package me.mouad.search;
+
+record SearchHit(String room, long sequence, long timestamp) {
+}
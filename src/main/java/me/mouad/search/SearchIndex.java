@@ -0,0 +1,273 @@
+package me.mouad.search;
+
+import me.mouad.api.ChatMessage;
+import me.mouad.api.SearchQuery;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Inverted index over the history of every room, kept in {@code <directory>/<room>}.
+ * <p>
+ * Committed messages are queued and indexed by a single background thread, so posting never waits
+ * on the index. The message log stays the source of truth: the index always trails it, a room whose
+ * queue entries were dropped or whose buffered documents were lost in a crash is caught up from its
+ * log, and that is also how the index is rebuilt at startup.
+ */
+public class SearchIndex implements Closeable {
+
+    public static final int DEFAULT_FLUSH_DOCUMENTS = 50_000;
+    public static final int DEFAULT_QUEUE_CAPACITY = 64 * 1024;
+
+    private static final int MERGE_FACTOR = 8;
+    private static final int MAX_MERGE_TIER = 2;
+    private static final long IDLE_MILLIS = 200;
+
+    private final Path directory;
+    private final int flushDocuments;
+    private final HistorySource history;
+    private final BlockingQueue<ChatMessage> pending;
+    private final Map<String, RoomIndex> rooms = new ConcurrentHashMap<>();
+    private final Set<String> stale = ConcurrentHashMap.newKeySet();
+    private final Map<String, Long> truncations = new ConcurrentHashMap<>();
+    private final Thread indexer;
+
+    private volatile boolean closed;
+
+    private static final Logger logger = Logger.getLogger(SearchIndex.class.getName());
+
+    public SearchIndex(Path directory, int flushDocuments, int queueCapacity, HistorySource history) throws IOException {
+        if (flushDocuments <= 0) {
+            throw new IllegalArgumentException("Flush threshold must be positive: " + flushDocuments);
+        }
+
+        this.directory = directory;
+        this.flushDocuments = flushDocuments;
+        this.history = history;
+        this.pending = new ArrayBlockingQueue<>(queueCapacity);
+
+        Files.createDirectories(directory);
+
+        this.indexer = Thread.ofPlatform()
+                .name("search-indexer")
+                .daemon()
+                .start(this::indexLoop);
+    }
+
+    /**
+     * Reads {@code chat.search.dir}, {@code chat.search.flushDocuments} and {@code chat.search.queueCapacity}.
+     */
+    public static SearchIndex fromSystemProperties(HistorySource history) throws IOException {
+        return new SearchIndex(
+                Path.of(System.getProperty("chat.search.dir", "chat_index")),
+                Integer.getInteger("chat.search.flushDocuments", DEFAULT_FLUSH_DOCUMENTS),
+                Integer.getInteger("chat.search.queueCapacity", DEFAULT_QUEUE_CAPACITY),
+                history);
+    }
+
+    /**
+     * Queues a committed message for indexing without ever blocking; when the queue is full, its
+     * room is caught up from the log instead.
+     */
+    public void add(ChatMessage message) {
+        if (!pending.offer(message)) {
+            stale.add(message.room());
+        }
+    }
+
+    /**
+     * Forgets the documents of {@code room} before {@code firstSequence}, which its log no longer
+     * holds; done by the indexer before it indexes anything else.
+     */
+    public void truncate(String room, long firstSequence) {
+        truncations.merge(room, firstSequence, Math::max);
+    }
+
+    /**
+     * @return up to {@code limit} messages matching {@code query}, newest first
+     */
+    public List<ChatMessage> search(SearchQuery query, int limit) {
+        final List<String> terms = new ArrayList<>(Tokenizer.terms(query.text()));
+
+        if (query.sender() != null && !query.sender().isBlank()) {
+            terms.add(Tokenizer.senderTerm(query.sender().trim()));
+        }
+
+        final Collection<RoomIndex> searched = query.room() == null
+                ? rooms.values()
+                : rooms.containsKey(query.room()) ? List.of(rooms.get(query.room())) : List.of();
+        final List<SearchHit> hits = new ArrayList<>();
+
+        for (RoomIndex room : searched) {
+            room.search(terms, query.fromTimestamp(), query.toTimestamp(), limit, hits);
+        }
+
+        hits.sort(Comparator.comparingLong(SearchHit::timestamp).thenComparingLong(SearchHit::sequence).reversed());
+
+        final List<ChatMessage> messages = new ArrayList<>(Math.min(limit, hits.size()));
+
+        for (SearchHit hit : hits.subList(0, Math.min(limit, hits.size()))) {
+            history.read(hit.room(), hit.sequence(), message -> {
+                if (message.sequence() == hit.sequence()) {
+                    messages.add(message);
+                }
+
+                return false;
+            });
+        }
+
+        return messages;
+    }
+
+    private void indexLoop() {
+        stale.addAll(history.rooms());
+
+        while (!closed) {
+            try {
+                if (!truncations.isEmpty()) {
+                    applyTruncations();
+                }
+
+                final ChatMessage message = pending.poll(IDLE_MILLIS, TimeUnit.MILLISECONDS);
+
+                if (message != null) {
+                    index(message);
+                } else if (!stale.isEmpty()) {
+                    catchUpStale();
+                }
+            } catch (InterruptedException e) {
+                // Only close() stops the indexer
+            } catch (IOException | UncheckedIOException e) {
+                logger.log(Level.SEVERE, "Indexing failed, retrying from the log", e);
+            }
+        }
+
+        for (RoomIndex room : rooms.values()) {
+            try {
+                room.flush();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Unable to flush the index of room " + room.room(), e);
+            }
+        }
+    }
+
+    private void index(ChatMessage message) throws IOException {
+        final RoomIndex room = roomIndex(message.room());
+
+        try {
+            if (message.sequence() < room.nextSequence()) return ;
+
+            if (message.sequence() > room.nextSequence()) {
+                catchUp(room, message.sequence() - 1);
+            }
+
+            if (message.sequence() >= room.nextSequence()) {
+                addDocument(room, message);
+            }
+        } catch (IOException | UncheckedIOException e) {
+            stale.add(room.room());
+            throw e;
+        }
+    }
+
+    private void applyTruncations() throws IOException {
+        for (String name : List.copyOf(truncations.keySet())) {
+            final Long firstSequence = truncations.remove(name);
+
+            if (firstSequence != null) {
+                roomIndex(name).truncate(firstSequence);
+            }
+        }
+    }
+
+    private void catchUpStale() throws IOException {
+        for (String name : List.copyOf(stale)) {
+            stale.remove(name);
+
+            final RoomIndex room = roomIndex(name);
+            final long before = room.nextSequence();
+
+            try {
+                catchUp(room, Long.MAX_VALUE);
+            } catch (IOException | UncheckedIOException e) {
+                stale.add(name);
+                throw e;
+            }
+
+            if (room.nextSequence() != before) {
+                logger.info("Indexed room " + name + " up to sequence " + (room.nextSequence() - 1));
+            }
+        }
+    }
+
+    /**
+     * Indexes the logged messages of {@code room} that follow the last indexed one, up to {@code upTo}.
+     */
+    private void catchUp(RoomIndex room, long upTo) throws IOException {
+        final IOException[] failure = {null};
+
+        history.read(room.room(), Math.max(1, room.nextSequence()), message -> {
+            if (message.sequence() > upTo) return false;
+
+            try {
+                addDocument(room, message);
+                return true;
+            } catch (IOException e) {
+                failure[0] = e;
+                return false;
+            }
+        });
+
+        if (failure[0] != null) throw failure[0];
+    }
+
+    private void addDocument(RoomIndex room, ChatMessage message) throws IOException {
+        room.add(message);
+
+        if (room.bufferedDocuments() >= flushDocuments) {
+            room.flush();
+            room.merge(flushDocuments, MERGE_FACTOR, MAX_MERGE_TIER);
+        }
+    }
+
+    private RoomIndex roomIndex(String name) throws IOException {
+        final RoomIndex existing = rooms.get(name);
+
+        if (existing != null) return existing;
+
+        final RoomIndex opened = RoomIndex.open(name, directory.resolve(name));
+
+        rooms.put(name, opened);
+        return opened;
+    }
+
+    /**
+     * Stops the indexer and flushes what it buffered. Queued messages are not waited for, they are
+     * indexed from the log on the next start.
+     */
+    @Override
+    public void close() {
+        closed = true;
+
+        try {
+            indexer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package me.mouad.search;
+
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Splits text into lower-cased runs of letters and digits. Senders are indexed as one extra term
+ * under a prefix that can never come out of a message, since {@code ':'} always splits words.
+ */
+final class Tokenizer {
+
+    static final int MAX_TERM_CHARS = 64;
+
+    private static final String SENDER_PREFIX = "from:";
+
+    private Tokenizer() {}
+
+    /**
+     * @return the distinct terms of {@code text}, in order of first appearance
+     */
+    static Set<String> terms(String text) {
+        final Set<String> terms = new LinkedHashSet<>();
+
+        if (text == null) return terms;
+
+        final String lower = text.toLowerCase(Locale.ROOT);
+        int start = -1;
+
+        for (int i = 0; i <= lower.length(); ) {
+            final int codePoint = i < lower.length() ? lower.codePointAt(i) : ' ';
+
+            if (Character.isLetterOrDigit(codePoint)) {
+                if (start < 0) {
+                    start = i;
+                }
+            } else if (start >= 0) {
+                if (i - start <= MAX_TERM_CHARS) {
+                    terms.add(lower.substring(start, i));
+                }
+
+                start = -1;
+            }
+
+            i += i < lower.length() ? Character.charCount(codePoint) : 1;
+        }
+
+        return terms;
+    }
+
+    static String senderTerm(String sender) {
+        return SENDER_PREFIX + sender.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,68 @@
+package me.mouad.transport;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Recycles fixed-size direct buffers, so frames are read and written without allocating nor
+ * copying through a temporary heap buffer in the socket layer. Frames larger than a pooled
+ * buffer fall back to a one-off heap buffer.
+ */
+public final class BufferPool {
+
+    public static final int DEFAULT_BUFFER_BYTES = 64 * 1024;
+    public static final int DEFAULT_MAX_POOLED = 256;
+
+    private final int bufferBytes;
+    private final int maxPooled;
+    private final Queue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    public BufferPool(int bufferBytes, int maxPooled) {
+        this.bufferBytes = bufferBytes;
+        this.maxPooled = maxPooled;
+    }
+
+    /**
+     * Reads {@code chat.nio.bufferBytes} and {@code chat.nio.maxPooledBuffers}.
+     */
+    public static BufferPool fromSystemProperties() {
+        return new BufferPool(
+                Integer.getInteger("chat.nio.bufferBytes", DEFAULT_BUFFER_BYTES),
+                Integer.getInteger("chat.nio.maxPooledBuffers", DEFAULT_MAX_POOLED));
+    }
+
+    int bufferBytes() {
+        return bufferBytes;
+    }
+
+    /**
+     * @return a cleared buffer of at least {@code bytes}
+     */
+    ByteBuffer acquire(int bytes) {
+        if (bytes > bufferBytes) {
+            return ByteBuffer.allocate(bytes);
+        }
+
+        final ByteBuffer buffer = free.poll();
+
+        if (buffer != null) {
+            pooled.decrementAndGet();
+            return buffer.clear();
+        }
+
+        return ByteBuffer.allocateDirect(bufferBytes);
+    }
+
+    void release(ByteBuffer buffer) {
+        if (!buffer.isDirect() || buffer.capacity() != bufferBytes) return ;
+
+        if (pooled.incrementAndGet() <= maxPooled) {
+            free.offer(buffer);
+        } else {
+            pooled.decrementAndGet();
+        }
+    }
+}
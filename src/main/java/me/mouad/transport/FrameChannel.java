@@ -0,0 +1,165 @@
+package me.mouad.transport;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A persistent connection carrying length-prefixed frames in both directions. Reads happen on a
+ * single thread; writes from any thread are serialized by a lock that, unlike a monitor, does not
+ * pin the virtual threads waiting on it.
+ * <p>
+ * Once compression was negotiated, bodies worth it are sent deflated: the opcode byte carries
+ * {@link #COMPRESSED} and the body becomes {@code [int raw length][deflated body]}.
+ */
+final class FrameChannel implements AutoCloseable {
+
+    static final int MAX_FRAME_BYTES = 16 * 1024 * 1024;
+    static final byte COMPRESSED = (byte) 0x80;
+
+    private final SocketChannel channel;
+    private final BufferPool pool;
+    private final FrameCompression compression;
+    private final ByteBuffer header = ByteBuffer.allocateDirect(FrameWriter.HEADER_BYTES);
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    private volatile boolean compressing;
+
+    FrameChannel(SocketChannel channel, BufferPool pool, FrameCompression compression) throws IOException {
+        this.channel = channel;
+        this.pool = pool;
+        this.compression = compression;
+
+        channel.configureBlocking(true);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+    }
+
+    BufferPool pool() {
+        return pool;
+    }
+
+    FrameCompression compression() {
+        return compression;
+    }
+
+    /**
+     * Compresses the frames written from now on; the peer must have agreed to it.
+     */
+    void startCompressing() {
+        compressing = true;
+    }
+
+    void write(FrameWriter frame) throws IOException {
+        final ByteBuffer buffer = compressing ? compress(frame) : frame.finish();
+
+        writeLock.lock();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } finally {
+            writeLock.unlock();
+            pool.release(buffer);
+        }
+    }
+
+    /**
+     * @return the frame to write in place of {@code frame}, compressed if that pays off
+     */
+    private ByteBuffer compress(FrameWriter frame) {
+        final ByteBuffer buffer = frame.finish();
+        final ByteBuffer body = buffer.slice(FrameWriter.HEADER_BYTES, buffer.remaining() - FrameWriter.HEADER_BYTES);
+        final byte[] deflated = frame.shareKey() != null
+                ? compression.compress(frame.shareKey(), body)
+                : compression.compress(body);
+
+        if (deflated == null) return buffer;
+
+        final ByteBuffer compressed = pool.acquire(FrameWriter.HEADER_BYTES + Integer.BYTES + deflated.length);
+
+        // Opcode, request id and raw length after the length prefix
+        compressed.putInt(1 + Integer.BYTES + Integer.BYTES + deflated.length)
+                .put((byte) (buffer.get(Integer.BYTES) | COMPRESSED))
+                .putInt(buffer.getInt(Integer.BYTES + 1))
+                .putInt(body.remaining())
+                .put(deflated);
+        pool.release(buffer);
+        return compressed.flip();
+    }
+
+    /**
+     * Blocks until a whole frame arrived. The returned body must be handed back with {@link #release(FrameReader)}.
+     */
+    FrameReader read() throws IOException {
+        header.clear();
+        readFully(header);
+        header.flip();
+
+        final int length = header.getInt();
+        final byte code = header.get();
+        final Opcode opcode = Opcode.of((byte) (code & ~COMPRESSED));
+        final int requestId = header.getInt();
+        final int bodyBytes = length - (FrameWriter.HEADER_BYTES - Integer.BYTES);
+
+        if (bodyBytes < 0 || length > MAX_FRAME_BYTES) {
+            throw new IOException("Invalid frame length " + length);
+        }
+
+        final ByteBuffer body = pool.acquire(bodyBytes);
+
+        body.limit(bodyBytes);
+        readFully(body);
+        body.flip();
+
+        return new FrameReader(opcode, requestId, (code & COMPRESSED) != 0 ? inflate(body) : body);
+    }
+
+    private ByteBuffer inflate(ByteBuffer compressed) throws IOException {
+        try {
+            final int rawBytes = compressed.getInt();
+
+            if (rawBytes < 0 || rawBytes > MAX_FRAME_BYTES) {
+                throw new IOException("Invalid compressed frame length " + rawBytes);
+            }
+
+            final ByteBuffer body = pool.acquire(rawBytes);
+
+            body.limit(rawBytes);
+
+            try {
+                compression.inflate(compressed, body);
+            } catch (IOException e) {
+                pool.release(body);
+                throw e;
+            }
+
+            return body.flip();
+        } finally {
+            pool.release(compressed);
+        }
+    }
+
+    void release(FrameReader frame) {
+        pool.release(frame.buffer());
+    }
+
+    private void readFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Connection closed");
+            }
+        }
+    }
+
+    boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
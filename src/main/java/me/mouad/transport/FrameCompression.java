@@ -0,0 +1,226 @@
+package me.mouad.transport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflate compression of frame bodies, used on a connection once both ends agreed on it.
+ * <p>
+ * Bodies below {@code minBytes} are sent as is, and so is anything that would not shrink by at
+ * least an eighth: large bodies are probed on their first bytes first, so already compressed
+ * media is recognized without deflating all of it. Bodies sent identically to many recipients
+ * are compressed once and the result is kept in a size-bounded LRU cache.
+ */
+public final class FrameCompression {
+
+    public static final String DEFLATE = "deflate";
+
+    public static final int DEFAULT_LEVEL = Deflater.BEST_SPEED;
+    public static final int DEFAULT_MIN_BYTES = 512;
+    public static final long DEFAULT_CACHE_BYTES = 16L * 1024 * 1024;
+
+    public static final FrameCompression DISABLED = new FrameCompression(-2, Integer.MAX_VALUE, 0);
+
+    private static final int PROBE_BYTES = 4 * 1024;
+    private static final int MAX_POOLED = 64;
+    private static final byte[] INCOMPRESSIBLE = new byte[0];
+
+    private final int level;
+    private final int minBytes;
+    private final long cacheBytes;
+    private final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+    private final Queue<Inflater> inflaters = new ConcurrentLinkedQueue<>();
+    private final LinkedHashMap<Object, byte[]> shared = new LinkedHashMap<>(64, 0.75f, true);
+
+    private long sharedBytes;
+
+    /**
+     * @param level deflate level, {@code -2} to disable compression
+     */
+    public FrameCompression(int level, int minBytes, long cacheBytes) {
+        if (level != -2 && (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION)) {
+            throw new IllegalArgumentException("Invalid deflate level " + level);
+        }
+
+        this.level = level;
+        this.minBytes = Math.max(minBytes, 1);
+        this.cacheBytes = cacheBytes;
+    }
+
+    /**
+     * Reads {@code chat.nio.compression} ({@code deflate}, the default, or {@code none}),
+     * {@code chat.nio.compressionLevel}, {@code chat.nio.compressionMinBytes} and
+     * {@code chat.nio.compressionCacheBytes}.
+     */
+    public static FrameCompression fromSystemProperties() {
+        final String codec = System.getProperty("chat.nio.compression", DEFLATE);
+
+        if (codec.equals("none")) return DISABLED;
+
+        if (!codec.equals(DEFLATE)) {
+            throw new IllegalArgumentException("Unknown compression " + codec);
+        }
+
+        return new FrameCompression(
+                Integer.getInteger("chat.nio.compressionLevel", DEFAULT_LEVEL),
+                Integer.getInteger("chat.nio.compressionMinBytes", DEFAULT_MIN_BYTES),
+                Long.getLong("chat.nio.compressionCacheBytes", DEFAULT_CACHE_BYTES));
+    }
+
+    public boolean enabled() {
+        return level != -2;
+    }
+
+    /**
+     * @return the codec to use with a peer supporting {@code offered}, {@code null} for none
+     */
+    String negotiate(Iterable<String> offered) {
+        if (!enabled()) return null;
+
+        for (String codec : offered) {
+            if (codec.equals(DEFLATE)) return DEFLATE;
+        }
+
+        return null;
+    }
+
+    /**
+     * Compresses the remaining bytes of {@code body} without consuming them.
+     *
+     * @return the deflated bytes, or {@code null} if the body is better sent as is
+     */
+    public byte[] compress(ByteBuffer body) {
+        if (!enabled() || body.remaining() < minBytes) return null;
+
+        final Deflater deflater = acquireDeflater();
+
+        try {
+            if (body.remaining() >= 2 * PROBE_BYTES && deflate(deflater, body.slice(body.position(), PROBE_BYTES)) == null) {
+                return null;
+            }
+
+            return deflate(deflater, body.duplicate());
+        } finally {
+            releaseDeflater(deflater);
+        }
+    }
+
+    /**
+     * Like {@link #compress(ByteBuffer)}, but reuses the result for every body sent under an equal
+     * {@code key}. Keys must identify immutable content.
+     */
+    byte[] compress(Object key, ByteBuffer body) {
+        if (!enabled() || body.remaining() < minBytes) return null;
+
+        synchronized (shared) {
+            final byte[] cached = shared.get(key);
+
+            if (cached != null) return cached == INCOMPRESSIBLE ? null : cached;
+        }
+
+        final byte[] compressed = compress(body);
+
+        if (cacheBytes > 0) {
+            share(key, compressed == null ? INCOMPRESSIBLE : compressed);
+        }
+
+        return compressed;
+    }
+
+    private void share(Object key, byte[] compressed) {
+        if (compressed.length > cacheBytes) return ;
+
+        synchronized (shared) {
+            final byte[] previous = shared.put(key, compressed);
+
+            sharedBytes += compressed.length - (previous == null ? 0 : previous.length);
+
+            final var iterator = shared.values().iterator();
+
+            while (sharedBytes > cacheBytes && iterator.hasNext()) {
+                sharedBytes -= iterator.next().length;
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * @return {@code input} deflated, or {@code null} if that does not save an eighth of it
+     */
+    private static byte[] deflate(Deflater deflater, ByteBuffer input) {
+        final int raw = input.remaining();
+        final byte[] output = new byte[raw - raw / 8];
+
+        deflater.reset();
+        deflater.setInput(input);
+        deflater.finish();
+
+        final int length = deflater.deflate(output, 0, output.length, Deflater.NO_FLUSH);
+
+        if (!deflater.finished()) return null;
+
+        final byte[] compressed = new byte[length];
+
+        System.arraycopy(output, 0, compressed, 0, length);
+        return compressed;
+    }
+
+    /**
+     * Inflates all of {@code compressed} into the remaining space of {@code target}, which it must
+     * fill exactly.
+     */
+    public void inflate(ByteBuffer compressed, ByteBuffer target) throws IOException {
+        final Inflater inflater = acquireInflater();
+
+        try {
+            inflater.reset();
+            inflater.setInput(compressed);
+
+            while (target.hasRemaining() && !inflater.finished()) {
+                if (inflater.inflate(target) == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+            }
+
+            if (target.hasRemaining() || !inflater.finished()) {
+                throw new IOException("Compressed frame does not match its declared length");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt compressed frame", e);
+        } finally {
+            releaseInflater(inflater);
+        }
+    }
+
+    private Deflater acquireDeflater() {
+        final Deflater deflater = deflaters.poll();
+
+        return deflater != null ? deflater : new Deflater(enabled() ? level : Deflater.DEFAULT_COMPRESSION);
+    }
+
+    private void releaseDeflater(Deflater deflater) {
+        if (deflaters.size() < MAX_POOLED) {
+            deflaters.offer(deflater);
+        } else {
+            deflater.end();
+        }
+    }
+
+    private Inflater acquireInflater() {
+        final Inflater inflater = inflaters.poll();
+
+        return inflater != null ? inflater : new Inflater();
+    }
+
+    private void releaseInflater(Inflater inflater) {
+        if (inflaters.size() < MAX_POOLED) {
+            inflaters.offer(inflater);
+        } else {
+            inflater.end();
+        }
+    }
+}
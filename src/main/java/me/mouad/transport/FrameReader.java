@@ -0,0 +1,113 @@
+package me.mouad.transport;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the body of a received frame; the buffer goes back to the pool once decoded.
+ * <p>
+ * Every length and count prefix is checked against the bytes left in the frame before anything
+ * is allocated for it, so a forged prefix is rejected as malformed rather than allocating up to
+ * 2 GB per connection.
+ */
+final class FrameReader {
+
+    private final Opcode opcode;
+    private final int requestId;
+    private final ByteBuffer body;
+
+    FrameReader(Opcode opcode, int requestId, ByteBuffer body) {
+        this.opcode = opcode;
+        this.requestId = requestId;
+        this.body = body;
+    }
+
+    Opcode opcode() {
+        return opcode;
+    }
+
+    int requestId() {
+        return requestId;
+    }
+
+    ByteBuffer buffer() {
+        return body;
+    }
+
+    byte getByte() {
+        return body.get();
+    }
+
+    boolean getBoolean() {
+        return body.get() != 0;
+    }
+
+    int getInt() {
+        return body.getInt();
+    }
+
+    long getLong() {
+        return body.getLong();
+    }
+
+    byte[] getBytes() {
+        final byte[] value = new byte[getCount(1)];
+
+        body.get(value);
+        return value;
+    }
+
+    String getString() {
+        final int length = body.getInt();
+
+        if (length == -1) return null;
+
+        checkCount(length, 1);
+
+        final String value;
+
+        if (body.hasArray()) {
+            value = new String(body.array(), body.arrayOffset() + body.position(), length, StandardCharsets.UTF_8);
+        } else {
+            final byte[] bytes = new byte[length];
+            body.get(body.position(), bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        body.position(body.position() + length);
+        return value;
+    }
+
+    List<String> getStrings() {
+        final int count = getCount(Integer.BYTES);
+        final List<String> values = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            values.add(getString());
+        }
+
+        return values;
+    }
+
+    /**
+     * Reads a length or count prefix.
+     *
+     * @param elementBytes the fewest bytes each of the counted elements is encoded in
+     * @throws IllegalArgumentException if it is negative or the rest of the frame cannot hold that many elements
+     */
+    int getCount(int elementBytes) {
+        final int count = body.getInt();
+
+        checkCount(count, elementBytes);
+        return count;
+    }
+
+    private void checkCount(int count, int elementBytes) {
+        if (count < 0 || count > body.remaining() / elementBytes) {
+            throw new IllegalArgumentException("Malformed " + opcode + " frame: a count of " + count
+                    + " does not fit in the " + body.remaining() + " bytes left");
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package me.mouad.transport;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Builds one frame, {@code [int length][byte opcode][int requestId][body]}, in a pooled buffer
+ * that is swapped for a larger heap buffer if the body outgrows it.
+ */
+final class FrameWriter {
+
+    static final int HEADER_BYTES = Integer.BYTES + 1 + Integer.BYTES;
+
+    private final BufferPool pool;
+    private final int requestId;
+    private ByteBuffer buffer;
+    private Object shareKey;
+
+    FrameWriter(BufferPool pool, Opcode opcode, int requestId) {
+        this(pool, opcode, requestId, 0);
+    }
+
+    FrameWriter(BufferPool pool, Opcode opcode, int requestId, int bodyHint) {
+        this.pool = pool;
+        this.requestId = requestId;
+        this.buffer = pool.acquire(Math.max(HEADER_BYTES + bodyHint, 256));
+        buffer.putInt(0).put(opcode.code()).putInt(requestId);
+    }
+
+    int requestId() {
+        return requestId;
+    }
+
+    Object shareKey() {
+        return shareKey;
+    }
+
+    /**
+     * Marks the body as identical for every frame written under an equal {@code key}, so it is
+     * compressed only once for all of them.
+     */
+    FrameWriter shareAs(Object key) {
+        this.shareKey = key;
+        return this;
+    }
+
+    private void ensure(int bytes) {
+        if (buffer.remaining() >= bytes) return ;
+
+        final ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+
+        grown.put(buffer.flip());
+        pool.release(buffer);
+        buffer = grown;
+    }
+
+    FrameWriter putByte(byte value) {
+        ensure(1);
+        buffer.put(value);
+        return this;
+    }
+
+    FrameWriter putBoolean(boolean value) {
+        return putByte((byte) (value ? 1 : 0));
+    }
+
+    FrameWriter putInt(int value) {
+        ensure(Integer.BYTES);
+        buffer.putInt(value);
+        return this;
+    }
+
+    FrameWriter putLong(long value) {
+        ensure(Long.BYTES);
+        buffer.putLong(value);
+        return this;
+    }
+
+    FrameWriter putBytes(byte[] value) {
+        ensure(Integer.BYTES + value.length);
+        buffer.putInt(value.length).put(value);
+        return this;
+    }
+
+    /**
+     * Writes {@code value} as its UTF-8 length followed by its bytes, {@code -1} standing for {@code null}.
+     */
+    FrameWriter putString(String value) {
+        if (value == null) {
+            return putInt(-1);
+        }
+
+        return putBytes(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    FrameWriter putStrings(List<String> values) {
+        putInt(values.size());
+        values.forEach(this::putString);
+        return this;
+    }
+
+    /**
+     * Completes the length prefix and hands the frame over, ready to be written.
+     */
+    ByteBuffer finish() {
+        buffer.putInt(0, buffer.position() - Integer.BYTES);
+        return buffer.flip();
+    }
+}
@@ -0,0 +1,258 @@
+package me.mouad.transport;
+
+import me.mouad.api.ChatMessage;
+import me.mouad.api.Client;
+import me.mouad.api.HistoryPage;
+import me.mouad.api.PresenceUpdate;
+import me.mouad.api.RateLimitException;
+import me.mouad.api.Server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.rmi.RemoteException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Serves the {@link Server} API over {@link FrameChannel}s, one persistent connection per client
+ * and one virtual thread per connection.
+ * <p>
+ * The connection itself is the {@link Client} registered with the server: callbacks become push
+ * frames on the same socket, so clients need neither an exported object nor an inbound port.
+ */
+public class NioServer implements Closeable {
+
+    private final Server server;
+    private final BiConsumer<String, Client> onDisconnect;
+    private final BufferPool pool;
+    private final FrameCompression compression;
+    private final ServerSocketChannel acceptor;
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+    private final Thread acceptThread;
+
+    private static final Logger logger = Logger.getLogger(NioServer.class.getName());
+
+    /**
+     * @param onDisconnect ends the session of a connection that closed, if it still owns it
+     * @param compression   offered to the clients that ask for it
+     */
+    public NioServer(Server server, BiConsumer<String, Client> onDisconnect, InetSocketAddress address,
+                     BufferPool pool, FrameCompression compression) throws IOException {
+        this.server = server;
+        this.onDisconnect = onDisconnect;
+        this.pool = pool;
+        this.compression = compression;
+        this.acceptor = ServerSocketChannel.open().bind(address);
+        this.acceptThread = Thread.ofPlatform()
+                .name("nio-accept")
+                .daemon()
+                .start(this::acceptLoop);
+
+        logger.info("NIO transport listening on " + acceptor.getLocalAddress());
+    }
+
+    public int port() throws IOException {
+        return ((InetSocketAddress) acceptor.getLocalAddress()).getPort();
+    }
+
+    private void acceptLoop() {
+        while (acceptor.isOpen()) {
+            try {
+                final SocketChannel socket = acceptor.accept();
+                final Connection connection = new Connection(new FrameChannel(socket, pool, compression));
+
+                connections.add(connection);
+                Thread.ofVirtual().name("nio-" + socket.getRemoteAddress()).start(connection::serve);
+            } catch (ClosedChannelException e) {
+                return ;
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Unable to accept connection", e);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        acceptor.close();
+
+        for (Connection connection : connections) {
+            connection.channel.close();
+        }
+
+        try {
+            acceptThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Identifies a body sent alike to many connections: recipients of the same messages, or
+     * downloaders of the same chunk.
+     */
+    private record SharedBody(Opcode opcode, Object content) {}
+
+    private final class Connection implements Client {
+
+        private final FrameChannel channel;
+        private volatile String username;
+
+        Connection(FrameChannel channel) {
+            this.channel = channel;
+        }
+
+        void serve() {
+            try {
+                while (true) {
+                    final FrameReader request = channel.read();
+
+                    try {
+                        respond(request);
+                    } finally {
+                        channel.release(request);
+                    }
+                }
+            } catch (IOException e) {
+                logger.fine("Connection of " + username + " closed: " + e.getMessage());
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Malformed frame from " + username + ", closing", e);
+            } finally {
+                connections.remove(this);
+                closeQuietly();
+
+                if (username != null) {
+                    onDisconnect.accept(username, this);
+                }
+            }
+        }
+
+        private void respond(FrameReader request) throws IOException {
+            if (request.opcode() == Opcode.HELLO) {
+                hello(request);
+                return ;
+            }
+
+            final FrameWriter response = new FrameWriter(pool, Opcode.RESPONSE, request.requestId());
+
+            try {
+                dispatch(request, response);
+            } catch (RemoteException e) {
+                pool.release(response.finish());
+
+                // RemoteException already appends the message of its cause
+                channel.write(new FrameWriter(pool, Opcode.ERROR, request.requestId())
+                        .putString(e.getMessage())
+                        .putLong(e instanceof RateLimitException limited ? limited.retryAfterMillis() : -1));
+                return ;
+            }
+
+            channel.write(response);
+        }
+
+        /**
+         * Answers with the compression this connection uses from now on, {@code null} for none;
+         * the answer itself is never compressed.
+         */
+        private void hello(FrameReader request) throws IOException {
+            final String codec = compression.negotiate(request.getStrings());
+
+            channel.write(new FrameWriter(pool, Opcode.RESPONSE, request.requestId()).putString(codec));
+
+            if (codec != null) {
+                channel.startCompressing();
+            }
+        }
+
+        private void dispatch(FrameReader in, FrameWriter out) throws RemoteException {
+            switch (in.opcode()) {
+                case REGISTER -> {
+                    final String name = in.getString();
+
+                    server.register(name, this, in.getLong());
+                    username = name;
+                }
+                case UNREGISTER -> {
+                    server.unregister(in.getString());
+                    username = null;
+                }
+                case HEARTBEAT -> out.putLong(server.heartbeat(in.getString()));
+                case BROADCAST_MESSAGE -> server.broadcastMessage(in.getString(), in.getString());
+                case SEND_MESSAGE -> server.sendMessage(in.getString(), in.getString(), in.getString());
+                case JOIN_ROOM -> server.joinRoom(in.getString(), in.getString(), in.getLong());
+                case LEAVE_ROOM -> server.leaveRoom(in.getString(), in.getString());
+                case LIST_ROOMS -> out.putStrings(server.listRooms());
+                case BEGIN_UPLOAD -> out.putString(server.beginUpload(in.getString(), in.getString(), in.getLong()));
+                case UPLOAD_CHUNK -> out.putLong(server.uploadChunk(in.getString(), in.getLong(), in.getBytes()));
+                case UPLOADED_BYTES -> out.putLong(server.uploadedBytes(in.getString()));
+                case COMPLETE_UPLOAD -> WireCodec.putFile(out, server.completeUpload(in.getString(), in.getString()));
+                case DOWNLOAD_CHUNK -> {
+                    final String fileId = in.getString();
+                    final long offset = in.getLong();
+                    final int length = in.getInt();
+
+                    // Files are content-addressed, a chunk never changes
+                    out.putBytes(server.downloadChunk(fileId, offset, length))
+                            .shareAs(new SharedBody(Opcode.DOWNLOAD_CHUNK, List.of(fileId, offset, length)));
+                }
+                case FETCH_HISTORY -> WireCodec.putHistory(out, server.fetchHistory(in.getString(), in.getLong(), in.getInt()));
+                case FETCH_PRESENCE -> WireCodec.putPresence(out, server.fetchPresence());
+                case FETCH_THUMBNAIL -> {
+                    final String fileId = in.getString();
+
+                    out.putBytes(server.fetchThumbnail(fileId)).shareAs(new SharedBody(Opcode.FETCH_THUMBNAIL, fileId));
+                }
+                case SEARCH -> WireCodec.putMessages(out, server.search(WireCodec.getSearchQuery(in), in.getInt()));
+                default -> throw new RemoteException("Unexpected request " + in.opcode());
+            }
+        }
+
+        private void push(FrameWriter frame) throws RemoteException {
+            try {
+                channel.write(frame);
+            } catch (IOException e) {
+                closeQuietly();
+                throw new RemoteException("Push to " + username + " failed", e);
+            }
+        }
+
+        private void closeQuietly() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.log(Level.FINE, "Error closing connection of " + username, e);
+            }
+        }
+
+        @Override
+        public void receiveMessages(List<ChatMessage> messages) throws RemoteException {
+            final FrameWriter frame = new FrameWriter(pool, Opcode.PUSH_MESSAGES, 0);
+
+            WireCodec.putMessages(frame, messages);
+            push(frame.shareAs(new SharedBody(Opcode.PUSH_MESSAGES, messages)));
+        }
+
+        @Override
+        public void updatePresence(PresenceUpdate update) throws RemoteException {
+            final FrameWriter frame = new FrameWriter(pool, Opcode.PUSH_PRESENCE, 0);
+
+            WireCodec.putPresence(frame, update);
+            push(frame);
+        }
+
+        @Override
+        public void receiveHistory(HistoryPage page) throws RemoteException {
+            final FrameWriter frame = new FrameWriter(pool, Opcode.PUSH_HISTORY, 0);
+
+            WireCodec.putHistory(frame, page);
+            push(frame.shareAs(new SharedBody(Opcode.PUSH_HISTORY, page)));
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package me.mouad.transport;
+
+import me.mouad.api.ChatMessage;
+import me.mouad.api.Client;
+import me.mouad.api.FileReference;
+import me.mouad.api.HistoryPage;
+import me.mouad.api.PresenceUpdate;
+import me.mouad.api.RateLimitException;
+import me.mouad.api.SearchQuery;
+import me.mouad.api.Server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.rmi.ConnectException;
+import java.rmi.RemoteException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Client side of the NIO transport: a {@link Server} whose calls are frames on one persistent
+ * connection. Calls may be issued from any thread; responses are matched by request id and
+ * pushes are handed to the {@link Client} passed to {@link #register(String, Client)}.
+ */
+public class NioServerStub implements Server, Closeable {
+
+    private static final long CALL_TIMEOUT_SECONDS = 30;
+
+    private final FrameChannel channel;
+    private final BufferPool pool;
+    private final Map<Integer, CompletableFuture<FrameReader>> calls = new ConcurrentHashMap<>();
+    private final AtomicInteger requestIds = new AtomicInteger();
+    private final Thread reader;
+
+    private volatile Client client;
+    private volatile boolean closed;
+
+    private static final Logger logger = Logger.getLogger(NioServerStub.class.getName());
+
+    private NioServerStub(FrameChannel channel, BufferPool pool) {
+        this.channel = channel;
+        this.pool = pool;
+        this.reader = Thread.ofVirtual()
+                .name("nio-client-reader")
+                .start(this::readLoop);
+    }
+
+    /**
+     * Connects to {@code address}, compressing the connection with {@code compression} if the
+     * server supports it.
+     */
+    public static NioServerStub connect(InetSocketAddress address, BufferPool pool, FrameCompression compression)
+            throws IOException {
+        final NioServerStub stub = new NioServerStub(new FrameChannel(SocketChannel.open(address), pool, compression), pool);
+
+        try {
+            stub.negotiateCompression();
+        } catch (IOException e) {
+            stub.close();
+            throw e;
+        }
+
+        return stub;
+    }
+
+    private void negotiateCompression() throws RemoteException {
+        if (!channel.compression().enabled()) return ;
+
+        final String codec = call(request(Opcode.HELLO).putStrings(List.of(FrameCompression.DEFLATE)), FrameReader::getString);
+
+        if (codec != null) {
+            channel.startCompressing();
+            logger.fine("Compressing the connection with " + codec);
+        }
+    }
+
+    private void readLoop() {
+        try {
+            while (true) {
+                final FrameReader frame = channel.read();
+
+                if (frame.opcode() == Opcode.RESPONSE || frame.opcode() == Opcode.ERROR) {
+                    final CompletableFuture<FrameReader> call = calls.remove(frame.requestId());
+
+                    if (call != null) {
+                        call.complete(frame);
+                    } else {
+                        channel.release(frame);
+                    }
+
+                    continue;
+                }
+
+                try {
+                    dispatchPush(frame);
+                } catch (RemoteException | RuntimeException e) {
+                    logger.log(Level.WARNING, "Unable to handle " + frame.opcode(), e);
+                } finally {
+                    channel.release(frame);
+                }
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                logger.log(Level.WARNING, "Connection to the server lost", e);
+            }
+        } finally {
+            final ConnectException closed = new ConnectException("Connection to the server lost");
+            calls.values().forEach(call -> call.completeExceptionally(closed));
+            calls.clear();
+        }
+    }
+
+    private void dispatchPush(FrameReader in) throws RemoteException {
+        final Client target = client;
+
+        if (target == null) return ;
+
+        switch (in.opcode()) {
+            case PUSH_MESSAGES -> target.receiveMessages(WireCodec.getMessages(in));
+            case PUSH_PRESENCE -> target.updatePresence(WireCodec.getPresence(in));
+            case PUSH_HISTORY -> target.receiveHistory(WireCodec.getHistory(in));
+            default -> logger.warning("Unexpected frame " + in.opcode());
+        }
+    }
+
+    private FrameWriter request(Opcode opcode) {
+        return new FrameWriter(pool, opcode, requestIds.incrementAndGet());
+    }
+
+    /**
+     * Sends {@code frame} and decodes its response with {@code decoder}, rethrowing server errors.
+     */
+    private <T> T call(FrameWriter frame, Function<FrameReader, T> decoder) throws RemoteException {
+        final CompletableFuture<FrameReader> response = new CompletableFuture<>();
+        final int requestId = frame.requestId();
+
+        calls.put(requestId, response);
+
+        try {
+            channel.write(frame);
+
+            final FrameReader in = response.get(CALL_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+            try {
+                if (in.opcode() == Opcode.ERROR) {
+                    final String message = in.getString();
+                    final long retryAfterMillis = in.getLong();
+
+                    throw retryAfterMillis >= 0 ? new RateLimitException(message, retryAfterMillis) : new RemoteException(message);
+                }
+
+                return decoder.apply(in);
+            } finally {
+                channel.release(in);
+            }
+        } catch (IOException e) {
+            calls.remove(requestId);
+            throw e instanceof RemoteException remote ? remote : new ConnectException("Unable to reach the server", e);
+        } catch (ExecutionException e) {
+            throw new ConnectException("Unable to reach the server", (Exception) e.getCause());
+        } catch (TimeoutException e) {
+            calls.remove(requestId);
+            throw new RemoteException("No response from the server", e);
+        } catch (InterruptedException e) {
+            calls.remove(requestId);
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Interrupted while waiting for the server", e);
+        }
+    }
+
+    private void run(FrameWriter frame) throws RemoteException {
+        call(frame, in -> null);
+    }
+
+    @Override
+    public void register(String username, Client client) throws RemoteException {
+        register(username, client, 0);
+    }
+
+    @Override
+    public void register(String username, Client client, long lastSequence) throws RemoteException {
+        this.client = client;
+        run(request(Opcode.REGISTER).putString(username).putLong(lastSequence));
+    }
+
+    @Override
+    public void unregister(String username) throws RemoteException {
+        run(request(Opcode.UNREGISTER).putString(username));
+    }
+
+    @Override
+    public long heartbeat(String username) throws RemoteException {
+        return call(request(Opcode.HEARTBEAT).putString(username), FrameReader::getLong);
+    }
+
+    @Override
+    public void broadcastMessage(String sender, String message) throws RemoteException {
+        run(request(Opcode.BROADCAST_MESSAGE).putString(sender).putString(message));
+    }
+
+    @Override
+    public void sendMessage(String sender, String room, String message) throws RemoteException {
+        run(request(Opcode.SEND_MESSAGE).putString(sender).putString(room).putString(message));
+    }
+
+    @Override
+    public void joinRoom(String username, String room) throws RemoteException {
+        joinRoom(username, room, 0);
+    }
+
+    @Override
+    public void joinRoom(String username, String room, long lastSequence) throws RemoteException {
+        run(request(Opcode.JOIN_ROOM).putString(username).putString(room).putLong(lastSequence));
+    }
+
+    @Override
+    public void leaveRoom(String username, String room) throws RemoteException {
+        run(request(Opcode.LEAVE_ROOM).putString(username).putString(room));
+    }
+
+    @Override
+    public List<String> listRooms() throws RemoteException {
+        return call(request(Opcode.LIST_ROOMS), FrameReader::getStrings);
+    }
+
+    @Override
+    public String beginUpload(String sender, String fileName, long size) throws RemoteException {
+        return call(request(Opcode.BEGIN_UPLOAD).putString(sender).putString(fileName).putLong(size), FrameReader::getString);
+    }
+
+    @Override
+    public long uploadChunk(String uploadId, long offset, byte[] chunk) throws RemoteException {
+        return call(request(Opcode.UPLOAD_CHUNK).putString(uploadId).putLong(offset).putBytes(chunk), FrameReader::getLong);
+    }
+
+    @Override
+    public long uploadedBytes(String uploadId) throws RemoteException {
+        return call(request(Opcode.UPLOADED_BYTES).putString(uploadId), FrameReader::getLong);
+    }
+
+    @Override
+    public FileReference completeUpload(String uploadId, String room) throws RemoteException {
+        return call(request(Opcode.COMPLETE_UPLOAD).putString(uploadId).putString(room), WireCodec::getFile);
+    }
+
+    @Override
+    public byte[] downloadChunk(String fileId, long offset, int length) throws RemoteException {
+        return call(request(Opcode.DOWNLOAD_CHUNK).putString(fileId).putLong(offset).putInt(length), FrameReader::getBytes);
+    }
+
+    @Override
+    public byte[] fetchThumbnail(String fileId) throws RemoteException {
+        return call(request(Opcode.FETCH_THUMBNAIL).putString(fileId), FrameReader::getBytes);
+    }
+
+    @Override
+    public HistoryPage fetchHistory(String room, long beforeSequence, int limit) throws RemoteException {
+        return call(request(Opcode.FETCH_HISTORY).putString(room).putLong(beforeSequence).putInt(limit), WireCodec::getHistory);
+    }
+
+    @Override
+    public PresenceUpdate fetchPresence() throws RemoteException {
+        return call(request(Opcode.FETCH_PRESENCE), WireCodec::getPresence);
+    }
+
+    @Override
+    public List<ChatMessage> search(SearchQuery query, int limit) throws RemoteException {
+        final FrameWriter request = request(Opcode.SEARCH);
+
+        WireCodec.putSearchQuery(request, query);
+        return call(request.putInt(limit), WireCodec::getMessages);
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        channel.close();
+
+        try {
+            reader.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
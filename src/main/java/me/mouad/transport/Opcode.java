@@ -0,0 +1,69 @@
+package me.mouad.transport;
+
+/**
+ * First byte of every frame. Requests carry the {@code Server} call they stand for, responses and
+ * pushes flow back on the same connection.
+ * <p>
+ * Codes are part of the wire format: a new opcode takes the next unused code, and the code of a
+ * removed one is never given out again. The top bit is left to {@link FrameChannel#COMPRESSED}.
+ */
+enum Opcode {
+    REGISTER(0x00),
+    UNREGISTER(0x01),
+    HEARTBEAT(0x02),
+    BROADCAST_MESSAGE(0x03),
+    SEND_MESSAGE(0x04),
+    JOIN_ROOM(0x05),
+    LEAVE_ROOM(0x06),
+    LIST_ROOMS(0x07),
+    BEGIN_UPLOAD(0x08),
+    UPLOAD_CHUNK(0x09),
+    UPLOADED_BYTES(0x0A),
+    COMPLETE_UPLOAD(0x0B),
+    DOWNLOAD_CHUNK(0x0C),
+    FETCH_HISTORY(0x0D),
+    FETCH_PRESENCE(0x0E),
+    SEARCH(0x16),
+    HELLO(0x17),
+    FETCH_THUMBNAIL(0x18),
+
+    RESPONSE(0x0F),
+    ERROR(0x10),
+
+    // 0x11 and 0x13 carried the single-message and single-file pushes
+    PUSH_MESSAGES(0x12),
+    PUSH_PRESENCE(0x14),
+    PUSH_HISTORY(0x15);
+
+    private static final Opcode[] BY_CODE = new Opcode[FrameChannel.COMPRESSED & 0xFF];
+
+    static {
+        for (Opcode opcode : values()) {
+            if (BY_CODE[opcode.code] != null) {
+                throw new ExceptionInInitializerError(opcode + " reuses the code of " + BY_CODE[opcode.code]);
+            }
+
+            BY_CODE[opcode.code] = opcode;
+        }
+    }
+
+    private final byte code;
+
+    Opcode(int code) {
+        this.code = (byte) code;
+    }
+
+    byte code() {
+        return code;
+    }
+
+    static Opcode of(byte code) {
+        final Opcode opcode = code >= 0 && code < BY_CODE.length ? BY_CODE[code] : null;
+
+        if (opcode == null) {
+            throw new IllegalArgumentException("Unknown opcode " + code);
+        }
+
+        return opcode;
+    }
+}
@@ -0,0 +1,118 @@
+package me.mouad.transport;
+
+import me.mouad.api.ChatMessage;
+import me.mouad.api.FileReference;
+import me.mouad.api.HistoryPage;
+import me.mouad.api.PresenceUpdate;
+import me.mouad.api.SearchQuery;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Field-by-field encoding of the API records, in declaration order.
+ */
+final class WireCodec {
+
+    /**
+     * The encoded size of a message whose strings are all null and that has no attachment.
+     */
+    private static final int MIN_MESSAGE_BYTES = Integer.BYTES + 2 * Long.BYTES + Integer.BYTES + 1 + Integer.BYTES + 1;
+
+    private WireCodec() {}
+
+    static void putFile(FrameWriter out, FileReference file) {
+        out.putString(file.fileId()).putString(file.fileName()).putLong(file.size()).putString(file.sender());
+    }
+
+    static FileReference getFile(FrameReader in) {
+        return new FileReference(in.getString(), in.getString(), in.getLong(), in.getString());
+    }
+
+    static void putMessage(FrameWriter out, ChatMessage message) {
+        out.putString(message.room())
+                .putLong(message.sequence())
+                .putLong(message.timestamp())
+                .putString(message.sender())
+                .putByte((byte) message.kind().ordinal())
+                .putString(message.content())
+                .putBoolean(message.attachment() != null);
+
+        if (message.attachment() != null) {
+            putFile(out, message.attachment());
+        }
+    }
+
+    static ChatMessage getMessage(FrameReader in) {
+        final String room = in.getString();
+        final long sequence = in.getLong();
+        final long timestamp = in.getLong();
+        final String sender = in.getString();
+        final ChatMessage.Kind kind = ChatMessage.Kind.values()[in.getByte()];
+        final String content = in.getString();
+        final FileReference attachment = in.getBoolean() ? getFile(in) : null;
+
+        return new ChatMessage(room, sequence, timestamp, sender, kind, content, attachment);
+    }
+
+    static void putMessages(FrameWriter out, List<ChatMessage> messages) {
+        out.putInt(messages.size());
+        messages.forEach(message -> putMessage(out, message));
+    }
+
+    static List<ChatMessage> getMessages(FrameReader in) {
+        final int count = in.getCount(MIN_MESSAGE_BYTES);
+        final List<ChatMessage> messages = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            messages.add(getMessage(in));
+        }
+
+        return messages;
+    }
+
+    static void putHistory(FrameWriter out, HistoryPage page) {
+        out.putString(page.room());
+        putMessages(out, page.messages());
+        out.putLong(page.nextCursor()).putBoolean(page.hasMore());
+    }
+
+    static HistoryPage getHistory(FrameReader in) {
+        return new HistoryPage(in.getString(), getMessages(in), in.getLong(), in.getBoolean());
+    }
+
+    static void putSearchQuery(FrameWriter out, SearchQuery query) {
+        out.putString(query.text());
+        putOptional(out, query.sender());
+        putOptional(out, query.room());
+        out.putLong(query.fromTimestamp()).putLong(query.toTimestamp());
+    }
+
+    static SearchQuery getSearchQuery(FrameReader in) {
+        return new SearchQuery(in.getString(), getOptional(in), getOptional(in), in.getLong(), in.getLong());
+    }
+
+    private static void putOptional(FrameWriter out, String value) {
+        out.putBoolean(value != null);
+
+        if (value != null) {
+            out.putString(value);
+        }
+    }
+
+    private static String getOptional(FrameReader in) {
+        return in.getBoolean() ? in.getString() : null;
+    }
+
+    static void putPresence(FrameWriter out, PresenceUpdate update) {
+        out.putLong(update.fromVersion())
+                .putLong(update.version())
+                .putStrings(update.joined())
+                .putStrings(update.left())
+                .putBoolean(update.snapshot());
+    }
+
+    static PresenceUpdate getPresence(FrameReader in) {
+        return new PresenceUpdate(in.getLong(), in.getLong(), in.getStrings(), in.getStrings(), in.getBoolean());
+    }
+}
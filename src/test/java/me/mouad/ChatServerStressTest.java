@@ -0,0 +1,203 @@
+package me.mouad;
+
+import me.mouad.api.ChatMessage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.rmi.RemoteException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Hammers registration, unregistration and broadcasts from many threads at once.
+ */
+class ChatServerStressTest {
+
+    private static final int THREADS = 16;
+    private static final int ROUNDS = 200;
+    private static final int NAMES = 8;
+    private static final Duration DELIVERY_TIMEOUT = Duration.ofSeconds(30);
+
+    @TempDir
+    Path directory;
+
+    private ChatServer server;
+
+    @BeforeEach
+    void start() throws Exception {
+        server = TestServers.start(directory);
+    }
+
+    @AfterEach
+    void stop() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    void concurrentRegisterUnregisterAndBroadcast() throws Exception {
+        final RecordingClient witness = new RecordingClient();
+        final AtomicInteger broadcasts = new AtomicInteger();
+
+        server.register("witness", witness);
+
+        runConcurrently(thread -> {
+            for (int round = 0; round < ROUNDS; round++) {
+                final String username = "user-" + (thread + round) % NAMES;
+
+                try {
+                    server.register(username, new RecordingClient());
+                } catch (RemoteException e) {
+                    // Held by another thread, which alone unregisters it
+                    continue;
+                }
+
+                server.broadcastMessage(username, "broadcast " + thread + "/" + round);
+                broadcasts.incrementAndGet();
+                server.unregister(username);
+            }
+        });
+
+        final List<ChatMessage> received = witness.await(message -> message.content().startsWith("broadcast "),
+                broadcasts.get(), DELIVERY_TIMEOUT);
+
+        assertEquals(broadcasts.get(), received.size(), "Broadcasts delivered to a client registered throughout");
+        assertEquals(received.size(), received.stream().map(ChatMessage::content).distinct().count(), "Duplicate deliveries");
+        assertInSequenceOrder(witness.messages.stream().toList());
+
+        // Every name was released, none is left reserved by a lost unregistration
+        for (int i = 0; i < NAMES; i++) {
+            final String username = "user-" + i;
+
+            assertDoesNotThrow(() -> server.register(username, new RecordingClient()), username + " is still taken");
+            server.unregister(username);
+        }
+    }
+
+    @Test
+    void reservesEachNameOnce() throws Exception {
+        final AtomicInteger registered = new AtomicInteger();
+
+        runConcurrently(_ -> {
+            try {
+                server.register("alice", new RecordingClient());
+                registered.incrementAndGet();
+            } catch (RemoteException e) {
+                // Taken
+            }
+        });
+
+        assertEquals(1, registered.get());
+    }
+
+    @Test
+    void staleDisconnectKeepsTheNewSession() throws Exception {
+        final RecordingClient first = new RecordingClient();
+        final RecordingClient second = new RecordingClient();
+
+        server.register("alice", first);
+        server.unregister("alice");
+        server.register("alice", second);
+
+        // A transport noticing the first connection going away only now
+        server.disconnectSession("alice", first);
+        server.sendMessage("alice", "general", "still here");
+
+        assertEquals(1, second.await(message -> message.content().equals("still here"), 1, DELIVERY_TIMEOUT).size());
+    }
+
+    @Test
+    void resumedHistoryArrivesBeforeLiveMessages() throws Exception {
+        final AtomicBoolean posting = new AtomicBoolean(true);
+
+        server.register("poster", new RecordingClient());
+
+        final Thread poster = Thread.ofPlatform().start(() -> {
+            for (int i = 0; posting.get(); i++) {
+                try {
+                    server.sendMessage("poster", "general", "live " + i);
+                    Thread.sleep(1);
+                } catch (RemoteException | InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+
+        try {
+            for (int round = 0; round < 20; round++) {
+                final RecordingClient first = new RecordingClient();
+
+                server.register("alice", first);
+                first.await(_ -> true, 1, DELIVERY_TIMEOUT);
+                server.unregister("alice");
+
+                final long lastSequence = first.messages.stream().mapToLong(ChatMessage::sequence).max().orElseThrow();
+                final RecordingClient resumed = new RecordingClient();
+
+                server.register("alice", resumed, lastSequence);
+
+                final List<ChatMessage> received = resumed.await(_ -> true, 20, DELIVERY_TIMEOUT);
+
+                for (int i = 0; i < received.size(); i++) {
+                    assertEquals(lastSequence + 1 + i, received.get(i).sequence(), "Resumed after " + lastSequence);
+                }
+
+                server.unregister("alice");
+            }
+        } finally {
+            posting.set(false);
+            poster.join();
+        }
+    }
+
+    private interface Worker {
+        void run(int thread) throws Exception;
+    }
+
+    /**
+     * Starts {@code worker} on {@link #THREADS} threads at once and rethrows the first failure.
+     */
+    private static void runConcurrently(Worker worker) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Future<Void>> results = new ArrayList<>(THREADS);
+
+        try (final ExecutorService threads = Executors.newFixedThreadPool(THREADS)) {
+            for (int t = 0; t < THREADS; t++) {
+                final int thread = t;
+
+                results.add(threads.submit((Callable<Void>) () -> {
+                    start.await();
+                    worker.run(thread);
+                    return null;
+                }));
+            }
+
+            start.countDown();
+
+            for (Future<Void> result : results) {
+                result.get();
+            }
+        }
+    }
+
+    private static void assertInSequenceOrder(List<ChatMessage> messages) {
+        for (int i = 1; i < messages.size(); i++) {
+            assertTrue(messages.get(i - 1).sequence() < messages.get(i).sequence(),
+                    "Sequence " + messages.get(i).sequence() + " delivered after " + messages.get(i - 1).sequence());
+        }
+    }
+}
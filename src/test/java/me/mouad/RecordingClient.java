@@ -0,0 +1,51 @@
+package me.mouad;
+
+import me.mouad.api.ChatMessage;
+import me.mouad.api.Client;
+import me.mouad.api.HistoryPage;
+import me.mouad.api.PresenceUpdate;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Predicate;
+
+/**
+ * In-process {@link Client} keeping every chat message it is sent.
+ */
+final class RecordingClient implements Client {
+
+    final ConcurrentLinkedQueue<ChatMessage> messages = new ConcurrentLinkedQueue<>();
+
+    @Override
+    public void receiveMessages(List<ChatMessage> batch) {
+        messages.addAll(batch);
+    }
+
+    @Override
+    public void updatePresence(PresenceUpdate update) {
+    }
+
+    @Override
+    public void receiveHistory(HistoryPage page) {
+    }
+
+    /**
+     * @return the messages matching {@code filter} once {@code count} of them arrived, or all of
+     * them once {@code timeout} elapsed
+     */
+    List<ChatMessage> await(Predicate<ChatMessage> filter, int count, Duration timeout) throws InterruptedException {
+        final long deadline = System.nanoTime() + timeout.toNanos();
+        List<ChatMessage> matching = List.of();
+
+        while (System.nanoTime() < deadline) {
+            matching = messages.stream().filter(filter).toList();
+
+            if (matching.size() >= count) break;
+
+            Thread.sleep(10);
+        }
+
+        return matching;
+    }
+}
@@ -0,0 +1,184 @@
+package me.mouad;
+
+import me.mouad.api.ChatMessage;
+import me.mouad.api.FileReference;
+import me.mouad.api.HistoryPage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ScrollbackCacheTest {
+
+    private static final int ROOM_BYTES = 4096;
+    private static final String ROOM = "general";
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void pagesAppendedMessages() throws IOException {
+        final ScrollbackCache cache = ScrollbackCache.open(directory, ROOM_BYTES);
+
+        cache.append(messages(1, 10));
+
+        assertEquals(10, cache.lastSequence(ROOM));
+        assertEquals(0, cache.lastSequence("random"));
+
+        final HistoryPage latest = cache.page(ROOM, Long.MAX_VALUE, 4);
+
+        assertEquals(messages(7, 10), latest.messages());
+        assertEquals(7, latest.nextCursor());
+        assertTrue(latest.hasMore());
+
+        final HistoryPage oldest = cache.page(ROOM, 3, 4);
+
+        assertEquals(messages(1, 2), oldest.messages());
+        assertFalse(oldest.hasMore());
+    }
+
+    @Test
+    void loadsWhatAPreviousClientCached() throws IOException {
+        final ChatMessage file = new ChatMessage(ROOM, 4, 4000, "bob", ChatMessage.Kind.FILE, "cat.png",
+                new FileReference("ab12", "cat.png", 1234, "bob"));
+
+        final ScrollbackCache cache = ScrollbackCache.open(directory, ROOM_BYTES);
+
+        cache.append(messages(1, 3));
+        cache.append(List.of(file));
+
+        final ScrollbackCache reloaded = reopen();
+
+        assertEquals(4, reloaded.lastSequence(ROOM));
+        assertEquals(Stream.concat(messages(1, 3).stream(), Stream.of(file)).toList(),
+                reloaded.page(ROOM, Long.MAX_VALUE, 10).messages());
+    }
+
+    @Test
+    void startsOverAfterAGap() throws IOException {
+        final ScrollbackCache cache = ScrollbackCache.open(directory, ROOM_BYTES);
+
+        cache.append(messages(1, 5));
+        cache.append(messages(8, 9));
+
+        assertEquals(messages(8, 9), cache.page(ROOM, Long.MAX_VALUE, 10).messages());
+    }
+
+    @Test
+    void ignoresMessagesItAlreadyHas() throws IOException {
+        final ScrollbackCache cache = ScrollbackCache.open(directory, ROOM_BYTES);
+
+        cache.append(messages(1, 5));
+        cache.append(messages(3, 6));
+
+        assertEquals(messages(1, 6), cache.page(ROOM, Long.MAX_VALUE, 10).messages());
+    }
+
+    @Test
+    void dropsTheOlderHalfWhenFull() throws IOException {
+        final ScrollbackCache cache = ScrollbackCache.open(directory, ROOM_BYTES);
+
+        cache.append(messages(1, 500));
+
+        final List<ChatMessage> kept = cache.page(ROOM, Long.MAX_VALUE, 500).messages();
+
+        assertEquals(500, cache.lastSequence(ROOM));
+        assertTrue(kept.size() > 10 && kept.size() < 500, "Kept " + kept.size());
+        assertEquals(messages(501 - kept.size(), 500), kept);
+        assertEquals(kept, reopen().page(ROOM, Long.MAX_VALUE, 500).messages());
+    }
+
+    @Test
+    void clearsForAMessageTooLargeToCache() throws IOException {
+        final ScrollbackCache cache = ScrollbackCache.open(directory, ROOM_BYTES);
+
+        cache.append(messages(1, 5));
+        cache.append(List.of(new ChatMessage(ROOM, 6, 6000, "alice", ChatMessage.Kind.TEXT, "x".repeat(ROOM_BYTES), null)));
+        cache.append(messages(7, 7));
+
+        assertEquals(messages(7, 7), cache.page(ROOM, Long.MAX_VALUE, 10).messages());
+    }
+
+    @Test
+    void replacesTheCachedHistoryByAPage() throws IOException {
+        final ScrollbackCache cache = ScrollbackCache.open(directory, ROOM_BYTES);
+
+        cache.append(messages(1, 5));
+        cache.replace(ROOM, messages(40, 42));
+
+        assertEquals(42, cache.lastSequence(ROOM));
+        assertEquals(messages(40, 42), cache.page(ROOM, Long.MAX_VALUE, 10).messages());
+    }
+
+    @Test
+    void dropsATornTailOnLoad() throws IOException {
+        ScrollbackCache.open(directory, ROOM_BYTES).append(messages(1, 5));
+
+        final Path copy = copyOf(directory);
+        final Path file = copy.resolve(ROOM + ".cache");
+
+        // The end was moved past a record whose length never made it
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final ByteBuffer header = ByteBuffer.allocate(8);
+
+            channel.read(header, 0);
+
+            final int end = header.getInt(4);
+
+            channel.write(ByteBuffer.allocate(4).putInt(0, 1_000_000), end);
+            channel.write(ByteBuffer.allocate(4).putInt(0, end + 64), 4);
+        }
+
+        final ScrollbackCache cache = ScrollbackCache.open(copy, ROOM_BYTES);
+
+        assertEquals(5, cache.lastSequence(ROOM));
+        assertEquals(messages(1, 5), cache.page(ROOM, Long.MAX_VALUE, 10).messages());
+    }
+
+    @Test
+    void runsWithoutACacheAnotherClientUses() throws IOException {
+        final ScrollbackCache first = ScrollbackCache.open(directory, ROOM_BYTES);
+        final ScrollbackCache second = ScrollbackCache.open(directory, ROOM_BYTES);
+
+        assertSame(ScrollbackCache.DISABLED, second);
+        assertTrue(first != ScrollbackCache.DISABLED);
+
+        second.append(messages(1, 3));
+
+        assertEquals(0, second.lastSequence(ROOM));
+    }
+
+    /**
+     * A cache left behind by a previous client; the lock of a directory is held until the JVM exits.
+     */
+    private ScrollbackCache reopen() throws IOException {
+        return ScrollbackCache.open(copyOf(directory), ROOM_BYTES);
+    }
+
+    private Path copyOf(Path source) throws IOException {
+        final Path copy = Files.createTempDirectory(directory.getParent(), "scrollback");
+
+        Files.copy(source.resolve(ROOM + ".cache"), copy.resolve(ROOM + ".cache"));
+        return copy;
+    }
+
+    private static List<ChatMessage> messages(long from, long to) {
+        return LongStream.rangeClosed(from, to)
+                .mapToObj(sequence -> new ChatMessage(ROOM, sequence, sequence * 1000, "user-" + sequence % 3,
+                        ChatMessage.Kind.TEXT, "message " + sequence, null))
+                .toList();
+    }
+}
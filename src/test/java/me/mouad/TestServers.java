@@ -0,0 +1,31 @@
+package me.mouad;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Starts an in-process {@link ChatServer} whose state lives under a test's scratch directory.
+ */
+final class TestServers {
+
+    private TestServers() {}
+
+    static ChatServer start(Path directory) throws IOException {
+        System.setProperty("chat.history.dir", directory.resolve("history").toString());
+        System.setProperty("chat.history.fsync", "false");
+        System.setProperty("chat.files.dir", directory.resolve("files").toString());
+        System.setProperty("chat.search.dir", directory.resolve("index").toString());
+        // Test clients never heartbeat
+        System.setProperty("chat.lease.millis", Long.toString(TimeUnit.DAYS.toMillis(1)));
+        System.setProperty("chat.limits.enabled", "false");
+        // Room for every message of a test, so none is dropped for a recipient falling behind
+        System.setProperty("chat.delivery.queueCapacity", "65536");
+
+        Logger.getLogger(ChatServer.class.getName()).setLevel(Level.WARNING);
+
+        return new ChatServer();
+    }
+}
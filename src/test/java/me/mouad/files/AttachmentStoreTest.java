@@ -0,0 +1,153 @@
+package me.mouad.files;
+
+import me.mouad.api.FileReference;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AttachmentStoreTest {
+
+    private static final Duration IDLE_TIMEOUT = Duration.ofDays(1);
+
+    @TempDir
+    Path directory;
+
+    private AttachmentStore store;
+
+    @BeforeEach
+    void open() throws IOException {
+        store = open(directory);
+    }
+
+    @AfterEach
+    void close() {
+        store.close();
+    }
+
+    @Test
+    void storesIdenticalContentOnce() throws IOException {
+        final FileReference first = upload("a.txt", "same content");
+        final FileReference second = upload("b.txt", "same content");
+
+        assertEquals(first.fileId(), second.fileId());
+        assertEquals("b.txt", second.fileName());
+        assertArrayEquals(utf8("same content"), store.readChunk(first.fileId(), 0, 1024));
+    }
+
+    @Test
+    void keepsOnlyTheLastElementOfUploadedNames() throws IOException {
+        assertEquals("notes.txt", upload("../../notes.txt", "content").fileName());
+        assertThrows(IOException.class, () -> store.beginUpload("alice", "/", 1));
+        assertThrows(IOException.class, () -> store.beginUpload("alice", "..", 1));
+        assertThrows(IOException.class, () -> store.beginUpload("alice", null, 1));
+    }
+
+    @Test
+    void deletesOnlyOldUnreferencedBlobs() throws IOException {
+        final FileReference referenced = upload("kept.txt", "referenced");
+        final FileReference forgotten = upload("old.txt", "forgotten");
+        final long uploadedBefore = System.currentTimeMillis() + 1;
+        final FileReference recent = upload("new.txt", "recent");
+
+        // The recent blob was uploaded after the cut-off, as if still on its way to a log
+        setUploadedAt(recent, uploadedBefore + 1000);
+
+        assertEquals(1, store.deleteUnreferenced(Set.of(referenced.fileId()), uploadedBefore));
+
+        assertTrue(store.contains(referenced.fileId()));
+        assertFalse(store.contains(forgotten.fileId()));
+        assertTrue(store.contains(recent.fileId()));
+    }
+
+    @Test
+    void keepsABlobUploadedAgainAfterTheCutOff() throws IOException {
+        final FileReference first = upload("a.txt", "uploaded twice");
+        final long uploadedBefore = System.currentTimeMillis() + 1;
+
+        setUploadedAt(first, uploadedBefore - 60_000);
+        setUploadedAt(upload("b.txt", "uploaded twice"), uploadedBefore + 1000);
+
+        assertEquals(0, store.deleteUnreferenced(Set.of(), uploadedBefore));
+        assertTrue(store.contains(first.fileId()));
+    }
+
+    @Test
+    void dropsIdleUploads() throws IOException {
+        final String idle = store.beginUpload("alice", "idle.txt", 10);
+        final Path part = directory.resolve("incoming").resolve(idle + ".part");
+
+        assertEquals(0, store.expireIdleUploads(System.nanoTime()));
+        assertEquals(1, store.expireIdleUploads(System.nanoTime() + IDLE_TIMEOUT.toNanos()));
+
+        assertFalse(Files.exists(part));
+        assertThrows(IOException.class, () -> store.writeChunk(idle, 0, utf8("late")));
+        assertThrows(IOException.class, () -> store.completeUpload(idle));
+    }
+
+    @Test
+    void keepsUploadsReceivingChunks() throws IOException, InterruptedException {
+        final String uploadId = store.beginUpload("alice", "active.txt", 2);
+        final long begunAt = System.nanoTime();
+
+        Thread.sleep(10);
+        store.writeChunk(uploadId, 0, utf8("a"));
+
+        assertEquals(0, store.expireIdleUploads(begunAt + IDLE_TIMEOUT.toNanos()));
+
+        store.writeChunk(uploadId, 1, utf8("b"));
+        assertArrayEquals(utf8("ab"), store.readChunk(store.completeUpload(uploadId).fileId(), 0, 1024));
+    }
+
+    @Test
+    void deletesPartFilesLeftOverByARestart() throws IOException {
+        final String uploadId = store.beginUpload("alice", "interrupted.txt", 10);
+
+        store.writeChunk(uploadId, 0, utf8("half"));
+        store.close();
+        store = open(directory);
+
+        try (final Stream<Path> parts = Files.list(directory.resolve("incoming"))) {
+            assertEquals(0, parts.count());
+        }
+
+        assertThrows(IOException.class, () -> store.receivedBytes(uploadId));
+    }
+
+    private static AttachmentStore open(Path directory) throws IOException {
+        return new AttachmentStore(directory, 1024 * 1024, 1024 * 1024, 64 * 1024, 64, 1, IDLE_TIMEOUT);
+    }
+
+    private FileReference upload(String fileName, String content) throws IOException {
+        final byte[] bytes = utf8(content);
+        final String uploadId = store.beginUpload("alice", fileName, bytes.length);
+
+        store.writeChunk(uploadId, 0, bytes);
+        return store.completeUpload(uploadId);
+    }
+
+    private void setUploadedAt(FileReference file, long millis) throws IOException {
+        final Path blob = directory.resolve("blobs").resolve(file.fileId().substring(0, 2)).resolve(file.fileId());
+
+        Files.setLastModifiedTime(blob, FileTime.fromMillis(millis));
+    }
+
+    private static byte[] utf8(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,86 @@
+package me.mouad.files;
+
+import me.mouad.api.FileReference;
+import me.mouad.api.Server;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class FileTransfersTest {
+
+    private static final String FILE_ID = "ab".repeat(32);
+    private static final byte[] CONTENT = "shared content".getBytes(StandardCharsets.UTF_8);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void downloadsIntoAFolderPerFile() throws IOException {
+        final Path downloaded = download("notes.txt");
+
+        assertEquals(directory.resolve(FILE_ID).resolve("notes.txt"), downloaded);
+        assertArrayEquals(CONTENT, Files.readAllBytes(downloaded));
+    }
+
+    @Test
+    void keepsOnlyTheLastElementOfTheName() throws IOException {
+        final Path downloads = Files.createDirectories(directory.resolve("downloads"));
+
+        assertEquals(downloads.resolve(FILE_ID).resolve(".bashrc"), download("../../.bashrc", downloads));
+        assertEquals(downloads.resolve(FILE_ID).resolve("passwd"), download("/etc/passwd", downloads));
+
+        try (final Stream<Path> written = Files.list(directory)) {
+            assertEquals(List.of(downloads), written.toList());
+        }
+    }
+
+    @Test
+    void rejectsNamesWithoutAFile() {
+        for (String name : Arrays.asList(null, "", "/", ".", "..", "a/..")) {
+            assertThrows(IOException.class, () -> download(name), String.valueOf(name));
+        }
+    }
+
+    @Test
+    void rejectsIdsThatAreNotHashes() {
+        for (String fileId : Arrays.asList(null, "..", "../" + FILE_ID.substring(3), FILE_ID.toUpperCase())) {
+            final FileReference file = new FileReference(fileId, "notes.txt", CONTENT.length, "mallory");
+
+            assertThrows(IOException.class, () -> FileTransfers.download(server(), file, directory), String.valueOf(fileId));
+        }
+    }
+
+    private Path download(String fileName) throws IOException {
+        return download(fileName, directory);
+    }
+
+    private static Path download(String fileName, Path directory) throws IOException {
+        return FileTransfers.download(server(), new FileReference(FILE_ID, fileName, CONTENT.length, "mallory"), directory);
+    }
+
+    /**
+     * @return a server holding {@link #CONTENT} under every id
+     */
+    private static Server server() {
+        return (Server) Proxy.newProxyInstance(Server.class.getClassLoader(), new Class<?>[]{Server.class},
+                (_, method, args) -> {
+                    if (!method.getName().equals("downloadChunk")) throw new UnsupportedOperationException(method.getName());
+
+                    final int from = (int) Math.min((long) args[1], CONTENT.length);
+
+                    return Arrays.copyOfRange(CONTENT, from, Math.min(from + (int) args[2], CONTENT.length));
+                });
+    }
+}
@@ -0,0 +1,124 @@
+package me.mouad.history;
+
+import me.mouad.api.ChatMessage;
+import me.mouad.api.FileReference;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class MessageCodecTest {
+
+    private static final String FILE_ID = "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08";
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void roundTripsEveryKindOfMessage() throws IOException {
+        final MessageRecord text = MessageRecord.text("alice", "héllo wörld ✓");
+        final MessageRecord empty = MessageRecord.text("bob", "");
+        final MessageRecord file = MessageRecord.file(new FileReference(FILE_ID, "report.pdf", 123_456_789L, "alice"));
+        final MessageRecord unstored = new MessageRecord("carol", ChatMessage.Kind.FILE, "old.txt", null);
+
+        try (final MessageCodec codec = MessageCodec.open(directory, false)) {
+            for (MessageRecord message : new MessageRecord[] {text, empty, file, unstored}) {
+                assertEquals(message, codec.decode(codec.encode(message)));
+            }
+        }
+    }
+
+    @Test
+    void keepsSenderIdsAcrossReopen() throws IOException {
+        final byte[][] payloads = new byte[300][];
+
+        try (final MessageCodec codec = MessageCodec.open(directory, false)) {
+            // Enough senders for ids that take several varint bytes
+            for (int i = 0; i < payloads.length; i++) {
+                payloads[i] = codec.encode(MessageRecord.text("user-" + i, "message " + i));
+            }
+        }
+
+        try (final MessageCodec codec = MessageCodec.open(directory, false)) {
+            for (int i = 0; i < payloads.length; i++) {
+                assertEquals(MessageRecord.text("user-" + i, "message " + i), codec.decode(payloads[i]));
+            }
+
+            assertEquals(payloads[7].length, codec.encode(MessageRecord.text("user-7", "message 7")).length);
+        }
+    }
+
+    @Test
+    void internsSenderNames() throws IOException {
+        try (final MessageCodec codec = MessageCodec.open(directory, false)) {
+            final byte[] first = codec.encode(MessageRecord.text("alice", "one"));
+            final byte[] second = codec.encode(MessageRecord.text("alice", "two"));
+
+            assertSame(codec.decode(first).sender(), codec.decode(second).sender());
+        }
+    }
+
+    @Test
+    void dropsATornSenderEntryOnReopen() throws IOException {
+        final byte[] payload;
+
+        try (final MessageCodec codec = MessageCodec.open(directory, false)) {
+            payload = codec.encode(MessageRecord.text("alice", "hi"));
+        }
+
+        final Path table = directory.resolve(SenderTable.FILE_NAME);
+        final long size = Files.size(table);
+
+        // The length of a name made it to disk, the name did not
+        Files.write(table, new byte[] {0, 5, 'b'}, StandardOpenOption.APPEND);
+
+        try (final MessageCodec codec = MessageCodec.open(directory, false)) {
+            assertEquals(size, Files.size(table));
+            assertEquals("alice", codec.decode(payload).sender());
+            assertEquals("bob", codec.decode(codec.encode(MessageRecord.text("bob", "hey"))).sender());
+        }
+    }
+
+    @Test
+    void decodesLegacyEntries() throws IOException {
+        final String blob = "#Blob " + FILE_ID + " 42 " + encode("al ice") + " " + encode("my file.txt");
+
+        try (final MessageCodec codec = MessageCodec.open(directory, false)) {
+            assertEquals(MessageRecord.text("alice", "hi: there"), codec.decode(utf8("alice: hi: there")));
+            assertEquals(MessageRecord.text("", "no sender"), codec.decode(utf8("no sender")));
+            assertEquals(MessageRecord.file(new FileReference(FILE_ID, "my file.txt", 42, "al ice")), codec.decode(utf8(blob)));
+            assertEquals(new MessageRecord("bob", ChatMessage.Kind.FILE, "notes.txt", null),
+                    codec.decode(utf8("#Attached notes.txt bob")));
+        }
+    }
+
+    @Test
+    void findsReferencedFilesWithoutTheSenderTable() throws IOException {
+        try (final MessageCodec codec = MessageCodec.open(directory, false)) {
+            assertEquals(FILE_ID, MessageCodec.referencedFile(
+                    codec.encode(MessageRecord.file(new FileReference(FILE_ID, "a.bin", 1, "alice")))));
+            assertNull(MessageCodec.referencedFile(codec.encode(MessageRecord.text("alice", FILE_ID))));
+            assertNull(MessageCodec.referencedFile(codec.encode(new MessageRecord("alice", ChatMessage.Kind.FILE, "a.bin", null))));
+        }
+
+        assertEquals(FILE_ID, MessageCodec.referencedFile(utf8("#Blob " + FILE_ID + " 42 alice a.bin")));
+        assertNull(MessageCodec.referencedFile(utf8("alice: #Blob " + FILE_ID)));
+    }
+
+    private static byte[] utf8(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String encode(String text) {
+        return URLEncoder.encode(text, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,150 @@
+package me.mouad.history;
+
+import me.mouad.api.FileReference;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MessageLogRetentionTest {
+
+    private static final long SEGMENT_BYTES = 1024;
+    private static final int RECORDS = 200;
+
+    @TempDir
+    Path directory;
+
+    private MessageCodec codec;
+    private MessageLog log;
+
+    @BeforeEach
+    void open() throws IOException {
+        codec = MessageCodec.open(directory, false);
+        log = new MessageLog(directory.resolve("log"), SEGMENT_BYTES, false);
+        append(1, RECORDS);
+    }
+
+    @AfterEach
+    void close() throws IOException {
+        log.close();
+        codec.close();
+    }
+
+    @Test
+    void keepsEverythingWithoutLimits() throws IOException {
+        final MessageLog.Compaction compaction = compact(RetentionPolicy.UNLIMITED, now());
+
+        assertEquals(0, compaction.deletedSegments());
+        assertEquals(1, compaction.firstSequence());
+        assertEquals(filesOf(1, RECORDS), compaction.references());
+    }
+
+    @Test
+    void keepsAtLeastMaxRecords() throws IOException {
+        final MessageLog.Compaction compaction = compact(new RetentionPolicy(0, 50, 0), now());
+        final long kept = RECORDS - compaction.firstSequence() + 1;
+
+        assertTrue(compaction.deletedSegments() > 0);
+        assertTrue(kept >= 50 && kept < 50 + recordsPerSegment(), "Kept " + kept + " records");
+        assertEquals(compaction.firstSequence() - 1, compaction.deletedRecords());
+        assertEquals(compaction.firstSequence(), log.firstSequence());
+        assertEquals(compaction.firstSequence(), log.read(1, 1).getFirst().sequence());
+        assertEquals(filesOf(compaction.firstSequence(), RECORDS), compaction.references());
+    }
+
+    @Test
+    void keepsAtLeastMaxBytes() throws IOException {
+        final long before = log.sizeBytes();
+        final MessageLog.Compaction compaction = compact(new RetentionPolicy(0, 0, 4096), now());
+
+        assertTrue(compaction.deletedSegments() > 0);
+        assertEquals(before - compaction.deletedBytes(), log.sizeBytes());
+        assertTrue(log.sizeBytes() >= 4096 && log.sizeBytes() < 4096 + SEGMENT_BYTES + 100, "Kept " + log.sizeBytes() + " bytes");
+    }
+
+    @Test
+    void neverDeletesTheSegmentBeingWritten() throws IOException {
+        final long inAnHour = now() + TimeUnit.HOURS.toMillis(1);
+        final MessageLog.Compaction compaction = compact(new RetentionPolicy(1000, 0, 0), inAnHour);
+
+        assertTrue(compaction.firstSequence() > 1);
+        assertEquals(RECORDS, log.read(compaction.firstSequence(), RECORDS).getLast().sequence());
+        assertEquals(RECORDS + 1, log.append(codec.encode(MessageRecord.text("alice", "after"))).join().sequence());
+    }
+
+    @Test
+    void keepsSegmentsYoungerThanMaxAge() throws IOException {
+        assertEquals(0, compact(new RetentionPolicy(TimeUnit.HOURS.toMillis(1), 0, 0), now()).deletedSegments());
+    }
+
+    @Test
+    void countsRecordsAppendedSinceTheLastCompaction() throws IOException {
+        compact(new RetentionPolicy(0, 10 * RECORDS, 0), now());
+        append(RECORDS + 1, 2 * RECORDS);
+
+        final MessageLog.Compaction compaction = compact(new RetentionPolicy(0, 50, 0), now());
+        final long kept = 2 * RECORDS - compaction.firstSequence() + 1;
+
+        assertTrue(kept >= 50 && kept < 50 + recordsPerSegment(), "Kept " + kept + " records");
+        assertEquals(filesOf(compaction.firstSequence(), 2 * RECORDS), compaction.references());
+    }
+
+    @Test
+    void compactsALogNobodyHasOpen() throws IOException {
+        log.close();
+
+        final MessageLog.Compaction compaction = MessageLog.compact(directory.resolve("log"),
+                new RetentionPolicy(0, 50, 0), now(), MessageCodec::referencedFile);
+
+        log = new MessageLog(directory.resolve("log"), SEGMENT_BYTES, false);
+
+        assertTrue(compaction.deletedSegments() > 0);
+        assertEquals(compaction.firstSequence(), log.firstSequence());
+        assertEquals(RECORDS, log.lastSequence());
+        assertEquals(filesOf(compaction.firstSequence(), RECORDS), compaction.references());
+    }
+
+    private MessageLog.Compaction compact(RetentionPolicy policy, long nowMillis) throws IOException {
+        return log.compact(policy, nowMillis, MessageCodec::referencedFile);
+    }
+
+    /**
+     * Appends a file message for every sequence in {@code [from, to]}, each referencing its own blob.
+     */
+    private void append(long from, long to) throws IOException {
+        CompletableFuture<LogRecord> last = null;
+
+        for (long sequence = from; sequence <= to; sequence++) {
+            last = log.append(codec.encode(MessageRecord.file(new FileReference(fileOf(sequence), "f", sequence, "alice"))));
+        }
+
+        last.join();
+    }
+
+    private long recordsPerSegment() {
+        return SEGMENT_BYTES / (log.sizeBytes() / log.lastSequence()) + 1;
+    }
+
+    private static Set<String> filesOf(long from, long to) {
+        return LongStream.rangeClosed(from, to).mapToObj(MessageLogRetentionTest::fileOf).collect(Collectors.toSet());
+    }
+
+    private static String fileOf(long sequence) {
+        return String.format("%064x", sequence);
+    }
+
+    private static long now() {
+        return System.currentTimeMillis();
+    }
+}
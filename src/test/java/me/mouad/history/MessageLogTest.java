@@ -0,0 +1,174 @@
+package me.mouad.history;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MessageLogTest {
+
+    private static final long SEGMENT_BYTES = 512;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void readsAppendsBackInOrderAcrossSegments() throws IOException {
+        try (final MessageLog log = open()) {
+            appendAll(log, 100);
+
+            assertEquals(100, log.lastSequence());
+            assertContents(log.read(1, 1000), 1, 100);
+            assertContents(log.read(42, 5), 42, 46);
+        }
+
+        assertTrue(segmentFiles().size() > 1, "Expected the log to roll");
+    }
+
+    @Test
+    void resumesAfterTheLastRecordOnReopen() throws IOException {
+        try (final MessageLog log = open()) {
+            appendAll(log, 30);
+        }
+
+        try (final MessageLog log = open()) {
+            assertEquals(30, log.lastSequence());
+            assertEquals(31, log.append(payload(31)).join().sequence());
+            assertContents(log.read(1, 1000), 1, 31);
+        }
+    }
+
+    @Test
+    void cutsATornTailOnRecovery() throws IOException {
+        try (final MessageLog log = open()) {
+            appendAll(log, 20);
+        }
+
+        final Path tail = segmentFiles().getLast();
+        final long size = Files.size(tail);
+
+        // A crash in the middle of writing the last record
+        try (final FileChannel channel = FileChannel.open(tail, StandardOpenOption.WRITE)) {
+            channel.truncate(size - 3);
+        }
+
+        try (final MessageLog log = open()) {
+            assertEquals(19, log.lastSequence());
+            assertEquals(20, log.append(payload(20)).join().sequence());
+            assertContents(log.read(1, 1000), 1, 20);
+        }
+
+        assertEquals(size, Files.size(tail));
+    }
+
+    @Test
+    void dropsARecordFailingItsChecksumOnRecovery() throws IOException {
+        try (final MessageLog log = open()) {
+            appendAll(log, 20);
+        }
+
+        final Path tail = segmentFiles().getLast();
+
+        // A partially written last record: its length and checksum made it, its payload did not
+        try (final FileChannel channel = FileChannel.open(tail, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] {0}), Files.size(tail) - 1);
+        }
+
+        try (final MessageLog log = open()) {
+            assertEquals(19, log.lastSequence());
+            assertContents(log.read(1, 1000), 1, 19);
+        }
+    }
+
+    @Test
+    void ignoresGarbageAfterTheLastRecord() throws IOException {
+        try (final MessageLog log = open()) {
+            appendAll(log, 5);
+        }
+
+        final Path tail = segmentFiles().getLast();
+        final long size = Files.size(tail);
+
+        Files.write(tail, new byte[] {0, 0, 0, 100, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        try (final MessageLog log = open()) {
+            assertEquals(5, log.lastSequence());
+        }
+
+        assertEquals(size, Files.size(tail));
+    }
+
+    @Test
+    void keepsReplicaSequencesAcrossAGap() throws IOException {
+        try (final MessageLog log = open()) {
+            log.appendReplica(new LogRecord(1, 1, payload(1))).join();
+            log.skipTo(50);
+            log.appendReplica(new LogRecord(50, 2, payload(50))).join();
+
+            assertThrows(IllegalArgumentException.class, () -> log.appendReplica(new LogRecord(52, 3, payload(52))));
+        }
+
+        try (final MessageLog log = open()) {
+            assertEquals(50, log.lastSequence());
+            assertEquals(List.of(1L, 50L), log.read(1, 1000).stream().map(LogRecord::sequence).toList());
+        }
+    }
+
+    @Test
+    void failsAppendsOnceClosed() throws IOException {
+        final MessageLog log = open();
+
+        log.close();
+
+        final CompletableFuture<LogRecord> append = log.append(payload(1));
+
+        assertThrows(CompletionException.class, append::join);
+    }
+
+    private MessageLog open() throws IOException {
+        return new MessageLog(directory, SEGMENT_BYTES, false);
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        try (final Stream<Path> files = Files.list(directory)) {
+            return files.filter(LogSegment::isSegment).sorted().toList();
+        }
+    }
+
+    private static void appendAll(MessageLog log, int count) {
+        CompletableFuture<LogRecord> last = null;
+
+        for (int i = 1; i <= count; i++) {
+            last = log.append(payload(i));
+        }
+
+        last.join();
+    }
+
+    private static byte[] payload(long sequence) {
+        return ("message " + sequence).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void assertContents(List<LogRecord> records, long from, long to) {
+        assertEquals(to - from + 1, records.size());
+
+        for (int i = 0; i < records.size(); i++) {
+            assertEquals(from + i, records.get(i).sequence());
+            assertEquals("message " + (from + i), new String(records.get(i).payload(), StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package me.mouad.lease;
+
+import me.mouad.api.Client;
+import me.mouad.delivery.DisconnectHandler;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LeaseManagerTest {
+
+    private static final Duration LEASE = Duration.ofMillis(100);
+
+    private record Eviction(String username, Client client, String thread) {}
+
+    private final BlockingQueue<Eviction> evictions = new LinkedBlockingQueue<>();
+
+    private LeaseManager leases;
+
+    @AfterEach
+    void close() {
+        leases.close();
+    }
+
+    @Test
+    void evictsTheSessionHoldingAnExpiredLease() throws InterruptedException {
+        final Client client = client();
+
+        leases = new LeaseManager(LEASE, recording());
+        leases.renew("alice", client);
+
+        final Eviction eviction = evictions.poll(10, TimeUnit.SECONDS);
+
+        assertSame(client, eviction.client());
+        assertNotEquals("lease-sweeper", eviction.thread());
+        assertFalse(leases.renewIfHeld("alice"));
+    }
+
+    @Test
+    void keepsSweepingWhileAnEvictionBlocks() throws InterruptedException {
+        final CountDownLatch blocked = new CountDownLatch(1);
+
+        leases = new LeaseManager(LEASE, (username, client, reason, detectedAtNanos) -> {
+            if (username.equals("alice")) {
+                awaitQuietly(blocked);
+            }
+
+            evictions.add(new Eviction(username, client, Thread.currentThread().getName()));
+        });
+        leases.renew("alice", client());
+        Thread.sleep(LEASE.multipliedBy(3).toMillis());
+        leases.renew("bob", client());
+
+        try {
+            assertEquals("bob", evictions.poll(10, TimeUnit.SECONDS).username());
+        } finally {
+            blocked.countDown();
+        }
+    }
+
+    @Test
+    void releasingAStaleSessionKeepsTheLeaseOfTheNewOne() {
+        final Client stale = client();
+        final Client current = client();
+
+        leases = new LeaseManager(Duration.ofDays(1), recording());
+        leases.renew("alice", stale);
+        leases.renew("alice", current);
+        leases.release("alice", stale);
+
+        assertTrue(leases.renewIfHeld("alice"));
+
+        leases.release("alice", current);
+
+        assertFalse(leases.renewIfHeld("alice"));
+    }
+
+    @Test
+    void renewingKeepsTheSessionHoldingTheLease() throws InterruptedException {
+        final Client client = client();
+
+        leases = new LeaseManager(Duration.ofDays(1), recording());
+        leases.renew("alice", client);
+        leases.renewIfHeld("alice");
+        leases.sweep();
+
+        assertNull(evictions.poll(LEASE.toMillis(), TimeUnit.MILLISECONDS));
+        assertTrue(leases.renewIfHeld("alice"));
+    }
+
+    private DisconnectHandler recording() {
+        return (username, client, reason, detectedAtNanos) ->
+                evictions.add(new Eviction(username, client, Thread.currentThread().getName()));
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return a distinct client that ignores every call, as leases only compare clients by identity
+     */
+    private static Client client() {
+        return (Client) Proxy.newProxyInstance(Client.class.getClassLoader(), new Class<?>[]{Client.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "equals" -> proxy == args[0];
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    default -> null;
+                });
+    }
+}
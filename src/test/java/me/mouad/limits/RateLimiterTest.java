@@ -0,0 +1,59 @@
+package me.mouad.limits;
+
+import me.mouad.api.RateLimitException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RateLimiterTest {
+
+    private final List<RateLimiter.Limit> rejected = new ArrayList<>();
+    private final RateLimiter limiter = new RateLimiter("test", Map.of(
+            RateLimiter.Limit.USER_MESSAGES, new RateLimit(0.001, 2),
+            RateLimiter.Limit.ROOM_MESSAGES, new RateLimit(0.001, 1)), rejected::add);
+
+    @AfterEach
+    void close() {
+        limiter.close();
+    }
+
+    @Test
+    void refundsTheLimitsARefusedRequestPassed() throws RateLimitException {
+        limiter.acquireMessage("alice", "general", 10);
+
+        final RateLimitException refused = assertThrows(RateLimitException.class,
+                () -> limiter.acquireMessage("alice", "general", 10));
+
+        assertTrue(refused.retryAfterMillis() > 0);
+        assertEquals(List.of(RateLimiter.Limit.ROOM_MESSAGES), rejected);
+
+        // The second message of alice was given back when the room refused it
+        assertDoesNotThrow(() -> limiter.acquireMessage("alice", "random", 10));
+        assertThrows(RateLimitException.class, () -> limiter.acquireMessage("alice", "other", 10));
+        assertEquals(RateLimiter.Limit.USER_MESSAGES, rejected.getLast());
+    }
+
+    @Test
+    void chargesEmptyUploadsAFixedCost() {
+        try (final RateLimiter uploads = new RateLimiter("uploads", Map.of(RateLimiter.Limit.USER_UPLOAD_BYTES,
+                new RateLimit(0.001, 2 * RateLimiter.MIN_UPLOAD_CHARGE_BYTES)), rejected::add)) {
+            assertDoesNotThrow(() -> uploads.acquireUpload("alice", 0));
+            assertDoesNotThrow(() -> uploads.acquireUpload("alice", 1));
+            assertThrows(RateLimitException.class, () -> uploads.acquireUpload("alice", 0));
+        }
+    }
+
+    @Test
+    void leavesUnsetLimitsUnlimited() {
+        assertTrue(limiter.limit(RateLimiter.Limit.USER_UPLOAD_BYTES).isUnlimited());
+        assertDoesNotThrow(() -> limiter.acquireUpload("alice", Long.MAX_VALUE / 2));
+    }
+}
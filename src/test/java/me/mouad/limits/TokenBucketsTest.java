@@ -0,0 +1,119 @@
+package me.mouad.limits;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TokenBucketsTest {
+
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    // A token every 100 ms, up to 5 at once
+    private final TokenBuckets buckets = new TokenBuckets(new RateLimit(10, 5));
+
+    @Test
+    void grantsTheBurstAtOnce() {
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, buckets.take("alice", 1, 0));
+        }
+
+        assertEquals(100 * MILLIS, buckets.take("alice", 1, 0));
+        assertEquals(50 * MILLIS, buckets.take("alice", 1, 50 * MILLIS));
+    }
+
+    @Test
+    void refillsAtTheRate() {
+        assertEquals(0, buckets.take("alice", 5, 0));
+        assertEquals(100 * MILLIS, buckets.take("alice", 1, 0));
+
+        assertEquals(0, buckets.take("alice", 1, 100 * MILLIS));
+        assertEquals(0, buckets.take("alice", 2, 300 * MILLIS));
+        assertEquals(100 * MILLIS, buckets.take("alice", 1, 300 * MILLIS));
+    }
+
+    @Test
+    void refusesWithoutTakingAnything() {
+        assertEquals(0, buckets.take("alice", 5, 0));
+
+        // However often it is retried, it only waits for the tokens it lacks
+        for (int i = 0; i < 10; i++) {
+            assertEquals(300 * MILLIS, buckets.take("alice", 3, 0));
+        }
+
+        assertEquals(0, buckets.take("alice", 3, 300 * MILLIS));
+    }
+
+    @Test
+    void letsAFullBucketGrantMoreThanItsBurst() {
+        assertEquals(0, buckets.take("alice", 50, 0));
+
+        // Paid back before anything else is granted
+        assertEquals(4600 * MILLIS, buckets.take("alice", 1, 0));
+        assertEquals(0, buckets.take("alice", 1, 4600 * MILLIS));
+    }
+
+    @Test
+    void keepsOneBucketPerKey() {
+        assertEquals(0, buckets.take("alice", 5, 0));
+        assertEquals(0, buckets.take("bob", 5, 0));
+        assertEquals(100 * MILLIS, buckets.take("alice", 1, 0));
+    }
+
+    @Test
+    void refundsTakenTokens() {
+        assertEquals(0, buckets.take("alice", 5, 0));
+
+        buckets.refund("alice", 2);
+
+        assertEquals(0, buckets.take("alice", 2, 0));
+        assertEquals(100 * MILLIS, buckets.take("alice", 1, 0));
+    }
+
+    @Test
+    void appliesLimitChangesToExistingBuckets() {
+        assertEquals(0, buckets.take("alice", 5, 0));
+
+        buckets.limit(RateLimit.UNLIMITED);
+
+        assertEquals(0, buckets.take("alice", 1000, 0));
+
+        buckets.limit(new RateLimit(10, 10));
+
+        assertEquals(0, buckets.take("alice", 5, 0));
+        assertEquals(100 * MILLIS, buckets.take("alice", 1, 0));
+    }
+
+    @Test
+    void sweepsOnlyFullBuckets() {
+        buckets.take("alice", 1, 0);
+        buckets.take("bob", 5, 0);
+
+        buckets.sweep(100 * MILLIS);
+
+        assertEquals(1, buckets.size());
+
+        buckets.sweep(500 * MILLIS);
+
+        assertEquals(0, buckets.size());
+    }
+
+    @Test
+    void grantsExactlyTheBurstToConcurrentTakers() {
+        final TokenBuckets large = new TokenBuckets(new RateLimit(1, 1000));
+        final AtomicInteger granted = new AtomicInteger();
+
+        IntStream.range(0, 8).parallel().forEach(thread -> {
+            for (int i = 0; i < 1000; i++) {
+                if (large.take("room", 1, 0) == 0) {
+                    granted.incrementAndGet();
+                }
+            }
+        });
+
+        assertEquals(1000, granted.get());
+    }
+}
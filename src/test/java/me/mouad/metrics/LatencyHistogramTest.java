@@ -0,0 +1,104 @@
+package me.mouad.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LatencyHistogramTest {
+
+    @Test
+    void reportsEveryValueWithinAnEighthOfItself() {
+        final SplittableRandom random = new SplittableRandom(42);
+
+        for (long value = 0; value < 100_000; value++) {
+            assertBucketHolds(value);
+        }
+
+        for (int shift = 3; shift < 63; shift++) {
+            assertBucketHolds((1L << shift) - 1);
+            assertBucketHolds(1L << shift);
+            assertBucketHolds((1L << shift) + 1);
+        }
+
+        for (int i = 0; i < 100_000; i++) {
+            assertBucketHolds(random.nextLong(Long.MAX_VALUE));
+        }
+
+        assertBucketHolds(Long.MAX_VALUE);
+    }
+
+    @Test
+    void ordersBucketsLikeTheirValues() {
+        int previous = LatencyHistogram.bucketOf(0);
+
+        for (long value = 1; value < 1_000_000; value++) {
+            final int bucket = LatencyHistogram.bucketOf(value);
+
+            assertTrue(bucket == previous || bucket == previous + 1, "Bucket of " + value + " skips from " + previous);
+            previous = bucket;
+        }
+    }
+
+    @Test
+    void computesPercentilesFromBucketBounds() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+
+        for (int micros = 1; micros <= 1000; micros++) {
+            histogram.record(micros * 1000L);
+        }
+
+        final LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+
+        assertEquals(1000, snapshot.count());
+        assertEquals(500.5, snapshot.meanMicros(), 1e-9);
+        assertEquals(1000, snapshot.maxMicros(), 1e-9);
+        assertWithinAnEighth(500, snapshot.p50());
+        assertWithinAnEighth(900, snapshot.p90());
+        assertWithinAnEighth(990, snapshot.p99());
+        assertWithinAnEighth(999, snapshot.p999());
+    }
+
+    @Test
+    void recordsNegativeDurationsAsZero() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+
+        histogram.record(-5);
+
+        assertEquals(new LatencyHistogram.Snapshot(1, 0, 0, 0, 0, 0, 0), histogram.snapshot());
+    }
+
+    @Test
+    void reportsNothingBeforeTheFirstValue() {
+        assertEquals(new LatencyHistogram.Snapshot(0, 0, 0, 0, 0, 0, 0), new LatencyHistogram().snapshot());
+    }
+
+    @Test
+    void countsConcurrentRecordings() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+
+        IntStream.range(0, 8).parallel().forEach(thread -> {
+            for (int i = 0; i < 100_000; i++) {
+                histogram.record(i);
+            }
+        });
+
+        assertEquals(800_000, histogram.snapshot().count());
+    }
+
+    private static void assertBucketHolds(long value) {
+        final int bucket = LatencyHistogram.bucketOf(value);
+        final long upper = LatencyHistogram.upperBoundOf(bucket);
+        final long lower = bucket == 0 ? 0 : LatencyHistogram.upperBoundOf(bucket - 1) + 1;
+
+        assertTrue(lower <= value && value <= upper, value + " outside of bucket " + bucket + " [" + lower + ", " + upper + "]");
+        assertTrue(upper - value <= value / 8, "Bucket of " + value + " reaches " + upper);
+    }
+
+    private static void assertWithinAnEighth(double expected, double actual) {
+        assertTrue(actual >= expected && actual <= expected * 1.125, "Expected about " + expected + " but got " + actual);
+    }
+}
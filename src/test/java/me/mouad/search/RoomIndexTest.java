@@ -0,0 +1,71 @@
+package me.mouad.search;
+
+import me.mouad.api.ChatMessage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RoomIndexTest {
+
+    private static final int FLUSHED = 20;
+    private static final int DOCUMENTS = 30;
+
+    @TempDir
+    Path directory;
+
+    private RoomIndex index;
+
+    /**
+     * Documents 1 to 20 in a segment, 21 to 30 in memory; even ones contain "even", every third "fizz".
+     */
+    @BeforeEach
+    void open() throws IOException {
+        index = RoomIndex.open("general", directory);
+
+        for (int sequence = 1; sequence <= DOCUMENTS; sequence++) {
+            final String content = (sequence % 2 == 0 ? "even" : "odd") + (sequence % 3 == 0 ? " fizz" : "");
+
+            index.add(new ChatMessage("general", sequence, 1000L * sequence, "alice", ChatMessage.Kind.TEXT, content, null));
+
+            if (sequence == FLUSHED) {
+                index.flush();
+            }
+        }
+    }
+
+    @Test
+    void intersectsTermsAcrossSegmentsAndMemory() {
+        assertEquals(List.of(30L, 24L, 18L, 12L, 6L), search(List.of("even", "fizz"), 100));
+        assertEquals(List.of(30L, 24L, 18L, 12L, 6L), search(List.of("fizz", "even"), 100));
+    }
+
+    @Test
+    void returnsTheNewestMatchesFirst() {
+        assertEquals(List.of(30L, 28L, 26L), search(List.of("even"), 3));
+    }
+
+    @Test
+    void findsNothingWhenATermIsMissing() {
+        assertEquals(List.of(), search(List.of("even", "buzz"), 100));
+        assertEquals(List.of(), search(List.of("even", "odd"), 100));
+    }
+
+    @Test
+    void matchesEveryDocumentWithoutTerms() {
+        assertEquals(List.of(30L, 29L), search(List.of(), 2));
+    }
+
+    private List<Long> search(List<String> terms, int limit) {
+        final List<SearchHit> hits = new ArrayList<>();
+
+        index.search(terms, Long.MIN_VALUE, Long.MAX_VALUE, limit, hits);
+        return hits.stream().map(SearchHit::sequence).toList();
+    }
+}
@@ -0,0 +1,140 @@
+package me.mouad.transport;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FrameCompressionTest {
+
+    private final FrameCompression compression = new FrameCompression(Deflater.BEST_SPEED, 512,
+            FrameCompression.DEFAULT_CACHE_BYTES);
+
+    @Test
+    void roundTripsCompressibleBodies() throws IOException {
+        final byte[] text = chatText(64 * 1024);
+
+        for (ByteBuffer body : List.of(ByteBuffer.wrap(text), ByteBuffer.allocateDirect(text.length).put(text).flip())) {
+            final byte[] compressed = compression.compress(body);
+
+            assertNotNull(compressed);
+            assertTrue(compressed.length < text.length / 2, "Compressed to " + compressed.length);
+            assertEquals(0, body.position(), "The body was consumed");
+            assertArrayEquals(text, inflate(compressed, text.length));
+        }
+    }
+
+    @Test
+    void sendsSmallBodiesAsIs() {
+        assertNull(compression.compress(ByteBuffer.wrap(chatText(511))));
+        assertNotNull(compression.compress(ByteBuffer.wrap(chatText(512))));
+    }
+
+    @Test
+    void sendsIncompressibleBodiesAsIs() {
+        // Small enough to be deflated whole, and large enough to be rejected on its probe
+        assertNull(compression.compress(ByteBuffer.wrap(randomBytes(2048))));
+        assertNull(compression.compress(ByteBuffer.wrap(randomBytes(1024 * 1024))));
+    }
+
+    @Test
+    void rejectsLargeBodiesOnTheirProbe() {
+        final byte[] body = randomBytes(64 * 1024);
+        final byte[] text = chatText(body.length - 4096);
+
+        // Compressible after its first bytes, like media with a text trailer
+        System.arraycopy(text, 0, body, 4096, text.length);
+
+        assertNull(compression.compress(ByteBuffer.wrap(body)));
+    }
+
+    @Test
+    void compressesSharedBodiesOnce() {
+        final ByteBuffer body = ByteBuffer.wrap(chatText(4096));
+        final byte[] first = compression.compress("message-1", body);
+
+        assertSame(first, compression.compress("message-1", body));
+        assertNotSame(first, compression.compress("message-2", body));
+
+        final ByteBuffer random = ByteBuffer.wrap(randomBytes(4096));
+
+        assertNull(compression.compress("random", random));
+        assertNull(compression.compress("random", random));
+    }
+
+    @Test
+    void evictsSharedBodiesBeyondTheCacheSize() {
+        final ByteBuffer first = ByteBuffer.wrap(chatText(4096));
+        final ByteBuffer second = ByteBuffer.wrap(chatText(8192));
+        // Room for either, not both
+        final FrameCompression small = new FrameCompression(Deflater.BEST_SPEED, 512,
+                compression.compress(first).length + compression.compress(second).length - 1);
+        final byte[] cached = small.compress("message-1", first);
+
+        assertSame(cached, small.compress("message-1", first));
+
+        small.compress("message-2", second);
+
+        assertNotSame(cached, small.compress("message-1", first));
+    }
+
+    @Test
+    void negotiatesOnlyWhenEnabled() {
+        assertEquals(FrameCompression.DEFLATE, compression.negotiate(List.of("zstd", FrameCompression.DEFLATE)));
+        assertNull(compression.negotiate(List.of("zstd")));
+        assertNull(FrameCompression.DISABLED.negotiate(List.of(FrameCompression.DEFLATE)));
+        assertNull(FrameCompression.DISABLED.compress(ByteBuffer.wrap(chatText(64 * 1024))));
+    }
+
+    @Test
+    void rejectsFramesNotMatchingTheirLength() {
+        final byte[] text = chatText(8192);
+        final byte[] compressed = compression.compress(ByteBuffer.wrap(text));
+
+        assertThrows(IOException.class, () -> inflate(compressed, text.length + 1));
+        assertThrows(IOException.class, () -> inflate(compressed, text.length - 1));
+        assertThrows(IOException.class, () -> inflate(randomBytes(100), text.length));
+    }
+
+    @Test
+    void rejectsInvalidLevels() {
+        assertThrows(IllegalArgumentException.class, () -> new FrameCompression(10, 512, 0));
+    }
+
+    private byte[] inflate(byte[] compressed, int length) throws IOException {
+        final ByteBuffer target = ByteBuffer.allocate(length);
+
+        compression.inflate(ByteBuffer.wrap(compressed), target);
+        return target.array();
+    }
+
+    private static byte[] chatText(int length) {
+        final StringBuilder text = new StringBuilder(length);
+
+        for (int i = 0; text.length() < length; i++) {
+            text.append("user-").append(i % 17).append(": message number ").append(i).append('\n');
+        }
+
+        return text.substring(0, length).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] randomBytes(int length) {
+        final byte[] bytes = new byte[length];
+
+        new SplittableRandom(7).nextBytes(bytes);
+        return bytes;
+    }
+}
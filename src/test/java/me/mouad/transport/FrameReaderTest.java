@@ -0,0 +1,60 @@
+package me.mouad.transport;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class FrameReaderTest {
+
+    @Test
+    void readsWhatFits() {
+        final FrameReader in = reader(ByteBuffer.allocate(64)
+                .putInt(3).put(new byte[]{1, 2, 3})
+                .putInt(-1)
+                .putInt(2).put("hi".getBytes(StandardCharsets.UTF_8))
+                .flip());
+
+        assertArrayEquals(new byte[]{1, 2, 3}, in.getBytes());
+        assertNull(in.getString());
+        assertEquals("hi", in.getString());
+    }
+
+    @Test
+    void rejectsLengthsBeyondTheFrame() {
+        assertThrows(IllegalArgumentException.class, () -> reader(prefix(Integer.MAX_VALUE)).getBytes());
+        assertThrows(IllegalArgumentException.class, () -> reader(prefix(Integer.MAX_VALUE)).getString());
+        assertThrows(IllegalArgumentException.class, () -> reader(prefix(5)).getString());
+    }
+
+    @Test
+    void rejectsNegativeLengths() {
+        assertThrows(IllegalArgumentException.class, () -> reader(prefix(-1)).getBytes());
+        assertThrows(IllegalArgumentException.class, () -> reader(prefix(-2)).getString());
+        assertThrows(IllegalArgumentException.class, () -> reader(prefix(Integer.MIN_VALUE)).getStrings());
+    }
+
+    @Test
+    void rejectsCountsTheFrameCannotHold() {
+        // Each string takes at least its 4 bytes length, so 4 bytes left cannot hold 2 of them
+        assertThrows(IllegalArgumentException.class, () -> reader(prefix(2)).getStrings());
+        assertThrows(IllegalArgumentException.class, () -> reader(prefix(Integer.MAX_VALUE)).getStrings());
+        assertThrows(IllegalArgumentException.class, () -> WireCodec.getMessages(reader(prefix(1))));
+    }
+
+    /**
+     * @return {@code value} followed by 4 more bytes
+     */
+    private static ByteBuffer prefix(int value) {
+        return ByteBuffer.allocate(8).putInt(value).putInt(0).flip();
+    }
+
+    private static FrameReader reader(ByteBuffer body) {
+        return new FrameReader(Opcode.UPLOAD_CHUNK, 1, body);
+    }
+}
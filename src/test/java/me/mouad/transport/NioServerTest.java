@@ -0,0 +1,77 @@
+package me.mouad.transport;
+
+import me.mouad.api.Server;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class NioServerTest {
+
+    private NioServer nioServer;
+
+    @BeforeEach
+    void start() throws IOException {
+        Logger.getLogger(NioServer.class.getName()).setLevel(Level.SEVERE);
+
+        final Server server = (Server) Proxy.newProxyInstance(Server.class.getClassLoader(), new Class<?>[]{Server.class},
+                (_, method, _) -> method.getName().equals("listRooms") ? List.of("general") : null);
+
+        nioServer = new NioServer(server, (_, _) -> {}, new InetSocketAddress("localhost", 0),
+                new BufferPool(64 * 1024, 4), FrameCompression.fromSystemProperties());
+    }
+
+    @AfterEach
+    void stop() throws IOException {
+        nioServer.close();
+    }
+
+    @Test
+    void closesConnectionsSendingAHugeLengthPrefix() throws IOException {
+        try (final Socket socket = connect()) {
+            // An upload chunk of a null upload at offset 0, claiming 2 GB of data in a 29 bytes frame
+            send(socket, Opcode.UPLOAD_CHUNK, ByteBuffer.allocate(16).putInt(-1).putLong(0).putInt(Integer.MAX_VALUE));
+
+            assertEquals(-1, socket.getInputStream().read(), "The connection was left open");
+        }
+
+        try (final Socket socket = connect()) {
+            send(socket, Opcode.LIST_ROOMS, ByteBuffer.allocate(0));
+
+            final ByteBuffer header = ByteBuffer.wrap(socket.getInputStream().readNBytes(FrameWriter.HEADER_BYTES));
+
+            header.getInt();
+            assertEquals(Opcode.RESPONSE.code(), header.get(), "The server stopped serving");
+        }
+    }
+
+    private Socket connect() throws IOException {
+        final Socket socket = new Socket("localhost", nioServer.port());
+
+        socket.setSoTimeout(10_000);
+        return socket;
+    }
+
+    private static void send(Socket socket, Opcode opcode, ByteBuffer body) throws IOException {
+        body.flip();
+
+        final ByteBuffer frame = ByteBuffer.allocate(FrameWriter.HEADER_BYTES + body.remaining())
+                .putInt(FrameWriter.HEADER_BYTES - Integer.BYTES + body.remaining())
+                .put(opcode.code())
+                .putInt(1)
+                .put(body);
+
+        socket.getOutputStream().write(frame.array());
+        socket.getOutputStream().flush();
+    }
+}
@@ -0,0 +1,38 @@
+package me.mouad.transport;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OpcodeTest {
+
+    @Test
+    void looksUpEveryOpcodeByItsCode() {
+        for (Opcode opcode : Opcode.values()) {
+            assertTrue(opcode.code() >= 0, opcode + " collides with the compression flag");
+            assertEquals(opcode, Opcode.of(opcode.code()));
+        }
+    }
+
+    @Test
+    void keepsTheCodesOfEarlierClients() {
+        assertEquals(0x00, Opcode.REGISTER.code());
+        assertEquals(0x0E, Opcode.FETCH_PRESENCE.code());
+        assertEquals(0x0F, Opcode.RESPONSE.code());
+        assertEquals(0x10, Opcode.ERROR.code());
+        assertEquals(0x12, Opcode.PUSH_MESSAGES.code());
+        assertEquals(0x15, Opcode.PUSH_HISTORY.code());
+        assertEquals(0x16, Opcode.SEARCH.code());
+        assertEquals(0x17, Opcode.HELLO.code());
+        assertEquals(0x18, Opcode.FETCH_THUMBNAIL.code());
+    }
+
+    @Test
+    void rejectsUnknownCodes() {
+        assertThrows(IllegalArgumentException.class, () -> Opcode.of((byte) 0x11));
+        assertThrows(IllegalArgumentException.class, () -> Opcode.of((byte) 0x7F));
+        assertThrows(IllegalArgumentException.class, () -> Opcode.of((byte) -1));
+    }
+}